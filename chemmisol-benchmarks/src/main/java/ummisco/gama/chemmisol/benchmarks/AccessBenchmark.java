@@ -0,0 +1,112 @@
+package ummisco.gama.chemmisol.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ummisco.gama.chemmisol.ChemicalComponent;
+import ummisco.gama.chemmisol.ChemicalSystem;
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+import ummisco.gama.chemmisol.ComponentHandle;
+import ummisco.gama.chemmisol.Reaction;
+import ummisco.gama.chemmisol.ReactionHandle;
+import ummisco.gama.chemmisol.SpeciesHandle;
+
+/**
+ * Benchmarks the fine grained native calls used to feed a solved system and
+ * read its results, by name and by handle.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessBenchmark {
+
+	/**
+	 * Set up and solved system.
+	 */
+	@State(Scope.Thread)
+	public static class SolvedSystem extends NetworkState {
+		ChemicalSystem system;
+		ChemicalComponent component;
+		ComponentHandle component_handle;
+		String species_name;
+		SpeciesHandle species_handle;
+		String reaction_name;
+		ReactionHandle reaction_handle;
+		double[] concentrations;
+
+		@Setup(Level.Trial)
+		public void build() throws ChemmisolCoreException {
+			system = BenchmarkNetwork.newSystem(mineral);
+			for(ChemicalComponent c : network.build(system, mineral))
+				if(c.getName().equals(network.variedComponent()))
+					component = c;
+			Reaction[] reactions = network.reactions(mineral);
+			reaction_name = reactions[reactions.length - 1].getName();
+			system.setUp();
+			system.solve();
+
+			component_handle = system.component(component.getName());
+			species_name = component.getName();
+			species_handle = system.species(species_name);
+			reaction_handle = system.reaction(reaction_name);
+			concentrations = new double[system.speciesCount()];
+		}
+
+		@TearDown(Level.Trial)
+		public void close() {
+			system.close();
+		}
+	}
+
+	@Benchmark
+	public void setTotalConcentrationByComponent(SolvedSystem state) {
+		state.system.setTotalConcentration(
+				state.component, state.component.getTotalConcentration());
+	}
+
+	@Benchmark
+	public void setTotalConcentrationByHandle(SolvedSystem state) {
+		state.system.setTotalConcentration(
+				state.component_handle, state.component.getTotalConcentration());
+	}
+
+	@Benchmark
+	public double concentrationByName(SolvedSystem state) {
+		return state.system.concentration(state.species_name);
+	}
+
+	@Benchmark
+	public double concentrationByHandle(SolvedSystem state) {
+		return state.system.concentration(state.species_handle);
+	}
+
+	@Benchmark
+	public double[] readConcentrations(SolvedSystem state) {
+		state.system.readConcentrations(state.concentrations);
+		return state.concentrations;
+	}
+
+	@Benchmark
+	public double reactionQuotientByName(SolvedSystem state) {
+		return state.system.reactionQuotient(state.reaction_name);
+	}
+
+	@Benchmark
+	public double reactionQuotientByHandle(SolvedSystem state) {
+		return state.system.reactionQuotient(state.reaction_handle);
+	}
+}
@@ -0,0 +1,232 @@
+package ummisco.gama.chemmisol.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ummisco.gama.chemmisol.ChemicalComponent;
+import ummisco.gama.chemmisol.ChemicalSystem;
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+import ummisco.gama.chemmisol.Phase;
+import ummisco.gama.chemmisol.Reaction;
+import ummisco.gama.chemmisol.Solvent;
+
+/**
+ * Reaction networks used by the benchmarks.
+ *
+ * <p>
+ * Each network can be built in an aqueous system, or in a mineral system, in
+ * which case surface complexation reactions are added to the network.
+ */
+public enum BenchmarkNetwork {
+	/**
+	 * Phosphate network of the unit tests, completed with the usual
+	 * phosphoric acid and surface complexation reactions.
+	 */
+	PHOSPHATE {
+		@Override
+		void addComponents(List<ChemicalComponent> components, boolean mineral) {
+			components.add(new Solvent("H2O"));
+			components.add(new ChemicalComponent("PO4-3", Phase.AQUEOUS, 1e-3));
+			components.add(new ChemicalComponent(H, Phase.AQUEOUS, 0.0));
+			if(mineral)
+				components.add(new ChemicalComponent("=SOH", Phase.MINERAL, 1.0));
+		}
+
+		@Override
+		void addReactions(List<Reaction> reactions, boolean mineral) {
+			reactions.add(new Reaction("HO-", -14)
+					.addReagent("HO-", -1, Phase.AQUEOUS)
+					.addReagent(H, -1, Phase.AQUEOUS)
+					.addReagent("H2O", 1, Phase.AQUEOUS));
+			reactions.add(new Reaction("HPO4-2", 12.35)
+					.addReagent("HPO4-2", -1, Phase.AQUEOUS)
+					.addReagent("PO4-3", 1, Phase.AQUEOUS)
+					.addReagent(H, 1, Phase.AQUEOUS));
+			reactions.add(new Reaction("H2PO4-", 19.55)
+					.addReagent("H2PO4-", -1, Phase.AQUEOUS)
+					.addReagent("PO4-3", 1, Phase.AQUEOUS)
+					.addReagent(H, 2, Phase.AQUEOUS));
+			reactions.add(new Reaction("H3PO4", 21.70)
+					.addReagent("H3PO4", -1, Phase.AQUEOUS)
+					.addReagent("PO4-3", 1, Phase.AQUEOUS)
+					.addReagent(H, 3, Phase.AQUEOUS));
+			if(mineral) {
+				reactions.add(new Reaction("=SOH2", 3.46)
+						.addReagent("=SOH2", -1, Phase.MINERAL)
+						.addReagent("=SOH", 1, Phase.MINERAL)
+						.addReagent(H, 1, Phase.AQUEOUS));
+				reactions.add(new Reaction("=SO-", -9.24)
+						.addReagent("=SO-", -1, Phase.MINERAL)
+						.addReagent("=SOH", 1, Phase.MINERAL)
+						.addReagent(H, -1, Phase.AQUEOUS));
+				reactions.add(new Reaction("=SH2PO4", 31.29)
+						.addReagent("=SH2PO4", -1, Phase.MINERAL)
+						.addReagent("=SOH", 1, Phase.MINERAL)
+						.addReagent("PO4-3", 1, Phase.AQUEOUS)
+						.addReagent(H, 3, Phase.AQUEOUS)
+						.addReagent("H2O", -1, Phase.AQUEOUS));
+			}
+		}
+
+		@Override
+		public String variedComponent() {
+			return "PO4-3";
+		}
+	},
+	/**
+	 * Larger synthetic network, where each of {@value SYNTHETIC_COMPONENTS}
+	 * components forms a protonated complex and a complex with the next
+	 * component.
+	 */
+	SYNTHETIC {
+		@Override
+		void addComponents(List<ChemicalComponent> components, boolean mineral) {
+			components.add(new Solvent("H2O"));
+			for(int i = 0; i < SYNTHETIC_COMPONENTS; i++)
+				components.add(new ChemicalComponent("C" + i, Phase.AQUEOUS, 1e-3));
+			components.add(new ChemicalComponent(H, Phase.AQUEOUS, 0.0));
+			if(mineral)
+				components.add(new ChemicalComponent("=SOH", Phase.MINERAL, 1.0));
+		}
+
+		@Override
+		void addReactions(List<Reaction> reactions, boolean mineral) {
+			reactions.add(new Reaction("HO-", -14)
+					.addReagent("HO-", -1, Phase.AQUEOUS)
+					.addReagent(H, -1, Phase.AQUEOUS)
+					.addReagent("H2O", 1, Phase.AQUEOUS));
+			for(int i = 0; i < SYNTHETIC_COMPONENTS; i++) {
+				String ci = "C" + i;
+				reactions.add(new Reaction(ci + "H", 2.0 + i % 5)
+						.addReagent(ci + "H", -1, Phase.AQUEOUS)
+						.addReagent(ci, 1, Phase.AQUEOUS)
+						.addReagent(H, 1, Phase.AQUEOUS));
+				if(i + 1 < SYNTHETIC_COMPONENTS) {
+					String cj = "C" + (i + 1);
+					reactions.add(new Reaction(ci + cj, 3.0)
+							.addReagent(ci + cj, -1, Phase.AQUEOUS)
+							.addReagent(ci, 1, Phase.AQUEOUS)
+							.addReagent(cj, 1, Phase.AQUEOUS));
+				}
+				if(mineral)
+					reactions.add(new Reaction("=SO" + ci, 4.0)
+							.addReagent("=SO" + ci, -1, Phase.MINERAL)
+							.addReagent("=SOH", 1, Phase.MINERAL)
+							.addReagent(ci, 1, Phase.AQUEOUS)
+							.addReagent(H, -1, Phase.AQUEOUS));
+			}
+			if(mineral)
+				reactions.add(new Reaction("=SOH2", 3.46)
+						.addReagent("=SOH2", -1, Phase.MINERAL)
+						.addReagent("=SOH", 1, Phase.MINERAL)
+						.addReagent(H, 1, Phase.AQUEOUS));
+		}
+
+		@Override
+		public String variedComponent() {
+			return "C0";
+		}
+	};
+
+	/**
+	 * Count of aqueous components of the synthetic network.
+	 */
+	public static final int SYNTHETIC_COMPONENTS = 10;
+	/**
+	 * Name of the component representing H+ ions.
+	 */
+	public static final String H = "H";
+	/**
+	 * pH fixed in all the systems.
+	 */
+	public static final double PH = 7.5;
+
+	abstract void addComponents(List<ChemicalComponent> components, boolean mineral);
+	abstract void addReactions(List<Reaction> reactions, boolean mineral);
+
+	/**
+	 * Name of the component whose total concentration is updated by the
+	 * benchmarks.
+	 *
+	 * @return Name of an aqueous component of the network.
+	 */
+	public abstract String variedComponent();
+
+	/**
+	 * Creates an empty system.
+	 *
+	 * @param mineral If true, a mineral system is created.
+	 * @return new chemical system
+	 */
+	public static ChemicalSystem newSystem(boolean mineral) {
+		if(mineral)
+			return new ChemicalSystem(
+					2.5, // g/l
+					24.2, // m2/g
+					0.8 * 1e18 / 6.02214076e23 // 0.8 entitities/nm2
+					);
+		return new ChemicalSystem();
+	}
+
+	/**
+	 * Gets the components of the network, added to the system before
+	 * reactions by {@link build(ChemicalSystem, boolean)}.
+	 *
+	 * @param mineral If true, mineral components are included.
+	 * @return components of the network
+	 */
+	public ChemicalComponent[] components(boolean mineral) {
+		List<ChemicalComponent> components = new ArrayList<>();
+		addComponents(components, mineral);
+		return components.toArray(new ChemicalComponent[0]);
+	}
+
+	/**
+	 * Gets the reactions of the network.
+	 *
+	 * @param mineral If true, surface complexation reactions are included.
+	 * @return reactions of the network
+	 */
+	public Reaction[] reactions(boolean mineral) {
+		List<Reaction> reactions = new ArrayList<>();
+		addReactions(reactions, mineral);
+		return reactions.toArray(new Reaction[0]);
+	}
+
+	/**
+	 * Adds all the components and reactions of the network to the system,
+	 * and fixes the pH. The system is not set up.
+	 *
+	 * @param system Empty chemical system.
+	 * @param mineral If true, mineral components and reactions are included.
+	 * @return Components added to the system.
+	 * @throws ChemmisolCoreException if a component cannot be added.
+	 */
+	public ChemicalComponent[] build(ChemicalSystem system, boolean mineral) throws ChemmisolCoreException {
+		ChemicalComponent[] components = components(mineral);
+		ChemicalComponent h = null;
+		for(ChemicalComponent component : components) {
+			system.addComponent(component);
+			if(component.getName().equals(H))
+				h = component;
+		}
+		for(Reaction reaction : reactions(mineral))
+			system.addReaction(reaction);
+		system.fixPH(PH, h);
+		return components;
+	}
+
+	/**
+	 * Gets the initial total concentration of the component returned by
+	 * {@link variedComponent()}.
+	 *
+	 * @return total concentration of the varied component
+	 */
+	public double variedTotalConcentration() {
+		for(ChemicalComponent component : components(false))
+			if(component.getName().equals(variedComponent()))
+				return component.getTotalConcentration();
+		throw new IllegalStateException(
+				"Unknown component: " + variedComponent());
+	}
+}
@@ -0,0 +1,32 @@
+package ummisco.gama.chemmisol.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the chemmisol benchmarks with the GC profiler, so that allocation
+ * rates ({@code gc.alloc.rate.norm}) are reported next to throughputs.
+ *
+ * <p>
+ * Usual JMH command line options are supported, for example:
+ * <pre>
+ * java -jar chemmisol-benchmarks/target/benchmarks.jar SolveBenchmark -p network=SYNTHETIC
+ * </pre>
+ * All the benchmarks of this package are run if no benchmark is specified.
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions command_line = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder()
+			.parent(command_line)
+			.addProfiler(GCProfiler.class);
+		if(command_line.getIncludes().isEmpty())
+			options.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,229 @@
+package ummisco.gama.chemmisol.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ummisco.gama.chemmisol.ChemicalComponent;
+import ummisco.gama.chemmisol.ChemicalSystem;
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+import ummisco.gama.chemmisol.ChemicalSystemPool;
+import ummisco.gama.chemmisol.ChemicalSystemScope;
+import ummisco.gama.chemmisol.Reaction;
+import ummisco.gama.chemmisol.ReactionNetworkSpec;
+
+/**
+ * Benchmarks the construction of chemical systems: allocation and release of
+ * the native system, addition of components and reactions, set up and copy.
+ *
+ * <p>
+ * Benchmarks that need a fresh system for each invocation prepare it in an
+ * invocation level set up, that is not measured. Each invocation of {@link
+ * addComponents(EmptySystem) addComponents} and {@link
+ * addReactions(ComponentsSystem) addReactions} adds the whole network.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LifecycleBenchmark {
+
+	/**
+	 * Empty system, allocated before each invocation.
+	 */
+	@State(Scope.Thread)
+	public static class EmptySystem extends NetworkState {
+		ChemicalComponent[] components;
+		ChemicalSystem system;
+
+		@Setup(Level.Trial)
+		public void setUpNetwork() {
+			components = network.components(mineral);
+		}
+
+		@Setup(Level.Invocation)
+		public void allocate() throws ChemmisolCoreException {
+			system = BenchmarkNetwork.newSystem(mineral);
+		}
+
+		@TearDown(Level.Invocation)
+		public void close() {
+			system.close();
+		}
+	}
+
+	/**
+	 * System containing all the components of the network, but no reaction.
+	 */
+	@State(Scope.Thread)
+	public static class ComponentsSystem extends EmptySystem {
+		Reaction[] reactions;
+		ReactionNetworkSpec spec;
+
+		@Setup(Level.Trial)
+		public void setUpReactions() {
+			reactions = network.reactions(mineral);
+			spec = ReactionNetworkSpec.of(Arrays.asList(reactions));
+		}
+
+		@Override
+		@Setup(Level.Invocation)
+		public void allocate() throws ChemmisolCoreException {
+			super.allocate();
+			for(ChemicalComponent component : components)
+				system.addComponent(component);
+		}
+	}
+
+	/**
+	 * System containing the whole network, not set up.
+	 */
+	@State(Scope.Thread)
+	public static class BuiltSystem extends NetworkState {
+		ChemicalSystem system;
+
+		@Setup(Level.Invocation)
+		public void build() throws ChemmisolCoreException {
+			system = newBuiltSystem();
+		}
+
+		@TearDown(Level.Invocation)
+		public void close() {
+			system.close();
+		}
+	}
+
+	/**
+	 * Set up and solved system, used as a template.
+	 */
+	@State(Scope.Thread)
+	public static class SetUpSystem extends NetworkState {
+		ChemicalSystem system;
+
+		@Setup(Level.Trial)
+		public void build() throws ChemmisolCoreException {
+			system = newBuiltSystem();
+			system.setUp();
+			system.solve();
+		}
+
+		@TearDown(Level.Trial)
+		public void close() {
+			system.close();
+		}
+	}
+
+	/**
+	 * Pool of copies of a set up and solved system.
+	 */
+	@State(Scope.Thread)
+	public static class SystemPool extends SetUpSystem {
+		ChemicalSystemPool pool;
+
+		@Override
+		@Setup(Level.Trial)
+		public void build() throws ChemmisolCoreException {
+			super.build();
+			pool = new ChemicalSystemPool(system, 16);
+			pool.prefill();
+		}
+
+		@Override
+		@TearDown(Level.Trial)
+		public void close() {
+			pool.close();
+			super.close();
+		}
+	}
+
+	@Benchmark
+	public void allocateAndClose(NetworkState state, Blackhole blackhole) {
+		try (ChemicalSystem system = BenchmarkNetwork.newSystem(state.mineral)) {
+			blackhole.consume(system);
+		}
+	}
+
+	@Benchmark
+	public void addComponents(EmptySystem state) throws ChemmisolCoreException {
+		for(ChemicalComponent component : state.components)
+			state.system.addComponent(component);
+	}
+
+	@Benchmark
+	public void addReactions(ComponentsSystem state) {
+		for(Reaction reaction : state.reactions)
+			state.system.addReaction(reaction);
+	}
+
+	/**
+	 * Same as {@link addReactions(ComponentsSystem)}, with all the reactions
+	 * passed to the native library in a single call.
+	 */
+	@Benchmark
+	public void addReactionSpec(ComponentsSystem state) {
+		state.system.addReactions(state.spec);
+	}
+
+	@Benchmark
+	public void setUp(BuiltSystem state) throws ChemmisolCoreException {
+		state.system.setUp();
+	}
+
+	@Benchmark
+	public void buildSetUpAndClose(NetworkState state) throws ChemmisolCoreException {
+		try (ChemicalSystem system = state.newBuiltSystem()) {
+			system.setUp();
+		}
+	}
+
+	@Benchmark
+	public void copyAndClose(SetUpSystem state, Blackhole blackhole) {
+		try (ChemicalSystem copy = state.system.copy()) {
+			blackhole.consume(copy);
+		}
+	}
+
+	/**
+	 * Same as {@link copyAndClose(SetUpSystem, Blackhole)}, with systems
+	 * acquired from a {@link ChemicalSystemPool}.
+	 */
+	@Benchmark
+	public void acquireAndRelease(SystemPool state, Blackhole blackhole) {
+		try (ChemicalSystem system = state.pool.acquire()) {
+			blackhole.consume(system);
+		}
+	}
+
+	/**
+	 * Count of copies created by {@link scopedCopiesAndClose(SetUpSystem,
+	 * Blackhole)}.
+	 */
+	static final int SCOPE_SIZE = 64;
+
+	/**
+	 * Creates {@value SCOPE_SIZE} copies in a {@link ChemicalSystemScope} and
+	 * releases them at once: divide the throughput by {@value SCOPE_SIZE} to
+	 * compare with {@link copyAndClose(SetUpSystem, Blackhole)}.
+	 */
+	@Benchmark
+	public void scopedCopiesAndClose(SetUpSystem state, Blackhole blackhole) {
+		try (ChemicalSystemScope scope = new ChemicalSystemScope()) {
+			for(int i = 0; i < SCOPE_SIZE; i++)
+				blackhole.consume(scope.copy(state.system));
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package ummisco.gama.chemmisol.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import ummisco.gama.chemmisol.ChemicalSystem;
+import ummisco.gama.chemmisol.Chemmisol;
+
+/**
+ * Base benchmark state, parameterized by the network and the kind of system.
+ *
+ * <p>
+ * The native libraries are loaded from the directory specified by the
+ * {@value LIBRARY_DIRECTORY_PROPERTY} system property if defined, or else from
+ * the {@code cmake.build.directory} of the {@code chemmisol.setup.properties}
+ * file generated by the chemmisol-java build.
+ */
+@State(Scope.Thread)
+public class NetworkState {
+	/**
+	 * System property that can be used to specify the directory containing
+	 * the chemmisol and chemmisol-java libraries.
+	 */
+	public static final String LIBRARY_DIRECTORY_PROPERTY = "chemmisol.library.directory";
+
+	static {
+		String library_directory = System.getProperty(LIBRARY_DIRECTORY_PROPERTY);
+		try {
+			if(library_directory != null) {
+				Chemmisol.loadChemmisolLibrariesFromFile(
+						Paths.get(library_directory).toAbsolutePath());
+			} else {
+				Chemmisol.loadChemmisolLibrariesFromProperties(
+						NetworkState.class,
+						"chemmisol.setup.properties",
+						"cmake.build.directory"
+						);
+			}
+		} catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Network built in the benchmarked systems.
+	 */
+	@Param({"PHOSPHATE", "SYNTHETIC"})
+	public BenchmarkNetwork network;
+
+	/**
+	 * If true, systems are allocated as mineral systems, and include surface
+	 * complexation reactions.
+	 */
+	@Param({"false", "true"})
+	public boolean mineral;
+
+	/**
+	 * Creates a system containing the whole network, not set up.
+	 */
+	ChemicalSystem newBuiltSystem() throws ChemicalSystem.ChemmisolCoreException {
+		ChemicalSystem system = BenchmarkNetwork.newSystem(mineral);
+		network.build(system, mineral);
+		return system;
+	}
+}
@@ -0,0 +1,160 @@
+package ummisco.gama.chemmisol.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ummisco.gama.chemmisol.ChemicalSystem;
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+import ummisco.gama.chemmisol.ComponentHandle;
+import ummisco.gama.chemmisol.SolveResult;
+import ummisco.gama.chemmisol.VectorizedEquilibriumSolver;
+
+/**
+ * Benchmarks the resolution of the equilibrium of set up systems.
+ *
+ * <p>
+ * Before each solve, the total concentration of a component is alternatively
+ * increased and decreased by 1%, as in a simulation where inputs slowly
+ * change between steps.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolveBenchmark {
+
+	/**
+	 * Set up and solved system.
+	 */
+	@State(Scope.Thread)
+	public static class SolvedSystem extends NetworkState {
+		/**
+		 * If false, the system is set up again before each solve.
+		 */
+		@Param({"true", "false"})
+		public boolean warm_start;
+
+		ChemicalSystem system;
+		ComponentHandle varied_component;
+		double total_concentration;
+		boolean increase;
+
+		@Setup(Level.Trial)
+		public void build() throws ChemmisolCoreException {
+			system = newBuiltSystem();
+			system.setUp();
+			system.solve();
+			system.setWarmStart(warm_start);
+			varied_component = system.component(network.variedComponent());
+			total_concentration = network.variedTotalConcentration();
+		}
+
+		double nextTotalConcentration() {
+			increase = !increase;
+			return increase ? total_concentration * 1.01 : total_concentration;
+		}
+
+		@TearDown(Level.Trial)
+		public void close() {
+			system.close();
+		}
+	}
+
+	/**
+	 * Batch of identical set up systems.
+	 */
+	@State(Scope.Thread)
+	public static class SystemBatch extends NetworkState {
+		/**
+		 * Count of systems solved in a single native call.
+		 */
+		@Param({"64"})
+		public int batch_size;
+
+		ChemicalSystem[] systems;
+		ComponentHandle varied_component;
+		double total_concentration;
+		boolean increase;
+		VectorizedEquilibriumSolver vectorized_solver;
+
+		@Setup(Level.Trial)
+		public void build() throws ChemmisolCoreException {
+			vectorized_solver = new VectorizedEquilibriumSolver(batch_size);
+			try (ChemicalSystem template = newBuiltSystem()) {
+				template.setUp();
+				template.solve();
+				varied_component = template.component(network.variedComponent());
+				systems = new ChemicalSystem[batch_size];
+				for(int i = 0; i < batch_size; i++)
+					systems[i] = template.copy();
+			}
+			total_concentration = network.variedTotalConcentration();
+		}
+
+		@TearDown(Level.Trial)
+		public void close() {
+			for(ChemicalSystem system : systems)
+				system.close();
+		}
+	}
+
+	@Benchmark
+	public SolveResult solve(SolvedSystem state) throws ChemmisolCoreException {
+		state.system.setTotalConcentration(
+				state.varied_component, state.nextTotalConcentration());
+		return state.system.solve();
+	}
+
+	/**
+	 * Solves a system whose inputs did not change since its last solve, what
+	 * only returns the cached equilibrium.
+	 */
+	@Benchmark
+	public SolveResult solveUnchanged(SolvedSystem state) throws ChemmisolCoreException {
+		return state.system.solve();
+	}
+
+	/**
+	 * Solves a whole batch with {@link ChemicalSystem#solveAll(ChemicalSystem[])}:
+	 * divide the throughput by the batch size to compare with {@link
+	 * solve(SolvedSystem)}.
+	 */
+	@Benchmark
+	public ChemmisolCoreException[] solveAll(SystemBatch state) {
+		state.increase = !state.increase;
+		double total_concentration = state.increase ?
+			state.total_concentration * 1.01 : state.total_concentration;
+		for(ChemicalSystem system : state.systems)
+			system.setTotalConcentration(state.varied_component, total_concentration);
+		return ChemicalSystem.solveAll(state.systems);
+	}
+
+	/**
+	 * Solves a whole batch in lockstep with a {@link
+	 * VectorizedEquilibriumSolver}: divide the throughput by the batch size to
+	 * compare with {@link solve(SolvedSystem)}.
+	 */
+	@Benchmark
+	public ChemmisolCoreException[] solveVectorized(SystemBatch state) {
+		state.increase = !state.increase;
+		double total_concentration = state.increase ?
+			state.total_concentration * 1.01 : state.total_concentration;
+		for(ChemicalSystem system : state.systems)
+			system.setTotalConcentration(state.varied_component, total_concentration);
+		return state.vectorized_solver.solve(state.systems, false);
+	}
+}
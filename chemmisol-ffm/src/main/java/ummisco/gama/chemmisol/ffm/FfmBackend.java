@@ -0,0 +1,477 @@
+package ummisco.gama.chemmisol.ffm;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.nio.DoubleBuffer;
+import java.util.List;
+
+import ummisco.gama.chemmisol.ChemicalComponent;
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+import ummisco.gama.chemmisol.ChemicalSystemBackend;
+import ummisco.gama.chemmisol.Reaction;
+import ummisco.gama.chemmisol.Reagent;
+
+/**
+ * {@link ChemicalSystemBackend} calling the C API of the {@code
+ * chemmisol-java} library through the Foreign Function and Memory API.
+ *
+ * <p>
+ * Contrary to the JNI backend, the native library never calls back into the
+ * JVM: reactions and components are passed as plain strings and arrays, and
+ * concentrations are written directly into Java arrays, without any copy.
+ * Downcalls that do not allocate nor run the solver are linked as critical
+ * functions, which avoids the thread state transitions of JNI calls.
+ *
+ * <p>
+ * All the native calls of chemical systems are performed by this backend.
+ * Batch solves are not supported by the C API, so systems of a batch are
+ * solved one by one. Arenas of {@link ummisco.gama.chemmisol.ChemicalSystemScope}
+ * are always managed through JNI.
+ *
+ * <p>
+ * This backend is selected with {@code -Dchemmisol.backend=ffm}, or with:
+ * <pre>
+ * Chemmisol.setBackend(new FfmBackend());
+ * </pre>
+ * The {@code chemmisol-java} library must be loaded, for example with {@link
+ * ummisco.gama.chemmisol.Chemmisol#loadChemmisolLibrariesFromFile(
+ * java.nio.file.Path)}, by the class loader of this class before any system is
+ * created. Native functions are only resolved on first use, so the backend can
+ * be instantiated before the library is loaded.
+ */
+public class FfmBackend implements ChemicalSystemBackend {
+	private static final int ERROR_SIZE = 1024;
+
+	/**
+	 * Downcall handles, resolved when the first native call is performed.
+	 */
+	private static final class Native {
+		private static final Linker linker = Linker.nativeLinker();
+		private static final SymbolLookup lookup = SymbolLookup.loaderLookup();
+
+		static final MethodHandle allocate = downcall("chemmisol_allocate",
+				FunctionDescriptor.of(ADDRESS));
+		static final MethodHandle allocate_mineral = downcall("chemmisol_allocate_mineral",
+				FunctionDescriptor.of(ADDRESS, JAVA_DOUBLE, JAVA_DOUBLE, JAVA_DOUBLE));
+		static final MethodHandle dispose = downcall("chemmisol_dispose",
+				FunctionDescriptor.ofVoid(ADDRESS));
+		static final MethodHandle copy = downcall("chemmisol_copy",
+				FunctionDescriptor.of(ADDRESS, ADDRESS));
+		static final MethodHandle assign = downcall("chemmisol_assign",
+				FunctionDescriptor.ofVoid(ADDRESS, ADDRESS));
+		static final MethodHandle add_reaction = downcall("chemmisol_add_reaction",
+				FunctionDescriptor.of(JAVA_INT,
+					ADDRESS, ADDRESS, JAVA_DOUBLE, JAVA_INT, ADDRESS, ADDRESS, ADDRESS,
+					ADDRESS, JAVA_LONG));
+		static final MethodHandle add_component = downcall("chemmisol_add_component",
+				FunctionDescriptor.of(JAVA_INT,
+					ADDRESS, ADDRESS, JAVA_INT, JAVA_DOUBLE, ADDRESS, JAVA_LONG));
+		static final MethodHandle fix_ph = downcall("chemmisol_fix_ph",
+				FunctionDescriptor.ofVoid(ADDRESS, JAVA_DOUBLE, ADDRESS));
+		static final MethodHandle set_total_concentration = downcall(
+				"chemmisol_set_total_concentration",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_DOUBLE),
+				Linker.Option.critical(false));
+		static final MethodHandle set_up = downcall("chemmisol_set_up",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_LONG));
+		static final MethodHandle solve = downcall("chemmisol_solve",
+				FunctionDescriptor.of(JAVA_INT,
+					ADDRESS, JAVA_INT, ADDRESS, JAVA_INT, ADDRESS, ADDRESS, JAVA_LONG));
+		static final MethodHandle species_index = downcall("chemmisol_species_index",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+		static final MethodHandle component_index = downcall("chemmisol_component_index",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+		static final MethodHandle reaction_index = downcall("chemmisol_reaction_index",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+		static final MethodHandle species_count = downcall("chemmisol_species_count",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS),
+				Linker.Option.critical(false));
+		static final MethodHandle component_count = downcall("chemmisol_component_count",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS),
+				Linker.Option.critical(false));
+		static final MethodHandle reaction_count = downcall("chemmisol_reaction_count",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS),
+				Linker.Option.critical(false));
+		static final MethodHandle concentration = downcall("chemmisol_concentration",
+				FunctionDescriptor.of(JAVA_DOUBLE, ADDRESS, JAVA_INT),
+				Linker.Option.critical(false));
+		// Writes directly into the Java array passed as a heap segment
+		static final MethodHandle concentrations = downcall("chemmisol_concentrations",
+				FunctionDescriptor.ofVoid(ADDRESS, ADDRESS),
+				Linker.Option.critical(true));
+		static final MethodHandle set_concentrations = downcall(
+				"chemmisol_set_concentrations",
+				FunctionDescriptor.ofVoid(ADDRESS, ADDRESS),
+				Linker.Option.critical(true));
+		static final MethodHandle inputs = downcall("chemmisol_inputs",
+				FunctionDescriptor.ofVoid(ADDRESS, ADDRESS),
+				Linker.Option.critical(true));
+		static final MethodHandle reaction_quotient = downcall(
+				"chemmisol_reaction_quotient",
+				FunctionDescriptor.of(JAVA_DOUBLE, ADDRESS, JAVA_INT),
+				Linker.Option.critical(false));
+		static final MethodHandle sites_quantity = downcall("chemmisol_sites_quantity",
+				FunctionDescriptor.of(JAVA_DOUBLE, ADDRESS),
+				Linker.Option.critical(false));
+
+		private static MethodHandle downcall(
+				String name, FunctionDescriptor descriptor, Linker.Option... options) {
+			MemorySegment symbol = lookup.find(name).orElseThrow(
+					() -> new UnsatisfiedLinkError(
+						"Cannot find " + name + ": the chemmisol-java library must be loaded."));
+			return linker.downcallHandle(symbol, descriptor, options);
+		}
+	}
+
+	// Error messages of failed calls, allocated once per thread
+	private static final ThreadLocal<MemorySegment> error_buffers
+		= ThreadLocal.withInitial(() -> Arena.ofAuto().allocate(ERROR_SIZE));
+
+	@Override
+	public String getName() {
+		return "ffm";
+	}
+
+	private static MemorySegment system(long chemical_system_ptr) {
+		return MemorySegment.ofAddress(chemical_system_ptr);
+	}
+
+	private static ChemmisolCoreException coreException(MemorySegment error) {
+		return new ChemmisolCoreException(error.getString(0));
+	}
+
+	/**
+	 * Downcall handles only throw the exceptions of the native linker, that
+	 * are unchecked.
+	 */
+	private static RuntimeException rethrow(Throwable e) {
+		if(e instanceof RuntimeException)
+			throw (RuntimeException) e;
+		if(e instanceof Error)
+			throw (Error) e;
+		throw new IllegalStateException(e);
+	}
+
+	@Override
+	public long allocate() {
+		try {
+			return ((MemorySegment) Native.allocate.invokeExact()).address();
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public long allocate(
+			double solid_concentration,
+			double specific_surface_area,
+			double site_concentration) {
+		try {
+			return ((MemorySegment) Native.allocate_mineral.invokeExact(
+						solid_concentration, specific_surface_area, site_concentration))
+				.address();
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public void dispose(long chemical_system_ptr) {
+		try {
+			Native.dispose.invokeExact(system(chemical_system_ptr));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public long copy(long chemical_system_ptr) {
+		try {
+			return ((MemorySegment) Native.copy.invokeExact(system(chemical_system_ptr)))
+				.address();
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public void assign(long chemical_system_ptr, long source_ptr) {
+		try {
+			Native.assign.invokeExact(system(chemical_system_ptr), system(source_ptr));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public void addReaction(long chemical_system_ptr, Reaction reaction) {
+		List<Reagent> reagents = reaction.getReagents();
+		int count = reagents.size();
+		MemorySegment error = error_buffers.get();
+		int status;
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment names = arena.allocate(ADDRESS, count);
+			int[] coefficients = new int[count];
+			int[] phases = new int[count];
+			for(int i = 0; i < count; i++) {
+				Reagent reagent = reagents.get(i);
+				names.setAtIndex(ADDRESS, i, arena.allocateFrom(reagent.getName()));
+				coefficients[i] = reagent.getCoefficient();
+				phases[i] = reagent.getPhase().ordinal();
+			}
+			status = (int) Native.add_reaction.invokeExact(
+					system(chemical_system_ptr),
+					arena.allocateFrom(reaction.getName()), reaction.getLogK(),
+					count, names,
+					arena.allocateFrom(JAVA_INT, coefficients),
+					arena.allocateFrom(JAVA_INT, phases),
+					error, (long) ERROR_SIZE);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+		// The exception thrown by chemmisol-cpp is reported in the error buffer
+		if(status != 0)
+			throw new IllegalArgumentException(
+					"Invalid reaction " + reaction.getName() + ": " + error.getString(0));
+	}
+
+	@Override
+	public void addComponent(long chemical_system_ptr, ChemicalComponent component)
+		throws ChemmisolCoreException {
+		MemorySegment error = error_buffers.get();
+		int status;
+		try (Arena arena = Arena.ofConfined()) {
+			status = (int) Native.add_component.invokeExact(
+					system(chemical_system_ptr),
+					arena.allocateFrom(component.getName()),
+					component.getPhase().ordinal(),
+					component.getTotalConcentration(),
+					error, (long) ERROR_SIZE);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+		if(status != 0)
+			throw coreException(error);
+	}
+
+	@Override
+	public void fixPH(long chemical_system_ptr, double ph, String h_component_name) {
+		try (Arena arena = Arena.ofConfined()) {
+			Native.fix_ph.invokeExact(
+					system(chemical_system_ptr), ph, arena.allocateFrom(h_component_name));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public void setTotalConcentration(
+			long chemical_system_ptr, int component_index, double concentration) {
+		int status;
+		try {
+			status = (int) Native.set_total_concentration.invokeExact(
+					system(chemical_system_ptr), component_index, concentration);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+		if(status != 0)
+			throw new IndexOutOfBoundsException(
+					"Invalid component index " + component_index
+					+ ": the handle might be stale or resolved from another system.");
+	}
+
+	@Override
+	public void setUp(long chemical_system_ptr) throws ChemmisolCoreException {
+		MemorySegment error = error_buffers.get();
+		int status;
+		try {
+			status = (int) Native.set_up.invokeExact(
+					system(chemical_system_ptr), error, (long) ERROR_SIZE);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+		if(status != 0)
+			throw coreException(error);
+	}
+
+	@Override
+	public void solve(
+			long chemical_system_ptr, boolean set_up, double[] initial_guess,
+			int max_iteration, double[] statistics) throws ChemmisolCoreException {
+		MemorySegment error = error_buffers.get();
+		int status;
+		// The solver might run for a long time, so it is not linked as a
+		// critical function and arrays are copied off heap
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment native_statistics = arena.allocate(JAVA_DOUBLE, 3);
+			status = (int) Native.solve.invokeExact(
+					system(chemical_system_ptr), set_up ? 1 : 0,
+					initial_guess == null ?
+						MemorySegment.NULL : arena.allocateFrom(JAVA_DOUBLE, initial_guess),
+					max_iteration, native_statistics, error, (long) ERROR_SIZE);
+			if(status == 0)
+				MemorySegment.copy(native_statistics, JAVA_DOUBLE, 0, statistics, 0, 3);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+		if(status != 0)
+			throw coreException(error);
+	}
+
+	@Override
+	public int speciesIndex(long chemical_system_ptr, String species_name) {
+		try (Arena arena = Arena.ofConfined()) {
+			return (int) Native.species_index.invokeExact(
+					system(chemical_system_ptr), arena.allocateFrom(species_name));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public int componentIndex(long chemical_system_ptr, String component_name) {
+		try (Arena arena = Arena.ofConfined()) {
+			return (int) Native.component_index.invokeExact(
+					system(chemical_system_ptr), arena.allocateFrom(component_name));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public int reactionIndex(long chemical_system_ptr, String reaction_name) {
+		try (Arena arena = Arena.ofConfined()) {
+			return (int) Native.reaction_index.invokeExact(
+					system(chemical_system_ptr), arena.allocateFrom(reaction_name));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public int speciesCount(long chemical_system_ptr) {
+		try {
+			return (int) Native.species_count.invokeExact(system(chemical_system_ptr));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public int componentCount(long chemical_system_ptr) {
+		try {
+			return (int) Native.component_count.invokeExact(system(chemical_system_ptr));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public double concentration(long chemical_system_ptr, int species_index) {
+		double concentration;
+		try {
+			concentration = (double) Native.concentration.invokeExact(
+					system(chemical_system_ptr), species_index);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+		// NaN is also returned for invalid indexes, that are only checked
+		// in this case
+		if(Double.isNaN(concentration)) {
+			int species_count = speciesCount(chemical_system_ptr);
+			if(species_index < 0 || species_index >= species_count)
+				throw new IndexOutOfBoundsException(
+						"Invalid species index " + species_index + " for "
+						+ species_count + " species: the handle might be stale or "
+						+ "resolved from another system.");
+		}
+		return concentration;
+	}
+
+	@Override
+	public void concentrations(long chemical_system_ptr, double[] concentrations) {
+		try {
+			Native.concentrations.invokeExact(
+					system(chemical_system_ptr), MemorySegment.ofArray(concentrations));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public void concentrations(long chemical_system_ptr, DoubleBuffer concentrations) {
+		try {
+			// The segment of a direct buffer starts at its current position
+			Native.concentrations.invokeExact(
+					system(chemical_system_ptr), MemorySegment.ofBuffer(concentrations));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public void setConcentrations(long chemical_system_ptr, double[] concentrations) {
+		try {
+			Native.set_concentrations.invokeExact(
+					system(chemical_system_ptr), MemorySegment.ofArray(concentrations));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public void inputs(long chemical_system_ptr, double[] inputs) {
+		try {
+			Native.inputs.invokeExact(
+					system(chemical_system_ptr), MemorySegment.ofArray(inputs));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public double reactionQuotient(long chemical_system_ptr, int reaction_index) {
+		double quotient;
+		try {
+			quotient = (double) Native.reaction_quotient.invokeExact(
+					system(chemical_system_ptr), reaction_index);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+		// NaN is also returned for invalid indexes, that are only checked
+		// in this case
+		if(Double.isNaN(quotient)) {
+			int reaction_count;
+			try {
+				reaction_count = (int) Native.reaction_count.invokeExact(
+						system(chemical_system_ptr));
+			} catch(Throwable e) {
+				throw rethrow(e);
+			}
+			if(reaction_index < 0 || reaction_index >= reaction_count)
+				throw new IndexOutOfBoundsException(
+						"Invalid reaction index " + reaction_index + " for "
+						+ reaction_count + " reactions: the handle might be stale or "
+						+ "resolved from another system.");
+		}
+		return quotient;
+	}
+
+	@Override
+	public double sitesQuantity(long chemical_system_ptr) {
+		try {
+			return (double) Native.sites_quantity.invokeExact(system(chemical_system_ptr));
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+}
@@ -23,6 +23,22 @@ JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_allocate__
 JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_allocate__DDD
   (JNIEnv *, jclass, jdouble, jdouble, jdouble);
 
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    copy
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_copy
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    assign
+ * Signature: (JJ)V
+ */
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_assign
+  (JNIEnv *, jclass, jlong, jlong);
+
 /*
  * Class:     ummisco_gama_chemmisol_ChemicalSystem
  * Method:    dispose
@@ -39,6 +55,14 @@ JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_dispose
 JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_addReaction
   (JNIEnv *, jclass, jlong, jobject);
 
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    addReactions
+ * Signature: (J[Ljava/lang/String;[B[Ljava/lang/String;[D[I)V
+ */
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_addReactions
+  (JNIEnv *, jclass, jlong, jobjectArray, jbyteArray, jobjectArray, jdoubleArray, jintArray);
+
 /*
  * Class:     ummisco_gama_chemmisol_ChemicalSystem
  * Method:    addComponent
@@ -55,45 +79,125 @@ JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_addComponent
 JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_fixPH
   (JNIEnv *, jclass, jlong, jdouble, jstring);
 
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    setUp
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_setUp
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    solve
+ * Signature: (JZ[DI[D)V
+ */
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_solve__JZ_3DI_3D
+  (JNIEnv *, jclass, jlong, jboolean, jdoubleArray, jint, jdoubleArray);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    solve
+ * Signature: ([JZ[I[J[[D[[D[Ljava/lang/String;)V
+ */
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_solve___3JZ_3I_3J_3_3D_3_3D_3Ljava_lang_String_2
+  (JNIEnv *, jclass, jlongArray, jboolean, jintArray, jlongArray, jobjectArray, jobjectArray, jobjectArray);
+
 /*
  * Class:     ummisco_gama_chemmisol_ChemicalSystem
  * Method:    setTotalConcentration
- * Signature: (JLjava/lang/String;D)V
+ * Signature: (JID)V
  */
 JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_setTotalConcentration
-  (JNIEnv *, jclass, jlong, jstring, jdouble);
+  (JNIEnv *, jclass, jlong, jint, jdouble);
 
 /*
  * Class:     ummisco_gama_chemmisol_ChemicalSystem
- * Method:    setUp
- * Signature: (J)V
+ * Method:    speciesIndex
+ * Signature: (JLjava/lang/String;)I
  */
-JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_setUp
-  (JNIEnv *, jclass, jlong);
+JNIEXPORT jint JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_speciesIndex
+  (JNIEnv *, jclass, jlong, jstring);
 
 /*
  * Class:     ummisco_gama_chemmisol_ChemicalSystem
- * Method:    solve
- * Signature: (J)V
+ * Method:    componentIndex
+ * Signature: (JLjava/lang/String;)I
  */
-JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_solve
-  (JNIEnv *, jclass, jlong);
+JNIEXPORT jint JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_componentIndex
+  (JNIEnv *, jclass, jlong, jstring);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    reactionIndex
+ * Signature: (JLjava/lang/String;)I
+ */
+JNIEXPORT jint JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_reactionIndex
+  (JNIEnv *, jclass, jlong, jstring);
 
 /*
  * Class:     ummisco_gama_chemmisol_ChemicalSystem
  * Method:    concentration
- * Signature: (JLjava/lang/String;)D
+ * Signature: (JI)D
  */
 JNIEXPORT jdouble JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_concentration
-  (JNIEnv *, jclass, jlong, jstring);
+  (JNIEnv *, jclass, jlong, jint);
 
 /*
  * Class:     ummisco_gama_chemmisol_ChemicalSystem
  * Method:    reactionQuotient
- * Signature: (JLjava/lang/String;)D
+ * Signature: (JI)D
  */
 JNIEXPORT jdouble JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_reactionQuotient
-  (JNIEnv *, jclass, jlong, jstring);
+  (JNIEnv *, jclass, jlong, jint);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    speciesCount
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_speciesCount
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    concentrations
+ * Signature: (J[D)V
+ */
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_concentrations__J_3D
+  (JNIEnv *, jclass, jlong, jdoubleArray);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    concentrations
+ * Signature: (JLjava/nio/DoubleBuffer;I)V
+ */
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_concentrations__JLjava_nio_DoubleBuffer_2I
+  (JNIEnv *, jclass, jlong, jobject, jint);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    setConcentrations
+ * Signature: (J[D)V
+ */
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_setConcentrations
+  (JNIEnv *, jclass, jlong, jdoubleArray);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    componentCount
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_componentCount
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystem
+ * Method:    inputs
+ * Signature: (J[D)V
+ */
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_inputs
+  (JNIEnv *, jclass, jlong, jdoubleArray);
 
 /*
  * Class:     ummisco_gama_chemmisol_ChemicalSystem
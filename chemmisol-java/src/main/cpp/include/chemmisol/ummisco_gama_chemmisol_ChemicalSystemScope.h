@@ -0,0 +1,53 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class ummisco_gama_chemmisol_ChemicalSystemScope */
+
+#ifndef _Included_ummisco_gama_chemmisol_ChemicalSystemScope
+#define _Included_ummisco_gama_chemmisol_ChemicalSystemScope
+#ifdef __cplusplus
+extern "C" {
+#endif
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystemScope
+ * Method:    allocateArena
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystemScope_allocateArena
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystemScope
+ * Method:    allocate
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystemScope_allocate__J
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystemScope
+ * Method:    allocate
+ * Signature: (JDDD)J
+ */
+JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystemScope_allocate__JDDD
+  (JNIEnv *, jclass, jlong, jdouble, jdouble, jdouble);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystemScope
+ * Method:    copy
+ * Signature: (JJ)J
+ */
+JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystemScope_copy
+  (JNIEnv *, jclass, jlong, jlong);
+
+/*
+ * Class:     ummisco_gama_chemmisol_ChemicalSystemScope
+ * Method:    disposeArena
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystemScope_disposeArena
+  (JNIEnv *, jclass, jlong);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -0,0 +1,23 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class ummisco_gama_chemmisol_Chemmisol */
+
+#ifndef _Included_ummisco_gama_chemmisol_Chemmisol
+#define _Included_ummisco_gama_chemmisol_Chemmisol
+#ifdef __cplusplus
+extern "C" {
+#endif
+#undef ummisco_gama_chemmisol_Chemmisol_COPY_BUFFER_SIZE
+#define ummisco_gama_chemmisol_Chemmisol_COPY_BUFFER_SIZE 65536L
+/*
+ * Class:     ummisco_gama_chemmisol_Chemmisol
+ * Method:    setNativeLogLevel
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_Chemmisol_setNativeLogLevel
+  (JNIEnv *, jclass, jint);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
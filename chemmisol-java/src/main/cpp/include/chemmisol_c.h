@@ -0,0 +1,143 @@
+#ifndef CHEMMISOL_C_H
+#define CHEMMISOL_C_H
+#include <stddef.h>
+
+/*
+ * Plain C API of the chemmisol-java library, used by the Foreign Function and
+ * Memory backend of the chemmisol-ffm module.
+ *
+ * Functions only exchange primitive values, C strings and arrays, so that
+ * they can be called through downcall handles without any upcall to the JVM.
+ * Systems are the same chemmisol::ChemicalSystem pointers as the ones used by
+ * the JNI functions, so that both APIs can be mixed on the same system.
+ *
+ * Functions that can fail return CHEMMISOL_C_OK or CHEMMISOL_C_ERROR. In case
+ * of error, a message of the form "<exception class name>:\n<message>" is
+ * written to the error buffer, truncated to error_size.
+ */
+
+#if defined(_WIN32)
+#define CHEMMISOL_C_API __declspec(dllexport)
+#else
+#define CHEMMISOL_C_API __attribute__((visibility("default")))
+#endif
+
+#define CHEMMISOL_C_OK 0
+#define CHEMMISOL_C_ERROR 1
+
+/*
+ * Phases, matching the ordinals of the Java Phase enum.
+ */
+#define CHEMMISOL_C_SOLVENT 0
+#define CHEMMISOL_C_AQUEOUS 1
+#define CHEMMISOL_C_MINERAL 2
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+CHEMMISOL_C_API void* chemmisol_allocate(void);
+
+CHEMMISOL_C_API void* chemmisol_allocate_mineral(
+		double solid_concentration,
+		double specific_surface_area,
+		double site_concentration);
+
+CHEMMISOL_C_API void chemmisol_dispose(void* system);
+
+/*
+ * Allocates a copy of the system, including its reactions, components and
+ * concentrations.
+ */
+CHEMMISOL_C_API void* chemmisol_copy(const void* system);
+
+/*
+ * Replaces the reactions, components and concentrations of the system by
+ * those of the source system.
+ */
+CHEMMISOL_C_API void chemmisol_assign(void* system, const void* source);
+
+/*
+ * Adds a reaction with reagent_count reagents, described by the
+ * reagent_names, coefficients and phases arrays. Returns CHEMMISOL_C_ERROR,
+ * and writes the message of the exception thrown by chemmisol-cpp to error,
+ * if the reaction cannot be added.
+ */
+CHEMMISOL_C_API int chemmisol_add_reaction(
+		void* system, const char* name, double log_k,
+		int reagent_count, const char* const* reagent_names,
+		const int* coefficients, const int* phases,
+		char* error, size_t error_size);
+
+CHEMMISOL_C_API int chemmisol_add_component(
+		void* system, const char* name, int phase, double total_concentration,
+		char* error, size_t error_size);
+
+CHEMMISOL_C_API void chemmisol_fix_ph(
+		void* system, double ph, const char* h_component_name);
+
+/*
+ * Returns CHEMMISOL_C_ERROR without modifying the system if component_index
+ * is not the index of a component of the system.
+ */
+CHEMMISOL_C_API int chemmisol_set_total_concentration(
+		void* system, int component_index, double concentration);
+
+CHEMMISOL_C_API int chemmisol_set_up(
+		void* system, char* error, size_t error_size);
+
+/*
+ * Solves the system with at most max_iteration iterations of the
+ * chemmisol-cpp solver. initial_guess might be NULL. The count of iterations
+ * (-1, as it is not reported by chemmisol-cpp), the residual (NaN, for the
+ * same reason) and the wall time in nanoseconds are written to statistics.
+ */
+CHEMMISOL_C_API int chemmisol_solve(
+		void* system, int set_up, const double* initial_guess,
+		int max_iteration, double* statistics, char* error, size_t error_size);
+
+/*
+ * Returns the index of the species or component, or -1 if it does not
+ * exist.
+ */
+CHEMMISOL_C_API int chemmisol_species_index(void* system, const char* name);
+CHEMMISOL_C_API int chemmisol_component_index(void* system, const char* name);
+CHEMMISOL_C_API int chemmisol_reaction_index(void* system, const char* name);
+
+CHEMMISOL_C_API int chemmisol_species_count(void* system);
+CHEMMISOL_C_API int chemmisol_component_count(void* system);
+CHEMMISOL_C_API int chemmisol_reaction_count(void* system);
+
+/*
+ * Returns NaN if species_index is not the index of a species of the system.
+ */
+CHEMMISOL_C_API double chemmisol_concentration(void* system, int species_index);
+
+/*
+ * Writes the concentration of each species at its index in concentrations.
+ */
+CHEMMISOL_C_API void chemmisol_concentrations(void* system, double* concentrations);
+
+/*
+ * Sets the concentration of each species from its index in concentrations.
+ */
+CHEMMISOL_C_API void chemmisol_set_concentrations(
+		void* system, const double* concentrations);
+
+/*
+ * Writes the input of each component at its index in inputs: its total
+ * quantity, or its concentration if the component is fixed.
+ */
+CHEMMISOL_C_API void chemmisol_inputs(void* system, double* inputs);
+
+/*
+ * Returns NaN if reaction_index is not the index of a reaction of the system.
+ */
+CHEMMISOL_C_API double chemmisol_reaction_quotient(void* system, int reaction_index);
+
+CHEMMISOL_C_API double chemmisol_sites_quantity(void* system);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
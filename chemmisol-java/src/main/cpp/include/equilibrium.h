@@ -0,0 +1,58 @@
+#ifndef CHEMMISOL_JAVA_EQUILIBRIUM_H
+#define CHEMMISOL_JAVA_EQUILIBRIUM_H
+#include <chrono>
+#include <cstddef>
+#include <limits>
+
+#include "chemmisol.h"
+
+/*
+ * Solver helpers shared by the JNI functions and the C API of the
+ * chemmisol-java library.
+ */
+namespace chemmisol {
+	/*
+	 * Writes the concentration of each species of the system at its index in
+	 * the provided array.
+	 */
+	void concentrations(const ChemicalSystem* system, double* concentrations);
+
+	/*
+	 * Sets the concentration of each species of the system from its index in
+	 * the provided array.
+	 */
+	void setConcentrations(ChemicalSystem* system, const double* concentrations);
+
+	/*
+	 * Writes the input of each component of the system at its index in the
+	 * provided array: its total quantity, or its concentration if the
+	 * component is fixed.
+	 */
+	void inputs(const ChemicalSystem* system, double* inputs);
+
+	/*
+	 * Statistics of a single solve, reported to the Java SolveResult.
+	 */
+	struct SolveStatistics {
+		/*
+		 * chemmisol-cpp does not report the count of iterations performed by
+		 * its solver, so it is unknown (-1).
+		 */
+		long iteration_count = -1;
+		/*
+		 * chemmisol-cpp does not report the residual of its solution, so it
+		 * is computed from the solved concentrations by the Java side.
+		 */
+		double residual = std::numeric_limits<double>::quiet_NaN();
+		std::chrono::nanoseconds wall_time {0};
+	};
+
+	/*
+	 * Solves the equilibrium of the system from its current state, with at
+	 * most max_iteration iterations of the chemmisol-cpp solver. The maximum
+	 * count of iterations of the system is restored once solved, even if the
+	 * solver throws an exception.
+	 */
+	void solveEquilibrium(ChemicalSystem* system, std::size_t max_iteration);
+}
+#endif
@@ -1,6 +1,7 @@
 #ifndef JNI_INTERFACE_H
 #define JNI_INTERFACE_H
 #include <jni.h>
+#include <atomic>
 #include <iostream>
 #include <list>
 
@@ -10,62 +11,148 @@
 #define JINT "I"
 #define JDOUBLE "D"
 #define JBOOLEAN "Z"
+#define JOBJECT "Ljava/lang/Object;"
 #define JSTRING "Ljava/lang/String;"
+#define JLIST "Ljava/util/List;"
 #define JITERATOR "Ljava/util/Iterator;"
 #define JPHASE "Lummisco/gama/chemmisol/Phase;"
 
+#define JCHEMMISOL_CORE_EXCEPTION "ummisco/gama/chemmisol/ChemicalSystem$ChemmisolCoreException"
+
+#define JCHEMMISOL "ummisco/gama/chemmisol/Chemmisol"
+
 #define CHEM_JAVA_LOGID "chemmisol-java"
-#define CHEM_JAVA_LOG(LEVEL) CLOG(LEVEL, CHEM_JAVA_LOGID)
+
+/*
+ * Log levels, matching the ordinals of the Java LogLevel enum.
+ */
+#define CHEM_JAVA_LOG_LEVEL_TRACE 0
+#define CHEM_JAVA_LOG_LEVEL_DEBUG 1
+#define CHEM_JAVA_LOG_LEVEL_INFO 2
+#define CHEM_JAVA_LOG_LEVEL_WARNING 3
+#define CHEM_JAVA_LOG_LEVEL_ERROR 4
+#define CHEM_JAVA_LOG_LEVEL_OFF 5
+
+/*
+ * Logs to the chemmisol-java logger if LEVEL is enabled.
+ *
+ * The level is checked before the message is built, so that disabled log
+ * statements only cost a relaxed atomic load. If CHEMMISOL_JAVA_DISABLE_LOG is
+ * defined, log statements are removed at compile time.
+ */
+#ifdef CHEMMISOL_JAVA_DISABLE_LOG
+#define CHEM_JAVA_LOG(LEVEL) if(true) {} else CLOG(LEVEL, CHEM_JAVA_LOGID)
+#else
+#define CHEM_JAVA_LOG(LEVEL) \
+	if(chemmisol::log_level.load(std::memory_order_relaxed) \
+			> CHEM_JAVA_LOG_LEVEL_##LEVEL) {} \
+	else CLOG(LEVEL, CHEM_JAVA_LOGID)
+#endif
 
 extern el::Logger* chemmisol_java_logger;
 
 jint JNI_OnLoad(JavaVM *vm, void *reserved);
+void JNI_OnUnload(JavaVM *vm, void *reserved);
 
 namespace chemmisol {
+	/**
+	 * Current log level, as the ordinal of a Java LogLevel.
+	 */
+	extern std::atomic<int> log_level;
+
+	/**
+	 * Sets the log level, and enables the corresponding levels of the
+	 * chemmisol-cpp and chemmisol-java loggers.
+	 */
+	void setLogLevel(int level);
+
+	/**
+	 * JNI classes, method IDs and Phase mapping resolved only once in
+	 * JNI_OnLoad(), so that native entry points do not need to perform any
+	 * class or method lookup.
+	 *
+	 * Classes are stored as global references, released in JNI_OnUnload().
+	 */
+	struct JNICache {
+		jclass chemmisol_core_exception;
+
+		jmethodID reaction_get_name;
+		jmethodID reaction_get_log_k;
+		jmethodID reaction_get_reagents;
+
+		jmethodID entity_get_name;
+		jmethodID entity_get_phase;
+		jmethodID reagent_get_coefficient;
+
+		jmethodID component_get_name;
+		jmethodID component_get_phase;
+		jmethodID component_get_total_concentration;
+
+		jmethodID list_iterator;
+		jmethodID iterator_has_next;
+		jmethodID iterator_next;
+
+		jmethodID enum_ordinal;
+
+		/**
+		 * chemmisol-cpp phases, indexed by the ordinal of the corresponding
+		 * Java Phase enumerator.
+		 */
+		std::vector<chemmisol::Phase> phases;
+
+		/**
+		 * Resolves all the cached classes and IDs.
+		 *
+		 * Returns false if a class or a method cannot be found, in which
+		 * case a Java exception is pending.
+		 */
+		bool init(JNIEnv* env);
+
+		/**
+		 * Releases global references.
+		 */
+		void release(JNIEnv* env);
+	};
+
+	extern JNICache jni_cache;
+
 	class JNIInterface {
 		private:
 			JNIEnv* env;
 
-			std::unordered_map<std::string, chemmisol::Phase> map_phase;
-
-
 		public:
 			JNIInterface(JNIEnv* env);
 			std::string convert(jstring str) const;
 
-			std::string GetEnumerator(const char* class_name, const char* enumerator_name) const;
-
-			jobject GetStaticObjectField(
-					const char* class_name, const char* name, const char* signature) const;
-
-			void CallVoidMethod(
-					jobject obj, const char* name, const char* signature, ...) const;
+			jobject CallObjectMethod(jobject obj, jmethodID method) const;
 
-			jobject CallObjectMethod(
-					jobject obj, const char* name, const char* signature, ...) const;
+			std::string CallStringMethod(jobject obj, jmethodID method) const;
 
-			std::string CallStringMethod(
-					jobject obj, const char* name, const char* signature) const;
+			double CallDoubleMethod(jobject obj, jmethodID method) const;
 
-			double CallDoubleMethod(
-					jobject obj, const char* name, const char* signature) const;
+			long int CallIntMethod(jobject obj, jmethodID method) const;
 
-			long int CallIntMethod(
-					jobject obj, const char* name, const char* signature) const;
+			bool CallBooleanMethod(jobject obj, jmethodID method) const;
 
-			bool CallBooleanMethod(
-					jobject obj, const char* name, const char* signature) const;
+			std::list<jobject> CallListMethod(jobject obj, jmethodID method) const;
 
-			std::list<jobject> CallListMethod(
-					jobject obj, const char* name, const char* signature) const;
+			chemmisol::Phase CallPhaseMethod(jobject obj, jmethodID method) const;
 
-			chemmisol::Phase CallPhaseMethod(
-					jobject obj, const char* name, const char* signature) const;
+			std::string ExceptionMessage(
+					const char* cpp_exception_class_name,
+					const std::exception& cpp_exception) const;
 
 			void ThrowNew(
 					const char* cpp_exception_class_name,
-					const char* exception_class_name,
+					jclass exception_class,
 					const std::exception& cpp_exception) const;
+
+			/*
+			 * Returns true if index is a valid index in a list of count
+			 * entities. Else, throws a Java IndexOutOfBoundsException and
+			 * returns false.
+			 */
+			bool CheckIndex(jint index, std::size_t count, const char* entity_name) const;
 	};
 }
 
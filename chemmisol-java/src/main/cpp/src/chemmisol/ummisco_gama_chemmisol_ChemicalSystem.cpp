@@ -1,8 +1,27 @@
 #include "chemmisol/ummisco_gama_chemmisol_ChemicalSystem.h"
 #include "jni_interface.h"
+#include "equilibrium.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cmath>
 
 using namespace chemmisol;
 
+/*
+ * Returns the index of the entity with the specified name in the provided
+ * chemmisol-cpp entity list, or -1 if no such entity exists.
+ */
+template<typename T>
+static jint indexOf(
+		const std::vector<std::unique_ptr<T>>& entities,
+		const std::string& name) {
+	for(const auto& entity : entities)
+		if(entity->getName() == name)
+			return (jint) entity->getIndex();
+	return -1;
+}
+
 JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_allocate__
   (JNIEnv *, jclass) {
 	ChemicalSystem* system = new ChemicalSystem();
@@ -10,11 +29,10 @@ JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_allocate__
 }
 
 JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_allocate__DDD
-(JNIEnv * env, jclass,
+(JNIEnv *, jclass,
  jdouble solid_concentration,
  jdouble specific_surface_area,
  jdouble site_concentration) {
-	JNIInterface jni_interface(env);
 	ChemicalSystem* system = new ChemicalSystem(
 			solid_concentration,
 			specific_surface_area,
@@ -23,6 +41,18 @@ JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_allocate__DDD
 	return (jlong) system;
 }
 
+JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_copy
+  (JNIEnv *, jclass, jlong chemical_system_ptr) {
+	ChemicalSystem* system = new ChemicalSystem(
+			*(ChemicalSystem*) chemical_system_ptr);
+	return (jlong) system;
+}
+
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_assign
+  (JNIEnv *, jclass, jlong chemical_system_ptr, jlong source_ptr) {
+	*(ChemicalSystem*) chemical_system_ptr = *(ChemicalSystem*) source_ptr;
+}
+
 JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_dispose
 (JNIEnv *, jclass, jlong chemical_system_ptr) {
 	delete (ChemicalSystem*) chemical_system_ptr;
@@ -32,15 +62,15 @@ JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_addReaction
   (JNIEnv * env, jclass, jlong cpp_chemmical_system, jobject jreaction) {
 	  JNIInterface jni_interface(env);
 	  std::string name = jni_interface.CallStringMethod(
-				  jreaction, "getName", "()" JSTRING
+				  jreaction, jni_cache.reaction_get_name
 				  );
 
 	  double logK = jni_interface.CallDoubleMethod(jreaction,
-					  "getLogK", "()" JDOUBLE
+					  jni_cache.reaction_get_log_k
 				  );
 
 	  std::list<jobject> jreagents = jni_interface.CallListMethod(jreaction,
-			  "getReagents", "()Ljava/util/List;"
+			  jni_cache.reaction_get_reagents
 			  );
 
 	  CHEM_JAVA_LOG(INFO) << "Adding reaction: " << name << " (log K=" << logK << "): ";
@@ -49,34 +79,101 @@ JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_addReaction
 		  reaction_components.emplace_back(
 				  // name
 				  jni_interface.CallStringMethod(j,
-					  "getName", "()" JSTRING
+					  jni_cache.entity_get_name
 					  ),
 				  // phase
 				  jni_interface.CallPhaseMethod(j,
-					  "getPhase", "()" JPHASE
+					  jni_cache.entity_get_phase
 					  ),
 				  // coefficient
 				  jni_interface.CallIntMethod(j,
-					  "getCoefficient", "()" JINT
+					  jni_cache.reagent_get_coefficient
 					  )
 				  );
+		  env->DeleteLocalRef(j);
 		  CHEM_JAVA_LOG(INFO) << "  " << reaction_components.back().coefficient << " "
 			  << reaction_components.back().name
 			  << " (" << reaction_components.back().phase << ")";
 	  }
-	  ((ChemicalSystem*) cpp_chemmical_system)->addReaction(
-		  name, logK, reaction_components);
+	  // Exceptions must not propagate through the JNI, whatever their type
+	  try {
+		  ((ChemicalSystem*) cpp_chemmical_system)->addReaction(
+				  name, logK, reaction_components);
+	  } catch(const std::exception& e) {
+		  jclass exception_class = env->FindClass("java/lang/IllegalArgumentException");
+		  if(exception_class != NULL) {
+			  jni_interface.ThrowNew("std::exception", exception_class, e);
+			  env->DeleteLocalRef(exception_class);
+		  }
+	  }
+  }
+
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_addReactions
+  (JNIEnv * env, jclass, jlong cpp_chemical_system,
+   jobjectArray jspecies_names, jbyteArray jphases,
+   jobjectArray jreaction_names, jdoubleArray jlog_ks,
+   jintArray jstoichiometry) {
+	  JNIInterface jni_interface(env);
+	  ChemicalSystem* system = (ChemicalSystem*) cpp_chemical_system;
+	  jsize species_count = env->GetArrayLength(jspecies_names);
+	  jsize reaction_count = env->GetArrayLength(jreaction_names);
+
+	  // Each species name and phase is converted only once, whatever the
+	  // count of reactions it is involved in
+	  std::vector<std::string> species_names;
+	  species_names.reserve(species_count);
+	  for(jsize s = 0; s < species_count; s++) {
+		  jstring jname = (jstring) env->GetObjectArrayElement(jspecies_names, s);
+		  species_names.push_back(jni_interface.convert(jname));
+		  env->DeleteLocalRef(jname);
+	  }
+	  std::vector<jbyte> phases(species_count);
+	  env->GetByteArrayRegion(jphases, 0, species_count, phases.data());
+	  std::vector<jdouble> log_ks(reaction_count);
+	  env->GetDoubleArrayRegion(jlog_ks, 0, reaction_count, log_ks.data());
+	  std::vector<jint> stoichiometry((std::size_t) reaction_count * species_count);
+	  env->GetIntArrayRegion(
+			  jstoichiometry, 0, (jsize) stoichiometry.size(), stoichiometry.data());
+
+	  CHEM_JAVA_LOG(INFO) << "Adding " << reaction_count << " reactions of "
+		  << species_count << " species.";
+	  std::vector<Reagent> reagents;
+	  for(jsize r = 0; r < reaction_count; r++) {
+		  jstring jname = (jstring) env->GetObjectArrayElement(jreaction_names, r);
+		  std::string name = jni_interface.convert(jname);
+		  env->DeleteLocalRef(jname);
+		  reagents.clear();
+		  const jint* coefficients = &stoichiometry[(std::size_t) r * species_count];
+		  for(jsize s = 0; s < species_count; s++)
+			  if(coefficients[s] != 0)
+				  reagents.emplace_back(
+						  species_names[s],
+						  jni_cache.phases[phases[s]],
+						  coefficients[s]);
+		  // Exceptions must not propagate through the JNI, whatever their
+		  // type
+		  try {
+			  system->addReaction(name, log_ks[r], reagents);
+		  } catch(const std::exception& e) {
+			  jclass exception_class = env->FindClass("java/lang/IllegalArgumentException");
+			  if(exception_class != NULL) {
+				  jni_interface.ThrowNew("std::exception", exception_class, e);
+				  env->DeleteLocalRef(exception_class);
+			  }
+			  return;
+		  }
+	  }
   }
 
 JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_addComponent
   (JNIEnv * env, jclass, jlong cpp_chemical_system, jobject jcomponent) {
 	  JNIInterface jni_interface(env);
 	  std::string name = 
-		  jni_interface.CallStringMethod(jcomponent, "getName", "()" JSTRING);
+		  jni_interface.CallStringMethod(jcomponent, jni_cache.component_get_name);
 	  Phase phase =
-		  jni_interface.CallPhaseMethod(jcomponent, "getPhase", "()" JPHASE);
+		  jni_interface.CallPhaseMethod(jcomponent, jni_cache.component_get_phase);
 	  double concentration =
-		  jni_interface.CallDoubleMethod(jcomponent, "getTotalConcentration", "()" JDOUBLE);
+		  jni_interface.CallDoubleMethod(jcomponent, jni_cache.component_get_total_concentration);
 
 	  CHEM_JAVA_LOG(INFO) << "Adding component: " << name << " (" << phase << "): " << concentration;
 
@@ -87,7 +184,7 @@ JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_addComponent
 	  } catch(const InvalidMineralSpeciesWithUndefinedSitesCount& e) {
 		  jni_interface.ThrowNew(
 				  "chemmisol::InvalidMineralSpeciesWithUndefinedSitesCount",
-				  "ummisco/gama/chemmisol/ChemicalSystem$ChemmisolCoreException",
+				  jni_cache.chemmisol_core_exception,
 				  e);
 	  }
   }
@@ -101,12 +198,15 @@ JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_fixPH
   }
 
 JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_setTotalConcentration
-  (JNIEnv * env, jclass, jlong cpp_chemical_system, jstring jcomponent_name, jdouble concentration) {
+  (JNIEnv * env, jclass, jlong cpp_chemical_system, jint component_index, jdouble concentration) {
 	  JNIInterface jni_interface(env);
-	  std::string _component_name = jni_interface.convert(jcomponent_name);
-	  CHEM_JAVA_LOG(INFO) << "Set total concentration of " << _component_name << " to " << concentration << ".";
+	  if(!jni_interface.CheckIndex(component_index,
+				  ((ChemicalSystem*) cpp_chemical_system)->getComponents().size(),
+				  "component"))
+		  return;
 	  ((ChemicalSystem*) cpp_chemical_system)->setTotalConcentration(
-		  ((ChemicalSystem*) cpp_chemical_system)->getComponent(_component_name),
+		  ((ChemicalSystem*) cpp_chemical_system)->getComponent(
+			  (std::size_t) component_index),
 		  concentration
 		  );
   }
@@ -120,53 +220,215 @@ JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_setUp
 	  catch (const MissingProducedSpeciesInReaction& e) {
 		  jni_interface.ThrowNew(
 				  "chemmisol::MissingProducedSpeciesInReaction",
-				  "ummisco/gama/chemmisol/ChemicalSystem$ChemmisolCoreException",
+				  jni_cache.chemmisol_core_exception,
 				  e);
 	  }
 	  catch (const TooManyProducedSpeciesInReaction& e) {
 		  jni_interface.ThrowNew(
 				  "chemmisol::InvalidSpeciesInReaction",
-				  "ummisco/gama/chemmisol/ChemicalSystem$ChemmisolCoreException",
+				  jni_cache.chemmisol_core_exception,
 				  e);
 	  }
   }
 
-JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_solve
-  (JNIEnv * env, jclass, jlong cpp_chemical_system) {
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_solve__JZ_3DI_3D
+  (JNIEnv * env, jclass, jlong cpp_chemical_system, jboolean set_up,
+   jdoubleArray jinitial_guess, jint max_iteration, jdoubleArray jstatistics) {
 	  JNIInterface jni_interface(env);
-	  CHEM_JAVA_LOG(INFO) << "Solving system using 1000 iterations.";
-	  ((ChemicalSystem*) cpp_chemical_system)->setMaxIteration(1000);
+	  ChemicalSystem* system = (ChemicalSystem*) cpp_chemical_system;
+	  CHEM_JAVA_LOG(INFO) << "Solving system using " << max_iteration << " iterations.";
+	  SolveStatistics statistics;
+	  auto start = std::chrono::steady_clock::now();
 	  try {
-		  ((ChemicalSystem*) cpp_chemical_system)->solveEquilibrium();
+		  if(set_up)
+			  system->setUp();
+		  if(jinitial_guess != NULL) {
+			  jdouble* initial_guess = (jdouble*) env->GetPrimitiveArrayCritical(
+					  jinitial_guess, NULL);
+			  setConcentrations(system, initial_guess);
+			  env->ReleasePrimitiveArrayCritical(jinitial_guess, initial_guess, JNI_ABORT);
+		  }
+		  solveEquilibrium(system, max_iteration);
 	  }
 	  catch (const MissingProducedSpeciesInReaction& e) {
 		  jni_interface.ThrowNew(
 				  "chemmisol::MissingProducedSpeciesInReaction",
-				  "ummisco/gama/chemmisol/ChemicalSystem$ChemmisolCoreException",
+				  jni_cache.chemmisol_core_exception,
 				  e);
+		  return;
 	  }
 	  catch (const TooManyProducedSpeciesInReaction& e) {
 		  jni_interface.ThrowNew(
 				  "chemmisol::InvalidSpeciesInReaction",
-				  "ummisco/gama/chemmisol/ChemicalSystem$ChemmisolCoreException",
+				  jni_cache.chemmisol_core_exception,
 				  e);
+		  return;
 	  }
+	  statistics.wall_time = std::chrono::duration_cast<std::chrono::nanoseconds>(
+			  std::chrono::steady_clock::now() - start);
+	  CHEM_JAVA_LOG(INFO) << "Done in " << statistics.wall_time.count() << "ns.";
+	  jdouble _statistics[] = {
+		  (jdouble) statistics.iteration_count,
+		  statistics.residual,
+		  (jdouble) statistics.wall_time.count()
+	  };
+	  env->SetDoubleArrayRegion(jstatistics, 0, 3, _statistics);
+  }
+
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_solve___3JZ_3I_3J_3_3D_3_3D_3Ljava_lang_String_2
+  (JNIEnv * env, jclass, jlongArray jchemical_system_ptrs, jboolean set_up,
+   jintArray jmax_iterations, jlongArray jwall_times,
+   jobjectArray jconcentrations, jobjectArray jinputs, jobjectArray jerrors) {
+	  JNIInterface jni_interface(env);
+	  jsize size = env->GetArrayLength(jchemical_system_ptrs);
+	  std::vector<jlong> chemical_system_ptrs(size);
+	  std::vector<jint> max_iterations(size);
+	  env->GetLongArrayRegion(jchemical_system_ptrs, 0, size, chemical_system_ptrs.data());
+	  env->GetIntArrayRegion(jmax_iterations, 0, size, max_iterations.data());
+
+	  std::vector<jlong> wall_times(size);
+	  CHEM_JAVA_LOG(INFO) << "Solving " << size << " systems.";
+	  for(jsize i = 0; i < size; i++) {
+		  ChemicalSystem* system = (ChemicalSystem*) chemical_system_ptrs[i];
+		  std::string error;
+		  auto start = std::chrono::steady_clock::now();
+		  try {
+			  if(set_up)
+				  system->setUp();
+			  solveEquilibrium(system, max_iterations[i]);
+		  }
+		  catch (const MissingProducedSpeciesInReaction& e) {
+			  error = jni_interface.ExceptionMessage(
+					  "chemmisol::MissingProducedSpeciesInReaction", e);
+		  }
+		  catch (const TooManyProducedSpeciesInReaction& e) {
+			  error = jni_interface.ExceptionMessage(
+					  "chemmisol::InvalidSpeciesInReaction", e);
+		  }
+		  wall_times[i] = (jlong) std::chrono::duration_cast<std::chrono::nanoseconds>(
+				  std::chrono::steady_clock::now() - start).count();
+		  if(!error.empty()) {
+			  jstring jerror = env->NewStringUTF(error.c_str());
+			  env->SetObjectArrayElement(jerrors, i, jerror);
+			  env->DeleteLocalRef(jerror);
+			  continue;
+		  }
+		  // The solved state is read back in the same call, so that the Java
+		  // side does not cross JNI again for each system
+		  if(jconcentrations != NULL) {
+			  std::vector<jdouble> _concentrations(system->getSpecies().size());
+			  concentrations(system, _concentrations.data());
+			  jdoubleArray jsystem_concentrations
+				  = env->NewDoubleArray(_concentrations.size());
+			  env->SetDoubleArrayRegion(
+					  jsystem_concentrations, 0, _concentrations.size(),
+					  _concentrations.data());
+			  env->SetObjectArrayElement(jconcentrations, i, jsystem_concentrations);
+			  env->DeleteLocalRef(jsystem_concentrations);
+		  }
+		  if(jinputs != NULL) {
+			  std::vector<jdouble> _inputs(system->getComponents().size());
+			  inputs(system, _inputs.data());
+			  jdoubleArray jsystem_inputs = env->NewDoubleArray(_inputs.size());
+			  env->SetDoubleArrayRegion(
+					  jsystem_inputs, 0, _inputs.size(), _inputs.data());
+			  env->SetObjectArrayElement(jinputs, i, jsystem_inputs);
+			  env->DeleteLocalRef(jsystem_inputs);
+		  }
+	  }
+	  env->SetLongArrayRegion(jwall_times, 0, size, wall_times.data());
 	  CHEM_JAVA_LOG(INFO) << "Done.";
   }
 
 JNIEXPORT jdouble JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_concentration
-  (JNIEnv * env, jclass, jlong chemical_system_ptr, jstring jspecies_name) {
+  (JNIEnv * env, jclass, jlong chemical_system_ptr, jint species_index) {
 	  JNIInterface jni_interface(env);
+	  if(!jni_interface.CheckIndex(species_index,
+				  ((ChemicalSystem*) chemical_system_ptr)->getSpecies().size(),
+				  "species"))
+		  return 0;
 	  return ((ChemicalSystem*) chemical_system_ptr)
-		  ->getSpecies(jni_interface.convert(jspecies_name))
+		  ->getSpecies((std::size_t) species_index)
 			  .concentration();
   }
 
 JNIEXPORT jdouble JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_reactionQuotient
+  (JNIEnv * env, jclass, jlong chemical_system_ptr, jint reaction_index) {
+	  ChemicalSystem* system = (ChemicalSystem*) chemical_system_ptr;
+	  JNIInterface jni_interface(env);
+	  if(!jni_interface.CheckIndex(
+				  reaction_index, system->getReactions().size(), "reaction"))
+		  return 0;
+	  // chemmisol-cpp only computes quotients from reaction names, but the
+	  // name is directly available from the native reaction
+	  return system->reactionQuotient(
+			  system->getReaction((std::size_t) reaction_index).getName());
+  }
+
+JNIEXPORT jint JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_speciesIndex
+  (JNIEnv * env, jclass, jlong chemical_system_ptr, jstring jspecies_name) {
+	  JNIInterface jni_interface(env);
+	  return indexOf(
+			  ((ChemicalSystem*) chemical_system_ptr)->getSpecies(),
+			  jni_interface.convert(jspecies_name));
+  }
+
+JNIEXPORT jint JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_componentIndex
+  (JNIEnv * env, jclass, jlong chemical_system_ptr, jstring jcomponent_name) {
+	  JNIInterface jni_interface(env);
+	  return indexOf(
+			  ((ChemicalSystem*) chemical_system_ptr)->getComponents(),
+			  jni_interface.convert(jcomponent_name));
+  }
+
+JNIEXPORT jint JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_reactionIndex
   (JNIEnv * env, jclass, jlong chemical_system_ptr, jstring jreaction_name) {
 	  JNIInterface jni_interface(env);
-	  return ((ChemicalSystem*) chemical_system_ptr)
-		  ->reactionQuotient(jni_interface.convert(jreaction_name));
+	  return indexOf(
+			  ((ChemicalSystem*) chemical_system_ptr)->getReactions(),
+			  jni_interface.convert(jreaction_name));
+  }
+
+JNIEXPORT jint JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_speciesCount
+  (JNIEnv *, jclass, jlong chemical_system_ptr) {
+	  return (jint) ((ChemicalSystem*) chemical_system_ptr)->getSpecies().size();
+  }
+
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_concentrations__J_3D
+  (JNIEnv * env, jclass, jlong chemical_system_ptr, jdoubleArray jconcentrations) {
+	  // No JNI call is performed in the critical section, so that the array
+	  // can be written in place
+	  jdouble* _concentrations = (jdouble*) env->GetPrimitiveArrayCritical(
+			  jconcentrations, NULL);
+	  concentrations((ChemicalSystem*) chemical_system_ptr, _concentrations);
+	  env->ReleasePrimitiveArrayCritical(jconcentrations, _concentrations, 0);
+  }
+
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_setConcentrations
+  (JNIEnv * env, jclass, jlong chemical_system_ptr, jdoubleArray jconcentrations) {
+	  jdouble* _concentrations = (jdouble*) env->GetPrimitiveArrayCritical(
+			  jconcentrations, NULL);
+	  setConcentrations((ChemicalSystem*) chemical_system_ptr, _concentrations);
+	  env->ReleasePrimitiveArrayCritical(jconcentrations, _concentrations, JNI_ABORT);
+  }
+
+JNIEXPORT jint JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_componentCount
+  (JNIEnv *, jclass, jlong chemical_system_ptr) {
+	  return (jint) ((ChemicalSystem*) chemical_system_ptr)->getComponents().size();
+  }
+
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_inputs
+  (JNIEnv * env, jclass, jlong chemical_system_ptr, jdoubleArray jinputs) {
+	  jdouble* _inputs = (jdouble*) env->GetPrimitiveArrayCritical(jinputs, NULL);
+	  inputs((ChemicalSystem*) chemical_system_ptr, _inputs);
+	  env->ReleasePrimitiveArrayCritical(jinputs, _inputs, 0);
+  }
+
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_concentrations__JLjava_nio_DoubleBuffer_2I
+  (JNIEnv * env, jclass, jlong chemical_system_ptr, jobject jconcentrations, jint offset) {
+	  jdouble* _concentrations = (jdouble*) env->GetDirectBufferAddress(
+			  jconcentrations);
+	  concentrations((ChemicalSystem*) chemical_system_ptr, _concentrations + offset);
   }
 
 JNIEXPORT jdouble JNICALL Java_ummisco_gama_chemmisol_ChemicalSystem_sitesQuantity
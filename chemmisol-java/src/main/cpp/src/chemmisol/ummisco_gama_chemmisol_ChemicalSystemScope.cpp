@@ -0,0 +1,89 @@
+#include "chemmisol/ummisco_gama_chemmisol_ChemicalSystemScope.h"
+#include "jni_interface.h"
+
+#include <algorithm>
+#include <memory>
+#include <type_traits>
+#include <utility>
+#include <vector>
+
+using namespace chemmisol;
+
+namespace {
+	/*
+	 * Arena of native chemical systems.
+	 *
+	 * Systems are constructed in place in blocks of contiguous slots, whose
+	 * size doubles up to MAX_BLOCK_SIZE, so that the arena performs one
+	 * allocation per block instead of one per system. All the systems are
+	 * destroyed and all the blocks are freed when the arena is deleted.
+	 */
+	class ChemicalSystemArena {
+		typedef std::aligned_storage<
+			sizeof(ChemicalSystem), alignof(ChemicalSystem)>::type Slot;
+		static const std::size_t MIN_BLOCK_SIZE = 16;
+		static const std::size_t MAX_BLOCK_SIZE = 1024;
+
+		std::vector<std::unique_ptr<Slot[]>> blocks;
+		std::size_t block_size = 0;
+		std::size_t used_slots = 0;
+		std::vector<ChemicalSystem*> systems;
+
+		public:
+		template<typename... Args>
+			ChemicalSystem* allocate(Args&&... args) {
+				if(used_slots == block_size) {
+					block_size = block_size == 0 ?
+						MIN_BLOCK_SIZE : std::min(2 * block_size, MAX_BLOCK_SIZE);
+					blocks.emplace_back(new Slot[block_size]);
+					used_slots = 0;
+				}
+				systems.reserve(systems.size() + 1);
+				// The slot is only used if the constructor does not throw
+				ChemicalSystem* system = new (&blocks.back()[used_slots])
+					ChemicalSystem(std::forward<Args>(args)...);
+				used_slots++;
+				systems.push_back(system);
+				return system;
+			}
+
+		~ChemicalSystemArena() {
+			for(ChemicalSystem* system : systems)
+				system->~ChemicalSystem();
+		}
+	};
+}
+
+JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystemScope_allocateArena
+  (JNIEnv *, jclass) {
+	return (jlong) new ChemicalSystemArena();
+}
+
+JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystemScope_allocate__J
+  (JNIEnv *, jclass, jlong arena_ptr) {
+	return (jlong) ((ChemicalSystemArena*) arena_ptr)->allocate();
+}
+
+JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystemScope_allocate__JDDD
+  (JNIEnv *, jclass, jlong arena_ptr,
+   jdouble solid_concentration,
+   jdouble specific_surface_area,
+   jdouble site_concentration) {
+	ChemicalSystem* system = ((ChemicalSystemArena*) arena_ptr)->allocate(
+			(double) solid_concentration,
+			(double) specific_surface_area,
+			(double) site_concentration);
+	CHEM_JAVA_LOG(INFO) << "Mineral system: " << system->sitesQuantity();
+	return (jlong) system;
+}
+
+JNIEXPORT jlong JNICALL Java_ummisco_gama_chemmisol_ChemicalSystemScope_copy
+  (JNIEnv *, jclass, jlong arena_ptr, jlong chemical_system_ptr) {
+	return (jlong) ((ChemicalSystemArena*) arena_ptr)->allocate(
+			*(const ChemicalSystem*) chemical_system_ptr);
+}
+
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_ChemicalSystemScope_disposeArena
+  (JNIEnv *, jclass, jlong arena_ptr) {
+	delete (ChemicalSystemArena*) arena_ptr;
+}
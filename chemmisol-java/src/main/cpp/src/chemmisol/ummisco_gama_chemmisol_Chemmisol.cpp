@@ -0,0 +1,7 @@
+#include "chemmisol/ummisco_gama_chemmisol_Chemmisol.h"
+#include "jni_interface.h"
+
+JNIEXPORT void JNICALL Java_ummisco_gama_chemmisol_Chemmisol_setNativeLogLevel
+  (JNIEnv *, jclass, jint log_level) {
+	  chemmisol::setLogLevel(log_level);
+  }
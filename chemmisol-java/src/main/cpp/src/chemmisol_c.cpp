@@ -0,0 +1,236 @@
+#include "chemmisol_c.h"
+#include "equilibrium.h"
+#include "jni_interface.h"
+
+#include <cstring>
+#include <limits>
+
+using namespace chemmisol;
+
+/*
+ * Writes the message of the exception to the error buffer, formatted as the
+ * messages of Java ChemmisolCoreExceptions thrown from JNI functions.
+ */
+static int error(
+		const char* cpp_exception_class_name, const std::exception& e,
+		char* error, size_t error_size) {
+	if(error != NULL && error_size > 0) {
+		std::string message = cpp_exception_class_name;
+		message += ":\n";
+		message += e.what();
+		std::size_t size = std::min(message.size(), error_size - 1);
+		std::memcpy(error, message.data(), size);
+		error[size] = '\0';
+	}
+	return CHEMMISOL_C_ERROR;
+}
+
+static Phase phase(int c_phase) {
+	switch(c_phase) {
+		case CHEMMISOL_C_SOLVENT:
+			return SOLVENT;
+		case CHEMMISOL_C_MINERAL:
+			return MINERAL;
+		default:
+			return AQUEOUS;
+	}
+}
+
+template<typename T>
+static int indexOf(
+		const std::vector<std::unique_ptr<T>>& entities,
+		const char* name) {
+	for(const auto& entity : entities)
+		if(entity->getName() == name)
+			return (int) entity->getIndex();
+	return -1;
+}
+
+void* chemmisol_allocate(void) {
+	return new ChemicalSystem();
+}
+
+void* chemmisol_allocate_mineral(
+		double solid_concentration,
+		double specific_surface_area,
+		double site_concentration) {
+	ChemicalSystem* system = new ChemicalSystem(
+			solid_concentration,
+			specific_surface_area,
+			site_concentration);
+	CHEM_JAVA_LOG(INFO) << "Mineral system: " << system->sitesQuantity();
+	return system;
+}
+
+void chemmisol_dispose(void* system) {
+	delete (ChemicalSystem*) system;
+}
+
+void* chemmisol_copy(const void* system) {
+	return new ChemicalSystem(*(const ChemicalSystem*) system);
+}
+
+void chemmisol_assign(void* system, const void* source) {
+	*(ChemicalSystem*) system = *(const ChemicalSystem*) source;
+}
+
+int chemmisol_add_reaction(
+		void* system, const char* name, double log_k,
+		int reagent_count, const char* const* reagent_names,
+		const int* coefficients, const int* phases,
+		char* error_buffer, size_t error_size) {
+	CHEM_JAVA_LOG(INFO) << "Adding reaction: " << name << " (log K=" << log_k << "): ";
+	std::vector<Reagent> reagents;
+	reagents.reserve(reagent_count);
+	for(int i = 0; i < reagent_count; i++) {
+		reagents.emplace_back(reagent_names[i], phase(phases[i]), coefficients[i]);
+		CHEM_JAVA_LOG(INFO) << "  " << reagents.back().coefficient << " "
+			<< reagents.back().name
+			<< " (" << reagents.back().phase << ")";
+	}
+	// Exceptions must not propagate through the C API, whatever their type
+	try {
+		((ChemicalSystem*) system)->addReaction(name, log_k, reagents);
+	} catch(const std::exception& e) {
+		return error("std::exception", e, error_buffer, error_size);
+	}
+	return CHEMMISOL_C_OK;
+}
+
+int chemmisol_add_component(
+		void* system, const char* name, int c_phase, double total_concentration,
+		char* error_buffer, size_t error_size) {
+	CHEM_JAVA_LOG(INFO) << "Adding component: " << name << " (" << phase(c_phase)
+		<< "): " << total_concentration;
+	try {
+		((ChemicalSystem*) system)->addComponent(
+				name, phase(c_phase), total_concentration);
+	} catch(const InvalidMineralSpeciesWithUndefinedSitesCount& e) {
+		return error(
+				"chemmisol::InvalidMineralSpeciesWithUndefinedSitesCount", e,
+				error_buffer, error_size);
+	}
+	return CHEMMISOL_C_OK;
+}
+
+void chemmisol_fix_ph(void* system, double ph, const char* h_component_name) {
+	CHEM_JAVA_LOG(INFO) << "Fixing pH to " << ph << " in the " << h_component_name << " component.";
+	((ChemicalSystem*) system)->fixPH(ph, h_component_name);
+}
+
+int chemmisol_set_total_concentration(
+		void* system, int component_index, double concentration) {
+	if(component_index < 0 || (std::size_t) component_index
+			>= ((ChemicalSystem*) system)->getComponents().size())
+		return CHEMMISOL_C_ERROR;
+	((ChemicalSystem*) system)->setTotalConcentration(
+			((ChemicalSystem*) system)->getComponent((std::size_t) component_index),
+			concentration);
+	return CHEMMISOL_C_OK;
+}
+
+int chemmisol_set_up(void* system, char* error_buffer, size_t error_size) {
+	try {
+		((ChemicalSystem*) system)->setUp();
+	}
+	catch (const MissingProducedSpeciesInReaction& e) {
+		return error("chemmisol::MissingProducedSpeciesInReaction", e,
+				error_buffer, error_size);
+	}
+	catch (const TooManyProducedSpeciesInReaction& e) {
+		return error("chemmisol::InvalidSpeciesInReaction", e,
+				error_buffer, error_size);
+	}
+	return CHEMMISOL_C_OK;
+}
+
+int chemmisol_solve(
+		void* c_system, int set_up, const double* initial_guess,
+		int max_iteration, double* c_statistics,
+		char* error_buffer, size_t error_size) {
+	ChemicalSystem* system = (ChemicalSystem*) c_system;
+	CHEM_JAVA_LOG(INFO) << "Solving system using " << max_iteration << " iterations.";
+	SolveStatistics statistics;
+	auto start = std::chrono::steady_clock::now();
+	try {
+		if(set_up)
+			system->setUp();
+		if(initial_guess != NULL)
+			setConcentrations(system, initial_guess);
+		solveEquilibrium(system, max_iteration);
+	}
+	catch (const MissingProducedSpeciesInReaction& e) {
+		return error("chemmisol::MissingProducedSpeciesInReaction", e,
+				error_buffer, error_size);
+	}
+	catch (const TooManyProducedSpeciesInReaction& e) {
+		return error("chemmisol::InvalidSpeciesInReaction", e,
+				error_buffer, error_size);
+	}
+	statistics.wall_time = std::chrono::duration_cast<std::chrono::nanoseconds>(
+			std::chrono::steady_clock::now() - start);
+	CHEM_JAVA_LOG(INFO) << "Done in " << statistics.wall_time.count() << "ns.";
+	c_statistics[0] = (double) statistics.iteration_count;
+	c_statistics[1] = statistics.residual;
+	c_statistics[2] = (double) statistics.wall_time.count();
+	return CHEMMISOL_C_OK;
+}
+
+int chemmisol_species_index(void* system, const char* name) {
+	return indexOf(((ChemicalSystem*) system)->getSpecies(), name);
+}
+
+int chemmisol_component_index(void* system, const char* name) {
+	return indexOf(((ChemicalSystem*) system)->getComponents(), name);
+}
+
+int chemmisol_reaction_index(void* system, const char* name) {
+	return indexOf(((ChemicalSystem*) system)->getReactions(), name);
+}
+
+int chemmisol_species_count(void* system) {
+	return (int) ((ChemicalSystem*) system)->getSpecies().size();
+}
+
+int chemmisol_component_count(void* system) {
+	return (int) ((ChemicalSystem*) system)->getComponents().size();
+}
+
+int chemmisol_reaction_count(void* system) {
+	return (int) ((ChemicalSystem*) system)->getReactions().size();
+}
+
+double chemmisol_concentration(void* system, int species_index) {
+	if(species_index < 0 || (std::size_t) species_index
+			>= ((ChemicalSystem*) system)->getSpecies().size())
+		return std::numeric_limits<double>::quiet_NaN();
+	return ((ChemicalSystem*) system)
+		->getSpecies((std::size_t) species_index)
+		.concentration();
+}
+
+void chemmisol_concentrations(void* system, double* c_concentrations) {
+	concentrations((ChemicalSystem*) system, c_concentrations);
+}
+
+void chemmisol_set_concentrations(void* system, const double* c_concentrations) {
+	setConcentrations((ChemicalSystem*) system, c_concentrations);
+}
+
+void chemmisol_inputs(void* system, double* c_inputs) {
+	inputs((ChemicalSystem*) system, c_inputs);
+}
+
+double chemmisol_reaction_quotient(void* system, int reaction_index) {
+	ChemicalSystem* chemical_system = (ChemicalSystem*) system;
+	if(reaction_index < 0 || (std::size_t) reaction_index
+			>= chemical_system->getReactions().size())
+		return std::numeric_limits<double>::quiet_NaN();
+	// chemmisol-cpp only computes quotients from reaction names
+	return chemical_system->reactionQuotient(
+			chemical_system->getReaction((std::size_t) reaction_index).getName());
+}
+
+double chemmisol_sites_quantity(void* system) {
+	return ((ChemicalSystem*) system)->sitesQuantity();
+}
@@ -0,0 +1,52 @@
+#include "equilibrium.h"
+
+namespace chemmisol {
+	void concentrations(const ChemicalSystem* system, double* concentrations) {
+		for(const auto& species : system->getSpecies())
+			concentrations[species->getIndex()] = species->concentration();
+	}
+
+	void setConcentrations(ChemicalSystem* system, const double* concentrations) {
+		for(const auto& species : system->getSpecies())
+			// Species are only exposed as const by chemmisol-cpp
+			const_cast<ChemicalSpecies&>(*species).setConcentration(
+					concentrations[species->getIndex()]);
+	}
+
+	void inputs(const ChemicalSystem* system, double* inputs) {
+		for(const auto& component : system->getComponents())
+			// The input of a fixed component, such as H+ when the pH is
+			// fixed, is its concentration
+			inputs[component->getIndex()] = component->isFixed() ?
+				component->getSpecies()->concentration() :
+				component->getTotalQuantity();
+	}
+
+	namespace {
+		/*
+		 * Sets the maximum count of iterations of a system, and restores the
+		 * previous one when destroyed.
+		 */
+		class MaxIterationGuard {
+			ChemicalSystem* system;
+			std::size_t previous_max_iteration;
+
+			public:
+			MaxIterationGuard(ChemicalSystem* system, std::size_t max_iteration)
+				: system(system),
+				previous_max_iteration(system->getMaxIteration()) {
+				system->setMaxIteration(max_iteration);
+			}
+			MaxIterationGuard(const MaxIterationGuard&) = delete;
+			MaxIterationGuard& operator=(const MaxIterationGuard&) = delete;
+			~MaxIterationGuard() {
+				system->setMaxIteration(previous_max_iteration);
+			}
+		};
+	}
+
+	void solveEquilibrium(ChemicalSystem* system, std::size_t max_iteration) {
+		MaxIterationGuard guard(system, max_iteration);
+		system->solveEquilibrium();
+	}
+}
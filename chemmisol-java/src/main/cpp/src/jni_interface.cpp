@@ -1,49 +1,137 @@
 #include "jni_interface.h"
+#include <string>
 
 el::Logger* chemmisol_java_logger = chemmisol::init_logger(CHEM_JAVA_LOGID);
 
 jint JNI_OnLoad(JavaVM *vm, void *reserved) {
-	el::Configurations logger_conf;
-
-	//logger_conf.setGlobally(
-			//el::ConfigurationType::Format, "[chemmisol-cpp][%level] %msg");
-	//logger_conf.setGlobally(
-			//el::ConfigurationType::Filename, "chemmisol-cpp.log");
-	logger_conf.set(el::Level::Trace, el::ConfigurationType::Enabled, "true");
-	el::Loggers::reconfigureLogger(chemmisol::core_logger, logger_conf);
+	JNIEnv* env;
+	if(vm->GetEnv((void**) &env, JNI_VERSION_10) != JNI_OK)
+		return JNI_ERR;
+	if(!chemmisol::jni_cache.init(env))
+		return JNI_ERR;
+
+	// Applies the log level configured on the Java side, and notifies the
+	// Chemmisol class that further level changes can be forwarded to the
+	// native library
+	jclass chemmisol_class = env->FindClass(JCHEMMISOL);
+	if(env->ExceptionCheck())
+		return JNI_ERR;
+	jint level = env->CallStaticIntMethod(chemmisol_class,
+			env->GetStaticMethodID(chemmisol_class, "onNativeLoad", "()" JINT));
+	if(env->ExceptionCheck())
+		return JNI_ERR;
+	env->DeleteLocalRef(chemmisol_class);
+	chemmisol::setLogLevel(level);
 
 	return JNI_VERSION_10;
 }
 
+void JNI_OnUnload(JavaVM *vm, void *reserved) {
+	JNIEnv* env;
+	if(vm->GetEnv((void**) &env, JNI_VERSION_10) == JNI_OK)
+		chemmisol::jni_cache.release(env);
+}
+
 namespace chemmisol {
+	std::atomic<int> log_level {CHEM_JAVA_LOG_LEVEL_WARNING};
+
+	void setLogLevel(int level) {
+		log_level.store(level, std::memory_order_relaxed);
+
+		const std::pair<el::Level, int> levels[] = {
+			{el::Level::Trace, CHEM_JAVA_LOG_LEVEL_TRACE},
+			{el::Level::Debug, CHEM_JAVA_LOG_LEVEL_DEBUG},
+			{el::Level::Verbose, CHEM_JAVA_LOG_LEVEL_DEBUG},
+			{el::Level::Info, CHEM_JAVA_LOG_LEVEL_INFO},
+			{el::Level::Warning, CHEM_JAVA_LOG_LEVEL_WARNING},
+			{el::Level::Error, CHEM_JAVA_LOG_LEVEL_ERROR},
+			{el::Level::Fatal, CHEM_JAVA_LOG_LEVEL_ERROR}
+		};
+		el::Configurations logger_conf;
+		for(const auto& item : levels)
+			logger_conf.set(item.first, el::ConfigurationType::Enabled,
+					item.second >= level ? "true" : "false");
+		el::Loggers::reconfigureLogger(chemmisol::core_logger, logger_conf);
+		el::Loggers::reconfigureLogger(CHEM_JAVA_LOGID, logger_conf);
+	}
 
-	void mapPhase(
-			const JNIInterface& jni_interface,
-			std::unordered_map<std::string, chemmisol::Phase>& map_phase) {
-		map_phase = {
-			{jni_interface.GetEnumerator("ummisco/gama/chemmisol/Phase", "SOLVENT"),
-				chemmisol::SOLVENT},
-			{jni_interface.GetEnumerator("ummisco/gama/chemmisol/Phase", "AQUEOUS"),
-				chemmisol::AQUEOUS},
-			{jni_interface.GetEnumerator("ummisco/gama/chemmisol/Phase", "MINERAL"),
-				chemmisol::MINERAL}
+	JNICache jni_cache;
+
+	bool JNICache::init(JNIEnv* env) {
+		jclass exception_class = env->FindClass(JCHEMMISOL_CORE_EXCEPTION);
+		jclass reaction_class = env->FindClass("ummisco/gama/chemmisol/Reaction");
+		jclass entity_class = env->FindClass("ummisco/gama/chemmisol/ChemicalEntity");
+		jclass reagent_class = env->FindClass("ummisco/gama/chemmisol/Reagent");
+		jclass component_class = env->FindClass("ummisco/gama/chemmisol/ChemicalComponent");
+		jclass phase_class = env->FindClass("ummisco/gama/chemmisol/Phase");
+		jclass list_class = env->FindClass("java/util/List");
+		jclass iterator_class = env->FindClass("java/util/Iterator");
+		jclass enum_class = env->FindClass("java/lang/Enum");
+		if(env->ExceptionCheck())
+			return false;
+
+		chemmisol_core_exception = (jclass) env->NewGlobalRef(exception_class);
+
+		reaction_get_name = env->GetMethodID(reaction_class, "getName", "()" JSTRING);
+		reaction_get_log_k = env->GetMethodID(reaction_class, "getLogK", "()" JDOUBLE);
+		reaction_get_reagents = env->GetMethodID(reaction_class, "getReagents", "()" JLIST);
+
+		entity_get_name = env->GetMethodID(entity_class, "getName", "()" JSTRING);
+		entity_get_phase = env->GetMethodID(entity_class, "getPhase", "()" JPHASE);
+		reagent_get_coefficient = env->GetMethodID(reagent_class, "getCoefficient", "()" JINT);
+
+		component_get_name = env->GetMethodID(component_class, "getName", "()" JSTRING);
+		component_get_phase = env->GetMethodID(component_class, "getPhase", "()" JPHASE);
+		component_get_total_concentration = env->GetMethodID(
+				component_class, "getTotalConcentration", "()" JDOUBLE);
+
+		list_iterator = env->GetMethodID(list_class, "iterator", "()" JITERATOR);
+		iterator_has_next = env->GetMethodID(iterator_class, "hasNext", "()" JBOOLEAN);
+		iterator_next = env->GetMethodID(iterator_class, "next", "()" JOBJECT);
+
+		enum_ordinal = env->GetMethodID(enum_class, "ordinal", "()" JINT);
+		if(env->ExceptionCheck())
+			return false;
+
+		// Maps the ordinal of each Java Phase enumerator to the chemmisol-cpp
+		// Phase with the same name
+		const std::unordered_map<std::string, chemmisol::Phase> map_phase = {
+			{"SOLVENT", chemmisol::SOLVENT},
+			{"AQUEOUS", chemmisol::AQUEOUS},
+			{"MINERAL", chemmisol::MINERAL}
 		};
+		JNIInterface jni_interface(env);
+		for(const auto& item : map_phase) {
+			jobject phase = env->GetStaticObjectField(phase_class,
+					env->GetStaticFieldID(phase_class, item.first.c_str(), JPHASE)
+					);
+			if(env->ExceptionCheck())
+				return false;
+			std::size_t ordinal = jni_interface.CallIntMethod(phase, enum_ordinal);
+			if(phases.size() <= ordinal)
+				phases.resize(ordinal+1);
+			phases[ordinal] = item.second;
+			env->DeleteLocalRef(phase);
+		}
+
+		env->DeleteLocalRef(exception_class);
+		env->DeleteLocalRef(reaction_class);
+		env->DeleteLocalRef(entity_class);
+		env->DeleteLocalRef(reagent_class);
+		env->DeleteLocalRef(component_class);
+		env->DeleteLocalRef(phase_class);
+		env->DeleteLocalRef(list_class);
+		env->DeleteLocalRef(iterator_class);
+		env->DeleteLocalRef(enum_class);
+		return true;
 	}
 
-	std::string JNIInterface::GetEnumerator(
-			const char* class_name, const char* enumerator_name) const {
-		std::string sig("L");
-		sig.append(class_name);
-		sig.append(";");
-		return CallStringMethod(GetStaticObjectField(
-					class_name,
-					enumerator_name,
-					sig.data()), "name", "()" JSTRING);
+	void JNICache::release(JNIEnv* env) {
+		env->DeleteGlobalRef(chemmisol_core_exception);
 	}
 
 	JNIInterface::JNIInterface(JNIEnv* env)
 		: env(env) {
-			mapPhase(*this, map_phase);
 		}
 
 	std::string JNIInterface::convert(jstring java_str) const {
@@ -55,114 +143,88 @@ namespace chemmisol {
 		return cpp_str;
 	}
 
-	jobject JNIInterface::GetStaticObjectField(
-			const char* class_name, const char* name, const char* signature) const {
-		auto clazz = env->FindClass(class_name);
-		return env->GetStaticObjectField(clazz,
-				env->GetStaticFieldID(clazz, name, signature)
-				);
-	}
-
-	void JNIInterface::CallVoidMethod(
-			jobject obj, const char* name, const char* signature, ...) const {
-		std::va_list args;
-		va_start(args, signature);
-		env->CallVoidMethodV(obj,
-				env->GetMethodID(env->GetObjectClass(obj), name, signature), args
-				);
-	}
-
-	jobject JNIInterface::CallObjectMethod(
-			jobject obj, const char* name, const char* signature, ...) const {
-		std::va_list args;
-		va_start(args, signature);
-		return env->CallObjectMethodV(obj,
-				env->GetMethodID(env->GetObjectClass(obj), name, signature), args
-				);
+	jobject JNIInterface::CallObjectMethod(jobject obj, jmethodID method) const {
+		return env->CallObjectMethod(obj, method);
 	}
 
-	std::string JNIInterface::CallStringMethod(
-			jobject obj, const char* name, const char* signature) const {
-		jstring java_str = (jstring) env->CallObjectMethod(obj,
-				env->GetMethodID(env->GetObjectClass(obj), name, signature)
-				);
-		return convert(java_str);
+	std::string JNIInterface::CallStringMethod(jobject obj, jmethodID method) const {
+		jstring java_str = (jstring) env->CallObjectMethod(obj, method);
+		std::string cpp_str = convert(java_str);
+		env->DeleteLocalRef(java_str);
+		return cpp_str;
 	}
 
-	double JNIInterface::CallDoubleMethod(
-			jobject obj, const char* name, const char* signature) const {
-		return env->CallDoubleMethod(
-				obj,
-				env->GetMethodID(
-					env->GetObjectClass(obj),
-					name, signature
-					)
-				);
+	double JNIInterface::CallDoubleMethod(jobject obj, jmethodID method) const {
+		return env->CallDoubleMethod(obj, method);
 	}
 
-	long int JNIInterface::CallIntMethod(
-			jobject obj, const char* name, const char* signature) const {
-		return env->CallIntMethod(
-				obj,
-				env->GetMethodID(
-					env->GetObjectClass(obj),
-					name, signature
-					)
-				);
+	long int JNIInterface::CallIntMethod(jobject obj, jmethodID method) const {
+		return env->CallIntMethod(obj, method);
 	}
 
-	bool JNIInterface::CallBooleanMethod(
-			jobject obj, const char* name, const char* signature) const {
-		return env->CallBooleanMethod(
-				obj,
-				env->GetMethodID(
-					env->GetObjectClass(obj),
-					name, signature
-					)
-				);
+	bool JNIInterface::CallBooleanMethod(jobject obj, jmethodID method) const {
+		return env->CallBooleanMethod(obj, method);
 	}
 
-	std::list<jobject> JNIInterface::CallListMethod(
-			jobject obj, const char* name, const char* signature) const {
-		jobject jlist = CallObjectMethod(
-				obj, name, signature
-				);
+	std::list<jobject> JNIInterface::CallListMethod(jobject obj, jmethodID method) const {
+		jobject jlist = CallObjectMethod(obj, method);
 
 		std::list<jobject> cpp_list;
-		jobject jiterator = CallObjectMethod(
-				jlist, "iterator", "()" JITERATOR
-				);
+		jobject jiterator = CallObjectMethod(jlist, jni_cache.list_iterator);
 
-		while(CallBooleanMethod(jiterator, "hasNext", "()" JBOOLEAN)) {
+		while(CallBooleanMethod(jiterator, jni_cache.iterator_has_next)) {
 			cpp_list.push_back(
-					CallObjectMethod(
-						jiterator, "next", "()Ljava/lang/Object;"
-						));
+					CallObjectMethod(jiterator, jni_cache.iterator_next)
+					);
 		}
+		env->DeleteLocalRef(jiterator);
+		env->DeleteLocalRef(jlist);
 
 		return cpp_list;
 	}
 
-	chemmisol::Phase JNIInterface::CallPhaseMethod(
-			jobject obj, const char* name, const char* signature) const {
-		return map_phase.find(
-				CallStringMethod(
-					CallObjectMethod(obj, name, signature),
-					"name", "()" JSTRING
-					))->second;
+	chemmisol::Phase JNIInterface::CallPhaseMethod(jobject obj, jmethodID method) const {
+		jobject phase = CallObjectMethod(obj, method);
+		chemmisol::Phase cpp_phase
+			= jni_cache.phases[CallIntMethod(phase, jni_cache.enum_ordinal)];
+		env->DeleteLocalRef(phase);
+		return cpp_phase;
+	}
+
+	std::string JNIInterface::ExceptionMessage(
+			const char* cpp_exception_class_name,
+			const std::exception& cpp_exception) const {
+		std::string message = cpp_exception_class_name;
+		message += ":\n";
+		message += cpp_exception.what();
+		return message;
 	}
 
 	void JNIInterface::ThrowNew(
 			const char* cpp_exception_class_name,
-			const char* java_exception_class_name,
+			jclass exception_class,
 			const std::exception& cpp_exception) const {
-		std::string message = 
-				  "chemmisol::MissingProducedSpeciesInReaction:\n";
-		  message += cpp_exception.what();
-
-		  env->ThrowNew(
-				  env->FindClass(java_exception_class_name),
-				  message.c_str()
-				  );
+		std::string message = ExceptionMessage(
+				cpp_exception_class_name, cpp_exception);
+
+		  env->ThrowNew(exception_class, message.c_str());
+	}
+
+	bool JNIInterface::CheckIndex(
+			jint index, std::size_t count, const char* entity_name) const {
+		if(index >= 0 && (std::size_t) index < count)
+			return true;
+		// Only resolved on failure, invalid handles not being expected in
+		// the nominal case
+		jclass exception_class = env->FindClass("java/lang/IndexOutOfBoundsException");
+		if(exception_class != NULL) {
+			std::string message = "Invalid " + std::string(entity_name) + " index "
+				+ std::to_string(index) + " for " + std::to_string(count) + " "
+				+ entity_name + "s: the handle might be stale or resolved from "
+				+ "another system.";
+			env->ThrowNew(exception_class, message.c_str());
+			env->DeleteLocalRef(exception_class);
+		}
+		return false;
 	}
 }
@@ -0,0 +1,349 @@
+package ummisco.gama.chemmisol;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+import ummisco.gama.chemmisol.JavaEquilibriumEngine.Model;
+import ummisco.gama.chemmisol.JavaEquilibriumEngine.State;
+import ummisco.gama.chemmisol.VectorizedEquilibriumSolver.Lanes;
+
+/**
+ * State of a large number of cells sharing the definitions of a prototype
+ * chemical system, stored in contiguous off-heap memory.
+ *
+ * <p>
+ * Managing one {@link ChemicalSystem} per cell costs several Java objects and
+ * a native allocation per cell. A ChemicalGrid instead stores the state of
+ * all its cells in three direct buffers, indexed by cell id:
+ * <ul>
+ * <li>the inputs of each cell, indexed by component index: the total
+ * concentration of each component, or the concentration of the H+ component
+ * if the pH of the prototype is fixed;</li>
+ * <li>the concentration of each species of each cell, indexed by species
+ * index;</li>
+ * <li>the residual of the last solve of each cell, as defined by {@link
+ * SolveResult#getResidual()}.</li>
+ * </ul>
+ * The value of the component with index j in cell c is at index {@code c *
+ * getComponentCount() + j} of {@link getInputs()}, and the concentration of
+ * the species with index s in cell c is at index {@code c *
+ * getSpeciesCount() + s} of {@link getConcentrations()}. Component and
+ * species indexes are the indexes of the prototype, so handles of the
+ * prototype can be used to access the cells of the grid.
+ *
+ * <p>
+ * Cells are solved in lockstep by the {@link VectorizedEquilibriumSolver}
+ * iteration, reading inputs and initial concentrations directly from the
+ * buffers and writing solved concentrations back to them, without any native
+ * call. The count of objects allocated by a solve is thus independent of the
+ * count of cells.
+ *
+ * <p>
+ * Disjoint ranges of cells can be solved concurrently by several threads
+ * (see {@link solve(int, int, SolverOptions)}).
+ *
+ * <h2>Example</h2>
+ *
+ * <pre>
+ * try(ChemicalSystem prototype = network.newSystem()) {
+ * 	prototype.fixPH(7);
+ * 	grid = new ChemicalGrid(prototype, 1_000_000);
+ * }
+ * ComponentHandle PO4 = grid.component("PO4-3");
+ * for(int cell = 0; cell &lt; grid.getCellCount(); cell++)
+ * 	grid.setTotalConcentration(cell, PO4, phosphorus[cell]);
+ * grid.solve();
+ * </pre>
+ */
+public class ChemicalGrid {
+	private final Model model;
+	private final State state;
+	private final int cell_count;
+	private final int component_count;
+	private final int species_count;
+	private final int ph_component_index;
+	private final Map<String, ComponentHandle> component_handles
+		= new HashMap<String, ComponentHandle>();
+	private final Map<String, SpeciesHandle> species_handles
+		= new HashMap<String, SpeciesHandle>();
+
+	private final DoubleBuffer inputs;
+	private final DoubleBuffer concentrations;
+	private final DoubleBuffer residuals;
+
+	/**
+	 * Initializes a grid of cells with the definitions of the prototype.
+	 *
+	 * <p>
+	 * The prototype is set up if required, and all the cells are initialized
+	 * with its inputs and current concentrations. The prototype is not used
+	 * anymore once the grid is built, and can be closed.
+	 *
+	 * @param prototype Chemical system whose definitions are used by all the
+	 * cells.
+	 * @param cell_count Count of cells.
+	 *
+	 * @throws ChemmisolCoreException if the prototype cannot be set up.
+	 * @throws IllegalArgumentException if the grid does not fit in direct
+	 * buffers.
+	 */
+	public ChemicalGrid(ChemicalSystem prototype, int cell_count) throws ChemmisolCoreException {
+		if(cell_count < 0)
+			throw new IllegalArgumentException("The cell count must not be negative.");
+		this.state = JavaEquilibriumEngine.state(prototype);
+		this.model = state.model;
+		this.cell_count = cell_count;
+		this.component_count = state.inputs.length;
+		this.species_count = state.native_species_count;
+		int ph_component_index = -1;
+		for(int j = 0; j < model.component_count; j++) {
+			component_handles.put(model.component_names[j], new ComponentHandle(
+						model.component_names[j], state.component_native_indexes[j]));
+			if(state.fixed[j])
+				ph_component_index = state.component_native_indexes[j];
+		}
+		this.ph_component_index = ph_component_index;
+		for(int s = 0; s < model.species_count; s++)
+			species_handles.put(model.species_names[s], new SpeciesHandle(
+						model.species_names[s], state.species_native_indexes[s]));
+
+		inputs = allocate(cell_count, component_count);
+		concentrations = allocate(cell_count, species_count);
+		residuals = allocate(cell_count, 1);
+		prototype.readInputs(state.inputs);
+		prototype.readConcentrations(state.native_concentrations);
+		for(int cell = 0; cell < cell_count; cell++) {
+			for(int j = 0; j < component_count; j++)
+				inputs.put(cell * component_count + j, state.inputs[j]);
+			for(int s = 0; s < species_count; s++)
+				concentrations.put(cell * species_count + s, state.native_concentrations[s]);
+			residuals.put(cell, Double.NaN);
+		}
+	}
+
+	private static DoubleBuffer allocate(int cell_count, int count) {
+		long size = (long) cell_count * count * Double.BYTES;
+		if(size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+					"The grid is too large: " + size + " bytes required for "
+					+ cell_count + " cells.");
+		return ByteBuffer.allocateDirect((int) size)
+			.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+	}
+
+	/**
+	 * Gets the count of cells of the grid.
+	 *
+	 * @return count of cells
+	 */
+	public int getCellCount() {
+		return cell_count;
+	}
+
+	/**
+	 * Gets the count of inputs of each cell, i.e. the count of components of
+	 * the prototype.
+	 *
+	 * @return count of components
+	 */
+	public int getComponentCount() {
+		return component_count;
+	}
+
+	/**
+	 * Gets the count of species of each cell.
+	 *
+	 * @return count of species
+	 */
+	public int getSpeciesCount() {
+		return species_count;
+	}
+
+	/**
+	 * Resolves a handle to the component with the specified name.
+	 *
+	 * @param component_name Name of a component of the prototype.
+	 * @return handle to the component
+	 * @throws IllegalArgumentException if the component is not defined.
+	 */
+	public ComponentHandle component(String component_name) {
+		ComponentHandle handle = component_handles.get(component_name);
+		if(handle == null)
+			throw new IllegalArgumentException(
+					"Undefined component: " + component_name);
+		return handle;
+	}
+
+	/**
+	 * Resolves a handle to the species with the specified name.
+	 *
+	 * @param species_name Name of a species of the prototype.
+	 * @return handle to the species
+	 * @throws IllegalArgumentException if the species is not defined.
+	 */
+	public SpeciesHandle species(String species_name) {
+		SpeciesHandle handle = species_handles.get(species_name);
+		if(handle == null)
+			throw new IllegalArgumentException(
+					"Undefined species: " + species_name);
+		return handle;
+	}
+
+	/**
+	 * Returns a view of the inputs of all the cells. Writing to the view
+	 * updates the inputs of the grid.
+	 *
+	 * @return direct buffer of {@code getCellCount() * getComponentCount()}
+	 * elements, using the native byte order
+	 */
+	public DoubleBuffer getInputs() {
+		return inputs.duplicate();
+	}
+
+	/**
+	 * Returns a view of the species concentrations of all the cells. Writing
+	 * to the view sets the initial concentrations of the next solve.
+	 *
+	 * @return direct buffer of {@code getCellCount() * getSpeciesCount()}
+	 * elements, using the native byte order
+	 */
+	public DoubleBuffer getConcentrations() {
+		return concentrations.duplicate();
+	}
+
+	/**
+	 * Returns a read-only view of the residual of the last solve of each
+	 * cell, or NaN if the cell was never solved.
+	 *
+	 * @return direct buffer of {@code getCellCount()} elements
+	 */
+	public DoubleBuffer getResiduals() {
+		return residuals.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Sets the total concentration of a component in a cell.
+	 *
+	 * @param cell Cell id.
+	 * @param component Handle to the component.
+	 * @param total_concentration Total concentration of the component.
+	 */
+	public void setTotalConcentration(int cell, ComponentHandle component, double total_concentration) {
+		inputs.put(cell * component_count + component.getIndex(), total_concentration);
+	}
+
+	/**
+	 * Gets the total concentration of a component in a cell.
+	 *
+	 * @param cell Cell id.
+	 * @param component Handle to the component.
+	 * @return total concentration of the component
+	 */
+	public double getTotalConcentration(int cell, ComponentHandle component) {
+		return inputs.get(cell * component_count + component.getIndex());
+	}
+
+	/**
+	 * Sets the pH of a cell.
+	 *
+	 * @param cell Cell id.
+	 * @param ph pH value.
+	 * @throws IllegalStateException if the pH of the prototype is not fixed.
+	 */
+	public void setPH(int cell, double ph) {
+		inputs.put(cell * component_count + phComponentIndex(), Math.pow(10, -ph));
+	}
+
+	/**
+	 * Gets the pH of a cell.
+	 *
+	 * @param cell Cell id.
+	 * @return pH value
+	 * @throws IllegalStateException if the pH of the prototype is not fixed.
+	 */
+	public double getPH(int cell) {
+		return -Math.log10(inputs.get(cell * component_count + phComponentIndex()));
+	}
+
+	private int phComponentIndex() {
+		if(ph_component_index < 0)
+			throw new IllegalStateException("The pH of the prototype is not fixed.");
+		return ph_component_index;
+	}
+
+	/**
+	 * Gets the concentration of a species in a cell.
+	 *
+	 * @param cell Cell id.
+	 * @param species Handle to the species.
+	 * @return concentration of the species
+	 */
+	public double concentration(int cell, SpeciesHandle species) {
+		return concentrations.get(cell * species_count + species.getIndex());
+	}
+
+	/**
+	 * Solves the equilibrium of all the cells, with the {@link
+	 * SolverOptions#DEFAULT default solver options}.
+	 *
+	 * @return count of cells that did not converge
+	 */
+	public int solve() {
+		return solve(0, cell_count, SolverOptions.DEFAULT);
+	}
+
+	/**
+	 * Solves the equilibrium of the cells in the [from, to) range, starting
+	 * from their current concentrations.
+	 *
+	 * <p>
+	 * Cells are solved in batches of {@value
+	 * VectorizedEquilibriumSolver#DEFAULT_LANE_COUNT} cells. Several threads
+	 * can solve disjoint ranges at the same time.
+	 *
+	 * @param from First cell to solve.
+	 * @param to Cell after the last cell to solve.
+	 * @param solver_options Solver options used for all the cells.
+	 * @return count of cells that did not converge
+	 */
+	public int solve(int from, int to, SolverOptions solver_options) {
+		if(from < 0 || to > cell_count || from > to)
+			throw new IndexOutOfBoundsException(
+					"Invalid cell range [" + from + ", " + to + ") for "
+					+ cell_count + " cells.");
+		int lane_count = VectorizedEquilibriumSolver.DEFAULT_LANE_COUNT;
+		Lanes lanes = new Lanes(state, lane_count);
+		double[] cell_inputs = new double[component_count];
+		double[] cell_concentrations = new double[species_count];
+		int[] cells = new int[lane_count];
+		int not_converged = 0;
+		for(int batch = from; batch < to; batch += lane_count) {
+			int batch_end = Math.min(batch + lane_count, to);
+			for(int cell = batch; cell < batch_end; cell++) {
+				for(int j = 0; j < component_count; j++)
+					cell_inputs[j] = inputs.get(cell * component_count + j);
+				for(int s = 0; s < species_count; s++)
+					cell_concentrations[s] = concentrations.get(cell * species_count + s);
+				cells[lanes.add(cell_inputs, cell_concentrations,
+						state.sites_quantity, solver_options)] = cell;
+			}
+			lanes.iterate();
+			for(int l = 0; l < lanes.size; l++) {
+				int cell = cells[lanes.slots[l]];
+				for(int s = 0; s < model.species_count; s++)
+					concentrations.put(
+							cell * species_count + state.species_native_indexes[s],
+							lanes.concentrations[s * lane_count + l]);
+				residuals.put(cell, lanes.lane_residuals[l]);
+				if(!(lanes.lane_residuals[l] <= lanes.tolerances[l]))
+					not_converged++;
+			}
+			lanes.size = 0;
+		}
+		return not_converged;
+	}
+}
@@ -0,0 +1,49 @@
+package ummisco.gama.chemmisol;
+
+/**
+ * Resolved reference to a named entity of a chemical system.
+ *
+ * <p>
+ * A handle associates the name of an entity to its index within the native
+ * {@code chemmisol-cpp} chemical system, so that the entity can be accessed
+ * without any string conversion or name lookup. Handles are resolved from a
+ * ChemicalSystem, and remain valid as long as no reaction or component is
+ * added to the system.
+ *
+ * @see SpeciesHandle
+ * @see ComponentHandle
+ * @see ReactionHandle
+ */
+public abstract class ChemicalHandle {
+	private final String name;
+	private final int index;
+
+	/**
+	 * Initializes a handle.
+	 *
+	 * @param name Name of the referenced entity.
+	 * @param index Index of the entity in the native chemical system.
+	 */
+	ChemicalHandle(String name, int index) {
+		this.name = name;
+		this.index = index;
+	}
+
+	/**
+	 * Gets the name of the referenced entity.
+	 *
+	 * @return name of the entity
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the index of the referenced entity in the native chemical system.
+	 *
+	 * @return index of the entity
+	 */
+	public int getIndex() {
+		return index;
+	}
+}
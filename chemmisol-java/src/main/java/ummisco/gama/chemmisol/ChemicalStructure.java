@@ -0,0 +1,110 @@
+package ummisco.gama.chemmisol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reactions and components of a chemical system.
+ *
+ * <p>
+ * A structure is immutable: a new structure is created each time a reaction or
+ * a component is added to a system, while copies of a system share the same
+ * structure. The identity of a structure thus identifies systems with the
+ * same reactions and components (see {@link EquilibriumCache}), and
+ * structures can cache data computed from their definitions, such as the
+ * model compiled by the {@link JavaEquilibriumEngine} or the native index of
+ * components.
+ */
+final class ChemicalStructure {
+	private final List<Reaction> reactions;
+	private final List<ChemicalComponent> components;
+	// Model compiled from this structure by a Java equilibrium engine
+	private volatile Object engine_model;
+	// Native index of components, resolved by name
+	private final ConcurrentMap<String, Integer> component_indexes
+		= new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Initializes an empty structure.
+	 */
+	ChemicalStructure() {
+		this(Collections.<Reaction>emptyList(), Collections.<ChemicalComponent>emptyList());
+	}
+
+	private ChemicalStructure(List<Reaction> reactions, List<ChemicalComponent> components) {
+		this.reactions = reactions;
+		this.components = components;
+	}
+
+	/**
+	 * Returns a new structure with the reactions and components of this
+	 * structure, and the specified reaction.
+	 */
+	ChemicalStructure withReaction(Reaction reaction) {
+		List<Reaction> new_reactions = new ArrayList<Reaction>(reactions);
+		new_reactions.add(reaction);
+		return new ChemicalStructure(
+				Collections.unmodifiableList(new_reactions), components);
+	}
+
+	/**
+	 * Returns a new structure with the reactions and components of this
+	 * structure, and the specified reactions.
+	 */
+	ChemicalStructure withReactions(List<Reaction> reactions) {
+		List<Reaction> new_reactions = new ArrayList<Reaction>(this.reactions);
+		new_reactions.addAll(reactions);
+		return new ChemicalStructure(
+				Collections.unmodifiableList(new_reactions), components);
+	}
+
+	/**
+	 * Returns a new structure with the reactions and components of this
+	 * structure, and the specified component.
+	 */
+	ChemicalStructure withComponent(ChemicalComponent component) {
+		List<ChemicalComponent> new_components = new ArrayList<ChemicalComponent>(components);
+		new_components.add(component);
+		return new ChemicalStructure(
+				reactions, Collections.unmodifiableList(new_components));
+	}
+
+	List<Reaction> getReactions() {
+		return reactions;
+	}
+
+	List<ChemicalComponent> getComponents() {
+		return components;
+	}
+
+	boolean hasComponent(String component_name) {
+		for(ChemicalComponent component : components)
+			if(component.getName().equals(component_name))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Gets the native index of the component with the specified name, or
+	 * null if it was not resolved yet. Native indexes are the same in all
+	 * the systems that share this structure.
+	 */
+	Integer getComponentIndex(String component_name) {
+		return component_indexes.get(component_name);
+	}
+
+	void setComponentIndex(String component_name, int component_index) {
+		component_indexes.put(component_name, component_index);
+	}
+
+	Object getEngineModel() {
+		return engine_model;
+	}
+
+	void setEngineModel(Object engine_model) {
+		this.engine_model = engine_model;
+	}
+}
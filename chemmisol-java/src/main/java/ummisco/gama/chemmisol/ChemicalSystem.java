@@ -1,6 +1,9 @@
 package ummisco.gama.chemmisol;
 
 import java.lang.ref.Cleaner;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -26,20 +29,43 @@ import java.util.HashMap;
  *
  * All quantities must currently be specified in <b>core units</b> of the
  * <a href=https://u2worm.github.io/chemmisol-cpp/index.html>chemmisol unit system</a>.
+ *
+ * <h2>Thread safety</h2>
+ *
+ * A ChemicalSystem is <b>not</b> thread safe: each instance must be confined
+ * to a single thread at a time. However, distinct instances do not share any
+ * native state, so that distinct systems can be set up and solved
+ * concurrently from different threads (see {@link ParallelEquilibriumSolver}).
+ * This assumes that the ChemicalSpecies instances tracked by a system are not
+ * shared with other systems solved concurrently, since their concentrations
+ * are updated when the system is solved.
  */
 public class ChemicalSystem implements AutoCloseable {
-	private static final Cleaner cleaner = Cleaner.create();
+	static final Cleaner cleaner = Cleaner.create();
 	private static class CleanState implements Runnable {
+		private final ChemicalSystemBackend backend;
 		private long chemical_system_ptr;
+		// Pool that leased the system, if it is currently leased
+		private volatile ChemicalSystemPool leasing_pool;
+		// Stack trace of the acquisition of the current lease, if tracked
+		private volatile Throwable lease_trace;
 
-		CleanState(long chemical_system_ptr) {
+		CleanState(ChemicalSystemBackend backend, long chemical_system_ptr) {
+			this.backend = backend;
 			this.chemical_system_ptr = chemical_system_ptr;
 		}
 
 		@Override
 		public void run() {
-			System.out.println("[CHEMMISOL] Clean ChemicalSystem " + chemical_system_ptr);
-			ChemicalSystem.dispose(chemical_system_ptr);
+			if(Chemmisol.isLogEnabled(LogLevel.DEBUG))
+				Chemmisol.log(LogLevel.DEBUG, "Clean ChemicalSystem " + chemical_system_ptr);
+			// A leased system is only cleaned if it was never returned to its
+			// pool and became unreachable
+			ChemicalSystemPool pool = leasing_pool;
+			if(pool != null)
+				pool.leaked(lease_trace);
+			backend.dispose(chemical_system_ptr);
+			metrics.systemDisposed();
 		}
 	}
 	private final CleanState clean_state;
@@ -53,36 +79,166 @@ public class ChemicalSystem implements AutoCloseable {
 	 * exception.
 	 */
 	public static class ChemmisolCoreException extends java.lang.Exception {
+		private final String core_exception_name;
+
 		/**
 		 * Initializes a new ChemmisolCoreException from the message of the
 		 * native {@code chemmisol-cpp} exception.
 		 *
 		 * <p>
-		 * Such object is likely to be created from the native JNI code.
+		 * Such object is likely to be created from the native JNI code, or
+		 * by a {@link ChemicalSystemBackend} from the message reported by the
+		 * native library.
 		 *
-		 * @param chemmisol_message Message of the original native exception.
+		 * @param chemmisol_message Message of the original native exception,
+		 * of the form {@code "<exception class name>:\n<message>"}.
 		 */
-		ChemmisolCoreException(String chemmisol_message) {
+		public ChemmisolCoreException(String chemmisol_message) {
 			super("Exception thrown by the chemmisol core library: "
 					+ chemmisol_message);
+			// Native messages are built as "<exception class name>:\n<message>"
+			int name_end = chemmisol_message == null ?
+				-1 : chemmisol_message.indexOf(":\n");
+			this.core_exception_name = name_end > 0 ?
+				chemmisol_message.substring(0, name_end) : "unknown";
+		}
+
+		/**
+		 * Gets the name of the native exception class.
+		 *
+		 * @return Name of the original {@code chemmisol-cpp} exception, for
+		 * example {@code chemmisol::MissingProducedSpeciesInReaction}, or
+		 * "unknown" if it cannot be determined.
+		 */
+		public String getCoreExceptionName() {
+			return core_exception_name;
 		}
 	};
 
+	private static final ChemmisolMetrics metrics = ChemmisolMetrics.getInstance();
+
+	// Backend used for the native calls of this system
+	private final ChemicalSystemBackend backend;
 	private long chemical_system_ptr;
 	private Map<String, ChemicalSpecies> tracked_species;
+	// Tracked species and their index in the native system, lazily resolved
+	// when the system is solved.
+	private ChemicalSpecies[] resolved_species;
+	private int[] resolved_species_indexes;
+	// Buffer used to read all the concentrations in a single native call
+	private double[] concentrations;
+	// Network shared by this system, as long as its structure is not modified
+	private ReactionNetwork network;
+	// Reactions and components of this system, shared by copies and replaced
+	// each time a reaction or a component is added
+	private ChemicalStructure structure = new ChemicalStructure();
+	// Name of the component fixed by fixPH(), if any
+	private String ph_component;
+	// True if reactions or components were added since the last set up.
+	// Total concentrations and the pH are updated incrementally in the
+	// native system, and do not require a new set up.
+	private boolean set_up_required = true;
+	// True if the inputs of the system were modified since the last
+	// converged solve
+	private boolean dirty = true;
+
+	private EquilibriumEngine engine = NativeEquilibriumEngine.INSTANCE;
+	// Per system data of the engine, e.g. preallocated work arrays
+	private Object engine_state;
+
+	private SolverOptions solver_options = SolverOptions.DEFAULT;
+	private boolean warm_start = true;
+	private SolveResult last_result;
+	// Pool owning this system, if any
+	private ChemicalSystemPool pool;
+	// Scope owning the native system, if any. Referencing the scope prevents
+	// it from being cleaned while this system is reachable.
+	private final ChemicalSystemScope scope;
 
-	private ChemicalSystem(long chemical_system_ptr) {
+	private ChemicalSystem(ChemicalSystemBackend backend, long chemical_system_ptr) {
+		this(backend, chemical_system_ptr, null);
+	}
+
+	/**
+	 * Initializes a system wrapping the native system. If a scope is
+	 * specified, the native system is owned by the scope, and the system is
+	 * not registered to the cleaner.
+	 */
+	private ChemicalSystem(
+			ChemicalSystemBackend backend, long chemical_system_ptr,
+			ChemicalSystemScope scope) {
+		this.backend = backend;
 		this.chemical_system_ptr = chemical_system_ptr;
-		this.clean_state = new CleanState(this.chemical_system_ptr);
-		this.cleanable = cleaner.register(this, clean_state);
+		this.scope = scope;
+		if(scope == null) {
+			this.clean_state = new CleanState(backend, this.chemical_system_ptr);
+			this.cleanable = cleaner.register(this, clean_state);
+		} else {
+			this.clean_state = null;
+			this.cleanable = null;
+		}
+		metrics.systemAllocated();
 		this.tracked_species = new HashMap<String, ChemicalSpecies>();
 	}
 
+	/**
+	 * Gets the pointer to the native system, before each native call.
+	 *
+	 * @throws IllegalStateException if the system is owned by a closed
+	 * scope, whose native systems are already released.
+	 */
+	private long nativePtr() {
+		if(scope != null && scope.isClosed())
+			throw new IllegalStateException(
+					"The ChemicalSystemScope owning this system is closed.");
+		return chemical_system_ptr;
+	}
+
+	/**
+	 * Initializes a system wrapping a native system allocated by the scope.
+	 */
+	ChemicalSystem(ChemicalSystemScope scope, long chemical_system_ptr) {
+		this(Chemmisol.getBackend(), chemical_system_ptr, scope);
+	}
+
+	/**
+	 * Initializes a chemical system as a copy of the prototype of the
+	 * specified network.
+	 */
+	ChemicalSystem(ReactionNetwork network, ChemicalSystem prototype) {
+		this(prototype.backend, prototype.backend.copy(prototype.nativePtr()));
+		this.network = network;
+		this.structure = prototype.structure;
+		this.ph_component = prototype.ph_component;
+		this.set_up_required = prototype.set_up_required;
+		this.engine = prototype.engine;
+	}
+
+	/**
+	 * Initializes a chemical system as a copy of the prototype of the
+	 * specified network, allocated by the scope.
+	 */
+	ChemicalSystem(
+			ReactionNetwork network, ChemicalSystem prototype,
+			ChemicalSystemScope scope) {
+		this(prototype.backend,
+				scope.allocateCopy(prototype.nativePtr()), scope);
+		this.network = network;
+		this.structure = prototype.structure;
+		this.ph_component = prototype.ph_component;
+		this.set_up_required = prototype.set_up_required;
+		this.engine = prototype.engine;
+	}
+
 	/**
 	 * Initializes a default chemical system.
 	 */
 	public ChemicalSystem() {
-		this(ChemicalSystem.allocate());
+		this(Chemmisol.getBackend());
+	}
+
+	private ChemicalSystem(ChemicalSystemBackend backend) {
+		this(backend, backend.allocate());
 	}
 
 	/**
@@ -105,33 +261,233 @@ public class ChemicalSystem implements AutoCloseable {
 			double solid_concentration,
 			double specific_surface_area,
 			double site_concentration) {
-		this(ChemicalSystem.allocate(
+		this(Chemmisol.getBackend(),
+				solid_concentration, specific_surface_area, site_concentration);
+			}
+
+	private ChemicalSystem(
+			ChemicalSystemBackend backend,
+			double solid_concentration,
+			double specific_surface_area,
+			double site_concentration) {
+		this(backend, backend.allocate(
 					solid_concentration, specific_surface_area, site_concentration
 					));
-			}
+	}
 
 	private native static long allocate();
 	private native static long allocate(
 			double solid_concentration,
 			double specific_surface_area,
 			double site_concentration);
+	private native static long copy(long chemical_system_ptr);
+	private native static void assign(long chemical_system_ptr, long source_ptr);
 	private native static void dispose(long chemical_system_ptr);
 
 	private native static void addReaction(long chemical_system_ptr, Reaction reaction);
+	private native static void addReactions(
+			long chemical_system_ptr,
+			String[] species_names, byte[] phases,
+			String[] reaction_names, double[] log_ks,
+			int[] stoichiometry);
 	private native static void addComponent(long chemical_system_ptr, ChemicalComponent component);
 	private native static void fixPH(long chemical_system_ptr, double ph, String string);
-	private native static void setTotalConcentration(long chemical_system_ptr, String component, double concentration);
 	private native static void setUp(long chemical_system_ptr) throws ChemmisolCoreException;
-	private native static void solve(long chemical_system_ptr) throws ChemmisolCoreException;
+	private native static void solve(
+			long chemical_system_ptr, boolean set_up, double[] initial_guess,
+			int max_iteration, double[] statistics) throws ChemmisolCoreException;
+	private native static void solve(
+			long[] chemical_system_ptrs, boolean set_up, int[] max_iterations,
+			long[] wall_times, double[][] concentrations, double[][] inputs,
+			String[] errors);
 
-	private native static double concentration(
+	private native static void setTotalConcentration(long chemical_system_ptr, int component_index, double concentration);
+
+	private native static int speciesIndex(
+			long chemical_system_ptr, String species_name);
+	private native static int componentIndex(
 			long chemical_system_ptr, String component_name);
-	private native static double reactionQuotient(
+	private native static int reactionIndex(
 			long chemical_system_ptr, String reaction_name);
+
+	private native static double concentration(
+			long chemical_system_ptr, int species_index);
+	private native static double reactionQuotient(
+			long chemical_system_ptr, int reaction_index);
+	private native static int speciesCount(long chemical_system_ptr);
+	private native static void concentrations(
+			long chemical_system_ptr, double[] concentrations);
+	private native static void concentrations(
+			long chemical_system_ptr, DoubleBuffer concentrations, int offset);
+	private native static void setConcentrations(
+			long chemical_system_ptr, double[] concentrations);
+	private native static int componentCount(long chemical_system_ptr);
+	private native static void inputs(long chemical_system_ptr, double[] inputs);
 	private native static double sitesQuantity(
 			long chemical_system_ptr
 			);
 
+	/**
+	 * Backend performing native calls through the JNI functions of the
+	 * {@code chemmisol-java} library.
+	 */
+	static final ChemicalSystemBackend JNI_BACKEND = new JniBackend();
+
+	private static final class JniBackend implements ChemicalSystemBackend {
+		@Override
+		public String getName() {
+			return "jni";
+		}
+
+		@Override
+		public long allocate() {
+			return ChemicalSystem.allocate();
+		}
+
+		@Override
+		public long allocate(
+				double solid_concentration,
+				double specific_surface_area,
+				double site_concentration) {
+			return ChemicalSystem.allocate(
+					solid_concentration, specific_surface_area, site_concentration);
+		}
+
+		@Override
+		public void dispose(long chemical_system_ptr) {
+			ChemicalSystem.dispose(chemical_system_ptr);
+		}
+
+		@Override
+		public long copy(long chemical_system_ptr) {
+			return ChemicalSystem.copy(chemical_system_ptr);
+		}
+
+		@Override
+		public void assign(long chemical_system_ptr, long source_ptr) {
+			ChemicalSystem.assign(chemical_system_ptr, source_ptr);
+		}
+
+		@Override
+		public void addReaction(long chemical_system_ptr, Reaction reaction) {
+			ChemicalSystem.addReaction(chemical_system_ptr, reaction);
+		}
+
+		@Override
+		public void addReactions(long chemical_system_ptr, ReactionNetworkSpec spec) {
+			ChemicalSystem.addReactions(chemical_system_ptr,
+					spec.speciesNames(), spec.phases(),
+					spec.reactionNames(), spec.logKs(),
+					spec.stoichiometry());
+		}
+
+		@Override
+		public void addComponent(long chemical_system_ptr, ChemicalComponent component) {
+			ChemicalSystem.addComponent(chemical_system_ptr, component);
+		}
+
+		@Override
+		public void fixPH(long chemical_system_ptr, double ph, String h_component_name) {
+			ChemicalSystem.fixPH(chemical_system_ptr, ph, h_component_name);
+		}
+
+		@Override
+		public void setTotalConcentration(
+				long chemical_system_ptr, int component_index, double concentration) {
+			ChemicalSystem.setTotalConcentration(
+					chemical_system_ptr, component_index, concentration);
+		}
+
+		@Override
+		public void setUp(long chemical_system_ptr) throws ChemmisolCoreException {
+			ChemicalSystem.setUp(chemical_system_ptr);
+		}
+
+		@Override
+		public void solve(
+				long chemical_system_ptr, boolean set_up, double[] initial_guess,
+				int max_iteration, double[] statistics) throws ChemmisolCoreException {
+			ChemicalSystem.solve(chemical_system_ptr, set_up, initial_guess,
+					max_iteration, statistics);
+		}
+
+		@Override
+		public void solve(
+				long[] chemical_system_ptrs, boolean set_up, int[] max_iterations,
+				long[] wall_times, double[][] concentrations, double[][] inputs,
+				ChemmisolCoreException[] exceptions) {
+			// All the systems are solved and read back in a single native call
+			String[] errors = new String[chemical_system_ptrs.length];
+			ChemicalSystem.solve(
+					chemical_system_ptrs, set_up, max_iterations, wall_times,
+					concentrations, inputs, errors);
+			for(int i = 0; i < errors.length; i++)
+				exceptions[i] = errors[i] == null ?
+					null : new ChemmisolCoreException(errors[i]);
+		}
+
+		@Override
+		public int speciesIndex(long chemical_system_ptr, String species_name) {
+			return ChemicalSystem.speciesIndex(chemical_system_ptr, species_name);
+		}
+
+		@Override
+		public int componentIndex(long chemical_system_ptr, String component_name) {
+			return ChemicalSystem.componentIndex(chemical_system_ptr, component_name);
+		}
+
+		@Override
+		public int reactionIndex(long chemical_system_ptr, String reaction_name) {
+			return ChemicalSystem.reactionIndex(chemical_system_ptr, reaction_name);
+		}
+
+		@Override
+		public int speciesCount(long chemical_system_ptr) {
+			return ChemicalSystem.speciesCount(chemical_system_ptr);
+		}
+
+		@Override
+		public int componentCount(long chemical_system_ptr) {
+			return ChemicalSystem.componentCount(chemical_system_ptr);
+		}
+
+		@Override
+		public double concentration(long chemical_system_ptr, int species_index) {
+			return ChemicalSystem.concentration(chemical_system_ptr, species_index);
+		}
+
+		@Override
+		public void concentrations(long chemical_system_ptr, double[] concentrations) {
+			ChemicalSystem.concentrations(chemical_system_ptr, concentrations);
+		}
+
+		@Override
+		public void concentrations(long chemical_system_ptr, DoubleBuffer concentrations) {
+			ChemicalSystem.concentrations(
+					chemical_system_ptr, concentrations, concentrations.position());
+		}
+
+		@Override
+		public void setConcentrations(long chemical_system_ptr, double[] concentrations) {
+			ChemicalSystem.setConcentrations(chemical_system_ptr, concentrations);
+		}
+
+		@Override
+		public void inputs(long chemical_system_ptr, double[] inputs) {
+			ChemicalSystem.inputs(chemical_system_ptr, inputs);
+		}
+
+		@Override
+		public double reactionQuotient(long chemical_system_ptr, int reaction_index) {
+			return ChemicalSystem.reactionQuotient(chemical_system_ptr, reaction_index);
+		}
+
+		@Override
+		public double sitesQuantity(long chemical_system_ptr) {
+			return ChemicalSystem.sitesQuantity(chemical_system_ptr);
+		}
+	}
+
 	/**
 	 * Adds a new reaction to the chemical system.
 	 *
@@ -150,7 +506,61 @@ public class ChemicalSystem implements AutoCloseable {
 	 * @param reaction Reaction to add to this chemical system.
 	 */
 	public void addReaction(Reaction reaction) {
-		ChemicalSystem.addReaction(chemical_system_ptr, reaction);
+		ChemmisolEvents.AddReaction event = new ChemmisolEvents.AddReaction();
+		event.begin();
+		backend.addReaction(nativePtr(), reaction);
+		structure = structure.withReaction(reaction);
+		set_up_required = true;
+		dirty = true;
+		if(event.shouldCommit()) {
+			event.systemId = chemical_system_ptr;
+			event.reaction = reaction.getName();
+			event.reagentCount = reaction.getReagents().size();
+			event.commit();
+		}
+		resolved_species = null;
+		network = null;
+	}
+
+	/**
+	 * Adds all the reactions of the specification to this chemical system.
+	 *
+	 * <p>
+	 * This is equivalent to calling {@link addReaction(Reaction)} on each
+	 * reaction of the specification (see {@link
+	 * ReactionNetworkSpec#toReactions()}), except that all the reactions are
+	 * passed to the native library in a single call, through primitive arrays
+	 * only.
+	 *
+	 * @param spec Reactions to add to this chemical system.
+	 *
+	 * @throws IllegalArgumentException if the native library rejects a
+	 * reaction.
+	 */
+	public void addReactions(ReactionNetworkSpec spec) {
+		List<Reaction> reactions = spec.toReactions();
+		// As with addReaction(Reaction), an event is reported for each
+		// reaction, all spanning the single native call
+		ChemmisolEvents.AddReaction[] events
+			= new ChemmisolEvents.AddReaction[reactions.size()];
+		for(int r = 0; r < events.length; r++) {
+			events[r] = new ChemmisolEvents.AddReaction();
+			events[r].begin();
+		}
+		backend.addReactions(nativePtr(), spec);
+		structure = structure.withReactions(reactions);
+		set_up_required = true;
+		dirty = true;
+		for(int r = 0; r < events.length; r++) {
+			if(events[r].shouldCommit()) {
+				events[r].systemId = chemical_system_ptr;
+				events[r].reaction = reactions.get(r).getName();
+				events[r].reagentCount = reactions.get(r).getReagents().size();
+				events[r].commit();
+			}
+		}
+		resolved_species = null;
+		network = null;
 	}
 
 	/**
@@ -169,8 +579,13 @@ public class ChemicalSystem implements AutoCloseable {
 	 * @see addSpecies(ChemicalSpecies)
 	 */
 	public void addComponent(ChemicalComponent component) throws ChemmisolCoreException {
-		ChemicalSystem.addComponent(chemical_system_ptr, component);
+		backend.addComponent(nativePtr(), component);
+		structure = structure.withComponent(component);
+		set_up_required = true;
+		dirty = true;
 		addSpecies(component.getSpecies());
+		resolved_species = null;
+		network = null;
 	}
 
 	/**
@@ -188,6 +603,32 @@ public class ChemicalSystem implements AutoCloseable {
 	 */
 	public void addSpecies(ChemicalSpecies species) {
 		tracked_species.put(species.getName(), species);
+		resolved_species = null;
+	}
+
+	/**
+	 * Gets the reaction network shared by this system.
+	 *
+	 * @return Network from which this system was created with {@link
+	 * ReactionNetwork#newSystem()}, or null if this system was not created
+	 * from a network or if reactions or components were added to this system
+	 * since.
+	 */
+	public ReactionNetwork getNetwork() {
+		return network;
+	}
+
+	/**
+	 * Gets the species tracked by this system with the specified name.
+	 *
+	 * @param species_name Name of a chemical species.
+	 * @return Species added to this system with {@link
+	 * addSpecies(ChemicalSpecies) addSpecies()} or {@link
+	 * addComponent(ChemicalComponent) addComponent()}, or null if no such
+	 * species is tracked by this system.
+	 */
+	public ChemicalSpecies getTrackedSpecies(String species_name) {
+		return tracked_species.get(species_name);
 	}
 
 	/**
@@ -198,10 +639,9 @@ public class ChemicalSystem implements AutoCloseable {
 	 * @param h_species Chemical species instance representing the H+ ions.
 	 */
 	private void fixPH(double ph, ChemicalSpecies h_species) {
-		fixPH(chemical_system_ptr, ph, h_species.getName());
-		h_species.setConcentration(
-				concentration(chemical_system_ptr, h_species.getName())
-				);
+		backend.fixPH(nativePtr(), ph, h_species.getName());
+		fixedPH(h_species.getName());
+		h_species.setConcentration(concentration(h_species.getName()));
 	}
 
 	/**
@@ -211,6 +651,11 @@ public class ChemicalSystem implements AutoCloseable {
 	 * <p>
 	 * The concentration of the associated component is set to {@code 10^-pH}.
 	 *
+	 * <p>
+	 * Once the pH is fixed, changing its value only updates the native system
+	 * incrementally, so the system does not need to be set up again before
+	 * the next {@link solve()}.
+	 *
 	 * @param ph pH value.
 	 * @param h_component Chemical component instance representing the H+ ions.
 	 */
@@ -234,10 +679,27 @@ public class ChemicalSystem implements AutoCloseable {
 		if(h_species != null) {
 			fixPH(ph, h_species);
 		} else {
-			fixPH(chemical_system_ptr, ph, "H+");
+			backend.fixPH(nativePtr(), ph, "H+");
+			fixedPH("H+");
 		}
 	}
 
+	/**
+	 * Records the component fixed by the native fixPH(), that implicitly
+	 * defines the component if necessary. Fixing the pH in a component that
+	 * was not fixed yet requires a new set up, but changing the pH of an
+	 * already fixed component does not.
+	 */
+	private void fixedPH(String h_component_name) {
+		if(!h_component_name.equals(ph_component))
+			set_up_required = true;
+		dirty = true;
+		ph_component = h_component_name;
+		if(!structure.hasComponent(h_component_name))
+			structure = structure.withComponent(
+					new ChemicalComponent(h_component_name, Phase.AQUEOUS, 0.0));
+	}
+
 	/**
 	 * Sets the total concentration of the provided component.
 	 *
@@ -250,22 +712,77 @@ public class ChemicalSystem implements AutoCloseable {
 	 * The total concentration must be expressed in mol/l for aqueous species,
 	 * and as a molar fraction (without unit) for mineral species.
 	 *
+	 * <p>
+	 * The native system is updated incrementally: the system does not need to
+	 * be set up again before the next {@link solve()}, that starts from the
+	 * current equilibrium if warm starting is enabled.
+	 *
 	 * @param component Chemical component to set with the specified total
 	 * concentration.
 	 * @param total_concentration Total concentration of the chemical component.
+	 *
+	 * @throws IllegalArgumentException if the component is not defined in the
+	 * native chemical system.
 	 */
 	public void setTotalConcentration(ChemicalComponent component, double total_concentration) {
-		setTotalConcentration(chemical_system_ptr, component.getName(), total_concentration);
+		// The index is resolved only once for all the systems that share the
+		// structure, so that updates only require a single native call
+		Integer index = structure.getComponentIndex(component.getName());
+		if(index == null) {
+			int native_index = backend.componentIndex(nativePtr(), component.getName());
+			if(native_index < 0)
+				throw new IllegalArgumentException(
+						"Unknown chemical component: " + component.getName());
+			structure.setComponentIndex(component.getName(), native_index);
+			index = native_index;
+		}
+		backend.setTotalConcentration(nativePtr(), index, total_concentration);
 		component.setTotalConcentration(total_concentration);
+		dirty = true;
+	}
+
+	/**
+	 * Sets the total concentration of the component referenced by the
+	 * provided handle.
+	 *
+	 * <p>
+	 * Contrary to {@link setTotalConcentration(ChemicalComponent, double)},
+	 * only primitive values are passed to the native {@code chemmisol-cpp}
+	 * library. Since no ChemicalComponent instance is involved, the total
+	 * concentration is only set within the internal {@code chemmisol-cpp}
+	 * solver instance. As with {@link setTotalConcentration(ChemicalComponent,
+	 * double)}, the system does not need to be set up again.
+	 *
+	 * @param component Handle to the chemical component to set with the
+	 * specified total concentration.
+	 * @param total_concentration Total concentration of the chemical component.
+	 *
+	 * @throws IndexOutOfBoundsException if the handle does not reference a
+	 * component of this system, for example if it is stale or was resolved from
+	 * a larger system.
+	 * @see component(String)
+	 */
+	public void setTotalConcentration(ComponentHandle component, double total_concentration) {
+		backend.setTotalConcentration(nativePtr(), component.getIndex(), total_concentration);
+		dirty = true;
 	}
 
 	/**
 	 * Sets up the system so that it is ready to be solved.
 	 *
 	 * <p>
-	 * This method must be called before {@link solve()} once all reactions and
-	 * components have been added, and each time the total concentration of a
-	 * component is updated.
+	 * Setting up the system is only required after structural changes, i.e.
+	 * when reactions or components are added, or when the pH is fixed in a
+	 * new component. Total concentrations and the value of a fixed pH are
+	 * updated incrementally in the native system, and do not require a new set
+	 * up.
+	 *
+	 * <p>
+	 * {@link solve()} automatically sets up the system if required (see {@link
+	 * isSetUpRequired()}), so calling this method explicitly is only useful
+	 * to reset the concentrations of all species to the initial state computed
+	 * by {@code chemmisol-cpp}, or to report set up errors before the system
+	 * is solved.
 	 *
 	 * @throws ChemmisolCoreException if an exception occurs while setting up
 	 * the chemical system in the native {@code chemmisol-cpp} library.
@@ -275,7 +792,136 @@ public class ChemicalSystem implements AutoCloseable {
 	 * documentation</a>
 	 */
 	public void setUp() throws ChemmisolCoreException {
-		setUp(chemical_system_ptr);
+		ChemmisolEvents.SetUp event = new ChemmisolEvents.SetUp();
+		event.begin();
+		long start = System.nanoTime();
+		try {
+			backend.setUp(nativePtr());
+		} catch(ChemmisolCoreException e) {
+			metrics.recordSetUpFailure(e);
+			if(event.shouldCommit()) {
+				event.systemId = chemical_system_ptr;
+				event.failure = e.getCoreExceptionName();
+				event.commit();
+			}
+			throw e;
+		}
+		set_up_required = false;
+		// Concentrations are reset to the initial state
+		dirty = true;
+		metrics.recordSetUp(System.nanoTime() - start);
+		if(event.shouldCommit()) {
+			event.systemId = chemical_system_ptr;
+			event.speciesCount = backend.speciesCount(nativePtr());
+			event.commit();
+		}
+		// Produced species are only added to the native system when it is set
+		// up
+		resolved_species = null;
+	}
+
+	/**
+	 * Returns true if reactions or components were added to this system since
+	 * it was last set up, or if it was never set up. In this case, the next
+	 * solve sets up the system before solving it.
+	 *
+	 * <p>
+	 * Updating total concentrations or the value of a fixed pH does not make
+	 * a new set up required.
+	 *
+	 * @return true if the system must be set up before it is solved
+	 */
+	public boolean isSetUpRequired() {
+		return set_up_required;
+	}
+
+	/**
+	 * Enables or disables warm starting.
+	 *
+	 * <p>
+	 * When warm starting is enabled (default), {@link solve()} starts the
+	 * solver from the current state of the system, i.e. from the last solved
+	 * equilibrium. When the inputs of the system only slightly changed since
+	 * the last call to {@link solve()}, the new equilibrium is then likely to
+	 * be reached in only a few iterations.
+	 *
+	 * <p>
+	 * When warm starting is disabled, the system is set up again before
+	 * each solve, so that the solver always starts from the initial state
+	 * computed by {@link setUp()}.
+	 *
+	 * <p>
+	 * chemmisol-cpp does not report the count of iterations of its solver, so
+	 * the iterations saved by warm starting can only be measured with the
+	 * {@link JavaEquilibriumEngine} (see {@link
+	 * setEquilibriumEngine(EquilibriumEngine)}): native solves report {@link
+	 * SolveResult#UNKNOWN_ITERATION_COUNT}.
+	 *
+	 * @param warm_start True to enable warm starting.
+	 */
+	public void setWarmStart(boolean warm_start) {
+		this.warm_start = warm_start;
+	}
+
+	/**
+	 * Returns true if warm starting is enabled.
+	 *
+	 * @return true if warm starting is enabled
+	 * @see setWarmStart(boolean)
+	 */
+	public boolean isWarmStart() {
+		return warm_start;
+	}
+
+	/**
+	 * Sets the convergence criteria used to solve this system.
+	 *
+	 * @param solver_options Solver options used by {@link solve()} and by
+	 * {@link solveAll(ChemicalSystem[], boolean)}.
+	 */
+	public void setSolverOptions(SolverOptions solver_options) {
+		if(solver_options == null)
+			throw new NullPointerException("Solver options must not be null.");
+		this.solver_options = solver_options;
+		dirty = true;
+	}
+
+	/**
+	 * Sets the engine used to solve the equilibrium of this system.
+	 *
+	 * <p>
+	 * By default, systems are solved by the native {@code chemmisol-cpp}
+	 * solver. Copies of this system, and systems created from its network,
+	 * use the same engine.
+	 *
+	 * @param engine Equilibrium engine, for example a {@link
+	 * JavaEquilibriumEngine}.
+	 * @see EquilibriumEngine#NATIVE
+	 */
+	public void setEquilibriumEngine(EquilibriumEngine engine) {
+		if(engine == null)
+			throw new NullPointerException("The equilibrium engine must not be null.");
+		this.engine = engine;
+		this.engine_state = null;
+		dirty = true;
+	}
+
+	/**
+	 * Gets the engine used to solve the equilibrium of this system.
+	 *
+	 * @return equilibrium engine of this system
+	 */
+	public EquilibriumEngine getEquilibriumEngine() {
+		return engine;
+	}
+
+	/**
+	 * Gets the convergence criteria used to solve this system.
+	 *
+	 * @return solver options, {@link SolverOptions#DEFAULT} by default
+	 */
+	public SolverOptions getSolverOptions() {
+		return solver_options;
 	}
 
 	/**
@@ -290,14 +936,709 @@ public class ChemicalSystem implements AutoCloseable {
 	 * the solved equilibrium state, and is available using the {@link
 	 * concentration(String)} method.
 	 *
+	 * <p>
+	 * The solver starts from the last solved equilibrium if warm starting is
+	 * enabled (see {@link setWarmStart(boolean)}). Iterations are performed
+	 * according to the convergence criteria of this system (see {@link
+	 * setSolverOptions(SolverOptions)}). Not reaching convergence is not an
+	 * error: it is reported by {@link SolveResult#isConverged()}.
+	 *
+	 * <p>
+	 * If the inputs of the system did not change since the last converged
+	 * solve (see {@link isDirty()}), the system is already at equilibrium:
+	 * the solver is not called, and the result of the last solve is returned.
+	 *
+	 * @return Statistics about the solve.
+	 *
 	 * @throws ChemmisolCoreException if an exception occurs within the native
 	 * {@code chemmisol-cpp} solver.
 	 */
-	public void solve() throws ChemmisolCoreException {
-		solve(chemical_system_ptr);
-		for(ChemicalSpecies c : tracked_species.values()) {
-			c.setConcentration(concentration(chemical_system_ptr, c.getName()));
+	public SolveResult solve() throws ChemmisolCoreException {
+		if(!dirty && last_result != null)
+			return skipSolve();
+		return solve(!warm_start, null);
+	}
+
+	/**
+	 * Returns the cached equilibrium of a system whose inputs did not change.
+	 * Tracked species are only updated if species were added since the last
+	 * solve, so no native call is performed in the general case.
+	 */
+	private SolveResult skipSolve() {
+		metrics.recordSkippedSolve();
+		if(resolved_species == null)
+			updateTrackedSpecies();
+		return last_result;
+	}
+
+	/**
+	 * Returns true if the inputs of this system changed since its last
+	 * converged solve, or if it was never solved. Setting a total
+	 * concentration or the pH, adding a reaction or a component, changing the
+	 * solver options or the equilibrium engine, or setting up the system makes
+	 * it dirty, even if the new values are equal to the previous ones. A
+	 * system whose last solve did not converge is also dirty.
+	 *
+	 * <p>
+	 * {@link solve()} and batch solves return immediately when the system is
+	 * not dirty.
+	 *
+	 * @return true if the system must be solved to reach its equilibrium
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Lists the dirty systems of the array, without calling the native
+	 * library.
+	 *
+	 * @param systems Chemical systems.
+	 * @return A new array containing the systems for which {@link isDirty()}
+	 * is true, in the same order.
+	 */
+	public static ChemicalSystem[] dirtySystems(ChemicalSystem[] systems) {
+		int size = 0;
+		for(ChemicalSystem system : systems)
+			if(system.dirty)
+				size++;
+		ChemicalSystem[] dirty_systems = new ChemicalSystem[size];
+		size = 0;
+		for(ChemicalSystem system : systems)
+			if(system.dirty)
+				dirty_systems[size++] = system;
+		return dirty_systems;
+	}
+
+	/**
+	 * Returns true if a batch solve can skip this system: it is not set up by
+	 * the batch, and is already at equilibrium. In this case, the cached
+	 * equilibrium is restored as by {@link solve()}.
+	 */
+	boolean skipBatchSolve(boolean set_up) {
+		if(set_up || dirty || last_result == null)
+			return false;
+		skipSolve();
+		return true;
+	}
+
+	private SolveResult solve(boolean set_up, double[] initial_guess) throws ChemmisolCoreException {
+		return solve(set_up, initial_guess, solver_options);
+	}
+
+	private SolveResult solve(
+			boolean set_up, double[] initial_guess, SolverOptions solver_options)
+			throws ChemmisolCoreException {
+		ChemmisolEvents.Solve event = new ChemmisolEvents.Solve();
+		event.begin();
+		set_up |= set_up_required;
+		double[] statistics = new double[3];
+		try {
+			engine.solve(this, set_up, initial_guess, solver_options, statistics);
+		} catch(ChemmisolCoreException e) {
+			recordSolveFailure(event, e, set_up, false);
+			throw e;
 		}
+		recordSolve(event, new SolveResult(
+				(int) statistics[0], statistics[1],
+				statistics[1] <= solver_options.getTolerance(),
+				(long) statistics[2]), set_up, false);
+		return last_result;
+	}
+
+	/**
+	 * Records the result of a successful solve of this system, and updates
+	 * tracked species. Used by solvers that do not go through {@link
+	 * solve()}, such as the {@link VectorizedEquilibriumSolver}.
+	 */
+	void recordSolve(
+			ChemmisolEvents.Solve event, SolveResult result, boolean set_up,
+			boolean batch) {
+		recordSolve(event, result, set_up, batch, null);
+	}
+
+	/**
+	 * Records a successful solve of this system, whose solved concentrations
+	 * were already read back, or null if they must be read from the native
+	 * system.
+	 */
+	void recordSolve(
+			ChemmisolEvents.Solve event, SolveResult result, boolean set_up,
+			boolean batch, double[] solved_concentrations) {
+		last_result = result;
+		// Not converged systems are solved again by the next solve
+		dirty = !result.isConverged();
+		metrics.recordSolve(result);
+		if(event.shouldCommit())
+			commitSolveEvent(event, set_up, batch);
+		if(set_up) {
+			set_up_required = false;
+			resolved_species = null;
+		}
+		updateTrackedSpecies(solved_concentrations);
+	}
+
+	/**
+	 * Records a failed solve of this system.
+	 */
+	void recordSolveFailure(
+			ChemmisolEvents.Solve event, ChemmisolCoreException e,
+			boolean set_up, boolean batch) {
+		metrics.recordSolveFailure(e);
+		if(event.shouldCommit()) {
+			event.systemId = chemical_system_ptr;
+			event.setUp = set_up;
+			event.batch = batch;
+			event.failure = e.getCoreExceptionName();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Solves the equilibrium state of this chemical system, and copies the
+	 * concentrations of all species in the provided array.
+	 *
+	 * <p>
+	 * Equivalent to {@link solve()} followed by {@link
+	 * readConcentrations(double[])}.
+	 *
+	 * @param concentrations Array in which concentrations are copied, indexed
+	 * by species index. Its length must be at least {@link speciesCount()}.
+	 * @return Statistics about the solve.
+	 *
+	 * @throws ChemmisolCoreException if an exception occurs within the native
+	 * {@code chemmisol-cpp} solver.
+	 */
+	public SolveResult solve(double[] concentrations) throws ChemmisolCoreException {
+		SolveResult result = solve();
+		readConcentrations(concentrations);
+		return result;
+	}
+
+	/**
+	 * Solves the equilibrium state of this chemical system, starting the
+	 * solver from the provided species concentrations.
+	 *
+	 * <p>
+	 * The current concentrations of all species are replaced by the initial
+	 * guess before the solver is started, whatever the warm starting mode is.
+	 * A good initial guess, such as the equilibrium of a similar system, can
+	 * significantly reduce the count of iterations required to reach the
+	 * equilibrium. This count is only reported by the {@link
+	 * JavaEquilibriumEngine}: native solves report {@link
+	 * SolveResult#UNKNOWN_ITERATION_COUNT}, since chemmisol-cpp does not
+	 * expose the iterations of its solver.
+	 *
+	 * <p>
+	 * If the system requires a set up (see {@link isSetUpRequired()}), it is
+	 * set up before the initial guess is checked, since the set up defines the
+	 * produced species of reactions.
+	 *
+	 * @param initial_guess Initial concentrations of all the species, indexed
+	 * by species index (see {@link readConcentrations(double[])}). Its length
+	 * must be at least {@link speciesCount()} once the system is set up.
+	 * @return Statistics about the solve.
+	 *
+	 * @throws ChemmisolCoreException if an exception occurs within the native
+	 * {@code chemmisol-cpp} solver.
+	 * @throws IllegalArgumentException if the initial guess is too small.
+	 */
+	public SolveResult solveFrom(double[] initial_guess) throws ChemmisolCoreException {
+		// The native solve writes the whole guess once set up
+		if(set_up_required)
+			setUp();
+		if(initial_guess.length < backend.speciesCount(nativePtr()))
+			throw new IllegalArgumentException(
+					"The initial guess must contain at least "
+					+ backend.speciesCount(nativePtr()) + " elements.");
+		return solve(false, initial_guess);
+	}
+
+	/**
+	 * Returns the statistics of the last solve of this system, including
+	 * solves performed with {@link solveAll(ChemicalSystem[], boolean)}.
+	 *
+	 * @return Result of the last solve, or null if this system was never
+	 * solved.
+	 */
+	public SolveResult getLastSolveResult() {
+		return last_result;
+	}
+
+	/**
+	 * Returns the count of solver iterations performed by the last solve of
+	 * this system.
+	 *
+	 * @return Count of iterations of the last solve, {@link
+	 * SolveResult#UNKNOWN_ITERATION_COUNT} if the count is not reported by the
+	 * engine, or 0 if this system was never solved.
+	 */
+	public int getIterationCount() {
+		return last_result == null ? 0 : last_result.getIterationCount();
+	}
+
+	/**
+	 * Returns the number of species currently defined in the native chemical
+	 * system.
+	 *
+	 * <p>
+	 * Produced species of reactions are only defined once the system is set
+	 * up.
+	 *
+	 * @return Count of species in this chemical system.
+	 */
+	public int speciesCount() {
+		return backend.speciesCount(nativePtr());
+	}
+
+	/**
+	 * Copies the concentrations of all the species of this chemical system in
+	 * the provided array, in a single native call.
+	 *
+	 * <p>
+	 * Concentrations are indexed by species index, so that the concentration
+	 * of the species referenced by a {@link SpeciesHandle} h is
+	 * {@code concentrations[h.getIndex()]}. The index order is stable as long as
+	 * no reaction or component is added to the system.
+	 *
+	 * @param concentrations Array in which concentrations are copied. Its
+	 * length must be at least {@link speciesCount()}.
+	 *
+	 * @throws IllegalArgumentException if the array is too small.
+	 */
+	public void readConcentrations(double[] concentrations) {
+		if(concentrations.length < backend.speciesCount(nativePtr()))
+			throw new IllegalArgumentException(
+					"The concentrations array must contain at least "
+					+ backend.speciesCount(nativePtr()) + " elements.");
+		backend.concentrations(nativePtr(), concentrations);
+	}
+
+	/**
+	 * Copies the concentrations of all the species of this chemical system in
+	 * the provided direct buffer, in a single native call.
+	 *
+	 * <p>
+	 * Concentrations are written by the native library directly in the memory
+	 * of the buffer, from its current position and indexed by species index
+	 * as in {@link readConcentrations(double[])}. The position of the buffer
+	 * is not modified.
+	 *
+	 * @param concentrations Direct buffer using the native byte order, with
+	 * at least {@link speciesCount()} remaining elements.
+	 *
+	 * @throws IllegalArgumentException if the buffer is not direct, does not
+	 * use the native byte order or is too small.
+	 */
+	public void readConcentrations(DoubleBuffer concentrations) {
+		if(!concentrations.isDirect() || concentrations.order() != ByteOrder.nativeOrder())
+			throw new IllegalArgumentException(
+					"The concentrations buffer must be a direct buffer using the native byte order.");
+		if(concentrations.remaining() < backend.speciesCount(nativePtr()))
+			throw new IllegalArgumentException(
+					"The concentrations buffer must contain at least "
+					+ backend.speciesCount(nativePtr()) + " remaining elements.");
+		backend.concentrations(nativePtr(), concentrations);
+	}
+
+	/**
+	 * Solves the equilibrium state of all the specified chemical systems in a
+	 * single native call.
+	 *
+	 * <p>
+	 * This is equivalent to calling {@link solve()} on each system, except
+	 * that the JNI overhead is paid only once for the whole batch, what is
+	 * significant when a large number of small systems must be solved. The
+	 * concentrations of species tracked by each successfully solved system
+	 * are updated as with {@link solve()}, and the result of each solve is
+	 * available from {@link getLastSolveResult()}. Each system is solved
+	 * according to its own solver options.
+	 *
+	 * <p>
+	 * Systems are solved with a single call to their {@link
+	 * ChemicalSystemBackend}: the JNI backend solves them all in a single
+	 * native call, while other backends might solve them one by one (see
+	 * {@link ChemicalSystemBackend#solve(long[], boolean, int[], long[],
+	 * ChemmisolCoreException[])}).
+	 *
+	 * <p>
+	 * An exception thrown while solving one system does not prevent other
+	 * systems from being solved: it is instead reported at the index of the
+	 * system in the returned array.
+	 *
+	 * @param systems Chemical systems to solve.
+	 * @param set_up If true, {@link setUp()} is called on each system before
+	 * it is solved. Else, only systems that require a set up (see {@link
+	 * isSetUpRequired()}) are set up.
+	 * @return An array of the same size as systems, that contains the
+	 * ChemmisolCoreException thrown while setting up or solving each system,
+	 * or null if the system was successfully solved.
+	 */
+	public static ChemmisolCoreException[] solveAll(ChemicalSystem[] systems, boolean set_up) {
+		return solveAll(systems, set_up, null);
+	}
+
+	/**
+	 * Solves the equilibrium state of all the specified chemical systems in a
+	 * single native call, using the same solver options for all systems.
+	 *
+	 * @param systems Chemical systems to solve.
+	 * @param set_up If true, {@link setUp()} is called on each system before
+	 * it is solved. Else, only systems that require a set up (see {@link
+	 * isSetUpRequired()}) are set up.
+	 * @param solver_options Solver options used for all the systems of the
+	 * batch instead of their own options. If null, each system is solved
+	 * according to its own options.
+	 * @return An array of the same size as systems, that contains the
+	 * ChemmisolCoreException thrown while setting up or solving each system,
+	 * or null if the system was successfully solved.
+	 *
+	 * @see solveAll(ChemicalSystem[], boolean)
+	 */
+	public static ChemmisolCoreException[] solveAll(
+			ChemicalSystem[] systems, boolean set_up, SolverOptions solver_options) {
+		ChemmisolCoreException[] exceptions = new ChemmisolCoreException[systems.length];
+		solveAll(systems, 0, systems.length, set_up, solver_options, exceptions);
+		return exceptions;
+	}
+
+	/**
+	 * Solves the systems in the [from, to) range of the systems array in a
+	 * single call per backend, and reports exceptions at the corresponding indexes
+	 * of the exceptions array. If solver_options is null, the options of each
+	 * system are used.
+	 */
+	static void solveAll(
+			ChemicalSystem[] systems, int from, int to, boolean set_up,
+			SolverOptions solver_options, ChemmisolCoreException[] exceptions) {
+		// Systems solved by another engine than the native one are solved
+		// individually, the others in a single native call
+		int[] native_indexes = new int[to - from];
+		int size = 0;
+		for(int i = from; i < to; i++) {
+			if(systems[i].skipBatchSolve(set_up))
+				continue;
+			if(systems[i].engine == NativeEquilibriumEngine.INSTANCE) {
+				// The batch sets up either all or none of its systems, so
+				// systems that require a set up are set up beforehand
+				if(!set_up && systems[i].set_up_required) {
+					try {
+						systems[i].setUpNative();
+					} catch(ChemmisolCoreException e) {
+						exceptions[i] = e;
+						systems[i].recordSolveFailure(
+								new ChemmisolEvents.Solve(), e, true, true);
+						continue;
+					}
+				}
+				native_indexes[size++] = i;
+			} else {
+				try {
+					systems[i].solve(set_up, null, solver_options == null ?
+							systems[i].solver_options : solver_options);
+				} catch(ChemmisolCoreException e) {
+					exceptions[i] = e;
+				}
+			}
+		}
+		// Native systems are solved in a single call per backend
+		int solved = 0;
+		while(solved < size) {
+			ChemicalSystemBackend backend = systems[native_indexes[solved]].backend;
+			// Moves the remaining systems of the backend after the solved ones
+			int end = solved;
+			for(int k = solved; k < size; k++) {
+				if(systems[native_indexes[k]].backend == backend) {
+					int i = native_indexes[k];
+					native_indexes[k] = native_indexes[end];
+					native_indexes[end++] = i;
+				}
+			}
+			solveAll(backend, systems, native_indexes, solved, end,
+					set_up, solver_options, exceptions);
+			solved = end;
+		}
+	}
+
+	/**
+	 * Solves the systems at the [from, to) indexes of native_indexes, that
+	 * all use the specified backend, in a single call to the backend.
+	 */
+	private static void solveAll(
+			ChemicalSystemBackend backend, ChemicalSystem[] systems,
+			int[] native_indexes, int from, int to, boolean set_up,
+			SolverOptions solver_options, ChemmisolCoreException[] exceptions) {
+		int size = to - from;
+		long[] chemical_system_ptrs = new long[size];
+		int[] max_iterations = new int[size];
+		double[] tolerances = new double[size];
+		for(int k = 0; k < size; k++) {
+			ChemicalSystem system = systems[native_indexes[from + k]];
+			SolverOptions options = solver_options == null ?
+				system.solver_options : solver_options;
+			chemical_system_ptrs[k] = system.nativePtr();
+			max_iterations[k] = options.getMaxIteration();
+			tolerances[k] = options.getTolerance();
+		}
+		long[] wall_times = new long[size];
+		// Concentrations and inputs are read back by the batch call, so that
+		// residuals and tracked species are updated without other native calls
+		double[][] concentrations = new double[size][];
+		double[][] inputs = new double[size][];
+		ChemmisolCoreException[] errors = new ChemmisolCoreException[size];
+		backend.solve(
+				chemical_system_ptrs, set_up, max_iterations, wall_times,
+				concentrations, inputs, errors);
+
+		for(int k = 0; k < size; k++) {
+			int i = native_indexes[from + k];
+			// Batch events are not timed, the native wall time of each
+			// system is reported instead
+			ChemmisolEvents.Solve event = new ChemmisolEvents.Solve();
+			if(errors[k] == null) {
+				try {
+					double residual = JavaEquilibriumEngine.residual(
+							systems[i], concentrations[k], inputs[k]);
+					systems[i].recordSolve(event, new SolveResult(
+							SolveResult.UNKNOWN_ITERATION_COUNT, residual,
+							residual <= tolerances[k], wall_times[k]),
+							set_up, true, concentrations[k]);
+					continue;
+				} catch(ChemmisolCoreException e) {
+					exceptions[i] = e;
+				}
+			} else {
+				exceptions[i] = errors[k];
+			}
+			// As with solve(), a failed solve leaves the last result and the
+			// set up state of the system unchanged
+			systems[i].recordSolveFailure(event, exceptions[i], set_up, true);
+		}
+	}
+
+	/**
+	 * Solves the equilibrium state of all the specified chemical systems in a
+	 * single native call, only setting up systems that require it.
+	 *
+	 * @param systems Chemical systems to solve.
+	 * @return An array of the same size as systems, that contains the
+	 * ChemmisolCoreException thrown while solving each system, or null if the
+	 * system was successfully solved.
+	 *
+	 * @see solveAll(ChemicalSystem[], boolean)
+	 */
+	public static ChemmisolCoreException[] solveAll(ChemicalSystem[] systems) {
+		return solveAll(systems, false);
+	}
+
+	/**
+	 * Object shared by all the systems with the same reactions and
+	 * components, i.e. copies of a same system or systems created from the
+	 * same network.
+	 */
+	ChemicalStructure getStructure() {
+		return structure;
+	}
+
+	/**
+	 * Name of the component whose concentration is fixed by {@link
+	 * fixPH(double)}, or null if the pH is not fixed.
+	 */
+	String getPhComponent() {
+		return ph_component;
+	}
+
+	Object getEngineState() {
+		return engine_state;
+	}
+
+	void setEngineState(Object engine_state) {
+		this.engine_state = engine_state;
+	}
+
+	/**
+	 * Solves the native system with the native chemmisol-cpp solver.
+	 */
+	void solveNative(
+			boolean set_up, double[] initial_guess, SolverOptions solver_options,
+			double[] statistics) throws ChemmisolCoreException {
+		backend.solve(nativePtr(), set_up, initial_guess,
+				solver_options.getMaxIteration(), statistics);
+	}
+
+	/**
+	 * Sets up the native system, without updating tracked species.
+	 */
+	void setUpNative() throws ChemmisolCoreException {
+		backend.setUp(nativePtr());
+		set_up_required = false;
+		dirty = true;
+	}
+
+	/**
+	 * Index of the species in the native system, or -1 if it is not defined.
+	 */
+	int speciesIndex(String species_name) {
+		return backend.speciesIndex(nativePtr(), species_name);
+	}
+
+	/**
+	 * Index of the component in the native system, or -1 if it is not
+	 * defined.
+	 */
+	int componentIndex(String component_name) {
+		return backend.componentIndex(nativePtr(), component_name);
+	}
+
+	/**
+	 * Sets the concentrations of all the species of the native system,
+	 * indexed by species index.
+	 */
+	void writeConcentrations(double[] concentrations) {
+		backend.setConcentrations(nativePtr(), concentrations);
+	}
+
+	/**
+	 * Returns the count of components of the native system.
+	 */
+	int componentCount() {
+		return backend.componentCount(nativePtr());
+	}
+
+	/**
+	 * Reads the inputs of the native system, indexed by component index: the
+	 * total quantity of each component, or its concentration if the component
+	 * is fixed (e.g. H+ when the pH is fixed).
+	 */
+	void readInputs(double[] inputs) {
+		backend.inputs(nativePtr(), inputs);
+	}
+
+	/**
+	 * Restores a previously solved equilibrium, as if the system was solved
+	 * with the provided result.
+	 */
+	void restore(double[] concentrations, SolveResult result) {
+		backend.setConcentrations(nativePtr(), concentrations);
+		last_result = result;
+		dirty = !result.isConverged();
+		updateTrackedSpecies();
+	}
+
+	private void commitSolveEvent(
+			ChemmisolEvents.Solve event, boolean set_up, boolean batch) {
+		event.systemId = chemical_system_ptr;
+		event.speciesCount = backend.speciesCount(nativePtr());
+		event.iterations = last_result.getIterationCount();
+		event.converged = last_result.isConverged();
+		event.residual = last_result.getResidual();
+		event.nativeWallTime = last_result.getWallTime();
+		event.setUp = set_up;
+		event.batch = batch;
+		event.commit();
+	}
+
+	private void updateTrackedSpecies() {
+		updateTrackedSpecies(null);
+	}
+
+	/**
+	 * Updates the concentrations of tracked species from the provided
+	 * concentrations of all the species, or from the native system if null.
+	 */
+	private void updateTrackedSpecies(double[] solved_concentrations) {
+		if(resolved_species == null) {
+			resolved_species = tracked_species.values().toArray(new ChemicalSpecies[0]);
+			resolved_species_indexes = new int[resolved_species.length];
+			for(int i = 0; i < resolved_species.length; i++) {
+				resolved_species_indexes[i] = backend.speciesIndex(
+						nativePtr(), resolved_species[i].getName());
+			}
+			concentrations = new double[backend.speciesCount(nativePtr())];
+		}
+		if(resolved_species.length == 0)
+			return;
+		if(solved_concentrations == null) {
+			backend.concentrations(nativePtr(), concentrations);
+			solved_concentrations = concentrations;
+		}
+		for(int i = 0; i < resolved_species.length; i++) {
+			// Species not defined in the native system are ignored
+			if(resolved_species_indexes[i] >= 0)
+				resolved_species[i].setConcentration(
+						solved_concentrations[resolved_species_indexes[i]]);
+		}
+	}
+
+	/**
+	 * Resolves a handle to the species with the specified name.
+	 *
+	 * <p>
+	 * Produced species of reactions are only defined once the system is set
+	 * up, so the handle to such species can only be resolved after {@link
+	 * setUp()} or {@link solve()} has been called. The returned handle remains
+	 * valid as long as no reaction or component is added to the system.
+	 *
+	 * @param species_name Name of a chemical species.
+	 * @return Handle to the species.
+	 *
+	 * @throws IllegalArgumentException if no species with the specified name
+	 * is defined in the native chemical system.
+	 */
+	public SpeciesHandle species(String species_name) {
+		if(network != null)
+			return network.species(species_name);
+		int index = backend.speciesIndex(nativePtr(), species_name);
+		if(index < 0)
+			throw new IllegalArgumentException(
+					"Unknown chemical species: " + species_name);
+		return new SpeciesHandle(species_name, index);
+	}
+
+	/**
+	 * Resolves a handle to the component with the specified name.
+	 *
+	 * <p>
+	 * The returned handle remains valid as long as no reaction or component is
+	 * added to the system.
+	 *
+	 * @param component_name Name of a chemical component.
+	 * @return Handle to the component.
+	 *
+	 * @throws IllegalArgumentException if no component with the specified
+	 * name is defined in the native chemical system.
+	 */
+	public ComponentHandle component(String component_name) {
+		if(network != null)
+			return network.component(component_name);
+		int index = backend.componentIndex(nativePtr(), component_name);
+		if(index < 0)
+			throw new IllegalArgumentException(
+					"Unknown chemical component: " + component_name);
+		return new ComponentHandle(component_name, index);
+	}
+
+	/**
+	 * Resolves a handle to the reaction with the specified name.
+	 *
+	 * <p>
+	 * The returned handle remains valid as long as no reaction or component is
+	 * added to the system.
+	 *
+	 * @param reaction_name Name of a reaction.
+	 * @return Handle to the reaction.
+	 *
+	 * @throws IllegalArgumentException if no reaction with the specified name
+	 * is defined in the native chemical system.
+	 */
+	public ReactionHandle reaction(String reaction_name) {
+		if(network != null)
+			return network.reaction(reaction_name);
+		int index = backend.reactionIndex(nativePtr(), reaction_name);
+		if(index < 0)
+			throw new IllegalArgumentException(
+					"Unknown reaction: " + reaction_name);
+		return new ReactionHandle(reaction_name, index);
 	}
 
 	/**
@@ -312,9 +1653,36 @@ public class ChemicalSystem implements AutoCloseable {
 	 *
 	 * @param species_name Name of a chemical species.
 	 * @return Internal concentration of the species named species_name.
+	 *
+	 * @throws IllegalArgumentException if no species with the specified name
+	 * is defined in the native chemical system.
 	 */
 	public double concentration(String species_name) {
-		return concentration(chemical_system_ptr, species_name);
+		int index = backend.speciesIndex(nativePtr(), species_name);
+		if(index < 0)
+			throw new IllegalArgumentException(
+					"Unknown chemical species: " + species_name);
+		return backend.concentration(nativePtr(), index);
+	}
+
+	/**
+	 * Gets the concentration of the species referenced by the provided handle
+	 * directly from the native {@code chemmisol-cpp} library.
+	 *
+	 * <p>
+	 * Contrary to {@link concentration(String)}, no string conversion nor name
+	 * lookup is performed.
+	 *
+	 * @param species Handle to a chemical species.
+	 * @return Internal concentration of the species.
+	 *
+	 * @throws IndexOutOfBoundsException if the handle does not reference a
+	 * species of this system, for example if it is stale or was resolved from
+	 * a larger system.
+	 * @see species(String)
+	 */
+	public double concentration(SpeciesHandle species) {
+		return backend.concentration(nativePtr(), species.getIndex());
 	}
 
 	/**
@@ -336,9 +1704,12 @@ public class ChemicalSystem implements AutoCloseable {
 	 * 
 	 * @param reaction Reaction instance within this chemical system.
 	 * @return Reaction quotient of the reaction.
+	 *
+	 * @throws IllegalArgumentException if the reaction is not defined in the
+	 * native chemical system.
 	 */
 	public double reactionQuotient(Reaction reaction) {
-		return reactionQuotient(chemical_system_ptr, reaction.getName());
+		return reactionQuotient(reaction.getName());
 	}
 
 	/**
@@ -352,10 +1723,33 @@ public class ChemicalSystem implements AutoCloseable {
 	 * @param reaction_name Name of a reaction in this chemical system.
 	 * @return Reaction quotient of the reaction.
 	 *
+	 * @throws IllegalArgumentException if no reaction with the specified name
+	 * is defined in the native chemical system.
 	 * @see reactionQuotient(Reaction)
 	 */
 	public double reactionQuotient(String reaction_name) {
-		return reactionQuotient(chemical_system_ptr, reaction_name);
+		int index = backend.reactionIndex(nativePtr(), reaction_name);
+		if(index < 0)
+			throw new IllegalArgumentException(
+					"Unknown reaction: " + reaction_name);
+		return backend.reactionQuotient(nativePtr(), index);
+	}
+
+	/**
+	 * Returns the reaction quotient of the reaction referenced by the provided
+	 * handle.
+	 *
+	 * @param reaction Handle to a reaction in this chemical system.
+	 * @return Reaction quotient of the reaction.
+	 *
+	 * @throws IndexOutOfBoundsException if the handle does not reference a
+	 * reaction of this system, for example if it is stale or was resolved from
+	 * a larger system.
+	 * @see reaction(String)
+	 * @see reactionQuotient(Reaction)
+	 */
+	public double reactionQuotient(ReactionHandle reaction) {
+		return backend.reactionQuotient(nativePtr(), reaction.getIndex());
 	}
 
 	/**
@@ -368,18 +1762,160 @@ public class ChemicalSystem implements AutoCloseable {
 	 * @return Total quantity of sites in the chemical system.
 	 */
 	public double sitesQuantity() {
-		return sitesQuantity(chemical_system_ptr);
+		return backend.sitesQuantity(nativePtr());
+	}
+
+	/**
+	 * Creates a copy of this chemical system.
+	 *
+	 * <p>
+	 * The whole native {@code chemmisol-cpp} system, including its reactions,
+	 * components, total concentrations, fixed pH and current species
+	 * concentrations, is duplicated in a single native call. This is much
+	 * faster than building each system from scratch when many systems share
+	 * the same reaction network: a template system can be built and set up
+	 * once, and copied for each cell, so that only the total concentrations
+	 * remain to be set for each copy.
+	 *
+	 * <p>
+	 * New ChemicalSpecies instances are created for the species tracked by
+	 * this system, and can be retrieved from the copy with {@link
+	 * getTrackedSpecies(String)}. Since ChemicalComponent instances are not
+	 * duplicated, total concentrations of the copy should be set using {@link
+	 * setTotalConcentration(ComponentHandle, double)}: handles resolved from
+	 * this system are also valid for the copy.
+	 *
+	 * <pre>
+	 * ComponentHandle PO4 = template.component("PO4-3");
+	 * for(Cell cell : cells) {
+	 * 	cell.system = template.copy();
+	 * 	cell.system.setTotalConcentration(PO4, cell.phosphorus);
+	 * }
+	 * </pre>
+	 *
+	 * @return A new chemical system, that must be closed independently from
+	 * this system.
+	 */
+	public ChemicalSystem copy() {
+		return initCopy(new ChemicalSystem(backend, backend.copy(nativePtr())));
+	}
+
+	/**
+	 * Creates a copy of this system, whose native system is allocated by the
+	 * scope.
+	 */
+	ChemicalSystem scopedCopy(ChemicalSystemScope scope) {
+		return initCopy(new ChemicalSystem(
+					backend, scope.allocateCopy(nativePtr()), scope));
+	}
+
+	private ChemicalSystem initCopy(ChemicalSystem copy) {
+		copy.network = network;
+		copy.structure = structure;
+		copy.ph_component = ph_component;
+		copy.set_up_required = set_up_required;
+		copy.engine = engine;
+		for(ChemicalSpecies species : tracked_species.values()) {
+			copy.addSpecies(new ChemicalSpecies(
+						species.getName(), species.getPhase(),
+						species.getConcentration()));
+		}
+		return copy;
+	}
+
+	/**
+	 * Creates a copy of this prototype owned by the pool.
+	 */
+	ChemicalSystem pooledCopy(ChemicalSystemPool pool) {
+		ChemicalSystem copy = copy();
+		copy.pool = pool;
+		return copy;
+	}
+
+	/**
+	 * Resets this system to the state of the prototype, reusing the native
+	 * system. Species tracked by this system are replaced by copies of the
+	 * species tracked by the prototype, as in {@link copy()}.
+	 */
+	void reset(ChemicalSystem prototype) {
+		backend.assign(nativePtr(), prototype.nativePtr());
+		network = prototype.network;
+		structure = prototype.structure;
+		ph_component = prototype.ph_component;
+		set_up_required = prototype.set_up_required;
+		dirty = true;
+		engine = prototype.engine;
+		solver_options = prototype.solver_options;
+		warm_start = prototype.warm_start;
+		last_result = null;
+		tracked_species.clear();
+		resolved_species = null;
+		for(ChemicalSpecies species : prototype.tracked_species.values()) {
+			addSpecies(new ChemicalSpecies(
+						species.getName(), species.getPhase(),
+						species.getConcentration()));
+		}
+	}
+
+	/**
+	 * Marks this system as leased by its pool, or as idle.
+	 */
+	void setLeased(boolean leased, Throwable lease_trace) {
+		clean_state.lease_trace = lease_trace;
+		clean_state.leasing_pool = leased ? pool : null;
+	}
+
+	boolean isLeasedBy(ChemicalSystemPool pool) {
+		return pool != null && clean_state.leasing_pool == pool;
+	}
+
+	/**
+	 * Releases the native system of a pooled system, when it is evicted
+	 * from its pool.
+	 */
+	void closePooled() {
+		pool = null;
+		clean_state.leasing_pool = null;
+		cleanable.clean();
+	}
+
+	/**
+	 * Gets the backend used for the native calls of this system, selected
+	 * when the system was created.
+	 *
+	 * @return backend of this system
+	 */
+	public ChemicalSystemBackend getBackend() {
+		return backend;
 	}
 
 	/**
 	 * Releases C++ memory resources used by this ChemicalSystem instance.
 	 */
 	protected void dispose() {
-		ChemicalSystem.dispose(chemical_system_ptr);
+		backend.dispose(chemical_system_ptr);
 	}
 
+	/**
+	 * Releases C++ memory resources used by this ChemicalSystem instance.
+	 *
+	 * <p>
+	 * If this system was acquired from a {@link ChemicalSystemPool}, it is
+	 * instead returned to its pool, and must not be used anymore. If this
+	 * system was created by a {@link ChemicalSystemScope}, closing it has no
+	 * effect: it is released when its scope is closed.
+	 */
 	@Override
 	public void close() {
+		// Native systems owned by a scope are released with their scope
+		if(scope != null)
+			return;
+		if(pool != null) {
+			// Closing an idle pooled system has no effect
+			if(isLeasedBy(pool))
+				pool.release(this);
+			return;
+		}
 		cleanable.clean();
 	}
 }
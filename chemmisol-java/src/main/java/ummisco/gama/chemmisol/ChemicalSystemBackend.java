@@ -0,0 +1,345 @@
+package ummisco.gama.chemmisol;
+
+import java.nio.DoubleBuffer;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Native calls used by a {@link ChemicalSystem} to drive the native {@code
+ * chemmisol-cpp} chemical system it wraps.
+ *
+ * <p>
+ * The default backend uses the JNI functions of the {@code chemmisol-java}
+ * library. Alternative backends, such as the Foreign Function and Memory
+ * backend of the optional {@code chemmisol-ffm} module, can be selected with
+ * {@link Chemmisol#setBackend(ChemicalSystemBackend)} or the {@value
+ * Chemmisol#BACKEND_PROPERTY} system property.
+ *
+ * <p>
+ * All backends operate on the same native {@code chemmisol::ChemicalSystem}
+ * pointers, allocated by the {@code chemmisol-java} library. All the native
+ * calls of a {@link ChemicalSystem} are performed through its backend. The
+ * only exception are the native arenas of {@link ChemicalSystemScope}, that
+ * are always allocated and released through JNI: systems of a scope are
+ * still driven by their backend, but scopes require the JNI functions of the
+ * {@code chemmisol-java} library, and fail with an {@link
+ * UnsatisfiedLinkError} on creation if they are not available.
+ *
+ * <p>
+ * Backend implementations must be thread safe, but each chemical system
+ * pointer is only used by a single thread at a time.
+ */
+public interface ChemicalSystemBackend {
+	/**
+	 * Gets the name of this backend, for example "jni" or "ffm".
+	 *
+	 * @return name of the backend
+	 */
+	String getName();
+
+	/**
+	 * Allocates a default native chemical system.
+	 *
+	 * @return pointer to the native system
+	 */
+	long allocate();
+
+	/**
+	 * Allocates a mineral native chemical system.
+	 *
+	 * @param solid_concentration Mass concentration of mineral.
+	 * @param specific_surface_area Specific surface area of the mineral.
+	 * @param site_concentration Site concentration of the mineral.
+	 * @return pointer to the native system
+	 */
+	long allocate(
+			double solid_concentration,
+			double specific_surface_area,
+			double site_concentration);
+
+	/**
+	 * Releases the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 */
+	void dispose(long chemical_system_ptr);
+
+	/**
+	 * Allocates a copy of the native chemical system, including its
+	 * reactions, components and concentrations.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system to copy.
+	 * @return pointer to the new native system
+	 */
+	long copy(long chemical_system_ptr);
+
+	/**
+	 * Replaces the reactions, components and concentrations of the native
+	 * chemical system by those of the source system, reusing the memory of
+	 * the system when possible.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system to overwrite.
+	 * @param source_ptr Pointer to the native system to copy.
+	 */
+	void assign(long chemical_system_ptr, long source_ptr);
+
+	/**
+	 * Adds a reaction to the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param reaction Reaction to add.
+	 * @throws IllegalArgumentException if the reaction is rejected by the
+	 * native library.
+	 */
+	void addReaction(long chemical_system_ptr, Reaction reaction);
+
+	/**
+	 * Adds all the reactions of the specification to the native chemical
+	 * system.
+	 *
+	 * <p>
+	 * The default implementation adds each reaction with {@link
+	 * addReaction(long, Reaction)}.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param spec Reactions to add.
+	 * @throws IllegalArgumentException if a reaction is rejected by the
+	 * native library.
+	 */
+	default void addReactions(long chemical_system_ptr, ReactionNetworkSpec spec) {
+		for(Reaction reaction : spec.toReactions())
+			addReaction(chemical_system_ptr, reaction);
+	}
+
+	/**
+	 * Adds a component to the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param component Component to add.
+	 * @throws ChemmisolCoreException if the component is not valid.
+	 */
+	void addComponent(long chemical_system_ptr, ChemicalComponent component)
+		throws ChemmisolCoreException;
+
+	/**
+	 * Fixes the pH of the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param ph pH value.
+	 * @param h_component_name Name of the component representing H+ ions.
+	 */
+	void fixPH(long chemical_system_ptr, double ph, String h_component_name);
+
+	/**
+	 * Sets the total concentration of a component of the native chemical
+	 * system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param component_index Index of the component.
+	 * @param concentration Total concentration.
+	 * @throws IndexOutOfBoundsException if the index is not the index of a
+	 * component of the native system.
+	 */
+	void setTotalConcentration(
+			long chemical_system_ptr, int component_index, double concentration);
+
+	/**
+	 * Sets up the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @throws ChemmisolCoreException if the system cannot be set up.
+	 */
+	void setUp(long chemical_system_ptr) throws ChemmisolCoreException;
+
+	/**
+	 * Solves the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param set_up True if the system must be set up before it is solved.
+	 * @param initial_guess Initial concentrations of species, or null to
+	 * start from the current concentrations.
+	 * @param max_iteration Maximum count of iterations of the chemmisol-cpp
+	 * solver.
+	 * @param statistics Array of length 3 in which the count of iterations,
+	 * the residual and the wall time in nanoseconds are written.
+	 * chemmisol-cpp reports neither the count of iterations nor the residual,
+	 * so they are respectively set to {@link
+	 * SolveResult#UNKNOWN_ITERATION_COUNT} and NaN.
+	 * @throws ChemmisolCoreException if the system cannot be solved.
+	 */
+	void solve(
+			long chemical_system_ptr, boolean set_up, double[] initial_guess,
+			int max_iteration, double[] statistics) throws ChemmisolCoreException;
+
+	/**
+	 * Solves several native chemical systems, reporting the exception thrown
+	 * while solving each system instead of stopping at the first failure.
+	 *
+	 * <p>
+	 * The concentrations of the species and the inputs of each successfully
+	 * solved system are read back in the same call, so that the caller does
+	 * not need additional native calls to check the solution.
+	 *
+	 * <p>
+	 * The default implementation solves each system with {@link solve(long,
+	 * boolean, double[], int, double[])}, from its current concentrations,
+	 * and reads them back with {@link concentrations(long, double[])} and
+	 * {@link inputs(long, double[])}.
+	 *
+	 * @param chemical_system_ptrs Pointers to the native systems.
+	 * @param set_up True if the systems must be set up before they are
+	 * solved.
+	 * @param max_iterations Maximum count of iterations of the chemmisol-cpp
+	 * solver for each system.
+	 * @param wall_times Array in which the wall time in nanoseconds of the
+	 * solve of each system is written.
+	 * @param concentrations Array in which the concentrations of the species
+	 * of each successfully solved system, indexed by species index, are
+	 * written, or null if they are not required.
+	 * @param inputs Array in which the inputs of the components of each
+	 * successfully solved system, indexed by component index, are written,
+	 * or null if they are not required.
+	 * @param exceptions Array in which the exception thrown while solving each
+	 * system is written, or null if the system was successfully solved.
+	 */
+	default void solve(
+			long[] chemical_system_ptrs, boolean set_up, int[] max_iterations,
+			long[] wall_times, double[][] concentrations, double[][] inputs,
+			ChemmisolCoreException[] exceptions) {
+		double[] statistics = new double[3];
+		for(int i = 0; i < chemical_system_ptrs.length; i++) {
+			try {
+				solve(chemical_system_ptrs[i], set_up, null,
+						max_iterations[i], statistics);
+				wall_times[i] = (long) statistics[2];
+				exceptions[i] = null;
+			} catch(ChemmisolCoreException e) {
+				exceptions[i] = e;
+				continue;
+			}
+			if(concentrations != null) {
+				concentrations[i] = new double[speciesCount(chemical_system_ptrs[i])];
+				concentrations(chemical_system_ptrs[i], concentrations[i]);
+			}
+			if(inputs != null) {
+				inputs[i] = new double[componentCount(chemical_system_ptrs[i])];
+				inputs(chemical_system_ptrs[i], inputs[i]);
+			}
+		}
+	}
+
+	/**
+	 * Gets the index of a species of the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param species_name Name of the species.
+	 * @return index of the species, or -1 if it does not exist
+	 */
+	int speciesIndex(long chemical_system_ptr, String species_name);
+
+	/**
+	 * Gets the index of a component of the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param component_name Name of the component.
+	 * @return index of the component, or -1 if it does not exist
+	 */
+	int componentIndex(long chemical_system_ptr, String component_name);
+
+	/**
+	 * Gets the index of a reaction of the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param reaction_name Name of the reaction.
+	 * @return index of the reaction, or -1 if it does not exist
+	 */
+	int reactionIndex(long chemical_system_ptr, String reaction_name);
+
+	/**
+	 * Gets the count of species of the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @return count of species
+	 */
+	int speciesCount(long chemical_system_ptr);
+
+	/**
+	 * Gets the count of components of the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @return count of components
+	 */
+	int componentCount(long chemical_system_ptr);
+
+	/**
+	 * Gets the concentration of a species of the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param species_index Index of the species.
+	 * @return concentration of the species
+	 * @throws IndexOutOfBoundsException if the index is not the index of a
+	 * species of the native system.
+	 */
+	double concentration(long chemical_system_ptr, int species_index);
+
+	/**
+	 * Copies the concentrations of all the species of the native chemical
+	 * system, indexed by species index.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param concentrations Array of at least {@link speciesCount(long)}
+	 * elements.
+	 */
+	void concentrations(long chemical_system_ptr, double[] concentrations);
+
+	/**
+	 * Copies the concentrations of all the species of the native chemical
+	 * system to a direct buffer, indexed by species index from the current
+	 * position of the buffer. The position of the buffer is not modified.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param concentrations Direct buffer using the native byte order, with
+	 * at least {@link speciesCount(long)} remaining elements.
+	 */
+	void concentrations(long chemical_system_ptr, DoubleBuffer concentrations);
+
+	/**
+	 * Sets the concentrations of all the species of the native chemical
+	 * system, indexed by species index.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param concentrations Array of at least {@link speciesCount(long)}
+	 * elements.
+	 */
+	void setConcentrations(long chemical_system_ptr, double[] concentrations);
+
+	/**
+	 * Copies the inputs of all the components of the native chemical system,
+	 * indexed by component index: the total quantity of each component, or
+	 * its concentration if the component is fixed.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param inputs Array of at least {@link componentCount(long)} elements.
+	 */
+	void inputs(long chemical_system_ptr, double[] inputs);
+
+	/**
+	 * Computes the current reaction quotient of a reaction of the native
+	 * chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @param reaction_index Index of the reaction.
+	 * @return reaction quotient
+	 * @throws IndexOutOfBoundsException if the index is not the index of a
+	 * reaction of the native system.
+	 */
+	double reactionQuotient(long chemical_system_ptr, int reaction_index);
+
+	/**
+	 * Gets the quantity of sites of the native chemical system.
+	 *
+	 * @param chemical_system_ptr Pointer to the native system.
+	 * @return quantity of sites
+	 */
+	double sitesQuantity(long chemical_system_ptr);
+}
@@ -0,0 +1,311 @@
+package ummisco.gama.chemmisol;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Bounded pool of chemical systems that are reused instead of being
+ * allocated and released by the native library each time.
+ *
+ * <p>
+ * All the systems of a pool are copies of a prototype, built from a {@link
+ * ChemicalSystem} or a {@link ReactionNetwork}. {@link acquire()} returns an
+ * idle system if available, or else a new copy of the prototype. Closing an
+ * acquired system (or calling {@link release(ChemicalSystem)}) resets it to
+ * the state of the prototype with a single native assignment, and returns it
+ * to the pool, unless the pool already holds {@link getCapacity()} idle
+ * systems, in which case the system is actually released. Pooled systems are
+ * registered to the cleaner only once, when they are first created.
+ *
+ * <p>
+ * A system acquired from the pool must not be used anymore once it is
+ * released, since it can be acquired again by another user. Species tracked
+ * by a system with {@link ChemicalSystem#addSpecies(ChemicalSpecies)} are
+ * discarded when it is released.
+ *
+ * <h2>Leak detection</h2>
+ *
+ * A system that is acquired but never released is still released by the
+ * cleaner once it becomes unreachable, and is then counted as a leak (see
+ * {@link getLeakCount()}) and reported with a {@link LogLevel#WARNING}
+ * message. If leak tracking is enabled (see {@link setLeakTracking(boolean)}),
+ * the message includes the stack trace of the acquisition of the leaked
+ * system.
+ *
+ * <h2>Example</h2>
+ *
+ * <pre>
+ * try(ChemicalSystemPool pool = new ChemicalSystemPool(network, 1024)) {
+ * 	...
+ * 	try(ChemicalSystem system = pool.acquire()) {
+ * 		system.setTotalConcentration(PO4, agent.phosphorus);
+ * 		system.solve();
+ * 	}
+ * }
+ * </pre>
+ *
+ * ChemicalSystemPool instances can safely be shared between threads, but
+ * each acquired system must be confined to a single thread at a time.
+ */
+public class ChemicalSystemPool implements AutoCloseable {
+	private final ChemicalSystem prototype;
+	private final int capacity;
+	// Idle systems, reused in LIFO order
+	private final Deque<ChemicalSystem> idle_systems = new ArrayDeque<ChemicalSystem>();
+	private volatile boolean leak_tracking;
+	private boolean closed;
+
+	private long created_count;
+	private long acquire_count;
+	private long reuse_count;
+	private long evicted_count;
+	private long leased_count;
+	private long leak_count;
+
+	/**
+	 * Initializes a pool of copies of the specified system.
+	 *
+	 * <p>
+	 * The pool uses its own copy of the prototype, so the prototype can be
+	 * modified or closed once the pool is created.
+	 *
+	 * @param prototype System copied by the pool.
+	 * @param capacity Maximum count of idle systems kept by the pool.
+	 */
+	public ChemicalSystemPool(ChemicalSystem prototype, int capacity) {
+		this(capacity, prototype.copy());
+	}
+
+	/**
+	 * Initializes a pool of systems created from the specified network.
+	 *
+	 * <p>
+	 * Systems acquired from the pool share the handles of the network.
+	 *
+	 * @param network Network of the pooled systems.
+	 * @param capacity Maximum count of idle systems kept by the pool.
+	 */
+	public ChemicalSystemPool(ReactionNetwork network, int capacity) {
+		this(capacity, network.newSystem());
+	}
+
+	private ChemicalSystemPool(int capacity, ChemicalSystem prototype) {
+		if(capacity < 0) {
+			prototype.close();
+			throw new IllegalArgumentException("The capacity must not be negative.");
+		}
+		this.prototype = prototype;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Allocates systems until the pool holds {@link getCapacity()} idle
+	 * systems, so that the next acquisitions do not require any native
+	 * allocation.
+	 *
+	 * @throws IllegalStateException if the pool is closed.
+	 */
+	public synchronized void prefill() {
+		checkOpen();
+		while(idle_systems.size() < capacity) {
+			idle_systems.push(prototype.pooledCopy(this));
+			created_count++;
+		}
+	}
+
+	/**
+	 * Acquires a system from the pool, in the state of the prototype.
+	 *
+	 * @return A system that must be closed or released to the pool once it
+	 * is not used anymore.
+	 * @throws IllegalStateException if the pool is closed.
+	 */
+	public ChemicalSystem acquire() {
+		Throwable lease_trace = leak_tracking ?
+			new Throwable("Acquisition of a leaked ChemicalSystem") : null;
+		ChemicalSystem system;
+		synchronized(this) {
+			checkOpen();
+			system = idle_systems.poll();
+			if(system == null) {
+				system = prototype.pooledCopy(this);
+				created_count++;
+			} else {
+				reuse_count++;
+			}
+			acquire_count++;
+			leased_count++;
+			system.setLeased(true, lease_trace);
+		}
+		return system;
+	}
+
+	/**
+	 * Returns a system to the pool. This is equivalent to {@link
+	 * ChemicalSystem#close()}.
+	 *
+	 * @param system System acquired from this pool.
+	 * @throws IllegalArgumentException if the system is not currently
+	 * acquired from this pool.
+	 */
+	public void release(ChemicalSystem system) {
+		synchronized(this) {
+			if(!system.isLeasedBy(this))
+				throw new IllegalArgumentException(
+						"The system is not acquired from this pool.");
+			system.setLeased(false, null);
+			leased_count--;
+			if(!closed && idle_systems.size() < capacity) {
+				system.reset(prototype);
+				idle_systems.push(system);
+				return;
+			}
+			evicted_count++;
+		}
+		system.closePooled();
+	}
+
+	/**
+	 * Called by the cleaner of a leased system that became unreachable.
+	 */
+	void leaked(Throwable lease_trace) {
+		synchronized(this) {
+			leak_count++;
+			leased_count--;
+		}
+		if(Chemmisol.isLogEnabled(LogLevel.WARNING)) {
+			String message = "A ChemicalSystem acquired from a ChemicalSystemPool "
+				+ "was never released.";
+			if(lease_trace == null) {
+				message += " Enable leak tracking to record where it was acquired.";
+			} else {
+				StringWriter trace = new StringWriter();
+				lease_trace.printStackTrace(new PrintWriter(trace));
+				message += "\n" + trace;
+			}
+			Chemmisol.log(LogLevel.WARNING, message);
+		}
+	}
+
+	private void checkOpen() {
+		if(closed)
+			throw new IllegalStateException("The pool is closed.");
+	}
+
+	/**
+	 * Enables or disables leak tracking. When enabled, the stack trace of
+	 * each acquisition is recorded, so that leaked systems can be reported
+	 * with the location of their acquisition. This is disabled by default,
+	 * since capturing stack traces is expensive.
+	 *
+	 * @param leak_tracking True to enable leak tracking.
+	 */
+	public void setLeakTracking(boolean leak_tracking) {
+		this.leak_tracking = leak_tracking;
+	}
+
+	/**
+	 * Returns true if leak tracking is enabled.
+	 *
+	 * @return true if leak tracking is enabled
+	 * @see setLeakTracking(boolean)
+	 */
+	public boolean isLeakTracking() {
+		return leak_tracking;
+	}
+
+	/**
+	 * Gets the maximum count of idle systems kept by the pool.
+	 *
+	 * @return capacity of the pool
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Gets the count of idle systems currently held by the pool.
+	 *
+	 * @return count of idle systems
+	 */
+	public synchronized int getIdleCount() {
+		return idle_systems.size();
+	}
+
+	/**
+	 * Gets the count of systems currently acquired from the pool, and not
+	 * released yet.
+	 *
+	 * @return count of leased systems
+	 */
+	public synchronized long getLeasedCount() {
+		return leased_count;
+	}
+
+	/**
+	 * Gets the count of native systems allocated by the pool.
+	 *
+	 * @return count of created systems
+	 */
+	public synchronized long getCreatedCount() {
+		return created_count;
+	}
+
+	/**
+	 * Gets the count of calls to {@link acquire()}.
+	 *
+	 * @return count of acquisitions
+	 */
+	public synchronized long getAcquireCount() {
+		return acquire_count;
+	}
+
+	/**
+	 * Gets the count of acquisitions served by an idle system.
+	 *
+	 * @return count of reused systems
+	 */
+	public synchronized long getReuseCount() {
+		return reuse_count;
+	}
+
+	/**
+	 * Gets the count of released systems that were not kept by the pool,
+	 * because the pool was full or closed.
+	 *
+	 * @return count of evicted systems
+	 */
+	public synchronized long getEvictedCount() {
+		return evicted_count;
+	}
+
+	/**
+	 * Gets the count of acquired systems that became unreachable without
+	 * being released.
+	 *
+	 * @return count of leaked systems
+	 */
+	public synchronized long getLeakCount() {
+		return leak_count;
+	}
+
+	/**
+	 * Releases the idle systems and the prototype of the pool. Systems that
+	 * are still acquired remain valid, and are released when they are
+	 * closed.
+	 */
+	@Override
+	public void close() {
+		synchronized(this) {
+			if(closed)
+				return;
+			closed = true;
+			for(ChemicalSystem system : idle_systems)
+				system.closePooled();
+			idle_systems.clear();
+		}
+		prototype.close();
+	}
+}
@@ -0,0 +1,198 @@
+package ummisco.gama.chemmisol;
+
+import java.lang.ref.Cleaner;
+
+/**
+ * Scope owning the native systems of all the chemical systems created within
+ * it, that are all released at once when the scope is closed.
+ *
+ * <p>
+ * Each {@link ChemicalSystem} created with a constructor is registered to a
+ * cleaner, and is released individually by {@link ChemicalSystem#close()} or
+ * by the cleaner once unreachable. Systems created by a scope are instead
+ * allocated from a native arena owned by the scope, where native systems are
+ * constructed in contiguous blocks, and are not registered to the cleaner.
+ * Closing the scope destroys all its native systems and frees the arena in a
+ * single native call. Calling {@link ChemicalSystem#close()} on a system of a
+ * scope has no effect.
+ *
+ * <p>
+ * Systems of a scope must not be used anymore once the scope is closed: their
+ * methods performing native calls then throw an {@link IllegalStateException}.
+ * A scope is only released by the cleaner once it and all its systems are
+ * unreachable, but should always be closed explicitly, for example with a
+ * try-with-resources block, so that native memory is released at a
+ * predictable point.
+ *
+ * <h2>Example</h2>
+ *
+ * <pre>
+ * try(ChemicalSystemScope scope = new ChemicalSystemScope()) {
+ * 	for(Cell cell : cells) {
+ * 		cell.system = scope.newSystem(network);
+ * 		cell.system.setTotalConcentration(PO4, cell.phosphorus);
+ * 	}
+ * 	...
+ * }
+ * </pre>
+ *
+ * Systems can be created by several threads within the same scope.
+ */
+public class ChemicalSystemScope implements AutoCloseable {
+	private static class CleanState implements Runnable {
+		private final long arena_ptr;
+		private long system_count;
+
+		CleanState(long arena_ptr) {
+			this.arena_ptr = arena_ptr;
+		}
+
+		@Override
+		public void run() {
+			if(Chemmisol.isLogEnabled(LogLevel.DEBUG))
+				Chemmisol.log(LogLevel.DEBUG, "Clean ChemicalSystemScope " + arena_ptr
+						+ " (" + system_count + " systems)");
+			disposeArena(arena_ptr);
+			ChemmisolMetrics.getInstance().systemsDisposed(system_count);
+		}
+	}
+
+	private final CleanState clean_state;
+	private final Cleaner.Cleanable cleanable;
+	// Read before each native call of the systems of this scope
+	private volatile boolean closed;
+
+	private native static long allocateArena();
+	private native static long allocate(long arena_ptr);
+	private native static long allocate(
+			long arena_ptr,
+			double solid_concentration,
+			double specific_surface_area,
+			double site_concentration);
+	private native static long copy(long arena_ptr, long chemical_system_ptr);
+	private native static void disposeArena(long arena_ptr);
+
+	/**
+	 * Initializes an empty scope.
+	 */
+	public ChemicalSystemScope() {
+		this.clean_state = new CleanState(allocateArena());
+		this.cleanable = ChemicalSystem.cleaner.register(this, clean_state);
+	}
+
+	/**
+	 * Creates a default chemical system owned by this scope.
+	 *
+	 * @return A new chemical system, released when this scope is closed.
+	 * @throws IllegalStateException if this scope is closed.
+	 * @see ChemicalSystem#ChemicalSystem()
+	 */
+	public ChemicalSystem newSystem() {
+		long chemical_system_ptr;
+		synchronized(this) {
+			checkOpen();
+			chemical_system_ptr = allocate(clean_state.arena_ptr);
+			clean_state.system_count++;
+		}
+		return new ChemicalSystem(this, chemical_system_ptr);
+	}
+
+	/**
+	 * Creates a mineral chemical system owned by this scope.
+	 *
+	 * @param solid_concentration Mass concentration of mineral in suspension in
+	 * the solution, expressed in g/l.
+	 * @param specific_surface_area Surface of the solid in contact with
+	 * the solution per unit of mass, usually expressed in m2/g.
+	 * @param site_concentration Quantity of sites per unit of surface
+	 * in contact with the solution, usually expressed as entities/nm2.
+	 * @return A new chemical system, released when this scope is closed.
+	 * @throws IllegalStateException if this scope is closed.
+	 * @see ChemicalSystem#ChemicalSystem(double, double, double)
+	 */
+	public ChemicalSystem newSystem(
+			double solid_concentration,
+			double specific_surface_area,
+			double site_concentration) {
+		long chemical_system_ptr;
+		synchronized(this) {
+			checkOpen();
+			chemical_system_ptr = allocate(
+					clean_state.arena_ptr,
+					solid_concentration, specific_surface_area, site_concentration);
+			clean_state.system_count++;
+		}
+		return new ChemicalSystem(this, chemical_system_ptr);
+	}
+
+	/**
+	 * Creates a chemical system from the network, owned by this scope.
+	 *
+	 * @param network Network of the new system.
+	 * @return A new chemical system, released when this scope is closed.
+	 * @throws IllegalStateException if this scope is closed.
+	 * @see ReactionNetwork#newSystem()
+	 */
+	public ChemicalSystem newSystem(ReactionNetwork network) {
+		return network.newSystem(this);
+	}
+
+	/**
+	 * Creates a copy of the system, owned by this scope.
+	 *
+	 * @param system System to copy, that can be owned by any scope or by no
+	 * scope.
+	 * @return A new chemical system, released when this scope is closed.
+	 * @throws IllegalStateException if this scope is closed.
+	 * @see ChemicalSystem#copy()
+	 */
+	public ChemicalSystem copy(ChemicalSystem system) {
+		return system.scopedCopy(this);
+	}
+
+	/**
+	 * Allocates a copy of the native system in the arena of this scope.
+	 */
+	synchronized long allocateCopy(long chemical_system_ptr) {
+		checkOpen();
+		long copy_ptr = copy(clean_state.arena_ptr, chemical_system_ptr);
+		clean_state.system_count++;
+		return copy_ptr;
+	}
+
+	private void checkOpen() {
+		if(closed)
+			throw new IllegalStateException("The scope is closed.");
+	}
+
+	/**
+	 * Gets the count of systems created in this scope.
+	 *
+	 * @return count of systems
+	 */
+	public synchronized long getSystemCount() {
+		return clean_state.system_count;
+	}
+
+	/**
+	 * Returns true if this scope is closed.
+	 *
+	 * @return true if this scope is closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Releases all the native systems of this scope in a single native call.
+	 */
+	@Override
+	public void close() {
+		synchronized(this) {
+			if(closed)
+				return;
+			closed = true;
+		}
+		cleanable.clean();
+	}
+}
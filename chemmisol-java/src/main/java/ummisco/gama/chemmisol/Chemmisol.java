@@ -2,12 +2,24 @@ package ummisco.gama.chemmisol;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.net.JarURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 import java.lang.Class;
 
 /**
@@ -105,11 +117,43 @@ import java.lang.Class;
  * 	}
  * }
  *  </pre>
+ *
+ * <h2>Library cache</h2>
+ *
+ * Native libraries can only be loaded from files, so libraries loaded from
+ * {@code jar:} or {@code bundleresource:} resources are first unpacked to a
+ * persistent cache directory, {@code ~/.cache/chemmisol} by default. Unpacked
+ * libraries are stored in a sub-directory named after a hash of their
+ * content, so that they are only unpacked once, whatever the count of JVMs
+ * using them, and are never replaced by a different version of the library.
+ * The cache directory can be specified with the {@value
+ * LIBRARY_CACHE_PROPERTY} system property.
+ *
+ * <h2>Backends</h2>
+ *
+ * Native calls of {@link ChemicalSystem}s are performed by a {@link
+ * ChemicalSystemBackend}. The default backend uses JNI, and is available on
+ * all JVMs. On JDK 22 and later, the Foreign Function and Memory backend of
+ * the optional {@code chemmisol-ffm} module can be selected with {@code
+ * -Dchemmisol.backend=ffm}, or with {@link setBackend(ChemicalSystemBackend)}.
+ * The {@value BACKEND_PROPERTY} property also accepts the fully qualified
+ * name of a backend class with a public no-argument constructor.
+ *
+ * <h2>Logging</h2>
+ *
+ * Messages of both the Java and the native libraries are filtered according
+ * to a single {@link LogLevel}, {@link LogLevel#WARNING} by default. The
+ * initial level can be specified with the {@value LOG_LEVEL_PROPERTY} system
+ * property, for example {@code -Dchemmisol.log.level=INFO}, and changed at
+ * any time with {@link setLogLevel(LogLevel)}. Disabled messages are not even
+ * formatted, so that logging costs almost nothing on the solver hot path.
  */
 public class Chemmisol 
 {
 	private static final String FILE_PROTOCOL = "file";
+	private static final String JAR_PROTOCOL = "jar";
 	private static final String RESOURCE_BUNDLE_PROTOCOL = "bundleresource";
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
 	private static final String LOG = "[CHEMMISOL] ";
 	/**
 	 * chemmisol library name.
@@ -119,10 +163,170 @@ public class Chemmisol
 	 * chemmisol-java library name.
 	 */
 	public static final String CHEMMISOL_JAVA = "chemmisol-java";
+	/**
+	 * Name of the system property used to specify the initial log level, as
+	 * the name of a {@link LogLevel}.
+	 */
+	public static final String LOG_LEVEL_PROPERTY = "chemmisol.log.level";
+	/**
+	 * Name of the system property used to specify the directory in which
+	 * native libraries loaded from resources are unpacked.
+	 */
+	public static final String LIBRARY_CACHE_PROPERTY = "chemmisol.library.cache";
+	/**
+	 * Name of the system property used to select the initial {@link
+	 * ChemicalSystemBackend}: "jni" (default), "ffm", or the name of a
+	 * backend class.
+	 */
+	public static final String BACKEND_PROPERTY = "chemmisol.backend";
+	private static final String FFM_BACKEND_CLASS = "ummisco.gama.chemmisol.ffm.FfmBackend";
+
+	private static volatile LogLevel log_level = initialLogLevel();
+	// Set when the chemmisol-java library is loaded, from its JNI_OnLoad
+	private static volatile boolean native_loaded = false;
+
+	private static volatile ChemicalSystemBackend backend = initialBackend();
+
+	private static native void setNativeLogLevel(int log_level);
+
+	private static LogLevel initialLogLevel() {
+		String level = System.getProperty(LOG_LEVEL_PROPERTY);
+		if(level == null)
+			return LogLevel.WARNING;
+		try {
+			return LogLevel.valueOf(level.trim().toUpperCase());
+		} catch(IllegalArgumentException e) {
+			System.err.println(LOG + "Invalid " + LOG_LEVEL_PROPERTY + " value: " + level);
+			return LogLevel.WARNING;
+		}
+	}
+
+	private static ChemicalSystemBackend initialBackend() {
+		String name = System.getProperty(BACKEND_PROPERTY, "jni").trim();
+		if(name.equals("jni"))
+			return ChemicalSystem.JNI_BACKEND;
+		String class_name = name.equals("ffm") ? FFM_BACKEND_CLASS : name;
+		try {
+			return (ChemicalSystemBackend) Class
+				.forName(class_name, true, Chemmisol.class.getClassLoader())
+				.getConstructor()
+				.newInstance();
+		} catch(ReflectiveOperationException | LinkageError | ClassCastException e) {
+			log(LogLevel.WARNING, "Cannot use the " + name
+					+ " backend, falling back to JNI: " + e);
+			return ChemicalSystem.JNI_BACKEND;
+		}
+	}
+
+	/**
+	 * Sets the backend used by chemical systems created from now on. Existing
+	 * systems keep using the backend they were created with.
+	 *
+	 * @param backend Backend of new chemical systems.
+	 */
+	public static void setBackend(ChemicalSystemBackend backend) {
+		if(backend == null)
+			throw new NullPointerException("The backend must not be null.");
+		Chemmisol.backend = backend;
+	}
+
+	/**
+	 * Gets the backend used by new chemical systems.
+	 *
+	 * @return Current backend.
+	 */
+	public static ChemicalSystemBackend getBackend() {
+		return backend;
+	}
+
+	/**
+	 * Gets the default JNI backend, always available.
+	 *
+	 * @return JNI backend.
+	 */
+	public static ChemicalSystemBackend getJniBackend() {
+		return ChemicalSystem.JNI_BACKEND;
+	}
+
+	/**
+	 * Sets the level of the messages logged by the Java and native chemmisol
+	 * libraries.
+	 *
+	 * <p>
+	 * The level can be set before or after the native libraries are loaded.
+	 *
+	 * @param log_level Minimum level of logged messages.
+	 */
+	public static void setLogLevel(LogLevel log_level) {
+		if(log_level == null)
+			throw new NullPointerException("The log level must not be null.");
+		Chemmisol.log_level = log_level;
+		if(native_loaded)
+			setNativeLogLevel(log_level.ordinal());
+	}
+
+	/**
+	 * Gets the level of the messages logged by the Java and native chemmisol
+	 * libraries.
+	 *
+	 * @return Minimum level of logged messages.
+	 */
+	public static LogLevel getLogLevel() {
+		return log_level;
+	}
+
+	/**
+	 * Called from the native JNI_OnLoad function of the chemmisol-java
+	 * library. Returns the ordinal of the log level to apply to native
+	 * loggers.
+	 */
+	static int onNativeLoad() {
+		native_loaded = true;
+		return log_level.ordinal();
+	}
+
+	/**
+	 * Returns true if messages of the specified level are logged. Should be
+	 * used to avoid building messages that are not logged.
+	 */
+	static boolean isLogEnabled(LogLevel level) {
+		return level.compareTo(log_level) >= 0;
+	}
+
+	/**
+	 * Logs the message if the specified level is enabled. Warnings and errors
+	 * are logged to the standard error stream.
+	 */
+	static void log(LogLevel level, String message) {
+		if(isLogEnabled(level)) {
+			if(level.compareTo(LogLevel.WARNING) >= 0)
+				System.err.println(LOG + message);
+			else
+				System.out.println(LOG + message);
+		}
+	}
 
 	private static void loadLibraryFromFile(String path_to_chemmisol_library) throws UnsatisfiedLinkError {
-		System.out.println(LOG + "Loading native library from " + path_to_chemmisol_library);
-		System.load(path_to_chemmisol_library);
+		ChemmisolEvents.LibraryLoad event = new ChemmisolEvents.LibraryLoad();
+		event.begin();
+		event.library = path_to_chemmisol_library;
+		loadLibraryFromFile(path_to_chemmisol_library, event);
+	}
+
+	/**
+	 * Loads the library and commits the provided load event, that might have
+	 * been started before the library was unpacked.
+	 */
+	private static void loadLibraryFromFile(
+			String path_to_chemmisol_library, ChemmisolEvents.LibraryLoad event)
+			throws UnsatisfiedLinkError {
+		log(LogLevel.INFO, "Loading native library from " + path_to_chemmisol_library);
+		try {
+			System.load(path_to_chemmisol_library);
+			event.success = true;
+		} finally {
+			event.commit();
+		}
 	}
 
 	/**
@@ -147,44 +351,198 @@ public class Chemmisol
 
 	private static void loadLibrary(Class<?> clazz, URL url_to_chemmisol_library)
 			throws IOException {
-		System.out.println(LOG + "Loading native library from "
-				+ url_to_chemmisol_library.toString() + "...");
+		if(isLogEnabled(LogLevel.INFO))
+			log(LogLevel.INFO, "Loading native library from "
+					+ url_to_chemmisol_library.toString() + "...");
+		ChemmisolEvents.LibraryLoad event = new ChemmisolEvents.LibraryLoad();
+		event.begin();
+		event.library = url_to_chemmisol_library.toString();
 		switch(url_to_chemmisol_library.getProtocol()) {
 			case FILE_PROTOCOL:
 				// Loads the library from an external file
-				loadLibraryFromFile(url_to_chemmisol_library.getPath());
+				loadLibraryFromFile(url_to_chemmisol_library.getPath(), event);
 				break;
+			case JAR_PROTOCOL:
 			case RESOURCE_BUNDLE_PROTOCOL:
 				try {
-					System.out.print(LOG + "Loading native library into temporary file...");
-					// Creates a temporary file that will contain the unpacked
-					// native library
-					File temp_file = File.createTempFile(url_to_chemmisol_library.getFile() + "_", ".tmp")
-						.getAbsoluteFile();
-					temp_file.deleteOnExit();
-
-					// Gets the native library as a binary stream, directly from
-					// the JAR
-					InputStream library_bin = url_to_chemmisol_library.openStream();
-
-					// Unpacks the library to the temporary file
-					library_bin.transferTo(new FileOutputStream(temp_file));
-					System.out.println(" Done.");
-
-					// Loads the native library from the temporary file
-					loadLibraryFromFile(temp_file.getAbsolutePath());
+					// Loads the native library from its unpacked copy
+					loadLibraryFromFile(
+							unpackLibrary(url_to_chemmisol_library, event).toString(), event);
 				} catch(IOException e) {
-					System.err.println();
-					System.err.println(LOG + "Cannot create native library temporary file.");
+					log(LogLevel.ERROR, "Cannot unpack native library: " + e.getMessage());
+					event.commit();
 					throw e;
 				}
 				break;
 			default:
+				event.commit();
 				throw new IOException(LOG + "Cannot load native library from the following URL: "
 						+ url_to_chemmisol_library.toString());
 		}
 	}
 
+	/**
+	 * Gets the path of the native library cache directory.
+	 *
+	 * @return Value of the {@value LIBRARY_CACHE_PROPERTY} system property if
+	 * defined, or {@code ~/.cache/chemmisol}.
+	 */
+	public static Path getLibraryCacheDirectory() {
+		String directory = System.getProperty(LIBRARY_CACHE_PROPERTY);
+		if(directory != null)
+			return Paths.get(directory).toAbsolutePath();
+		return Paths.get(System.getProperty("user.home"), ".cache", "chemmisol");
+	}
+
+	/**
+	 * Unpacks the library to the library cache, if it is not already
+	 * available there, and returns the path of the unpacked library.
+	 *
+	 * <p>
+	 * Entries of JAR files are identified by the CRC-32 and size stored in the
+	 * JAR, so that cached libraries are found without unpacking them. Other
+	 * resources are first copied to a temporary file of the cache, and
+	 * identified by the SHA-256 of the copied bytes. The CRC-32 of a cached
+	 * library is checked before it is reused, and a library is always
+	 * atomically renamed from a temporary file of the cache, so that
+	 * concurrent JVMs never load a partially written or corrupted library.
+	 */
+	static Path unpackLibrary(URL url, ChemmisolEvents.LibraryLoad event)
+			throws IOException {
+		String file_name = new File(url.getPath()).getName();
+		Path cache_directory = getLibraryCacheDirectory();
+		URLConnection connection = url.openConnection();
+		JarEntry entry = connection instanceof JarURLConnection ?
+			((JarURLConnection) connection).getJarEntry() : null;
+		if(entry != null && entry.getCrc() != -1 && entry.getSize() != -1) {
+			Path library = cache_directory
+				.resolve(String.format("crc32-%08x-%d", entry.getCrc(), entry.getSize()))
+				.resolve(file_name);
+			if(isCached(library, entry.getSize(), entry.getCrc())) {
+				event.cacheHit = true;
+				log(LogLevel.INFO, "Native library found in cache: " + library);
+				return library;
+			}
+			Files.createDirectories(library.getParent());
+			CRC32 crc = new CRC32();
+			Path temp_file = unpack(connection, library.getParent(), file_name, crc, null, event);
+			try {
+				if(crc.getValue() != entry.getCrc() || event.unpackedSize != entry.getSize())
+					throw new IOException(LOG + "The unpacked native library " + url
+							+ " does not match the CRC-32 and size of its JAR entry.");
+				install(temp_file, library, entry.getSize(), entry.getCrc());
+			} finally {
+				Files.deleteIfExists(temp_file);
+			}
+			log(LogLevel.INFO, "Native library unpacked to " + library);
+			return library;
+		}
+
+		// The cache entry is only known once the library is copied, so that
+		// the digest is computed from the bytes that are actually cached
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		Files.createDirectories(cache_directory);
+		CRC32 crc = new CRC32();
+		Path temp_file = unpack(connection, cache_directory, file_name, crc, digest, event);
+		try {
+			StringBuilder key = new StringBuilder("sha256-");
+			for(byte b : digest.digest())
+				key.append(String.format("%02x", b));
+			Path library = cache_directory.resolve(key.toString()).resolve(file_name);
+			if(isCached(library, event.unpackedSize, crc.getValue())) {
+				event.cacheHit = true;
+				event.unpackedSize = 0;
+				log(LogLevel.INFO, "Native library found in cache: " + library);
+				return library;
+			}
+			Files.createDirectories(library.getParent());
+			install(temp_file, library, event.unpackedSize, crc.getValue());
+			log(LogLevel.INFO, "Native library unpacked to " + library);
+			return library;
+		} finally {
+			Files.deleteIfExists(temp_file);
+		}
+	}
+
+	/**
+	 * Copies the content of the connection to a new temporary file of the
+	 * directory, updating the CRC-32 and the digest if not null with the
+	 * copied bytes, and returns the path of the temporary file.
+	 */
+	private static Path unpack(
+			URLConnection connection, Path directory, String file_name,
+			CRC32 crc, MessageDigest digest, ChemmisolEvents.LibraryLoad event)
+			throws IOException {
+		Path temp_file = Files.createTempFile(directory, file_name + "_", ".tmp");
+		try (InputStream input = connection.getInputStream();
+				InputStream library_bin = new CheckedInputStream(
+					digest == null ? input : new DigestInputStream(input, digest), crc);
+				OutputStream output = Files.newOutputStream(temp_file)) {
+			event.unpackedSize = copy(library_bin, output);
+		} catch(IOException e) {
+			Files.deleteIfExists(temp_file);
+			throw e;
+		}
+		return temp_file;
+	}
+
+	/**
+	 * Atomically renames the temporary file to the library path, replacing
+	 * a corrupted library if any.
+	 */
+	private static void install(Path temp_file, Path library, long size, long crc)
+			throws IOException {
+		try {
+			try {
+				Files.move(temp_file, library, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp_file, library, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException e) {
+			// Another JVM might have unpacked the same library concurrently,
+			// which might prevent the rename on some platforms. Else, the
+			// existing library is corrupted and replaced.
+			if(!isCached(library, size, crc))
+				Files.move(temp_file, library, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Returns true if the library is a regular file with the specified size
+	 * and CRC-32.
+	 */
+	private static boolean isCached(Path library, long size, long crc) throws IOException {
+		if(!Files.isRegularFile(library) || Files.size(library) != size)
+			return false;
+		CRC32 library_crc = new CRC32();
+		try (InputStream input = new CheckedInputStream(
+					Files.newInputStream(library), library_crc)) {
+			copy(input, null);
+		}
+		return library_crc.getValue() == crc;
+	}
+
+	/**
+	 * Copies the input to the output, or only consumes the input if output is
+	 * null, and returns the count of copied bytes.
+	 */
+	private static long copy(InputStream input, OutputStream output) throws IOException {
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		long count = 0;
+		int n;
+		while((n = input.read(buffer)) != -1) {
+			if(output != null)
+				output.write(buffer, 0, n);
+			count += n;
+		}
+		return count;
+	}
+
 	/**
 	 * Loads the {@code chemmisol} library from the {@code
 	 * resource_path_to_chemmisol} resource folder of the {@code clazz1} class,
@@ -0,0 +1,123 @@
+package ummisco.gama.chemmisol;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events emitted around native chemmisol calls.
+ *
+ * <p>
+ * Events are only committed when enabled in the current recording, and are
+ * otherwise optimized away by the JIT, so that they can be emitted on the
+ * solve path.
+ */
+class ChemmisolEvents {
+	private static final String CATEGORY = "Chemmisol";
+
+	private ChemmisolEvents() {
+	}
+
+	@Name("chemmisol.Solve")
+	@Label("Chemmisol Solve")
+	@Description("Resolution of the equilibrium of a chemical system")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static class Solve extends Event {
+		@Label("System Id")
+		@Description("Address of the native chemical system")
+		long systemId;
+
+		@Label("Species Count")
+		int speciesCount;
+
+		@Label("Iterations")
+		@Description("Count of solver iterations, or -1 if not reported by the engine")
+		int iterations;
+
+		@Label("Converged")
+		boolean converged;
+
+		@Label("Residual")
+		@Description("Maximum relative error of the mass balance of components at the returned concentrations")
+		double residual;
+
+		@Label("Native Wall Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long nativeWallTime;
+
+		@Label("Set Up")
+		@Description("True if the system was set up before being solved")
+		boolean setUp;
+
+		@Label("Batch")
+		@Description("True if the system was solved with other systems in a single native call. The event duration is then null, see the native wall time.")
+		boolean batch;
+
+		@Label("Failure")
+		@Description("Name of the native exception thrown by the solver, if any")
+		String failure;
+	}
+
+	@Name("chemmisol.SetUp")
+	@Label("Chemmisol Set Up")
+	@Description("Set up of a chemical system")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static class SetUp extends Event {
+		@Label("System Id")
+		@Description("Address of the native chemical system")
+		long systemId;
+
+		@Label("Species Count")
+		int speciesCount;
+
+		@Label("Failure")
+		@Description("Name of the native exception thrown by the set up, if any")
+		String failure;
+	}
+
+	@Name("chemmisol.AddReaction")
+	@Label("Chemmisol Add Reaction")
+	@Description("Addition of a reaction to a chemical system")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static class AddReaction extends Event {
+		@Label("System Id")
+		@Description("Address of the native chemical system")
+		long systemId;
+
+		@Label("Reaction")
+		String reaction;
+
+		@Label("Reagent Count")
+		int reagentCount;
+	}
+
+	@Name("chemmisol.LibraryLoad")
+	@Label("Chemmisol Library Load")
+	@Description("Loading of a native chemmisol library")
+	@Category(CATEGORY)
+	static class LibraryLoad extends Event {
+		@Label("Library")
+		@Description("Path or URL of the loaded library")
+		String library;
+
+		@Label("Unpacked Size")
+		@Description("Size of the library unpacked to the library cache, if any")
+		@DataAmount(DataAmount.BYTES)
+		long unpackedSize;
+
+		@Label("Cache Hit")
+		@Description("True if the library was already unpacked in the library cache")
+		boolean cacheHit;
+
+		@Label("Success")
+		boolean success;
+	}
+}
@@ -0,0 +1,363 @@
+package ummisco.gama.chemmisol;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of metrics about the native chemmisol calls performed by all the
+ * chemical systems of the JVM.
+ *
+ * <p>
+ * Metrics are recorded by {@link ChemicalSystem#setUp()}, {@link
+ * ChemicalSystem#solve()} and its variants, {@link
+ * ChemicalSystem#solveAll(ChemicalSystem[], boolean)} and {@link
+ * ParallelEquilibriumSolver}. Recording only relies on striped counters
+ * ({@link LongAdder}), so that no lock is taken on the solve path, even when
+ * systems are solved concurrently.
+ *
+ * <p>
+ * The registry can be read programmatically from {@link getInstance()}, and is
+ * published as a JMX MXBean named {@value OBJECT_NAME}.
+ */
+public class ChemmisolMetrics implements ChemmisolMetricsMXBean {
+	/**
+	 * Name of the MXBean registered in the platform MBean server.
+	 */
+	public static final String OBJECT_NAME = "ummisco.gama.chemmisol:type=ChemmisolMetrics";
+
+	private static final ChemmisolMetrics instance = new ChemmisolMetrics();
+
+	static {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(!server.isRegistered(name))
+				server.registerMBean(instance, name);
+		} catch(JMException | SecurityException e) {
+			Chemmisol.log(LogLevel.WARNING, "Cannot register the metrics MXBean: " + e);
+		}
+	}
+
+	/**
+	 * Histogram of positive values, with power of two buckets.
+	 *
+	 * <p>
+	 * The bucket of index 0 counts null (and negative) values, and the bucket
+	 * of index i &gt; 0 counts values in [2^(i-1), 2^i). Each bucket is a
+	 * {@link LongAdder}, so that values can be recorded concurrently without
+	 * contention.
+	 */
+	public static class Histogram {
+		/**
+		 * Count of buckets of the histogram.
+		 */
+		public static final int BUCKET_COUNT = 64;
+
+		private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+		private final LongAdder sum = new LongAdder();
+
+		Histogram() {
+			for(int i = 0; i < BUCKET_COUNT; i++)
+				buckets[i] = new LongAdder();
+		}
+
+		/**
+		 * Records a value.
+		 *
+		 * @param value Value to record.
+		 */
+		public void record(long value) {
+			if(value <= 0) {
+				buckets[0].increment();
+			} else {
+				buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+				sum.add(value);
+			}
+		}
+
+		/**
+		 * Gets the count of recorded values.
+		 *
+		 * @return count of values
+		 */
+		public long getCount() {
+			long count = 0;
+			for(LongAdder bucket : buckets)
+				count += bucket.sum();
+			return count;
+		}
+
+		/**
+		 * Gets the sum of recorded values.
+		 *
+		 * @return sum of values
+		 */
+		public long getSum() {
+			return sum.sum();
+		}
+
+		/**
+		 * Gets the mean of recorded values.
+		 *
+		 * @return mean value, or 0 if no value was recorded
+		 */
+		public double getMean() {
+			long count = getCount();
+			return count == 0 ? 0 : (double) getSum() / count;
+		}
+
+		/**
+		 * Gets the count of values recorded in each bucket.
+		 *
+		 * @return an array of BUCKET_COUNT counts
+		 */
+		public long[] getBucketCounts() {
+			long[] counts = new long[BUCKET_COUNT];
+			for(int i = 0; i < BUCKET_COUNT; i++)
+				counts[i] = buckets[i].sum();
+			return counts;
+		}
+
+		/**
+		 * Estimates the specified percentile of recorded values.
+		 *
+		 * <p>
+		 * The returned value is the upper bound of the bucket containing the
+		 * percentile, so it over-estimates the actual percentile by at most
+		 * a factor 2.
+		 *
+		 * @param percentile Percentile in [0, 100].
+		 * @return upper bound of the percentile, or 0 if no value was
+		 * recorded
+		 */
+		public long getPercentile(double percentile) {
+			long[] counts = getBucketCounts();
+			long count = 0;
+			for(long c : counts)
+				count += c;
+			if(count == 0)
+				return 0;
+			long rank = (long) Math.ceil(percentile / 100 * count);
+			long cumulated_count = 0;
+			for(int i = 0; i < BUCKET_COUNT; i++) {
+				cumulated_count += counts[i];
+				if(cumulated_count >= rank)
+					return i == 0 ? 0 : i == BUCKET_COUNT - 1 ?
+						Long.MAX_VALUE : (1L << i) - 1;
+			}
+			return Long.MAX_VALUE;
+		}
+
+		void reset() {
+			for(LongAdder bucket : buckets)
+				bucket.reset();
+			sum.reset();
+		}
+	}
+
+	private final LongAdder solve_count = new LongAdder();
+	private final LongAdder solve_failure_count = new LongAdder();
+	private final LongAdder unconverged_solve_count = new LongAdder();
+	private final LongAdder skipped_solve_count = new LongAdder();
+	private final LongAdder set_up_count = new LongAdder();
+	private final LongAdder set_up_failure_count = new LongAdder();
+	private final LongAdder live_system_count = new LongAdder();
+	private final Map<String, LongAdder> failure_counts = new ConcurrentHashMap<>();
+
+	private final Histogram solve_latency = new Histogram();
+	private final Histogram set_up_latency = new Histogram();
+	private final Histogram solve_iterations = new Histogram();
+
+	private ChemmisolMetrics() {
+	}
+
+	/**
+	 * Gets the metrics registry of the JVM.
+	 *
+	 * @return metrics registry
+	 */
+	public static ChemmisolMetrics getInstance() {
+		return instance;
+	}
+
+	void recordSolve(SolveResult result) {
+		solve_count.increment();
+		if(!result.isConverged())
+			unconverged_solve_count.increment();
+		solve_latency.record(result.getWallTime());
+		if(result.getIterationCount() != SolveResult.UNKNOWN_ITERATION_COUNT)
+			solve_iterations.record(result.getIterationCount());
+	}
+
+	void recordSkippedSolve() {
+		skipped_solve_count.increment();
+	}
+
+	void recordSolveFailure(ChemicalSystem.ChemmisolCoreException exception) {
+		solve_count.increment();
+		solve_failure_count.increment();
+		recordFailure(exception);
+	}
+
+	void recordSetUp(long latency) {
+		set_up_count.increment();
+		set_up_latency.record(latency);
+	}
+
+	void recordSetUpFailure(ChemicalSystem.ChemmisolCoreException exception) {
+		set_up_count.increment();
+		set_up_failure_count.increment();
+		recordFailure(exception);
+	}
+
+	private void recordFailure(ChemicalSystem.ChemmisolCoreException exception) {
+		failure_counts.computeIfAbsent(
+				exception.getCoreExceptionName(), name -> new LongAdder()
+				).increment();
+	}
+
+	void systemAllocated() {
+		live_system_count.increment();
+	}
+
+	void systemDisposed() {
+		live_system_count.decrement();
+	}
+
+	void systemsDisposed(long count) {
+		live_system_count.add(-count);
+	}
+
+	@Override
+	public long getSolveCount() {
+		return solve_count.sum();
+	}
+
+	@Override
+	public long getSolveFailureCount() {
+		return solve_failure_count.sum();
+	}
+
+	@Override
+	public long getUnconvergedSolveCount() {
+		return unconverged_solve_count.sum();
+	}
+
+	@Override
+	public long getSkippedSolveCount() {
+		return skipped_solve_count.sum();
+	}
+
+	@Override
+	public long getSetUpCount() {
+		return set_up_count.sum();
+	}
+
+	@Override
+	public long getSetUpFailureCount() {
+		return set_up_failure_count.sum();
+	}
+
+	@Override
+	public Map<String, Long> getFailureCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		for(Map.Entry<String, LongAdder> entry : failure_counts.entrySet())
+			counts.put(entry.getKey(), entry.getValue().sum());
+		return counts;
+	}
+
+	@Override
+	public long getLiveSystemCount() {
+		return live_system_count.sum();
+	}
+
+	/**
+	 * Gets the histogram of the wall time of successful solves, in
+	 * nanoseconds, as reported by {@link SolveResult#getWallTime()}.
+	 *
+	 * @return solve latency histogram
+	 */
+	public Histogram getSolveLatency() {
+		return solve_latency;
+	}
+
+	/**
+	 * Gets the histogram of the time spent in {@link ChemicalSystem#setUp()},
+	 * in nanoseconds.
+	 *
+	 * @return set up latency histogram
+	 */
+	public Histogram getSetUpLatency() {
+		return set_up_latency;
+	}
+
+	/**
+	 * Gets the histogram of the count of iterations of successful solves.
+	 * Solves that do not report their count of iterations, such as native
+	 * solves, are not recorded.
+	 *
+	 * @return solve iterations histogram
+	 */
+	public Histogram getSolveIterations() {
+		return solve_iterations;
+	}
+
+	@Override
+	public double getSolveLatencyMean() {
+		return solve_latency.getMean();
+	}
+
+	@Override
+	public long getSolveLatency50thPercentile() {
+		return solve_latency.getPercentile(50);
+	}
+
+	@Override
+	public long getSolveLatency99thPercentile() {
+		return solve_latency.getPercentile(99);
+	}
+
+	@Override
+	public double getSetUpLatencyMean() {
+		return set_up_latency.getMean();
+	}
+
+	@Override
+	public long getSetUpLatency99thPercentile() {
+		return set_up_latency.getPercentile(99);
+	}
+
+	@Override
+	public double getSolveIterationsMean() {
+		return solve_iterations.getMean();
+	}
+
+	@Override
+	public long getSolveIterations99thPercentile() {
+		return solve_iterations.getPercentile(99);
+	}
+
+	/**
+	 * Resets all the metrics, except the count of live systems.
+	 */
+	@Override
+	public void reset() {
+		solve_count.reset();
+		solve_failure_count.reset();
+		unconverged_solve_count.reset();
+		skipped_solve_count.reset();
+		set_up_count.reset();
+		set_up_failure_count.reset();
+		failure_counts.clear();
+		solve_latency.reset();
+		set_up_latency.reset();
+		solve_iterations.reset();
+	}
+}
@@ -0,0 +1,96 @@
+package ummisco.gama.chemmisol;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link ChemmisolMetrics} registry.
+ *
+ * <p>
+ * Latencies are expressed in nanoseconds. Percentiles are upper bounds
+ * estimated from power of two histogram buckets.
+ */
+public interface ChemmisolMetricsMXBean {
+	/**
+	 * @return count of solves, including failed solves
+	 */
+	long getSolveCount();
+
+	/**
+	 * @return count of solves that threw a ChemmisolCoreException
+	 */
+	long getSolveFailureCount();
+
+	/**
+	 * @return count of solves that reached the maximum count of iterations
+	 * without converging
+	 */
+	long getUnconvergedSolveCount();
+
+	/**
+	 * @return count of solves skipped because the inputs of the system did
+	 * not change since its last converged solve, not included in the count
+	 * of solves
+	 */
+	long getSkippedSolveCount();
+
+	/**
+	 * @return count of explicit set ups, including failed set ups
+	 */
+	long getSetUpCount();
+
+	/**
+	 * @return count of explicit set ups that threw a ChemmisolCoreException
+	 */
+	long getSetUpFailureCount();
+
+	/**
+	 * @return count of solve and set up failures, by name of the native
+	 * chemmisol-cpp exception
+	 */
+	Map<String, Long> getFailureCounts();
+
+	/**
+	 * @return count of native systems allocated and not disposed yet
+	 */
+	long getLiveSystemCount();
+
+	/**
+	 * @return mean wall time of successful solves
+	 */
+	double getSolveLatencyMean();
+
+	/**
+	 * @return median wall time of successful solves
+	 */
+	long getSolveLatency50thPercentile();
+
+	/**
+	 * @return 99th percentile of the wall time of successful solves
+	 */
+	long getSolveLatency99thPercentile();
+
+	/**
+	 * @return mean time of successful set ups
+	 */
+	double getSetUpLatencyMean();
+
+	/**
+	 * @return 99th percentile of the time of successful set ups
+	 */
+	long getSetUpLatency99thPercentile();
+
+	/**
+	 * @return mean count of iterations of successful solves
+	 */
+	double getSolveIterationsMean();
+
+	/**
+	 * @return 99th percentile of the count of iterations of successful solves
+	 */
+	long getSolveIterations99thPercentile();
+
+	/**
+	 * Resets all the metrics, except the count of live systems.
+	 */
+	void reset();
+}
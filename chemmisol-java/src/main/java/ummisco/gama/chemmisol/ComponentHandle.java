@@ -0,0 +1,15 @@
+package ummisco.gama.chemmisol;
+
+/**
+ * Resolved reference to a chemical component of a chemical system.
+ *
+ * <p>
+ * A ComponentHandle is obtained from {@link ChemicalSystem#component(String)},
+ * and can be used to set the total concentration of the component with {@link
+ * ChemicalSystem#setTotalConcentration(ComponentHandle, double)}.
+ */
+public class ComponentHandle extends ChemicalHandle {
+	ComponentHandle(String name, int index) {
+		super(name, index);
+	}
+}
@@ -0,0 +1,278 @@
+package ummisco.gama.chemmisol;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Memoizes equilibria of chemical systems, so that the native solver is only
+ * called once for systems with identical inputs.
+ *
+ * <p>
+ * An equilibrium is identified by the structure of the system (its reactions
+ * and components, shared by copies of a same system and by systems created
+ * from the same {@link ReactionNetwork}) and by its inputs: the total
+ * concentration of each component and the concentration of fixed components,
+ * such as the H+ concentration set by {@link ChemicalSystem#fixPH(double)}.
+ * Inputs are quantized by rounding down the logarithm of their absolute
+ * value to a multiple of {@code log(1 + relative_tolerance)}: inputs in the
+ * same interval share the same entry, but inputs on each side of an interval
+ * boundary do not, however close they are.
+ *
+ * <p>
+ * An equilibrium found in the cache was solved for inputs that might differ
+ * from the inputs of the system by up to the relative tolerance of the
+ * cache. It is only reused if its residual against the inputs of the system
+ * (see {@link SolveResult#getResidual()}) is within the tolerance of the
+ * {@link ChemicalSystem#getSolverOptions() solver options} of the system.
+ * In this case, the cached species concentrations are written to the native
+ * system and to the tracked ChemicalSpecies, as if the system was solved,
+ * and the returned SolveResult reports 0 iterations. Else, the system is
+ * solved starting from the cached concentrations.
+ *
+ * <p>
+ * The cache is bounded: the least recently used equilibrium is evicted when
+ * the maximum size is reached. A cache can be shared by several threads.
+ *
+ * <pre>
+ * EquilibriumCache cache = new EquilibriumCache(10000);
+ * for(Cell cell : cells) {
+ * 	cell.system.setTotalConcentration(PO4, cell.phosphorus);
+ * 	cache.solve(cell.system);
+ * }
+ * </pre>
+ */
+public class EquilibriumCache {
+	/**
+	 * Default relative tolerance used to quantize inputs.
+	 */
+	public static final double DEFAULT_RELATIVE_TOLERANCE = 1e-9;
+
+	private static final class Key {
+		private final Object structure;
+		private final int species_count;
+		private final long[] inputs;
+		private final int hash;
+
+		Key(Object structure, int species_count, long[] inputs) {
+			this.structure = structure;
+			this.species_count = species_count;
+			this.inputs = inputs;
+			this.hash = 31 * (31 * structure.hashCode() + species_count)
+				+ Arrays.hashCode(inputs);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if(!(object instanceof Key))
+				return false;
+			Key key = (Key) object;
+			return structure == key.structure
+				&& species_count == key.species_count
+				&& Arrays.equals(inputs, key.inputs);
+		}
+	}
+
+	private static final class Entry {
+		private final double[] concentrations;
+		private final SolveResult result;
+
+		Entry(double[] concentrations, SolveResult result) {
+			this.concentrations = concentrations;
+			this.result = result;
+		}
+	}
+
+	private final int max_size;
+	private final double log_step;
+	private final LinkedHashMap<Key, Entry> entries;
+	private long hit_count;
+	private long miss_count;
+	private long eviction_count;
+
+	/**
+	 * Initializes a cache with the default relative tolerance.
+	 *
+	 * @param max_size Maximum count of cached equilibria.
+	 */
+	public EquilibriumCache(int max_size) {
+		this(max_size, DEFAULT_RELATIVE_TOLERANCE);
+	}
+
+	/**
+	 * Initializes a cache.
+	 *
+	 * @param max_size Maximum count of cached equilibria.
+	 * @param relative_tolerance Relative tolerance used to quantize inputs.
+	 */
+	public EquilibriumCache(int max_size, double relative_tolerance) {
+		if(max_size < 1)
+			throw new IllegalArgumentException("The cache size must be positive.");
+		if(!(relative_tolerance > 0))
+			throw new IllegalArgumentException("The relative tolerance must be positive.");
+		this.max_size = max_size;
+		this.log_step = Math.log1p(relative_tolerance);
+		// Access ordered map, so that the eldest entry is the least recently
+		// used
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				if(size() > EquilibriumCache.this.max_size) {
+					eviction_count++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Quantizes the value as the index of the interval of relative width
+	 * relative_tolerance that contains it, rounding down.
+	 */
+	private long quantize(double value) {
+		if(value == 0)
+			return Long.MIN_VALUE;
+		long index = (long) Math.floor(Math.log(Math.abs(value)) / log_step);
+		// The sign is encoded in the least significant bit
+		return value > 0 ? index << 1 : (index << 1) | 1;
+	}
+
+	private Key key(ChemicalSystem system) {
+		double[] inputs = new double[system.componentCount()];
+		system.readInputs(inputs);
+		long[] quantized_inputs = new long[inputs.length];
+		for(int i = 0; i < inputs.length; i++)
+			quantized_inputs[i] = quantize(inputs[i]);
+		return new Key(system.getStructure(), system.speciesCount(), quantized_inputs);
+	}
+
+	/**
+	 * Solves the equilibrium of the system, or restores it from the cache if
+	 * an equilibrium was already solved for the same quantized inputs and is
+	 * within the tolerance of the system.
+	 *
+	 * <p>
+	 * On a miss, the system is solved with {@link ChemicalSystem#solve()},
+	 * or from the cached concentrations if they are not within the tolerance
+	 * of the system. Its equilibrium is cached if the solver converged.
+	 *
+	 * @param system Chemical system to solve.
+	 * @return Result of the solve, or a result with 0 iterations that reports
+	 * the residual of the cached equilibrium on a hit.
+	 *
+	 * @throws ChemmisolCoreException if an exception occurs within the native
+	 * {@code chemmisol-cpp} solver.
+	 */
+	public SolveResult solve(ChemicalSystem system) throws ChemmisolCoreException {
+		Key key = key(system);
+		Entry entry;
+		synchronized(this) {
+			entry = entries.get(key);
+		}
+		double residual = entry == null ?
+			Double.NaN : JavaEquilibriumEngine.residual(system, entry.concentrations);
+		boolean hit = residual <= system.getSolverOptions().getTolerance();
+		synchronized(this) {
+			if(hit)
+				hit_count++;
+			else
+				miss_count++;
+		}
+		if(hit) {
+			SolveResult result = new SolveResult(0, residual, true, 0);
+			system.restore(entry.concentrations, result);
+			return result;
+		}
+
+		SolveResult result = entry == null ?
+			system.solve() : system.solveFrom(entry.concentrations);
+		if(result.isConverged()) {
+			double[] concentrations = new double[system.speciesCount()];
+			system.readConcentrations(concentrations);
+			// The count of species might have changed if the system was set
+			// up by solve()
+			Key solved_key = concentrations.length == key.species_count ?
+				key : key(system);
+			synchronized(this) {
+				entries.put(solved_key, new Entry(concentrations, result));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the count of cached equilibria.
+	 *
+	 * @return count of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the maximum count of cached equilibria.
+	 *
+	 * @return maximum count of entries
+	 */
+	public int getMaxSize() {
+		return max_size;
+	}
+
+	/**
+	 * Gets the count of solves served from the cache.
+	 *
+	 * @return count of hits
+	 */
+	public synchronized long getHitCount() {
+		return hit_count;
+	}
+
+	/**
+	 * Gets the count of solves that required a native solve.
+	 *
+	 * @return count of misses
+	 */
+	public synchronized long getMissCount() {
+		return miss_count;
+	}
+
+	/**
+	 * Gets the count of equilibria evicted from the cache because the
+	 * maximum size was reached.
+	 *
+	 * @return count of evictions
+	 */
+	public synchronized long getEvictionCount() {
+		return eviction_count;
+	}
+
+	/**
+	 * Gets the ratio of solves served from the cache.
+	 *
+	 * @return hit rate in [0, 1], or 0 if the cache was never used
+	 */
+	public synchronized double getHitRate() {
+		long count = hit_count + miss_count;
+		return count == 0 ? 0 : (double) hit_count / count;
+	}
+
+	/**
+	 * Removes all the cached equilibria and resets statistics.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		hit_count = 0;
+		miss_count = 0;
+		eviction_count = 0;
+	}
+}
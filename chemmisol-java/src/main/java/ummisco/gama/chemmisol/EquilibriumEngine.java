@@ -0,0 +1,51 @@
+package ummisco.gama.chemmisol;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Algorithm used to solve the equilibrium of a {@link ChemicalSystem}.
+ *
+ * <p>
+ * The {@link NATIVE} engine, used by default, runs the solver of the native
+ * {@code chemmisol-cpp} library. The {@link JavaEquilibriumEngine} solves
+ * the same model in pure Java, and writes the resulting concentrations back
+ * to the native system, so that all the other methods of the system behave
+ * the same whatever the engine is.
+ *
+ * <p>
+ * The engine of a system is selected with {@link
+ * ChemicalSystem#setEquilibriumEngine(EquilibriumEngine)}. Engines are
+ * shared by many systems, and must be thread safe.
+ */
+public interface EquilibriumEngine {
+	/**
+	 * Engine running the solver of the native {@code chemmisol-cpp} library.
+	 */
+	EquilibriumEngine NATIVE = NativeEquilibriumEngine.INSTANCE;
+
+	/**
+	 * Gets the name of this engine, for example "native" or "java".
+	 *
+	 * @return name of the engine
+	 */
+	String getName();
+
+	/**
+	 * Solves the equilibrium of the specified system, and updates the
+	 * concentrations of its native species.
+	 *
+	 * @param system System to solve.
+	 * @param set_up True if the system must be set up before it is solved.
+	 * @param initial_guess Initial concentrations of all the species indexed
+	 * by species index, or null to start from the current concentrations.
+	 * @param solver_options Convergence criteria.
+	 * @param statistics Array of length 3 in which the count of iterations,
+	 * the residual (see {@link SolveResult#getResidual()}) and the wall time
+	 * in nanoseconds are written.
+	 * @throws ChemmisolCoreException if the system cannot be solved.
+	 */
+	void solve(
+			ChemicalSystem system, boolean set_up, double[] initial_guess,
+			SolverOptions solver_options, double[] statistics)
+		throws ChemmisolCoreException;
+}
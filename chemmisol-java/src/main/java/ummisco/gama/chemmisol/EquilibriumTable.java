@@ -0,0 +1,582 @@
+package ummisco.gama.chemmisol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Precomputed equilibria of a reaction network over a grid of pH and
+ * component totals, used to approximate equilibria without calling the native
+ * solver.
+ *
+ * <p>
+ * A table is built by an {@link EquilibriumTable.Builder}, that solves the
+ * network at each node of a regular grid. The pH axis is sampled linearly, and
+ * total concentration axes are sampled logarithmically. The logarithm of the
+ * concentration of each species is stored at each node, so that queries are
+ * answered by multilinear interpolation in log space.
+ *
+ * <p>
+ * Inputs of queries are specified in axis order: the pH for the pH axis, and
+ * the total concentration for total axes (see {@link getAxisName(int)}).
+ * {@link interpolate(double[], double[])} returns an estimate of the
+ * interpolation error, computed from second differences of the tabulated
+ * values, and {@link evaluate(ChemicalSystem, double[], double[], double)}
+ * falls back to a real solve when the query is outside of the table or when
+ * the estimated error exceeds a tolerance.
+ *
+ * <p>
+ * Tables are stored in a compact primitive layout, that can be saved to a file
+ * with {@link save(Path)} and memory mapped with {@link load(Path)}. A table
+ * is immutable and can be queried concurrently from several threads.
+ *
+ * <pre>
+ * EquilibriumTable table = new EquilibriumTable.Builder(network)
+ * 	.ph(5, 9, 41)
+ * 	.total("PO4-3", 1e-6, 1e-2, 41)
+ * 	.build();
+ * double[] concentrations = new double[table.getSpeciesCount()];
+ * table.evaluate(system, new double[] {ph, phosphorus}, concentrations, 1e-3);
+ * </pre>
+ */
+public class EquilibriumTable {
+	private static final long MAGIC = 0x4348454d5441424cL; // "CHEMTABL"
+	private static final int VERSION = 1;
+	private static final byte PH_AXIS = 0;
+	private static final byte TOTAL_AXIS = 1;
+
+	/**
+	 * Builds an EquilibriumTable by solving a reaction network over a grid.
+	 *
+	 * <p>
+	 * Grid nodes are solved by batches of reused systems created from the
+	 * network, in parallel if a {@link ParallelEquilibriumSolver} is
+	 * specified. Nodes that cannot be solved, or for which the solver does
+	 * not converge, are marked as missing: queries in the neighbouring cells
+	 * always fall back to a real solve.
+	 */
+	public static class Builder {
+		private static final int BATCH_SIZE = 1024;
+
+		private final ReactionNetwork network;
+		private final List<Axis> axes = new ArrayList<Axis>();
+		private ParallelEquilibriumSolver solver;
+		private SolverOptions solver_options;
+
+		/**
+		 * Initializes a builder for the specified network.
+		 *
+		 * @param network Reaction network to tabulate.
+		 */
+		public Builder(ReactionNetwork network) {
+			this.network = network;
+		}
+
+		/**
+		 * Adds a pH axis, sampled linearly. The pH is fixed with {@link
+		 * ChemicalSystem#fixPH(double)}, so the network should define an H+
+		 * component.
+		 *
+		 * @param min Minimum pH.
+		 * @param max Maximum pH.
+		 * @param count Count of nodes, at least 2.
+		 * @return this builder
+		 */
+		public Builder ph(double min, double max, int count) {
+			for(Axis axis : axes)
+				if(axis.kind == PH_AXIS)
+					throw new IllegalStateException("The pH axis is already defined.");
+			axes.add(new Axis(PH_AXIS, "pH", min, max, count));
+			return this;
+		}
+
+		/**
+		 * Adds a total concentration axis, sampled logarithmically.
+		 *
+		 * @param component_name Name of a component of the network.
+		 * @param min Minimum total concentration, strictly positive.
+		 * @param max Maximum total concentration.
+		 * @param count Count of nodes, at least 2.
+		 * @return this builder
+		 */
+		public Builder total(String component_name, double min, double max, int count) {
+			if(!(min > 0))
+				throw new IllegalArgumentException(
+						"Total concentrations must be strictly positive.");
+			// Checks that the component exists
+			network.component(component_name);
+			axes.add(new Axis(
+						TOTAL_AXIS, component_name, Math.log10(min), Math.log10(max), count));
+			return this;
+		}
+
+		/**
+		 * Solves grid nodes with the specified parallel solver. By default,
+		 * nodes are solved in the calling thread.
+		 *
+		 * @param solver Parallel solver.
+		 * @return this builder
+		 */
+		public Builder solver(ParallelEquilibriumSolver solver) {
+			this.solver = solver;
+			return this;
+		}
+
+		/**
+		 * Solves grid nodes with the specified options.
+		 *
+		 * @param solver_options Solver options.
+		 * @return this builder
+		 */
+		public Builder solverOptions(SolverOptions solver_options) {
+			this.solver_options = solver_options;
+			return this;
+		}
+
+		/**
+		 * Solves all the grid nodes and builds the table.
+		 *
+		 * @return A new table, stored off heap.
+		 */
+		public EquilibriumTable build() {
+			if(axes.isEmpty())
+				throw new IllegalStateException("At least one axis must be defined.");
+			Axis[] table_axes = axes.toArray(new Axis[0]);
+			int species_count = network.speciesCount();
+			long node_count = 1;
+			for(Axis axis : table_axes)
+				node_count *= axis.count;
+			if(node_count * species_count > Integer.MAX_VALUE / Double.BYTES)
+				throw new IllegalStateException("The table is too large.");
+
+			String[] species_names = speciesNames(network, species_count);
+			ComponentHandle[] components = new ComponentHandle[table_axes.length];
+			for(int k = 0; k < table_axes.length; k++)
+				if(table_axes[k].kind == TOTAL_AXIS)
+					components[k] = network.component(table_axes[k].name);
+
+			DoubleBuffer data = ByteBuffer
+				.allocateDirect((int) (node_count * species_count * Double.BYTES))
+				.order(ByteOrder.nativeOrder())
+				.asDoubleBuffer();
+			ChemicalSystem[] systems = new ChemicalSystem[
+				(int) Math.min(BATCH_SIZE, node_count)];
+			for(int i = 0; i < systems.length; i++)
+				systems[i] = network.newSystem();
+			try {
+				int[] node = new int[table_axes.length];
+				double[] concentrations = new double[species_count];
+				for(long first = 0; first < node_count; first += systems.length) {
+					int size = (int) Math.min(systems.length, node_count - first);
+					ChemicalSystem[] batch = size == systems.length ?
+						systems : Arrays.copyOf(systems, size);
+					for(int i = 0; i < size; i++) {
+						nodeOf(table_axes, first + i, node);
+						for(int k = 0; k < table_axes.length; k++) {
+							double value = table_axes[k].value(node[k]);
+							if(table_axes[k].kind == PH_AXIS)
+								batch[i].fixPH(value);
+							else
+								batch[i].setTotalConcentration(
+										components[k], Math.pow(10, value));
+						}
+					}
+					ChemmisolCoreException[] exceptions = solver == null ?
+						ChemicalSystem.solveAll(batch, false, solver_options) :
+						solver.solve(batch, false, solver_options);
+					for(int i = 0; i < size; i++) {
+						int offset = (int) ((first + i) * species_count);
+						if(exceptions[i] != null
+								|| !batch[i].getLastSolveResult().isConverged()) {
+							for(int s = 0; s < species_count; s++)
+								data.put(offset + s, Double.NaN);
+						} else {
+							batch[i].readConcentrations(concentrations);
+							for(int s = 0; s < species_count; s++)
+								data.put(offset + s, Math.log10(
+											Math.max(concentrations[s], Double.MIN_NORMAL)));
+						}
+					}
+				}
+			} finally {
+				for(ChemicalSystem system : systems)
+					system.close();
+			}
+			return new EquilibriumTable(table_axes, species_names, data);
+		}
+
+		/**
+		 * Names of the species of the network indexed by species index, as far
+		 * as they can be deduced from components and reagents. Species names
+		 * are only stored to document the table.
+		 */
+		private static String[] speciesNames(ReactionNetwork network, int species_count) {
+			List<String> names = new ArrayList<String>();
+			for(ChemicalComponent component : network.getComponents())
+				names.add(component.getName());
+			for(Reaction reaction : network.getReactions())
+				for(Reagent reagent : reaction.getReagents())
+					names.add(reagent.getName());
+			String[] species_names = new String[species_count];
+			Arrays.fill(species_names, "");
+			for(String name : names) {
+				try {
+					int index = network.species(name).getIndex();
+					if(index >= 0 && index < species_count)
+						species_names[index] = name;
+				} catch(IllegalArgumentException e) {
+					// Not a species of the system, e.g. the solvent
+				}
+			}
+			return species_names;
+		}
+	}
+
+	private static final class Axis {
+		private final byte kind;
+		private final String name;
+		// Bounds in log10 for total axes
+		private final double min;
+		private final double max;
+		private final int count;
+		private final double step;
+
+		Axis(byte kind, String name, double min, double max, int count) {
+			if(count < 2)
+				throw new IllegalArgumentException("An axis must have at least 2 nodes.");
+			if(!(max > min))
+				throw new IllegalArgumentException("The axis maximum must be greater than its minimum.");
+			this.kind = kind;
+			this.name = name;
+			this.min = min;
+			this.max = max;
+			this.count = count;
+			this.step = (max - min) / (count - 1);
+		}
+
+		double value(int node) {
+			return node == count - 1 ? max : min + node * step;
+		}
+
+		/**
+		 * Converts a query input to the axis coordinate.
+		 */
+		double coordinate(double input) {
+			return kind == PH_AXIS ? input : Math.log10(input);
+		}
+	}
+
+	private final Axis[] axes;
+	private final String[] species_names;
+	private final DoubleBuffer data;
+	private final int species_count;
+	// Stride of each axis in the data buffer, in count of nodes
+	private final int[] strides;
+
+	private EquilibriumTable(Axis[] axes, String[] species_names, DoubleBuffer data) {
+		this.axes = axes;
+		this.species_names = species_names;
+		this.data = data;
+		this.species_count = species_names.length;
+		this.strides = new int[axes.length];
+		int stride = 1;
+		for(int k = axes.length - 1; k >= 0; k--) {
+			strides[k] = stride;
+			stride *= axes[k].count;
+		}
+	}
+
+	private static void nodeOf(Axis[] axes, long index, int[] node) {
+		for(int k = axes.length - 1; k >= 0; k--) {
+			node[k] = (int) (index % axes[k].count);
+			index /= axes[k].count;
+		}
+	}
+
+	/**
+	 * Gets the count of axes of the table.
+	 *
+	 * @return count of axes
+	 */
+	public int getAxisCount() {
+		return axes.length;
+	}
+
+	/**
+	 * Gets the name of the specified axis: "pH" for the pH axis, or the name
+	 * of the component for total concentration axes.
+	 *
+	 * @param axis Index of the axis.
+	 * @return name of the axis
+	 */
+	public String getAxisName(int axis) {
+		return axes[axis].name;
+	}
+
+	/**
+	 * Gets the count of species of the table. Concentrations are indexed by
+	 * species index, as in {@link ChemicalSystem#readConcentrations(double[])}.
+	 *
+	 * @return count of species
+	 */
+	public int getSpeciesCount() {
+		return species_count;
+	}
+
+	/**
+	 * Gets the name of the species of the specified index.
+	 *
+	 * @param species_index Index of a species.
+	 * @return name of the species
+	 */
+	public String getSpeciesName(int species_index) {
+		return species_names[species_index];
+	}
+
+	/**
+	 * Approximates the equilibrium for the specified inputs by multilinear
+	 * interpolation of the logarithm of species concentrations.
+	 *
+	 * <p>
+	 * The returned error estimate is an approximation of the maximum error of
+	 * the interpolated log10 concentrations, computed from the second
+	 * differences of the table at the nearest node. An estimate e roughly
+	 * corresponds to a relative error of {@code 10^e - 1} on concentrations
+	 * (about {@code 2.3 * e} for small values).
+	 *
+	 * @param inputs Inputs in axis order: the pH for the pH axis, and the
+	 * total concentration for total axes.
+	 * @param concentrations Array in which interpolated concentrations are
+	 * written. Its length must be at least {@link getSpeciesCount()}.
+	 * @return Estimated error in log10 units, or positive infinity if the
+	 * inputs are outside of the table or if the surrounding nodes could not
+	 * be solved, in which case concentrations are not written.
+	 */
+	public double interpolate(double[] inputs, double[] concentrations) {
+		int d = axes.length;
+		if(inputs.length != d)
+			throw new IllegalArgumentException(
+					"Expected " + d + " inputs, but got " + inputs.length + ".");
+		if(concentrations.length < species_count)
+			throw new IllegalArgumentException(
+					"The concentrations array must contain at least "
+					+ species_count + " elements.");
+		int[] cell = new int[d];
+		double[] t = new double[d];
+		for(int k = 0; k < d; k++) {
+			Axis axis = axes[k];
+			double position = (axis.coordinate(inputs[k]) - axis.min) / axis.step;
+			// Negated comparisons also reject NaN
+			if(!(position >= 0 && position <= axis.count - 1))
+				return Double.POSITIVE_INFINITY;
+			cell[k] = Math.min((int) position, axis.count - 2);
+			t[k] = position - cell[k];
+		}
+
+		// Checks all the corners before writing any concentration
+		int corner_count = 1 << d;
+		for(int corner = 0; corner < corner_count; corner++)
+			if(Double.isNaN(data.get(cornerOffset(cell, corner))))
+				return Double.POSITIVE_INFINITY;
+
+		for(int s = 0; s < species_count; s++) {
+			double value = 0;
+			for(int corner = 0; corner < corner_count; corner++) {
+				double weight = 1;
+				for(int k = 0; k < d; k++)
+					weight *= ((corner >> k) & 1) == 0 ? 1 - t[k] : t[k];
+				if(weight != 0)
+					value += weight * data.get(cornerOffset(cell, corner) + s);
+			}
+			concentrations[s] = Math.pow(10, value);
+		}
+		return errorEstimate(cell, t);
+	}
+
+	/**
+	 * Offset in the data buffer of the first species of the specified corner
+	 * of the cell, where bit k of corner selects the upper node on axis k.
+	 */
+	private int cornerOffset(int[] cell, int corner) {
+		int node = 0;
+		for(int k = 0; k < cell.length; k++)
+			node += (cell[k] + ((corner >> k) & 1)) * strides[k];
+		return node * species_count;
+	}
+
+	/**
+	 * For a quadratic function, the error of linear interpolation at t is
+	 * t(1-t)/2 times the second difference. The second difference of each
+	 * axis is computed at the node of the cell nearest to the query.
+	 */
+	private double errorEstimate(int[] cell, double[] t) {
+		int nearest = 0;
+		for(int k = 0; k < cell.length; k++)
+			nearest += (cell[k] + (t[k] < 0.5 ? 0 : 1)) * strides[k];
+		double max_error = 0;
+		for(int s = 0; s < species_count; s++) {
+			double error = 0;
+			for(int k = 0; k < cell.length; k++) {
+				int count = axes[k].count;
+				if(count < 3 || t[k] == 0)
+					continue;
+				int index = cell[k] + (t[k] < 0.5 ? 0 : 1);
+				// Moves the center of the second difference inside the axis
+				int shift = index == 0 ? 1 : index == count - 1 ? -1 : 0;
+				int center = (nearest + shift * strides[k]) * species_count + s;
+				double second_difference = Math.abs(
+						data.get(center - strides[k] * species_count)
+						- 2 * data.get(center)
+						+ data.get(center + strides[k] * species_count));
+				if(Double.isNaN(second_difference))
+					return Double.POSITIVE_INFINITY;
+				error += t[k] * (1 - t[k]) / 2 * second_difference;
+			}
+			max_error = Math.max(max_error, error);
+		}
+		return max_error;
+	}
+
+	/**
+	 * Approximates the equilibrium for the specified inputs, or solves it with
+	 * the provided system if the approximation is not accurate enough.
+	 *
+	 * <p>
+	 * If the inputs are outside of the table or if the estimated error of
+	 * {@link interpolate(double[], double[])} exceeds the tolerance, the pH
+	 * and total concentrations of the system are set according to the inputs,
+	 * and the system is solved with {@link ChemicalSystem#solve()}.
+	 *
+	 * @param system System created from the tabulated network, used as a
+	 * fallback.
+	 * @param inputs Inputs in axis order.
+	 * @param concentrations Array in which concentrations are written.
+	 * @param tolerance Maximum estimated error, in log10 units.
+	 * @return True if concentrations were interpolated, false if the system
+	 * was solved.
+	 *
+	 * @throws ChemmisolCoreException if an exception occurs within the native
+	 * {@code chemmisol-cpp} solver.
+	 */
+	public boolean evaluate(
+			ChemicalSystem system, double[] inputs, double[] concentrations,
+			double tolerance) throws ChemmisolCoreException {
+		if(interpolate(inputs, concentrations) <= tolerance)
+			return true;
+		for(int k = 0; k < axes.length; k++) {
+			if(axes[k].kind == PH_AXIS)
+				system.fixPH(inputs[k]);
+			else
+				system.setTotalConcentration(system.component(axes[k].name), inputs[k]);
+		}
+		system.solve(concentrations);
+		return false;
+	}
+
+	/**
+	 * Saves this table to the specified file, that can then be memory mapped
+	 * with {@link load(Path)}.
+	 *
+	 * @param path Path of the file to create or overwrite.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void save(Path path) throws IOException {
+		ByteArrayOutputStream header_bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(header_bytes);
+		header.writeInt(VERSION);
+		header.writeBoolean(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
+		header.writeInt(axes.length);
+		for(Axis axis : axes) {
+			header.writeByte(axis.kind);
+			header.writeUTF(axis.name);
+			header.writeDouble(axis.min);
+			header.writeDouble(axis.max);
+			header.writeInt(axis.count);
+		}
+		header.writeInt(species_count);
+		for(String name : species_names)
+			header.writeUTF(name);
+		header.flush();
+
+		// Data is aligned on 8 bytes so that it can be mapped as doubles
+		int data_offset = (16 + header_bytes.size() + 7) & ~7;
+		ByteBuffer prefix = ByteBuffer.allocate(data_offset);
+		prefix.putLong(MAGIC);
+		prefix.putInt(header_bytes.size());
+		prefix.putInt(data_offset);
+		prefix.put(header_bytes.toByteArray());
+		prefix.rewind();
+
+		ByteBuffer data_bytes = ByteBuffer.allocate(data.capacity() * Double.BYTES)
+			.order(ByteOrder.nativeOrder());
+		DoubleBuffer values = data.duplicate();
+		values.clear();
+		data_bytes.asDoubleBuffer().put(values);
+		try (FileChannel channel = FileChannel.open(path,
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(prefix.hasRemaining())
+				channel.write(prefix);
+			while(data_bytes.hasRemaining())
+				channel.write(data_bytes);
+		}
+	}
+
+	/**
+	 * Loads a table saved with {@link save(Path)}.
+	 *
+	 * <p>
+	 * Tabulated values are memory mapped, so that only the parts of the table
+	 * actually queried are read from the disk, and the table does not use any
+	 * heap memory.
+	 *
+	 * @param path Path of the table file.
+	 * @return The loaded table.
+	 * @throws IOException if the file cannot be read or is not a valid table.
+	 */
+	public static EquilibriumTable load(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer file = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(file.capacity() < 16 || file.getLong(0) != MAGIC)
+				throw new IOException("Not an equilibrium table: " + path);
+			int header_size = file.getInt(8);
+			int data_offset = file.getInt(12);
+			byte[] header_bytes = new byte[header_size];
+			((ByteBuffer) file.position(16)).get(header_bytes);
+			DataInputStream header = new DataInputStream(
+					new ByteArrayInputStream(header_bytes));
+			int version = header.readInt();
+			if(version != VERSION)
+				throw new IOException("Unsupported equilibrium table version: " + version);
+			ByteOrder order = header.readBoolean() ?
+				ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+			Axis[] axes = new Axis[header.readInt()];
+			for(int k = 0; k < axes.length; k++)
+				axes[k] = new Axis(
+						header.readByte(), header.readUTF(),
+						header.readDouble(), header.readDouble(), header.readInt());
+			String[] species_names = new String[header.readInt()];
+			for(int s = 0; s < species_names.length; s++)
+				species_names[s] = header.readUTF();
+
+			DoubleBuffer data = ((ByteBuffer) file.position(data_offset))
+				.slice().order(order).asDoubleBuffer();
+			return new EquilibriumTable(axes, species_names, data);
+		}
+	}
+}
@@ -0,0 +1,563 @@
+package ummisco.gama.chemmisol;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Pure Java equilibrium engine, solving the chemmisol model with a
+ * Newton-Raphson method.
+ *
+ * <p>
+ * The engine implements the same model as the native {@code chemmisol-cpp}
+ * solver:
+ * <ul>
+ * <li>the activity of each species produced by a {@link Reaction} is given by
+ * the law of mass action, from its log K and stoichiometric coefficients;</li>
+ * <li>the total quantity of each {@link ChemicalComponent} is conserved,
+ * except for the component fixed by {@link ChemicalSystem#fixPH(double)};</li>
+ * <li>the activity of a {@link Solvent} is 1;</li>
+ * <li>the activity of mineral species is their fraction of the sites of the
+ * mineral system, whose quantity is given by {@link
+ * ChemicalSystem#sitesQuantity()}.</li>
+ * </ul>
+ *
+ * <p>
+ * Unknowns are the natural logarithms of the activities of the free
+ * components, so that concentrations always remain positive. The Newton
+ * system is solved with a Cholesky factorization of the diagonally scaled
+ * Jacobian, that is symmetric positive definite in this formulation. Each
+ * iteration is performed on preallocated primitive arrays, so that the
+ * solver loop does not allocate any object and can be fully optimized by the
+ * JIT compiler.
+ *
+ * <p>
+ * The definitions of the system are compiled once per structure, and shared
+ * by all the copies of the system and all the systems created from the same
+ * {@link ReactionNetwork}. Inputs and the initial state are read from the
+ * native system at each solve, and the resulting concentrations are written
+ * back to the native system.
+ *
+ * <pre>
+ * JavaEquilibriumEngine engine = new JavaEquilibriumEngine();
+ * system.setEquilibriumEngine(engine);
+ * system.solve();
+ * </pre>
+ */
+public class JavaEquilibriumEngine implements EquilibriumEngine {
+	private static final double LN_10 = Math.log(10);
+	/**
+	 * Maximum variation of the log activity of a component within a single
+	 * iteration, in natural log units, so that the first iterations from a
+	 * poor initial guess do not overflow concentrations.
+	 */
+	static final double MAX_STEP = 4 * LN_10;
+	// Smallest pivot of the Cholesky factorization of the scaled Jacobian
+	static final double MIN_PIVOT = 1e-14;
+
+	/**
+	 * Model compiled from the definitions of a structure, independent from
+	 * the inputs of the system.
+	 */
+	static final class Model {
+		final int component_count;
+		final String[] component_names;
+		final boolean[] solvent_components;
+		final boolean[] mineral_components;
+
+		final int species_count;
+		final String[] species_names;
+		final boolean[] mineral_species;
+		// Species of each non solvent component, or -1
+		final int[] component_species;
+		/*
+		 * Quantity of each component in each species, row major by species.
+		 * It is also the coefficient of the log activity of each component
+		 * in the log activity of each species.
+		 */
+		final double[] stoichiometry;
+		// Natural logarithm of the formation constant of each species
+		final double[] log_constants;
+
+		Model(ChemicalStructure structure) throws ChemmisolCoreException {
+			List<ChemicalComponent> components = structure.getComponents();
+			List<Reaction> reactions = structure.getReactions();
+			component_count = components.size();
+			component_names = new String[component_count];
+			solvent_components = new boolean[component_count];
+			mineral_components = new boolean[component_count];
+			component_species = new int[component_count];
+			Map<String, Integer> component_indexes = new HashMap<String, Integer>();
+			int solvent_count = 0;
+			for(int j = 0; j < component_count; j++) {
+				ChemicalComponent component = components.get(j);
+				component_names[j] = component.getName();
+				solvent_components[j] = component.getPhase() == Phase.SOLVENT;
+				mineral_components[j] = component.getPhase() == Phase.MINERAL;
+				component_indexes.put(component.getName(), j);
+				if(solvent_components[j])
+					solvent_count++;
+			}
+
+			species_count = component_count - solvent_count + reactions.size();
+			species_names = new String[species_count];
+			mineral_species = new boolean[species_count];
+			stoichiometry = new double[species_count * component_count];
+			log_constants = new double[species_count];
+			int s = 0;
+			for(int j = 0; j < component_count; j++) {
+				if(solvent_components[j]) {
+					component_species[j] = -1;
+				} else {
+					component_species[j] = s;
+					species_names[s] = component_names[j];
+					mineral_species[s] = mineral_components[j];
+					stoichiometry[s * component_count + j] = 1;
+					s++;
+				}
+			}
+			for(Reaction reaction : reactions) {
+				Reagent produced_species = null;
+				for(Reagent reagent : reaction.getReagents()) {
+					if(!component_indexes.containsKey(reagent.getName())) {
+						if(produced_species != null)
+							throw new ChemmisolCoreException(
+									"chemmisol::InvalidSpeciesInReaction:\n"
+									+ "Too many produced species in reaction "
+									+ reaction.getName());
+						produced_species = reagent;
+					}
+				}
+				if(produced_species == null || produced_species.getCoefficient() == 0)
+					throw new ChemmisolCoreException(
+							"chemmisol::MissingProducedSpeciesInReaction:\n"
+							+ "Missing produced species in reaction "
+							+ reaction.getName());
+				// log K = -sum(coefficient * log a) over all the reagents
+				double produced_coefficient = produced_species.getCoefficient();
+				species_names[s] = produced_species.getName();
+				mineral_species[s] = produced_species.getPhase() == Phase.MINERAL;
+				log_constants[s] = -LN_10 * reaction.getLogK() / produced_coefficient;
+				for(Reagent reagent : reaction.getReagents()) {
+					if(reagent != produced_species) {
+						int j = component_indexes.get(reagent.getName());
+						if(!solvent_components[j])
+							stoichiometry[s * component_count + j]
+								-= reagent.getCoefficient() / produced_coefficient;
+					}
+				}
+				s++;
+			}
+		}
+	}
+
+	/**
+	 * Per system state: native indexes of the model entities, and work arrays
+	 * of the solver.
+	 */
+	static final class State {
+		final Model model;
+		final ChemicalStructure structure;
+		final String ph_component;
+		final int native_species_count;
+		final double sites_quantity;
+
+		final int[] component_native_indexes;
+		final int[] species_native_indexes;
+		final boolean[] fixed;
+
+		final double[] inputs;
+		final double[] native_concentrations;
+
+		final double[] totals;
+		final double[] log_activities;
+		final boolean[] absent;
+		final int[] free;
+		final double[] concentrations;
+		final double[] residuals;
+		final double[] jacobian;
+		final double[] scale;
+		final double[] step;
+
+		State(ChemicalSystem system, Model model) throws ChemmisolCoreException {
+			this.model = model;
+			this.structure = system.getStructure();
+			this.ph_component = system.getPhComponent();
+			int m = model.component_count;
+			int n = model.species_count;
+
+			component_native_indexes = new int[m];
+			fixed = new boolean[m];
+			for(int j = 0; j < m; j++) {
+				component_native_indexes[j] = system.componentIndex(model.component_names[j]);
+				if(component_native_indexes[j] < 0)
+					throw new ChemmisolCoreException("JavaEquilibriumEngine:\n"
+							+ "Undefined component " + model.component_names[j]);
+				fixed[j] = model.component_names[j].equals(ph_component);
+			}
+			species_native_indexes = new int[n];
+			for(int s = 0; s < n; s++) {
+				species_native_indexes[s] = system.speciesIndex(model.species_names[s]);
+				if(species_native_indexes[s] < 0)
+					throw new ChemmisolCoreException("JavaEquilibriumEngine:\n"
+							+ "Undefined species " + model.species_names[s]);
+			}
+			native_species_count = system.speciesCount();
+			sites_quantity = system.sitesQuantity();
+
+			inputs = new double[system.componentCount()];
+			native_concentrations = new double[native_species_count];
+			totals = new double[m];
+			log_activities = new double[m];
+			absent = new boolean[m];
+			free = new int[m];
+			concentrations = new double[n];
+			residuals = new double[m];
+			jacobian = new double[m * m];
+			scale = new double[m];
+			step = new double[m];
+		}
+
+		boolean isValid(ChemicalSystem system) {
+			return isValid(system, system.speciesCount());
+		}
+
+		boolean isValid(ChemicalSystem system, int native_species_count) {
+			return structure == system.getStructure()
+				&& (ph_component == null ?
+						system.getPhComponent() == null :
+						ph_component.equals(system.getPhComponent()))
+				&& this.native_species_count == native_species_count;
+		}
+	}
+
+	/**
+	 * Initializes a Java equilibrium engine. A single engine can be shared by
+	 * any count of systems.
+	 */
+	public JavaEquilibriumEngine() {
+	}
+
+	@Override
+	public String getName() {
+		return "java";
+	}
+
+	private static Model model(ChemicalStructure structure) throws ChemmisolCoreException {
+		Object model = structure.getEngineModel();
+		if(!(model instanceof Model)) {
+			model = new Model(structure);
+			structure.setEngineModel(model);
+		}
+		return (Model) model;
+	}
+
+	/**
+	 * Gets the state of the system, built again if the definitions of the
+	 * system changed. The native system is set up if its produced species are
+	 * not defined yet.
+	 */
+	static State state(ChemicalSystem system) throws ChemmisolCoreException {
+		Object state = system.getEngineState();
+		if(state instanceof State && ((State) state).isValid(system))
+			return (State) state;
+		return newState(system);
+	}
+
+	/**
+	 * Gets the state of the system, whose current count of native species is
+	 * already known, without native calls if the state is still valid.
+	 */
+	private static State state(ChemicalSystem system, int native_species_count)
+		throws ChemmisolCoreException {
+		Object state = system.getEngineState();
+		if(state instanceof State
+				&& ((State) state).isValid(system, native_species_count))
+			return (State) state;
+		return newState(system);
+	}
+
+	private static State newState(ChemicalSystem system) throws ChemmisolCoreException {
+		Model model = model(system.getStructure());
+		// Produced species are only defined once the native system is set up
+		for(String species_name : model.species_names) {
+			if(system.speciesIndex(species_name) < 0) {
+				system.setUpNative();
+				break;
+			}
+		}
+		State new_state = new State(system, model);
+		system.setEngineState(new_state);
+		return new_state;
+	}
+
+	@Override
+	public void solve(
+			ChemicalSystem system, boolean set_up, double[] initial_guess,
+			SolverOptions solver_options, double[] statistics)
+		throws ChemmisolCoreException {
+		long start = System.nanoTime();
+		if(set_up)
+			system.setUpNative();
+		State state = state(system);
+		Model model = state.model;
+		int m = model.component_count;
+
+		system.readInputs(state.inputs);
+		if(initial_guess != null)
+			System.arraycopy(
+					initial_guess, 0, state.native_concentrations, 0,
+					state.native_species_count);
+		else
+			system.readConcentrations(state.native_concentrations);
+
+		// Initial log activities, from the current concentrations of the
+		// component species if available
+		int free_count = totals(state);
+		for(int j = 0; j < m; j++) {
+			if(model.solvent_components[j] || state.absent[j])
+				continue;
+			double input = state.totals[j];
+			if(state.fixed[j]) {
+				state.log_activities[j] = Math.log(input);
+			} else {
+				double concentration = state.native_concentrations[
+					state.species_native_indexes[model.component_species[j]]];
+				state.log_activities[j] = concentration > 0 && concentration < Double.POSITIVE_INFINITY ?
+					Math.log(concentration) :
+					Math.log(model.mineral_components[j] ? input / state.sites_quantity : input);
+			}
+		}
+
+		double tolerance = solver_options.getTolerance();
+		double damping = solver_options.getDamping();
+		int max_iteration = solver_options.getMaxIteration();
+		concentrations(state, state.concentrations);
+		int iteration = 0;
+		double residual = residual(state, free_count);
+		while(!(residual <= tolerance) && iteration < max_iteration) {
+			newtonStep(state, free_count, damping);
+			concentrations(state, state.concentrations);
+			residual = residual(state, free_count);
+			iteration++;
+		}
+
+		for(int s = 0; s < model.species_count; s++)
+			state.native_concentrations[state.species_native_indexes[s]]
+				= state.concentrations[s];
+		system.writeConcentrations(state.native_concentrations);
+
+		statistics[0] = iteration;
+		statistics[1] = residual;
+		statistics[2] = System.nanoTime() - start;
+	}
+
+	/**
+	 * Computes the residual of the current concentrations of the native
+	 * species of the system, for engines that do not compute it themselves.
+	 *
+	 * @see SolveResult#getResidual()
+	 */
+	static double residual(ChemicalSystem system) throws ChemmisolCoreException {
+		State state = state(system);
+		system.readConcentrations(state.native_concentrations);
+		return residual(system, state, state.native_concentrations);
+	}
+
+	/**
+	 * Computes the residual of the provided concentrations of the native
+	 * species of the system, indexed by species index, against the current
+	 * inputs of the system.
+	 */
+	static double residual(ChemicalSystem system, double[] native_concentrations)
+		throws ChemmisolCoreException {
+		return residual(system, state(system), native_concentrations);
+	}
+
+	/**
+	 * Computes the residual of the provided concentrations of the native
+	 * species of the system against the provided inputs of its components,
+	 * both read back from the native system, without other native calls
+	 * unless the definitions of the system changed.
+	 */
+	static double residual(
+			ChemicalSystem system, double[] native_concentrations,
+			double[] inputs) throws ChemmisolCoreException {
+		State state = state(system, native_concentrations.length);
+		System.arraycopy(inputs, 0, state.inputs, 0, state.inputs.length);
+		return residual(state, native_concentrations);
+	}
+
+	private static double residual(
+			ChemicalSystem system, State state, double[] native_concentrations) {
+		system.readInputs(state.inputs);
+		return residual(state, native_concentrations);
+	}
+
+	private static double residual(State state, double[] native_concentrations) {
+		Model model = state.model;
+		int free_count = totals(state);
+		for(int s = 0; s < model.species_count; s++)
+			state.concentrations[s]
+				= native_concentrations[state.species_native_indexes[s]];
+		return residual(state, free_count);
+	}
+
+	/**
+	 * Reads the total quantity of each component from the inputs of the
+	 * state, and lists the free components, whose total quantity is
+	 * conserved.
+	 *
+	 * @return count of free components
+	 */
+	private static int totals(State state) {
+		Model model = state.model;
+		int free_count = 0;
+		for(int j = 0; j < model.component_count; j++) {
+			state.totals[j] = 0;
+			state.absent[j] = false;
+			if(model.solvent_components[j])
+				continue;
+			double input = state.inputs[state.component_native_indexes[j]];
+			state.totals[j] = input;
+			state.absent[j] = !(input > 0);
+			if(!state.absent[j] && !state.fixed[j])
+				state.free[free_count++] = j;
+		}
+		return free_count;
+	}
+
+	/**
+	 * Computes the concentration of each species from the log activities of
+	 * components. The concentration of a mineral species is its fraction of
+	 * sites.
+	 */
+	private static void concentrations(State state, double[] concentrations) {
+		Model model = state.model;
+		int m = model.component_count;
+		for(int s = 0; s < model.species_count; s++) {
+			double log_activity = model.log_constants[s];
+			boolean zero = false;
+			int row = s * m;
+			for(int j = 0; j < m; j++) {
+				double coefficient = model.stoichiometry[row + j];
+				if(coefficient != 0) {
+					if(state.absent[j]) {
+						zero = true;
+						break;
+					}
+					log_activity += coefficient * state.log_activities[j];
+				}
+			}
+			concentrations[s] = zero ? 0 : Math.exp(log_activity);
+		}
+	}
+
+	/**
+	 * Performs a Newton iteration on the mass balance of free components.
+	 */
+	private static void newtonStep(State state, int free_count, double damping) {
+		Model model = state.model;
+		int m = model.component_count;
+		int f = free_count;
+		double[] jacobian = state.jacobian;
+		double[] residuals = state.residuals;
+		for(int a = 0; a < f; a++) {
+			residuals[a] = -state.totals[state.free[a]];
+			for(int b = 0; b <= a; b++)
+				jacobian[a * f + b] = 0;
+		}
+		// Mass balance residuals and their derivatives relative to the log
+		// activities of free components (lower triangle)
+		for(int s = 0; s < model.species_count; s++) {
+			double quantity = state.concentrations[s]
+				* (model.mineral_species[s] ? state.sites_quantity : 1);
+			if(quantity == 0)
+				continue;
+			int row = s * m;
+			for(int a = 0; a < f; a++) {
+				double coefficient_a = model.stoichiometry[row + state.free[a]];
+				if(coefficient_a == 0)
+					continue;
+				double quantity_a = coefficient_a * quantity;
+				residuals[a] += quantity_a;
+				for(int b = 0; b <= a; b++)
+					jacobian[a * f + b]
+						+= quantity_a * model.stoichiometry[row + state.free[b]];
+			}
+		}
+
+		// Cholesky factorization of the diagonally scaled Jacobian
+		double[] scale = state.scale;
+		double[] step = state.step;
+		for(int a = 0; a < f; a++) {
+			// The diagonal vanishes when all the species of a component
+			// underflow: such rows are left unscaled rather than infinite
+			double diagonal = jacobian[a * f + a];
+			scale[a] = diagonal > 0 ? 1 / Math.sqrt(diagonal) : 1;
+		}
+		for(int a = 0; a < f; a++) {
+			for(int b = 0; b <= a; b++) {
+				double sum = jacobian[a * f + b] * scale[a] * scale[b];
+				for(int k = 0; k < b; k++)
+					sum -= jacobian[a * f + k] * jacobian[b * f + k];
+				if(a == b)
+					jacobian[a * f + a] = Math.sqrt(Math.max(sum, MIN_PIVOT));
+				else
+					jacobian[a * f + b] = sum / jacobian[b * f + b];
+			}
+		}
+		// Forward and backward substitutions
+		for(int a = 0; a < f; a++) {
+			double sum = -residuals[a] * scale[a];
+			for(int k = 0; k < a; k++)
+				sum -= jacobian[a * f + k] * step[k];
+			step[a] = sum / jacobian[a * f + a];
+		}
+		double max_step = 0;
+		for(int a = f - 1; a >= 0; a--) {
+			double sum = step[a];
+			for(int k = a + 1; k < f; k++)
+				sum -= jacobian[k * f + a] * step[k];
+			step[a] = sum / jacobian[a * f + a];
+		}
+		for(int a = 0; a < f; a++) {
+			step[a] *= scale[a];
+			max_step = Math.max(max_step, Math.abs(step[a]));
+		}
+
+		double factor = damping;
+		if(max_step * damping > MAX_STEP)
+			factor = MAX_STEP / max_step;
+		for(int a = 0; a < f; a++)
+			state.log_activities[state.free[a]] += factor * step[a];
+	}
+
+	/**
+	 * Maximum relative error of the mass balance of free components, from
+	 * the current concentrations of the state.
+	 */
+	private static double residual(State state, int free_count) {
+		Model model = state.model;
+		int m = model.component_count;
+		double[] residuals = state.residuals;
+		for(int a = 0; a < free_count; a++)
+			residuals[a] = -state.totals[state.free[a]];
+		for(int s = 0; s < model.species_count; s++) {
+			double quantity = state.concentrations[s]
+				* (model.mineral_species[s] ? state.sites_quantity : 1);
+			if(quantity == 0)
+				continue;
+			int row = s * m;
+			for(int a = 0; a < free_count; a++)
+				residuals[a] += model.stoichiometry[row + state.free[a]] * quantity;
+		}
+		double residual = 0;
+		for(int a = 0; a < free_count; a++)
+			residual = Math.max(
+					residual, Math.abs(residuals[a]) / state.totals[state.free[a]]);
+		return residual;
+	}
+}
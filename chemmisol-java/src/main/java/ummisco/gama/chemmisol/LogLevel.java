@@ -0,0 +1,39 @@
+package ummisco.gama.chemmisol;
+
+/**
+ * Verbosity of the messages logged by chemmisol, from the most to the least
+ * verbose.
+ *
+ * <p>
+ * Enabling a level enables all the following levels.
+ *
+ * @see Chemmisol#setLogLevel(LogLevel)
+ */
+public enum LogLevel {
+	/**
+	 * Detailed messages of the chemmisol-cpp solver.
+	 */
+	TRACE,
+	/**
+	 * Messages useful to debug the native memory management.
+	 */
+	DEBUG,
+	/**
+	 * Informative messages, such as loaded libraries and added reactions or
+	 * components. Note that some messages are logged each time a system is
+	 * solved.
+	 */
+	INFO,
+	/**
+	 * Potential problems.
+	 */
+	WARNING,
+	/**
+	 * Errors.
+	 */
+	ERROR,
+	/**
+	 * Disables all messages.
+	 */
+	OFF
+}
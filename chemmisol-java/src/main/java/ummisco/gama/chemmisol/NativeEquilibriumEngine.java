@@ -0,0 +1,30 @@
+package ummisco.gama.chemmisol;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Engine running the solver of the native {@code chemmisol-cpp} library,
+ * through the backend of the solved system. chemmisol-cpp does not report
+ * the residual of its solution, so it is computed from the solved
+ * concentrations with the model of the {@link JavaEquilibriumEngine}.
+ */
+final class NativeEquilibriumEngine implements EquilibriumEngine {
+	static final NativeEquilibriumEngine INSTANCE = new NativeEquilibriumEngine();
+
+	private NativeEquilibriumEngine() {
+	}
+
+	@Override
+	public String getName() {
+		return "native";
+	}
+
+	@Override
+	public void solve(
+			ChemicalSystem system, boolean set_up, double[] initial_guess,
+			SolverOptions solver_options, double[] statistics)
+		throws ChemmisolCoreException {
+		system.solveNative(set_up, initial_guess, solver_options, statistics);
+		statistics[1] = JavaEquilibriumEngine.residual(system);
+	}
+}
@@ -0,0 +1,216 @@
+package ummisco.gama.chemmisol;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Solves the equilibrium state of many independent chemical systems using
+ * several cores.
+ *
+ * <p>
+ * Systems are recursively split into batches that are solved by the workers
+ * of a {@link ForkJoinPool}. Each batch is solved with a single native call
+ * (see {@link ChemicalSystem#solveAll(ChemicalSystem[], boolean)}), and idle
+ * workers steal pending batches from busy workers, so that the load remains
+ * balanced even if some systems converge much more slowly than others.
+ *
+ * <h2>Thread confinement</h2>
+ *
+ * Each system is set up and solved by exactly one worker thread, and all the
+ * results are visible to the calling thread once {@link
+ * solve(ChemicalSystem[], boolean)} returns. Solved systems must not be
+ * accessed by other threads while they are solved, and ChemicalSpecies
+ * instances tracked by a system must not be shared with other systems solved
+ * in the same call.
+ *
+ * <h2>Example</h2>
+ *
+ * <pre>
+ * try(ParallelEquilibriumSolver solver = new ParallelEquilibriumSolver(32)) {
+ * 	ChemmisolCoreException[] exceptions = solver.solve(systems, true);
+ * 	...
+ * }
+ * </pre>
+ */
+public class ParallelEquilibriumSolver implements AutoCloseable {
+	/**
+	 * Default maximum count of systems solved by a single native call.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 16;
+
+	private final ForkJoinPool pool;
+	private final boolean owns_pool;
+	private final int batch_size;
+
+	private ParallelEquilibriumSolver(ForkJoinPool pool, boolean owns_pool, int batch_size) {
+		if(batch_size < 1)
+			throw new IllegalArgumentException("The batch size must be positive.");
+		this.pool = pool;
+		this.owns_pool = owns_pool;
+		this.batch_size = batch_size;
+	}
+
+	/**
+	 * Initializes a parallel solver that uses the workers of the provided
+	 * pool.
+	 *
+	 * <p>
+	 * The pool is <b>not</b> shut down when the solver is closed.
+	 *
+	 * @param pool Pool used to solve systems.
+	 * @param batch_size Maximum count of systems solved by a single native
+	 * call. Smaller batches improve load balancing, while larger batches
+	 * reduce the JNI overhead.
+	 */
+	public ParallelEquilibriumSolver(ForkJoinPool pool, int batch_size) {
+		this(pool, false, batch_size);
+	}
+
+	/**
+	 * Initializes a parallel solver that uses a new pool with the specified
+	 * parallelism level.
+	 *
+	 * <p>
+	 * The pool is shut down when the solver is closed.
+	 *
+	 * @param parallelism Count of worker threads.
+	 * @param batch_size Maximum count of systems solved by a single native
+	 * call.
+	 */
+	public ParallelEquilibriumSolver(int parallelism, int batch_size) {
+		this(new ForkJoinPool(parallelism), true, batch_size);
+	}
+
+	/**
+	 * Initializes a parallel solver that uses a new pool with the specified
+	 * parallelism level, and the {@link DEFAULT_BATCH_SIZE default batch
+	 * size}.
+	 *
+	 * <p>
+	 * The pool is shut down when the solver is closed.
+	 *
+	 * @param parallelism Count of worker threads.
+	 */
+	public ParallelEquilibriumSolver(int parallelism) {
+		this(parallelism, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Initializes a parallel solver that uses the {@link
+	 * ForkJoinPool#commonPool() common pool}.
+	 */
+	public ParallelEquilibriumSolver() {
+		this(ForkJoinPool.commonPool(), false, DEFAULT_BATCH_SIZE);
+	}
+
+	private class SolveTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ChemicalSystem[] systems;
+		private final int from;
+		private final int to;
+		private final boolean set_up;
+		private final SolverOptions solver_options;
+		private final ChemmisolCoreException[] exceptions;
+
+		SolveTask(
+				ChemicalSystem[] systems, int from, int to, boolean set_up,
+				SolverOptions solver_options,
+				ChemmisolCoreException[] exceptions) {
+			this.systems = systems;
+			this.from = from;
+			this.to = to;
+			this.set_up = set_up;
+			this.solver_options = solver_options;
+			this.exceptions = exceptions;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= batch_size) {
+				ChemicalSystem.solveAll(
+						systems, from, to, set_up, solver_options, exceptions);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(
+						new SolveTask(systems, from, middle, set_up,
+							solver_options, exceptions),
+						new SolveTask(systems, middle, to, set_up,
+							solver_options, exceptions)
+						);
+			}
+		}
+	}
+
+	/**
+	 * Solves the equilibrium state of all the specified systems in parallel.
+	 *
+	 * <p>
+	 * This method blocks until all systems are solved. As with {@link
+	 * ChemicalSystem#solveAll(ChemicalSystem[], boolean)}, an exception thrown
+	 * while solving one system does not prevent other systems from being
+	 * solved. Each system is solved according to its own solver options.
+	 *
+	 * @param systems Chemical systems to solve.
+	 * @param set_up If true, {@link ChemicalSystem#setUp()} is called on each
+	 * system before it is solved.
+	 * @return An array of the same size as systems, that contains the
+	 * ChemmisolCoreException thrown while setting up or solving each system,
+	 * or null if the system was successfully solved.
+	 */
+	public ChemmisolCoreException[] solve(ChemicalSystem[] systems, boolean set_up) {
+		return solve(systems, set_up, null);
+	}
+
+	/**
+	 * Solves the equilibrium state of all the specified systems in parallel,
+	 * using the same solver options for all systems.
+	 *
+	 * @param systems Chemical systems to solve.
+	 * @param set_up If true, {@link ChemicalSystem#setUp()} is called on each
+	 * system before it is solved.
+	 * @param solver_options Solver options used for all the systems instead
+	 * of their own options. If null, each system is solved according to its
+	 * own options.
+	 * @return An array of the same size as systems, that contains the
+	 * ChemmisolCoreException thrown while setting up or solving each system,
+	 * or null if the system was successfully solved.
+	 *
+	 * @see ChemicalSystem#solveAll(ChemicalSystem[], boolean, SolverOptions)
+	 */
+	public ChemmisolCoreException[] solve(
+			ChemicalSystem[] systems, boolean set_up, SolverOptions solver_options) {
+		ChemmisolCoreException[] exceptions = new ChemmisolCoreException[systems.length];
+		pool.invoke(new SolveTask(
+					systems, 0, systems.length, set_up, solver_options, exceptions));
+		return exceptions;
+	}
+
+	/**
+	 * Solves the equilibrium state of all the specified systems in parallel.
+	 *
+	 * @param systems Chemical systems to solve.
+	 * @param set_up If true, {@link ChemicalSystem#setUp()} is called on each
+	 * system before it is solved.
+	 * @return An array that contains the ChemmisolCoreException thrown while
+	 * setting up or solving each system in the iteration order of the
+	 * collection, or null if the system was successfully solved.
+	 *
+	 * @see solve(ChemicalSystem[], boolean)
+	 */
+	public ChemmisolCoreException[] solve(Collection<ChemicalSystem> systems, boolean set_up) {
+		return solve(systems.toArray(new ChemicalSystem[0]), set_up);
+	}
+
+	/**
+	 * Shuts down the worker pool if it was created by this solver.
+	 */
+	@Override
+	public void close() {
+		if(owns_pool)
+			pool.shutdown();
+	}
+}
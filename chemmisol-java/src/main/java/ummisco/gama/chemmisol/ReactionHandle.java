@@ -0,0 +1,15 @@
+package ummisco.gama.chemmisol;
+
+/**
+ * Resolved reference to a reaction of a chemical system.
+ *
+ * <p>
+ * A ReactionHandle is obtained from {@link ChemicalSystem#reaction(String)},
+ * and can be used to query the reaction quotient of the reaction with {@link
+ * ChemicalSystem#reactionQuotient(ReactionHandle)}.
+ */
+public class ReactionHandle extends ChemicalHandle {
+	ReactionHandle(String name, int index) {
+		super(name, index);
+	}
+}
@@ -0,0 +1,463 @@
+package ummisco.gama.chemmisol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Immutable reaction network shared by many chemical systems.
+ *
+ * <p>
+ * A ReactionNetwork is built once from Reaction (or {@link
+ * ReactionNetworkSpec}) and ChemicalComponent definitions, and can then be used to create any number of chemical systems
+ * with {@link newSystem()}. The network keeps a set up prototype of the
+ * corresponding native {@code chemmisol-cpp} system, so that each new system
+ * is created with a single native copy, without reading the reaction
+ * definitions again through JNI.
+ *
+ * <p>
+ * Systems created from the network share the network definitions and its
+ * handle tables: handles returned by {@link species(String)}, {@link
+ * component(String)} and {@link reaction(String)} are resolved only once for
+ * the whole network, and are valid for all the systems created from it.
+ *
+ * <p>
+ * A network saves the cost of defining and setting up each system, not
+ * native memory: each system is a full copy of the native prototype,
+ * including its reactions, so the native memory used by each system is the
+ * same as for a system built from scratch.
+ *
+ * <p>
+ * If the pH of the systems must be fixed, the network should be created with
+ * a default pH (see {@link ReactionNetwork(Collection, Collection, double)}):
+ * the prototype is then set up with a fixed pH, so that calling {@link
+ * ChemicalSystem#fixPH(double)} on each system only updates its pH value,
+ * without a new set up. Else, the first call to {@link
+ * ChemicalSystem#fixPH(double)} on each system requires a new set up of the
+ * system.
+ *
+ * <h2>Example</h2>
+ *
+ * <pre>
+ * try(ReactionNetwork network = new ReactionNetwork(reactions, components)) {
+ * 	ComponentHandle PO4 = network.component("PO4-3");
+ * 	for(Cell cell : cells) {
+ * 		cell.system = network.newSystem();
+ * 		cell.system.setTotalConcentration(PO4, cell.phosphorus);
+ * 	}
+ * }
+ * </pre>
+ *
+ * ReactionNetwork instances can safely be shared between threads.
+ */
+public class ReactionNetwork implements AutoCloseable {
+	private final ReactionNetworkSpec spec;
+	private final List<Reaction> reactions;
+	private final List<ChemicalComponent> components;
+	private final ChemicalSystem prototype;
+	// The prototype is only used while holding the lock of the network, so
+	// that it cannot be released during a native call
+	private volatile boolean closed;
+
+	private final ConcurrentMap<String, SpeciesHandle> species_handles
+		= new ConcurrentHashMap<String, SpeciesHandle>();
+	private final ConcurrentMap<String, ComponentHandle> component_handles
+		= new ConcurrentHashMap<String, ComponentHandle>();
+	private final ConcurrentMap<String, ReactionHandle> reaction_handles
+		= new ConcurrentHashMap<String, ReactionHandle>();
+
+	/**
+	 * Initializes a network from its prototype. The pH of the prototype is
+	 * fixed before it is set up, unless ph is NaN.
+	 */
+	private ReactionNetwork(
+			ChemicalSystem prototype,
+			ReactionNetworkSpec spec,
+			Collection<ChemicalComponent> components,
+			double ph) throws ChemmisolCoreException {
+		this.prototype = prototype;
+		this.spec = spec;
+		List<ChemicalComponent> components_copy
+			= new ArrayList<ChemicalComponent>(components.size());
+		for(ChemicalComponent component : components) {
+			components_copy.add(new ChemicalComponent(
+						component.getName(), component.getPhase(),
+						component.getTotalConcentration()));
+		}
+		this.reactions = spec.toReactions();
+		this.components = Collections.unmodifiableList(components_copy);
+
+		try {
+			// All the reactions are passed to the native library at once
+			prototype.addReactions(spec);
+			for(ChemicalComponent component : this.components)
+				prototype.addComponent(component);
+			if(!Double.isNaN(ph))
+				prototype.fixPH(ph);
+			prototype.setUp();
+		} catch(ChemmisolCoreException e) {
+			prototype.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Initializes an aqueous reaction network.
+	 *
+	 * <p>
+	 * Reactions and components are copied, so that further modifications of
+	 * the provided instances do not affect the network.
+	 *
+	 * @param reactions Reactions of the network.
+	 * @param components Components of the network, with their default total
+	 * concentration.
+	 *
+	 * @throws ChemmisolCoreException if an exception occurs while setting up
+	 * the network in the native {@code chemmisol-cpp} library.
+	 */
+	public ReactionNetwork(
+			Collection<Reaction> reactions,
+			Collection<ChemicalComponent> components) throws ChemmisolCoreException {
+		this(ReactionNetworkSpec.of(reactions), components);
+	}
+
+	/**
+	 * Initializes an aqueous reaction network whose systems have a fixed pH.
+	 *
+	 * <p>
+	 * The pH is fixed in the H+ component (see {@link
+	 * ChemicalSystem#fixPH(double)}) before the network is set up, so that
+	 * changing the pH of the systems created from the network does not
+	 * require a new set up.
+	 *
+	 * @param reactions Reactions of the network.
+	 * @param components Components of the network, with their default total
+	 * concentration.
+	 * @param ph Default pH of the systems of the network.
+	 *
+	 * @throws ChemmisolCoreException if an exception occurs while setting up
+	 * the network in the native {@code chemmisol-cpp} library.
+	 */
+	public ReactionNetwork(
+			Collection<Reaction> reactions,
+			Collection<ChemicalComponent> components,
+			double ph) throws ChemmisolCoreException {
+		this(ReactionNetworkSpec.of(reactions), components, ph);
+	}
+
+	/**
+	 * Initializes an aqueous reaction network from a compact specification of
+	 * its reactions.
+	 *
+	 * <p>
+	 * Components are copied, so that further modifications of the provided
+	 * instances do not affect the network.
+	 *
+	 * @param spec Reactions of the network.
+	 * @param components Components of the network, with their default total
+	 * concentration.
+	 *
+	 * @throws ChemmisolCoreException if an exception occurs while setting up
+	 * the network in the native {@code chemmisol-cpp} library.
+	 */
+	public ReactionNetwork(
+			ReactionNetworkSpec spec,
+			Collection<ChemicalComponent> components) throws ChemmisolCoreException {
+		this(new ChemicalSystem(), spec, components, Double.NaN);
+	}
+
+	/**
+	 * Initializes an aqueous reaction network whose systems have a fixed pH,
+	 * from a compact specification of its reactions.
+	 *
+	 * @param spec Reactions of the network.
+	 * @param components Components of the network, with their default total
+	 * concentration.
+	 * @param ph Default pH of the systems of the network.
+	 *
+	 * @throws ChemmisolCoreException if an exception occurs while setting up
+	 * the network in the native {@code chemmisol-cpp} library.
+	 *
+	 * @see ReactionNetwork(Collection, Collection, double)
+	 */
+	public ReactionNetwork(
+			ReactionNetworkSpec spec,
+			Collection<ChemicalComponent> components,
+			double ph) throws ChemmisolCoreException {
+		this(new ChemicalSystem(), spec, components, ph);
+	}
+
+	/**
+	 * Initializes a mineral reaction network.
+	 *
+	 * <p>
+	 * All the systems created from the network share the specified mineral
+	 * parameters (see {@link ChemicalSystem#ChemicalSystem(double, double,
+	 * double)}).
+	 *
+	 * @param reactions Reactions of the network.
+	 * @param components Components of the network, with their default total
+	 * concentration.
+	 * @param solid_concentration Mass concentration of mineral in suspension in
+	 * the solution, expressed in g/l.
+	 * @param specific_surface_area Surface of the solid in contact with
+	 * the solution per unit of mass, usually expressed in m2/g.
+	 * @param site_concentration Quantity of sites per unit of surface
+	 * in contact with the solution, usually expressed as entities/nm2.
+	 *
+	 * @throws ChemmisolCoreException if an exception occurs while setting up
+	 * the network in the native {@code chemmisol-cpp} library.
+	 */
+	public ReactionNetwork(
+			Collection<Reaction> reactions,
+			Collection<ChemicalComponent> components,
+			double solid_concentration,
+			double specific_surface_area,
+			double site_concentration) throws ChemmisolCoreException {
+		this(ReactionNetworkSpec.of(reactions), components,
+				solid_concentration, specific_surface_area, site_concentration);
+	}
+
+	/**
+	 * Initializes a mineral reaction network from a compact specification of
+	 * its reactions.
+	 *
+	 * @param spec Reactions of the network.
+	 * @param components Components of the network, with their default total
+	 * concentration.
+	 * @param solid_concentration Mass concentration of mineral in suspension in
+	 * the solution, expressed in g/l.
+	 * @param specific_surface_area Surface of the solid in contact with
+	 * the solution per unit of mass, usually expressed in m2/g.
+	 * @param site_concentration Quantity of sites per unit of surface
+	 * in contact with the solution, usually expressed as entities/nm2.
+	 *
+	 * @throws ChemmisolCoreException if an exception occurs while setting up
+	 * the network in the native {@code chemmisol-cpp} library.
+	 *
+	 * @see ReactionNetwork(Collection, Collection, double, double, double)
+	 */
+	public ReactionNetwork(
+			ReactionNetworkSpec spec,
+			Collection<ChemicalComponent> components,
+			double solid_concentration,
+			double specific_surface_area,
+			double site_concentration) throws ChemmisolCoreException {
+		this(new ChemicalSystem(
+					solid_concentration, specific_surface_area, site_concentration),
+				spec, components, Double.NaN);
+	}
+
+	/**
+	 * Initializes a mineral reaction network whose systems have a fixed pH,
+	 * from a compact specification of its reactions.
+	 *
+	 * @param spec Reactions of the network.
+	 * @param components Components of the network, with their default total
+	 * concentration.
+	 * @param ph Default pH of the systems of the network.
+	 * @param solid_concentration Mass concentration of mineral in suspension in
+	 * the solution, expressed in g/l.
+	 * @param specific_surface_area Surface of the solid in contact with
+	 * the solution per unit of mass, usually expressed in m2/g.
+	 * @param site_concentration Quantity of sites per unit of surface
+	 * in contact with the solution, usually expressed as entities/nm2.
+	 *
+	 * @throws ChemmisolCoreException if an exception occurs while setting up
+	 * the network in the native {@code chemmisol-cpp} library.
+	 *
+	 * @see ReactionNetwork(Collection, Collection, double)
+	 * @see ReactionNetwork(Collection, Collection, double, double, double)
+	 */
+	public ReactionNetwork(
+			ReactionNetworkSpec spec,
+			Collection<ChemicalComponent> components,
+			double ph,
+			double solid_concentration,
+			double specific_surface_area,
+			double site_concentration) throws ChemmisolCoreException {
+		this(new ChemicalSystem(
+					solid_concentration, specific_surface_area, site_concentration),
+				spec, components, ph);
+	}
+
+	/**
+	 * Gets the compact specification of the reactions of this network.
+	 *
+	 * @return specification of the reactions
+	 */
+	public ReactionNetworkSpec getSpec() {
+		return spec;
+	}
+
+	/**
+	 * Gets the reactions of this network.
+	 *
+	 * @return unmodifiable list of reactions
+	 */
+	public List<Reaction> getReactions() {
+		return reactions;
+	}
+
+	/**
+	 * Gets the components of this network.
+	 *
+	 * @return unmodifiable list of components
+	 */
+	public List<ChemicalComponent> getComponents() {
+		return components;
+	}
+
+	/**
+	 * Creates a new chemical system from this network.
+	 *
+	 * <p>
+	 * The system is created with the default total concentrations of the
+	 * network components, and is already set up.
+	 *
+	 * @return A new chemical system, that must be closed independently from
+	 * this network.
+	 * @throws IllegalStateException if this network is closed.
+	 */
+	public ChemicalSystem newSystem() {
+		synchronized(this) {
+			checkOpen();
+			return new ChemicalSystem(this, prototype);
+		}
+	}
+
+	/**
+	 * Creates a new chemical system from this network, whose native system
+	 * is owned by the scope.
+	 */
+	ChemicalSystem newSystem(ChemicalSystemScope scope) {
+		synchronized(this) {
+			checkOpen();
+			return new ChemicalSystem(this, prototype, scope);
+		}
+	}
+
+	/**
+	 * Returns the number of species defined in this network, including the
+	 * produced species of reactions.
+	 *
+	 * @return Count of species in this network.
+	 * @throws IllegalStateException if this network is closed.
+	 */
+	public int speciesCount() {
+		synchronized(this) {
+			checkOpen();
+			return prototype.speciesCount();
+		}
+	}
+
+	/**
+	 * Gets the handle to the species with the specified name, valid for all
+	 * the systems created from this network.
+	 *
+	 * @param species_name Name of a chemical species.
+	 * @return Handle to the species.
+	 *
+	 * @throws IllegalArgumentException if no species with the specified name
+	 * is defined in this network.
+	 * @throws IllegalStateException if this network is closed.
+	 */
+	public SpeciesHandle species(String species_name) {
+		checkOpen();
+		SpeciesHandle handle = species_handles.get(species_name);
+		if(handle == null) {
+			synchronized(this) {
+				checkOpen();
+				handle = prototype.species(species_name);
+			}
+			species_handles.putIfAbsent(species_name, handle);
+		}
+		return handle;
+	}
+
+	/**
+	 * Gets the handle to the component with the specified name, valid for all
+	 * the systems created from this network.
+	 *
+	 * @param component_name Name of a chemical component.
+	 * @return Handle to the component.
+	 *
+	 * @throws IllegalArgumentException if no component with the specified
+	 * name is defined in this network.
+	 * @throws IllegalStateException if this network is closed.
+	 */
+	public ComponentHandle component(String component_name) {
+		checkOpen();
+		ComponentHandle handle = component_handles.get(component_name);
+		if(handle == null) {
+			synchronized(this) {
+				checkOpen();
+				handle = prototype.component(component_name);
+			}
+			component_handles.putIfAbsent(component_name, handle);
+		}
+		return handle;
+	}
+
+	/**
+	 * Gets the handle to the reaction with the specified name, valid for all
+	 * the systems created from this network.
+	 *
+	 * @param reaction_name Name of a reaction.
+	 * @return Handle to the reaction.
+	 *
+	 * @throws IllegalArgumentException if no reaction with the specified name
+	 * is defined in this network.
+	 * @throws IllegalStateException if this network is closed.
+	 */
+	public ReactionHandle reaction(String reaction_name) {
+		checkOpen();
+		ReactionHandle handle = reaction_handles.get(reaction_name);
+		if(handle == null) {
+			synchronized(this) {
+				checkOpen();
+				handle = prototype.reaction(reaction_name);
+			}
+			reaction_handles.putIfAbsent(reaction_name, handle);
+		}
+		return handle;
+	}
+
+	private void checkOpen() {
+		if(closed)
+			throw new IllegalStateException("The reaction network is closed.");
+	}
+
+	/**
+	 * Returns true if this network is closed.
+	 *
+	 * @return true if this network is closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Releases the native prototype of this network.
+	 *
+	 * <p>
+	 * Systems already created from this network are not affected, but the
+	 * methods of the network that use its prototype, such as {@link
+	 * newSystem()} or {@link species(String)}, throw an {@link
+	 * IllegalStateException} once the network is closed.
+	 */
+	@Override
+	public void close() {
+		synchronized(this) {
+			if(closed)
+				return;
+			closed = true;
+			prototype.close();
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package ummisco.gama.chemmisol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compact definition of a set of reactions, stored in primitive arrays.
+ *
+ * <p>
+ * A ReactionNetworkSpec is made of:
+ * <ul>
+ * <li>a table of the names of all the species involved in the reactions;</li>
+ * <li>the phase of each species, as the ordinal of the corresponding {@link
+ * Phase};</li>
+ * <li>the name and the log K value of each reaction;</li>
+ * <li>a stoichiometry matrix, stored in row-major order, so that the
+ * coefficient of the species s in the reaction r is at index {@code r *
+ * getSpeciesCount() + s}.</li>
+ * </ul>
+ * Coefficients follow the same conventions as the reagents of a {@link
+ * Reaction}, and a coefficient of 0 means that the species is not a reagent
+ * of the reaction.
+ *
+ * <p>
+ * Adding a {@link Reaction} to a system requires the native library to read
+ * its name, log K and each of its reagents through JNI method calls. A
+ * ReactionNetworkSpec is instead passed to the native library in a single
+ * call with {@link ChemicalSystem#addReactions(ReactionNetworkSpec)}, that
+ * only reads primitive arrays and the name of each species once, however
+ * many reactions the species is involved in.
+ *
+ * <h2>Example</h2>
+ *
+ * <pre>
+ * {@code // PO4-3 + 4 H+ <-> H4PO3 and PO4-3 + 3 H+ <-> H3PO4}
+ * ReactionNetworkSpec spec = new ReactionNetworkSpec(
+ * 	new String[] {"PO4-3", "H+", "H4PO3", "H3PO4"},
+ * 	new byte[] {1, 1, 1, 1},
+ * 	new String[] {"H4PO3", "H3PO4"},
+ * 	new double[] {13.192, 21.7},
+ * 	new int[] {
+ * 		1, 4, -1, 0,
+ * 		1, 3, 0, -1
+ * 	});
+ * </pre>
+ *
+ * ReactionNetworkSpec instances are immutable.
+ */
+public final class ReactionNetworkSpec {
+	private static final Phase[] PHASES = Phase.values();
+
+	private final String[] species_names;
+	private final byte[] phases;
+	private final String[] reaction_names;
+	private final double[] log_ks;
+	private final int[] stoichiometry;
+
+	/**
+	 * Initializes a specification from its primitive arrays, that are copied.
+	 *
+	 * @param species_names Names of all the species involved in the
+	 * reactions.
+	 * @param phases Ordinal of the {@link Phase} of each species.
+	 * @param reaction_names Name of each reaction.
+	 * @param log_ks log K value of each reaction.
+	 * @param stoichiometry Coefficient of each species in each reaction, in
+	 * row-major order.
+	 *
+	 * @throws IllegalArgumentException if the sizes of the arrays do not
+	 * match, or if a phase is not the ordinal of a Phase.
+	 * @throws NullPointerException if a species or reaction name is null.
+	 */
+	public ReactionNetworkSpec(
+			String[] species_names, byte[] phases,
+			String[] reaction_names, double[] log_ks,
+			int[] stoichiometry) {
+		if(phases.length != species_names.length)
+			throw new IllegalArgumentException(
+					"Expected " + species_names.length + " phases, got "
+					+ phases.length + ".");
+		if(log_ks.length != reaction_names.length)
+			throw new IllegalArgumentException(
+					"Expected " + reaction_names.length + " log K values, got "
+					+ log_ks.length + ".");
+		if(stoichiometry.length != (long) reaction_names.length * species_names.length)
+			throw new IllegalArgumentException(
+					"Expected " + (long) reaction_names.length * species_names.length
+					+ " stoichiometric coefficients, got " + stoichiometry.length + ".");
+		for(byte phase : phases)
+			if(phase < 0 || phase >= PHASES.length)
+				throw new IllegalArgumentException("Invalid phase: " + phase);
+		this.species_names = species_names.clone();
+		for(int s = 0; s < this.species_names.length; s++)
+			Objects.requireNonNull(
+					this.species_names[s], "Null name of species " + s);
+		this.phases = phases.clone();
+		this.reaction_names = reaction_names.clone();
+		for(int r = 0; r < this.reaction_names.length; r++)
+			Objects.requireNonNull(
+					this.reaction_names[r], "Null name of reaction " + r);
+		this.log_ks = log_ks.clone();
+		this.stoichiometry = stoichiometry.clone();
+	}
+
+	/**
+	 * Builds the specification of the provided reactions.
+	 *
+	 * <p>
+	 * Species are indexed in order of first appearance in the reactions. The
+	 * coefficients of a species that appears several times in the same
+	 * reaction are summed.
+	 *
+	 * @param reactions Reactions to specify.
+	 * @return specification of the reactions
+	 *
+	 * @throws IllegalArgumentException if a species is used with different
+	 * phases.
+	 */
+	public static ReactionNetworkSpec of(Collection<Reaction> reactions) {
+		Map<String, Integer> species_indexes = new HashMap<String, Integer>();
+		List<String> species_names = new ArrayList<String>();
+		List<Phase> phases = new ArrayList<Phase>();
+		for(Reaction reaction : reactions) {
+			for(Reagent reagent : reaction.getReagents()) {
+				Integer index = species_indexes.get(reagent.getName());
+				if(index == null) {
+					species_indexes.put(reagent.getName(), species_names.size());
+					species_names.add(reagent.getName());
+					phases.add(reagent.getPhase());
+				} else if(phases.get(index) != reagent.getPhase()) {
+					throw new IllegalArgumentException(
+							"The species " + reagent.getName() + " is used with phases "
+							+ phases.get(index) + " and " + reagent.getPhase() + ".");
+				}
+			}
+		}
+
+		int species_count = species_names.size();
+		byte[] phase_ordinals = new byte[species_count];
+		for(int s = 0; s < species_count; s++)
+			phase_ordinals[s] = (byte) phases.get(s).ordinal();
+		String[] reaction_names = new String[reactions.size()];
+		double[] log_ks = new double[reactions.size()];
+		int[] stoichiometry = new int[reactions.size() * species_count];
+		int r = 0;
+		for(Reaction reaction : reactions) {
+			reaction_names[r] = reaction.getName();
+			log_ks[r] = reaction.getLogK();
+			for(Reagent reagent : reaction.getReagents())
+				stoichiometry[r * species_count + species_indexes.get(reagent.getName())]
+					+= reagent.getCoefficient();
+			r++;
+		}
+		return new ReactionNetworkSpec(
+				species_names.toArray(new String[species_count]), phase_ordinals,
+				reaction_names, log_ks, stoichiometry);
+	}
+
+	/**
+	 * Gets the count of species involved in the reactions.
+	 *
+	 * @return count of species
+	 */
+	public int getSpeciesCount() {
+		return species_names.length;
+	}
+
+	/**
+	 * Gets the count of reactions.
+	 *
+	 * @return count of reactions
+	 */
+	public int getReactionCount() {
+		return reaction_names.length;
+	}
+
+	/**
+	 * Gets the name of a species.
+	 *
+	 * @param species Index of the species in this specification.
+	 * @return name of the species
+	 */
+	public String getSpeciesName(int species) {
+		return species_names[species];
+	}
+
+	/**
+	 * Gets the phase of a species.
+	 *
+	 * @param species Index of the species in this specification.
+	 * @return phase of the species
+	 */
+	public Phase getPhase(int species) {
+		return PHASES[phases[species]];
+	}
+
+	/**
+	 * Gets the name of a reaction.
+	 *
+	 * @param reaction Index of the reaction in this specification.
+	 * @return name of the reaction
+	 */
+	public String getReactionName(int reaction) {
+		return reaction_names[reaction];
+	}
+
+	/**
+	 * Gets the log K value of a reaction.
+	 *
+	 * @param reaction Index of the reaction in this specification.
+	 * @return log K value of the reaction
+	 */
+	public double getLogK(int reaction) {
+		return log_ks[reaction];
+	}
+
+	/**
+	 * Gets the stoichiometric coefficient of a species in a reaction.
+	 *
+	 * @param reaction Index of the reaction in this specification.
+	 * @param species Index of the species in this specification.
+	 * @return coefficient of the species, or 0 if the species is not a reagent
+	 * of the reaction
+	 */
+	public int getCoefficient(int reaction, int species) {
+		return stoichiometry[reaction * species_names.length + species];
+	}
+
+	/**
+	 * Builds the Reaction instances corresponding to this specification.
+	 * Reagents of each reaction are added in species index order.
+	 *
+	 * @return unmodifiable list of new reactions
+	 */
+	public List<Reaction> toReactions() {
+		List<Reaction> reactions = new ArrayList<Reaction>(reaction_names.length);
+		for(int r = 0; r < reaction_names.length; r++) {
+			Reaction reaction = new Reaction(reaction_names[r], log_ks[r]);
+			for(int s = 0; s < species_names.length; s++) {
+				int coefficient = stoichiometry[r * species_names.length + s];
+				if(coefficient != 0)
+					reaction.addReagent(species_names[s], coefficient, PHASES[phases[s]]);
+			}
+			reactions.add(reaction);
+		}
+		return Collections.unmodifiableList(reactions);
+	}
+
+	String[] speciesNames() {
+		return species_names;
+	}
+
+	byte[] phases() {
+		return phases;
+	}
+
+	String[] reactionNames() {
+		return reaction_names;
+	}
+
+	double[] logKs() {
+		return log_ks;
+	}
+
+	int[] stoichiometry() {
+		return stoichiometry;
+	}
+}
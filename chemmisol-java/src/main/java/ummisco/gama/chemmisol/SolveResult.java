@@ -0,0 +1,80 @@
+package ummisco.gama.chemmisol;
+
+/**
+ * Statistics about the resolution of the equilibrium of a chemical system.
+ *
+ * @see ChemicalSystem#solve()
+ * @see ChemicalSystem#getLastSolveResult()
+ */
+public class SolveResult {
+	/**
+	 * Count of iterations of solves that do not report it, such as the solves
+	 * of the {@link EquilibriumEngine#NATIVE native engine}.
+	 */
+	public static final int UNKNOWN_ITERATION_COUNT = -1;
+
+	private final int iteration_count;
+	private final double residual;
+	private final boolean converged;
+	private final long wall_time;
+
+	SolveResult(int iteration_count, double residual, boolean converged, long wall_time) {
+		this.iteration_count = iteration_count;
+		this.residual = residual;
+		this.converged = converged;
+		this.wall_time = wall_time;
+	}
+
+	/**
+	 * Gets the count of solver iterations performed.
+	 *
+	 * @return count of iterations, or {@link UNKNOWN_ITERATION_COUNT} if the
+	 * engine does not report it
+	 */
+	public int getIterationCount() {
+		return iteration_count;
+	}
+
+	/**
+	 * Gets the residual of the solved concentrations, i.e. the maximum
+	 * relative error of the mass balance of components. For each component
+	 * whose total quantity is conserved, the error is the difference between
+	 * the quantity of the component in all the species and its total
+	 * quantity, relative to its total quantity. Components fixed by {@link
+	 * ChemicalSystem#fixPH(double)} and solvents are not conserved.
+	 *
+	 * @return final residual
+	 */
+	public double getResidual() {
+		return residual;
+	}
+
+	/**
+	 * Returns true if the residual fell below the tolerance before the
+	 * maximum count of iterations was reached.
+	 *
+	 * @return true if the solver converged
+	 * @see SolverOptions
+	 */
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/**
+	 * Gets the wall time spent in the native solver, including the set up of
+	 * the system if requested.
+	 *
+	 * @return wall time in nanoseconds
+	 */
+	public long getWallTime() {
+		return wall_time;
+	}
+
+	@Override
+	public String toString() {
+		return "SolveResult[iterations=" + iteration_count
+			+ ", residual=" + residual
+			+ ", converged=" + converged
+			+ ", wall_time=" + wall_time + "ns]";
+	}
+}
@@ -0,0 +1,125 @@
+package ummisco.gama.chemmisol;
+
+/**
+ * Convergence criteria used to solve the equilibrium of a chemical system.
+ *
+ * <p>
+ * The solver performs iterations until the residual of the concentrations,
+ * i.e. the maximum relative error of the mass balance of components (see
+ * {@link SolveResult#getResidual()}), falls below the tolerance, or until the
+ * maximum count of iterations is reached. A lower tolerance or a higher count
+ * of iterations generally improves accuracy at the expense of speed.
+ *
+ * <p>
+ * The {@link EquilibriumEngine#NATIVE native engine} runs the chemmisol-cpp
+ * solver with the maximum count of iterations, but chemmisol-cpp applies its
+ * own convergence criterion and does not support damping: the tolerance
+ * only decides whether the result is reported as converged, and the damping
+ * factor is ignored. chemmisol-cpp solves mass balances close to machine
+ * precision, so the {@link #DEFAULT default} tolerance is met by a converged
+ * native solve.
+ *
+ * <p>
+ * SolverOptions instances are immutable, so that they can safely be shared
+ * between systems and threads.
+ *
+ * @see ChemicalSystem#setSolverOptions(SolverOptions)
+ * @see ChemicalSystem#solveAll(ChemicalSystem[], boolean, SolverOptions)
+ */
+public class SolverOptions {
+	/**
+	 * Default options: 1000 iterations, tolerance of 1e-10 and no damping.
+	 */
+	public static final SolverOptions DEFAULT = new SolverOptions(1000, 1e-10, 1.0);
+
+	private final int max_iteration;
+	private final double tolerance;
+	private final double damping;
+
+	/**
+	 * Initializes solver options.
+	 *
+	 * @param max_iteration Maximum count of solver iterations.
+	 * @param tolerance Maximum residual for the solver to be considered as
+	 * converged.
+	 * @param damping Damping factor in ]0, 1] applied to the variation of
+	 * species concentrations at each iteration. 1 means no damping, and lower
+	 * values slow down convergence but might help for systems that do not
+	 * converge otherwise.
+	 *
+	 * @throws IllegalArgumentException if a parameter is out of range.
+	 */
+	public SolverOptions(int max_iteration, double tolerance, double damping) {
+		if(max_iteration < 1)
+			throw new IllegalArgumentException(
+					"The maximum count of iterations must be positive.");
+		if(!(tolerance >= 0))
+			throw new IllegalArgumentException(
+					"The tolerance must be positive.");
+		if(!(damping > 0 && damping <= 1))
+			throw new IllegalArgumentException(
+					"The damping factor must be in ]0, 1].");
+		this.max_iteration = max_iteration;
+		this.tolerance = tolerance;
+		this.damping = damping;
+	}
+
+	/**
+	 * Gets the maximum count of solver iterations.
+	 *
+	 * @return maximum count of iterations
+	 */
+	public int getMaxIteration() {
+		return max_iteration;
+	}
+
+	/**
+	 * Gets the tolerance of the solver.
+	 *
+	 * @return maximum residual at convergence
+	 */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * Gets the damping factor of the solver.
+	 *
+	 * @return damping factor in ]0, 1]
+	 */
+	public double getDamping() {
+		return damping;
+	}
+
+	/**
+	 * Returns a copy of these options with the specified maximum count of
+	 * iterations.
+	 *
+	 * @param max_iteration Maximum count of solver iterations.
+	 * @return new solver options
+	 */
+	public SolverOptions withMaxIteration(int max_iteration) {
+		return new SolverOptions(max_iteration, tolerance, damping);
+	}
+
+	/**
+	 * Returns a copy of these options with the specified tolerance.
+	 *
+	 * @param tolerance Maximum residual for the solver to be considered as
+	 * converged.
+	 * @return new solver options
+	 */
+	public SolverOptions withTolerance(double tolerance) {
+		return new SolverOptions(max_iteration, tolerance, damping);
+	}
+
+	/**
+	 * Returns a copy of these options with the specified damping factor.
+	 *
+	 * @param damping Damping factor in ]0, 1].
+	 * @return new solver options
+	 */
+	public SolverOptions withDamping(double damping) {
+		return new SolverOptions(max_iteration, tolerance, damping);
+	}
+}
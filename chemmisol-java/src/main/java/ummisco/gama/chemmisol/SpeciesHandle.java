@@ -0,0 +1,15 @@
+package ummisco.gama.chemmisol;
+
+/**
+ * Resolved reference to a chemical species of a chemical system.
+ *
+ * <p>
+ * A SpeciesHandle is obtained from {@link ChemicalSystem#species(String)}, and
+ * can be used to query the concentration of the species with {@link
+ * ChemicalSystem#concentration(SpeciesHandle)}.
+ */
+public class SpeciesHandle extends ChemicalHandle {
+	SpeciesHandle(String name, int index) {
+		super(name, index);
+	}
+}
@@ -0,0 +1,679 @@
+package ummisco.gama.chemmisol;
+
+import java.util.Arrays;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+import ummisco.gama.chemmisol.JavaEquilibriumEngine.Model;
+import ummisco.gama.chemmisol.JavaEquilibriumEngine.State;
+
+/**
+ * Solves the equilibrium state of many chemical systems with the same
+ * reactions and components in lockstep.
+ *
+ * <p>
+ * Systems of a simulation grid are typically small and share the same
+ * network, so that the same Newton iteration can be performed on many
+ * systems at once. Consecutive systems with the same definitions, such as
+ * copies of a same system or systems created from the same {@link
+ * ReactionNetwork}, are grouped in batches of {@link getLaneCount()} lanes.
+ * The state of each batch is stored as a structure of arrays, where the
+ * values of a given variable for all the lanes are contiguous, and each step
+ * of the Newton iteration of {@link JavaEquilibriumEngine} is applied to all
+ * the lanes in a single loop that the JIT compiler can vectorize.
+ *
+ * <p>
+ * Lanes are masked off as soon as they converge or reach their maximum
+ * count of iterations: converged lanes are swapped with the last active
+ * lane, so that iterations only run over the contiguous range of active
+ * lanes.
+ *
+ * <p>
+ * Systems are solved with the model of the {@link JavaEquilibriumEngine},
+ * whatever their equilibrium engine is. Inputs and the initial state of each
+ * system are read from the native system, and results are written back to
+ * it, so that the concentrations of tracked species and the result of each
+ * solve are available as with {@link ChemicalSystem#solve()}. The reported
+ * wall time of each solve is the wall time of its batch divided by the
+ * count of systems of the batch.
+ *
+ * <p>
+ * A solver does not hold any mutable state, so it can be shared by several
+ * threads. Each call solves the systems in the calling thread, and the same
+ * system must not be solved concurrently by several threads.
+ *
+ * <pre>
+ * VectorizedEquilibriumSolver solver = new VectorizedEquilibriumSolver();
+ * ChemmisolCoreException[] exceptions = solver.solve(systems, false);
+ * </pre>
+ */
+public class VectorizedEquilibriumSolver {
+	/**
+	 * Default maximum count of systems solved in lockstep.
+	 */
+	public static final int DEFAULT_LANE_COUNT = 64;
+
+	private final int lane_count;
+
+	/**
+	 * Initializes a vectorized solver.
+	 *
+	 * @param lane_count Maximum count of systems solved in lockstep. Larger
+	 * batches amortize the loop overhead over more systems, but all the
+	 * lanes of a batch iterate until the slowest one converges.
+	 */
+	public VectorizedEquilibriumSolver(int lane_count) {
+		if(lane_count < 1)
+			throw new IllegalArgumentException("The lane count must be positive.");
+		this.lane_count = lane_count;
+	}
+
+	/**
+	 * Initializes a vectorized solver with the {@link DEFAULT_LANE_COUNT
+	 * default lane count}.
+	 */
+	public VectorizedEquilibriumSolver() {
+		this(DEFAULT_LANE_COUNT);
+	}
+
+	/**
+	 * Gets the maximum count of systems solved in lockstep.
+	 *
+	 * @return lane count
+	 */
+	public int getLaneCount() {
+		return lane_count;
+	}
+
+	/**
+	 * Solves the equilibrium state of all the specified systems, each
+	 * according to its own solver options.
+	 *
+	 * <p>
+	 * An exception thrown while setting up one system does not prevent other
+	 * systems from being solved: it is instead reported at the index of the
+	 * system in the returned array.
+	 *
+	 * @param systems Chemical systems to solve.
+	 * @param set_up If true, each system is set up before it is solved. Else,
+	 * only systems that require a set up (see {@link
+	 * ChemicalSystem#isSetUpRequired()}) are set up.
+	 * @return An array of the same size as systems, that contains the
+	 * ChemmisolCoreException thrown while setting up each system, or null if
+	 * the system was successfully solved.
+	 */
+	public ChemmisolCoreException[] solve(ChemicalSystem[] systems, boolean set_up) {
+		return solve(systems, set_up, null);
+	}
+
+	/**
+	 * Solves the equilibrium state of all the specified systems, using the
+	 * same solver options for all systems.
+	 *
+	 * @param systems Chemical systems to solve.
+	 * @param set_up If true, each system is set up before it is solved. Else,
+	 * only systems that require a set up (see {@link
+	 * ChemicalSystem#isSetUpRequired()}) are set up.
+	 * @param solver_options Solver options used for all the systems instead
+	 * of their own options. If null, each system is solved according to its
+	 * own options.
+	 * @return An array of the same size as systems, that contains the
+	 * ChemmisolCoreException thrown while setting up each system, or null if
+	 * the system was successfully solved.
+	 *
+	 * @see solve(ChemicalSystem[], boolean)
+	 */
+	public ChemmisolCoreException[] solve(
+			ChemicalSystem[] systems, boolean set_up, SolverOptions solver_options) {
+		ChemmisolCoreException[] exceptions = new ChemmisolCoreException[systems.length];
+		solve(systems, 0, systems.length, set_up, solver_options, exceptions);
+		return exceptions;
+	}
+
+	/**
+	 * Solves the systems in the [from, to) range of the systems array, and
+	 * reports exceptions at the corresponding indexes of the exceptions
+	 * array.
+	 */
+	void solve(
+			ChemicalSystem[] systems, int from, int to, boolean set_up,
+			SolverOptions solver_options, ChemmisolCoreException[] exceptions) {
+		Lanes lanes = null;
+		for(int i = from; i < to; i++) {
+			ChemicalSystem system = systems[i];
+			if(system.skipBatchSolve(set_up))
+				continue;
+			State state;
+			try {
+				if(set_up || system.isSetUpRequired())
+					system.setUpNative();
+				state = JavaEquilibriumEngine.state(system);
+			} catch(ChemmisolCoreException e) {
+				exceptions[i] = e;
+				system.recordSolveFailure(new ChemmisolEvents.Solve(), e, set_up, true);
+				continue;
+			}
+			if(lanes != null && (lanes.size == lane_count || !lanes.accepts(state)))
+				lanes.solve(set_up);
+			if(lanes == null || !lanes.accepts(state))
+				lanes = new Lanes(state, lane_count);
+			lanes.add(system, state, solver_options == null ?
+					system.getSolverOptions() : solver_options);
+		}
+		if(lanes != null)
+			lanes.solve(set_up);
+	}
+
+	/**
+	 * Batch of systems with the same model, solved in lockstep. Each variable
+	 * is stored in a row of lane_count contiguous values, one per lane.
+	 */
+	static final class Lanes {
+		final Model model;
+		final boolean[] fixed;
+		final int[] component_native_indexes;
+		final int[] species_native_indexes;
+		final int native_species_count;
+		final int[] free;
+		final int lane_count;
+		// Equilibrium constant and integral stoichiometry of each species,
+		// or null powers if its stoichiometry is not integral
+		final double[] constants;
+		final int[][] powers;
+
+		final ChemicalSystem[] systems;
+		final State[] states;
+		int size;
+
+		// Lane variables, permuted as lanes converge
+		final int[] slots;
+		final double[] sites_quantities;
+		final double[] tolerances;
+		final double[] dampings;
+		final int[] max_iterations;
+		final int[] iterations;
+		final double[] lane_residuals;
+		final double[] log_activities;
+		final double[] totals;
+		final double[] present;
+		final double[] concentrations;
+
+		// Work arrays
+		final double[] activities;
+		final double[] quantities;
+		final double[] residuals;
+		final double[] jacobian;
+		final double[] scale;
+		final double[] step;
+		final double[] max_steps;
+		final boolean[] absent;
+
+		Lanes(State state, int lane_count) {
+			Model model = state.model;
+			int m = model.component_count;
+			int n = model.species_count;
+			this.model = model;
+			this.fixed = state.fixed;
+			this.component_native_indexes = state.component_native_indexes;
+			this.species_native_indexes = state.species_native_indexes;
+			this.native_species_count = state.native_species_count;
+			this.lane_count = lane_count;
+			int free_count = 0;
+			int[] free = new int[m];
+			for(int j = 0; j < m; j++)
+				if(!model.solvent_components[j] && !fixed[j])
+					free[free_count++] = j;
+			this.free = Arrays.copyOf(free, free_count);
+			int f = free_count;
+			constants = new double[n];
+			powers = new int[n][];
+			for(int s = 0; s < n; s++) {
+				constants[s] = Math.exp(model.log_constants[s]);
+				powers[s] = new int[m];
+				for(int j = 0; j < m; j++) {
+					double coefficient = model.stoichiometry[s * m + j];
+					powers[s][j] = (int) coefficient;
+					if(powers[s][j] != coefficient) {
+						powers[s] = null;
+						break;
+					}
+				}
+			}
+
+			systems = new ChemicalSystem[lane_count];
+			states = new State[lane_count];
+			slots = new int[lane_count];
+			sites_quantities = new double[lane_count];
+			tolerances = new double[lane_count];
+			dampings = new double[lane_count];
+			max_iterations = new int[lane_count];
+			iterations = new int[lane_count];
+			lane_residuals = new double[lane_count];
+			log_activities = new double[m * lane_count];
+			totals = new double[m * lane_count];
+			present = new double[n * lane_count];
+			concentrations = new double[n * lane_count];
+
+			activities = new double[m * lane_count];
+			quantities = new double[lane_count];
+			residuals = new double[f * lane_count];
+			jacobian = new double[f * f * lane_count];
+			scale = new double[f * lane_count];
+			step = new double[f * lane_count];
+			max_steps = new double[lane_count];
+			absent = new boolean[m];
+		}
+
+		/**
+		 * Returns true if the system of the state can be solved in this batch.
+		 */
+		boolean accepts(State state) {
+			return state.model == model
+				&& state.native_species_count == native_species_count
+				&& Arrays.equals(state.fixed, fixed)
+				&& Arrays.equals(state.component_native_indexes, component_native_indexes)
+				&& Arrays.equals(state.species_native_indexes, species_native_indexes);
+		}
+
+		/**
+		 * Adds a system to the batch, reading its inputs and initial state
+		 * from the native system.
+		 */
+		void add(ChemicalSystem system, State state, SolverOptions solver_options) {
+			system.readInputs(state.inputs);
+			system.readConcentrations(state.native_concentrations);
+			systems[size] = system;
+			states[size] = state;
+			add(state.inputs, state.native_concentrations,
+					state.sites_quantity, solver_options);
+		}
+
+		/**
+		 * Adds a lane to the batch, from inputs and initial concentrations
+		 * indexed by native component and species indexes.
+		 *
+		 * @return slot of the lane, i.e. its index in the order of addition
+		 */
+		int add(
+				double[] inputs, double[] native_concentrations,
+				double sites_quantity, SolverOptions solver_options) {
+			int m = model.component_count;
+			int n = model.species_count;
+			int l = size++;
+			slots[l] = l;
+
+			for(int j = 0; j < m; j++) {
+				int index = j * lane_count + l;
+				totals[index] = 0;
+				log_activities[index] = 0;
+				absent[j] = false;
+				if(model.solvent_components[j])
+					continue;
+				double input = inputs[component_native_indexes[j]];
+				absent[j] = !(input > 0);
+				if(absent[j])
+					continue;
+				totals[index] = input;
+				if(fixed[j]) {
+					log_activities[index] = Math.log(input);
+				} else {
+					double concentration = native_concentrations[
+						species_native_indexes[model.component_species[j]]];
+					log_activities[index] = concentration > 0 && concentration < Double.POSITIVE_INFINITY ?
+						Math.log(concentration) :
+						Math.log(model.mineral_components[j] ? input / sites_quantity : input);
+				}
+			}
+			for(int s = 0; s < n; s++) {
+				boolean species_present = true;
+				for(int j = 0; j < m; j++)
+					if(absent[j] && model.stoichiometry[s * m + j] != 0)
+						species_present = false;
+				present[s * lane_count + l] = species_present ? 1 : 0;
+			}
+
+			sites_quantities[l] = sites_quantity;
+			tolerances[l] = solver_options.getTolerance();
+			dampings[l] = solver_options.getDamping();
+			max_iterations[l] = solver_options.getMaxIteration();
+			iterations[l] = 0;
+			return l;
+		}
+
+		/**
+		 * Solves all the systems of the batch, writes results back to the
+		 * native systems and empties the batch.
+		 */
+		void solve(boolean set_up) {
+			if(size == 0)
+				return;
+			long wall_time = iterate() / size;
+			int n = model.species_count;
+			for(int l = 0; l < size; l++) {
+				int slot = slots[l];
+				State state = states[slot];
+				for(int s = 0; s < n; s++)
+					state.native_concentrations[species_native_indexes[s]]
+						= concentrations[s * lane_count + l];
+				systems[slot].writeConcentrations(state.native_concentrations);
+				systems[slot].recordSolve(
+						new ChemmisolEvents.Solve(),
+						new SolveResult(
+							iterations[l], lane_residuals[l],
+							lane_residuals[l] <= tolerances[l], wall_time),
+						set_up, true);
+			}
+			Arrays.fill(systems, 0, size, null);
+			Arrays.fill(states, 0, size, null);
+			size = 0;
+		}
+
+		/**
+		 * Iterates until all the lanes are converged or reach their maximum
+		 * count of iterations. Results of the lane l, added in slot {@code
+		 * slots[l]}, are then available in the lane variables.
+		 *
+		 * @return wall time of the solve in nanoseconds
+		 */
+		long iterate() {
+			long start = System.nanoTime();
+			int active = size;
+			concentrations(active);
+			residuals(active);
+			while(true) {
+				active = maskConverged(active);
+				if(active == 0)
+					break;
+				newtonStep(active);
+				concentrations(active);
+				residuals(active);
+				for(int l = 0; l < active; l++)
+					iterations[l]++;
+			}
+			return System.nanoTime() - start;
+		}
+
+		/**
+		 * Swaps converged lanes with the last active lanes, and returns the
+		 * new count of active lanes.
+		 */
+		private int maskConverged(int active) {
+			for(int l = active - 1; l >= 0; l--) {
+				if(lane_residuals[l] <= tolerances[l] || iterations[l] >= max_iterations[l]) {
+					active--;
+					swap(l, active);
+				}
+			}
+			return active;
+		}
+
+		private void swap(int l1, int l2) {
+			if(l1 == l2)
+				return;
+			swap(slots, l1, l2);
+			swap(sites_quantities, l1, l2);
+			swap(tolerances, l1, l2);
+			swap(dampings, l1, l2);
+			swap(max_iterations, l1, l2);
+			swap(iterations, l1, l2);
+			swap(lane_residuals, l1, l2);
+			for(int j = 0; j < model.component_count; j++) {
+				swap(log_activities, j * lane_count + l1, j * lane_count + l2);
+				swap(totals, j * lane_count + l1, j * lane_count + l2);
+			}
+			for(int s = 0; s < model.species_count; s++) {
+				swap(present, s * lane_count + l1, s * lane_count + l2);
+				swap(concentrations, s * lane_count + l1, s * lane_count + l2);
+			}
+		}
+
+		private static void swap(double[] values, int i1, int i2) {
+			double value = values[i1];
+			values[i1] = values[i2];
+			values[i2] = value;
+		}
+
+		private static void swap(int[] values, int i1, int i2) {
+			int value = values[i1];
+			values[i1] = values[i2];
+			values[i2] = value;
+		}
+
+		/**
+		 * Computes the concentrations of species in the active lanes, as
+		 * {@link JavaEquilibriumEngine} does.
+		 *
+		 * <p>
+		 * Calls to Math.exp() are not vectorized by the JIT compiler, so the
+		 * activity of each component is only computed once per lane. The
+		 * concentration of a species with an integral stoichiometry, such as
+		 * the species of reactions producing a single species, is then the
+		 * product of its constant by the powers of the activities, computed
+		 * with multiplications and divisions that are vectorized. Only other
+		 * species are computed from the exponential of their log
+		 * concentration.
+		 */
+		private void concentrations(int active) {
+			int m = model.component_count;
+			for(int j = 0; j < m; j++) {
+				int component_offset = j * lane_count;
+				for(int l = 0; l < active; l++)
+					activities[component_offset + l]
+						= Math.exp(log_activities[component_offset + l]);
+			}
+			for(int s = 0; s < model.species_count; s++) {
+				int offset = s * lane_count;
+				int[] species_powers = powers[s];
+				if(species_powers == null) {
+					logConcentrations(s, active);
+					continue;
+				}
+				double constant = constants[s];
+				for(int l = 0; l < active; l++)
+					concentrations[offset + l] = present[offset + l] * constant;
+				for(int j = 0; j < m; j++) {
+					int component_offset = j * lane_count;
+					for(int power = species_powers[j]; power > 0; power--)
+						for(int l = 0; l < active; l++)
+							concentrations[offset + l] *= activities[component_offset + l];
+					for(int power = species_powers[j]; power < 0; power++)
+						for(int l = 0; l < active; l++)
+							concentrations[offset + l] /= activities[component_offset + l];
+				}
+			}
+		}
+
+		/**
+		 * Computes the concentrations of the species s in the active lanes
+		 * from the exponential of its log concentration.
+		 */
+		private void logConcentrations(int s, int active) {
+			int m = model.component_count;
+			int row = s * m;
+			int offset = s * lane_count;
+			double log_constant = model.log_constants[s];
+			for(int l = 0; l < active; l++)
+				concentrations[offset + l] = log_constant;
+			for(int j = 0; j < m; j++) {
+				double coefficient = model.stoichiometry[row + j];
+				if(coefficient == 0)
+					continue;
+				int component_offset = j * lane_count;
+				for(int l = 0; l < active; l++)
+					concentrations[offset + l]
+						+= coefficient * log_activities[component_offset + l];
+			}
+			for(int l = 0; l < active; l++)
+				concentrations[offset + l]
+					= present[offset + l] * Math.exp(concentrations[offset + l]);
+		}
+
+		/**
+		 * Performs a Newton iteration in the active lanes, as {@link
+		 * JavaEquilibriumEngine} does.
+		 */
+		private void newtonStep(int active) {
+			int m = model.component_count;
+			int f = free.length;
+			for(int a = 0; a < f; a++) {
+				int residual_offset = a * lane_count;
+				int total_offset = free[a] * lane_count;
+				for(int l = 0; l < active; l++)
+					residuals[residual_offset + l] = -totals[total_offset + l];
+				for(int b = 0; b <= a; b++)
+					Arrays.fill(jacobian, (a * f + b) * lane_count,
+							(a * f + b) * lane_count + active, 0);
+			}
+			for(int s = 0; s < model.species_count; s++) {
+				int row = s * m;
+				int offset = s * lane_count;
+				if(model.mineral_species[s])
+					for(int l = 0; l < active; l++)
+						quantities[l] = concentrations[offset + l] * sites_quantities[l];
+				else
+					System.arraycopy(concentrations, offset, quantities, 0, active);
+				for(int a = 0; a < f; a++) {
+					double coefficient_a = model.stoichiometry[row + free[a]];
+					if(coefficient_a == 0)
+						continue;
+					int residual_offset = a * lane_count;
+					for(int l = 0; l < active; l++)
+						residuals[residual_offset + l] += coefficient_a * quantities[l];
+					for(int b = 0; b <= a; b++) {
+						double coefficient_ab = coefficient_a
+							* model.stoichiometry[row + free[b]];
+						if(coefficient_ab == 0)
+							continue;
+						int jacobian_offset = (a * f + b) * lane_count;
+						for(int l = 0; l < active; l++)
+							jacobian[jacobian_offset + l] += coefficient_ab * quantities[l];
+					}
+				}
+			}
+
+			// Cholesky factorization of the diagonally scaled Jacobians. The
+			// Jacobian of an absent component is null, so its scale is 1.
+			for(int a = 0; a < f; a++) {
+				int diagonal_offset = (a * f + a) * lane_count;
+				int scale_offset = a * lane_count;
+				for(int l = 0; l < active; l++) {
+					double diagonal = jacobian[diagonal_offset + l];
+					scale[scale_offset + l] = diagonal > 0 ? 1 / Math.sqrt(diagonal) : 1;
+				}
+			}
+			for(int a = 0; a < f; a++) {
+				for(int b = 0; b <= a; b++) {
+					int ab = (a * f + b) * lane_count;
+					int scale_a = a * lane_count;
+					int scale_b = b * lane_count;
+					for(int l = 0; l < active; l++)
+						jacobian[ab + l] *= scale[scale_a + l] * scale[scale_b + l];
+					for(int k = 0; k < b; k++) {
+						int ak = (a * f + k) * lane_count;
+						int bk = (b * f + k) * lane_count;
+						for(int l = 0; l < active; l++)
+							jacobian[ab + l] -= jacobian[ak + l] * jacobian[bk + l];
+					}
+					if(a == b) {
+						for(int l = 0; l < active; l++)
+							jacobian[ab + l] = Math.sqrt(
+									Math.max(jacobian[ab + l], JavaEquilibriumEngine.MIN_PIVOT));
+					} else {
+						int bb = (b * f + b) * lane_count;
+						for(int l = 0; l < active; l++)
+							jacobian[ab + l] /= jacobian[bb + l];
+					}
+				}
+			}
+			// Forward and backward substitutions
+			for(int a = 0; a < f; a++) {
+				int step_a = a * lane_count;
+				for(int l = 0; l < active; l++)
+					step[step_a + l] = -residuals[step_a + l] * scale[step_a + l];
+				for(int k = 0; k < a; k++) {
+					int ak = (a * f + k) * lane_count;
+					int step_k = k * lane_count;
+					for(int l = 0; l < active; l++)
+						step[step_a + l] -= jacobian[ak + l] * step[step_k + l];
+				}
+				int aa = (a * f + a) * lane_count;
+				for(int l = 0; l < active; l++)
+					step[step_a + l] /= jacobian[aa + l];
+			}
+			for(int a = f - 1; a >= 0; a--) {
+				int step_a = a * lane_count;
+				for(int k = a + 1; k < f; k++) {
+					int ka = (k * f + a) * lane_count;
+					int step_k = k * lane_count;
+					for(int l = 0; l < active; l++)
+						step[step_a + l] -= jacobian[ka + l] * step[step_k + l];
+				}
+				int aa = (a * f + a) * lane_count;
+				for(int l = 0; l < active; l++)
+					step[step_a + l] /= jacobian[aa + l];
+			}
+
+			Arrays.fill(max_steps, 0, active, 0);
+			for(int a = 0; a < f; a++) {
+				int step_a = a * lane_count;
+				for(int l = 0; l < active; l++) {
+					step[step_a + l] *= scale[step_a + l];
+					max_steps[l] = Math.max(max_steps[l], Math.abs(step[step_a + l]));
+				}
+			}
+			// Damping factor of each lane, limited by the maximum step
+			for(int l = 0; l < active; l++)
+				quantities[l] = max_steps[l] * dampings[l] > JavaEquilibriumEngine.MAX_STEP ?
+					JavaEquilibriumEngine.MAX_STEP / max_steps[l] : dampings[l];
+			for(int a = 0; a < f; a++) {
+				int step_a = a * lane_count;
+				int component_offset = free[a] * lane_count;
+				for(int l = 0; l < active; l++)
+					log_activities[component_offset + l] += quantities[l] * step[step_a + l];
+			}
+		}
+
+		/**
+		 * Computes the residual of each active lane, i.e. the maximum relative
+		 * error of the mass balance of free components, as {@link
+		 * JavaEquilibriumEngine} does. The residual of an absent component is
+		 * 0.
+		 */
+		private void residuals(int active) {
+			int m = model.component_count;
+			int f = free.length;
+			for(int a = 0; a < f; a++) {
+				int residual_offset = a * lane_count;
+				int total_offset = free[a] * lane_count;
+				for(int l = 0; l < active; l++)
+					residuals[residual_offset + l] = -totals[total_offset + l];
+			}
+			for(int s = 0; s < model.species_count; s++) {
+				int row = s * m;
+				int offset = s * lane_count;
+				if(model.mineral_species[s])
+					for(int l = 0; l < active; l++)
+						quantities[l] = concentrations[offset + l] * sites_quantities[l];
+				else
+					System.arraycopy(concentrations, offset, quantities, 0, active);
+				for(int a = 0; a < f; a++) {
+					double coefficient_a = model.stoichiometry[row + free[a]];
+					if(coefficient_a == 0)
+						continue;
+					int residual_offset = a * lane_count;
+					for(int l = 0; l < active; l++)
+						residuals[residual_offset + l] += coefficient_a * quantities[l];
+				}
+			}
+			Arrays.fill(lane_residuals, 0, active, 0);
+			for(int a = 0; a < f; a++) {
+				int residual_offset = a * lane_count;
+				int total_offset = free[a] * lane_count;
+				for(int l = 0; l < active; l++) {
+					double total = totals[total_offset + l];
+					lane_residuals[l] = Math.max(lane_residuals[l],
+							Math.abs(residuals[residual_offset + l]) / (total > 0 ? total : 1));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package ummisco.gama.chemmisol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.assertDoubleEquals;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateSystem;
+
+import org.junit.Test;
+
+import java.nio.DoubleBuffer;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Unit test for ChemicalGrid.
+ */
+public class ChemicalGridTest 
+{
+	static {
+		ChemmisolSystemTest.loadChemmisolLibraries();
+	}
+
+	@Test
+	public void chemicalGrid() throws ChemmisolCoreException {
+		int cell_count = 1000;
+		ChemicalGrid grid;
+		try (ChemicalSystem prototype = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			grid = new ChemicalGrid(prototype, cell_count);
+		}
+		assertEquals(cell_count, grid.getCellCount());
+		assertEquals(cell_count * grid.getComponentCount(), grid.getInputs().capacity());
+		assertEquals(cell_count * grid.getSpeciesCount(), grid.getConcentrations().capacity());
+
+		ComponentHandle PO4 = grid.component("PO4-3");
+		SpeciesHandle H4PO3 = grid.species("H4PO3");
+		SpeciesHandle PO4_species = grid.species("PO4-3");
+		assertDoubleEquals(0.1, grid.getTotalConcentration(0, PO4));
+		assertDoubleEquals(7.5, grid.getPH(0));
+		for(int cell = 0; cell < cell_count; cell++) {
+			grid.setTotalConcentration(cell, PO4, 0.01 + 0.001 * cell);
+			grid.setPH(cell, 6 + 2.0 * cell / cell_count);
+		}
+		assertEquals(0, grid.solve());
+
+		for(int cell = 0; cell < cell_count; cell += 99) {
+			assertTrue(grid.getResiduals().get(cell) <= SolverOptions.DEFAULT.getTolerance());
+			assertDoubleEquals(
+					grid.concentration(cell, PO4_species) + grid.concentration(cell, H4PO3),
+					0.01 + 0.001 * cell);
+			try (ChemicalSystem expected = phosphateSystem(EquilibriumEngine.NATIVE)) {
+				expected.setTotalConcentration(
+						expected.component("PO4-3"), 0.01 + 0.001 * cell);
+				expected.fixPH(6 + 2.0 * cell / cell_count);
+				expected.solve();
+				assertEquals(
+						expected.concentration("H4PO3"), grid.concentration(cell, H4PO3),
+						1e-6 * expected.concentration("H4PO3"));
+			}
+		}
+
+		// Writes through views are seen by the grid
+		DoubleBuffer inputs = grid.getInputs();
+		inputs.put(5 * grid.getComponentCount() + PO4.getIndex(), 0.5);
+		assertDoubleEquals(0.5, grid.getTotalConcentration(5, PO4));
+		assertEquals(0, grid.solve(5, 6, SolverOptions.DEFAULT));
+		assertDoubleEquals(
+				grid.concentration(5, PO4_species) + grid.concentration(5, H4PO3), 0.5);
+	}
+}
@@ -0,0 +1,66 @@
+package ummisco.gama.chemmisol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.assertDoubleEquals;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateSystem;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Unit test for ChemicalSystemBackend.
+ */
+public class ChemicalSystemBackendTest 
+{
+	static {
+		ChemmisolSystemTest.loadChemmisolLibraries();
+	}
+
+	@Test
+	public void backend() throws ChemmisolCoreException {
+		final ChemicalSystemBackend jni = Chemmisol.getJniBackend();
+		assertEquals("jni", jni.getName());
+		final Map<String, Integer> calls = new ConcurrentHashMap<String, Integer>();
+		ChemicalSystemBackend counting = (ChemicalSystemBackend) Proxy.newProxyInstance(
+				ChemicalSystemBackend.class.getClassLoader(),
+				new Class<?>[] {ChemicalSystemBackend.class},
+				(proxy, method, args) -> {
+					calls.merge(method.getName(), 1, Integer::sum);
+					try {
+						return method.invoke(jni, args);
+					} catch(InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+
+		ChemicalSystemBackend previous = Chemmisol.getBackend();
+		Chemmisol.setBackend(counting);
+		try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			assertSame(counting, system.getBackend());
+			system.setUp();
+			system.solve();
+			assertDoubleEquals(
+					system.concentration("PO4-3") + system.concentration("H4PO3"), 0.1);
+
+			assertEquals(Integer.valueOf(1), calls.get("allocate"));
+			assertEquals(Integer.valueOf(1), calls.get("addReaction"));
+			assertEquals(Integer.valueOf(1), calls.get("solve"));
+
+			// Copies keep the backend of the copied system
+			Chemmisol.setBackend(jni);
+			try (ChemicalSystem copy = system.copy()) {
+				assertSame(counting, copy.getBackend());
+			}
+		} finally {
+			Chemmisol.setBackend(previous);
+		}
+		assertEquals(Integer.valueOf(2), calls.get("dispose"));
+	}
+}
@@ -0,0 +1,84 @@
+package ummisco.gama.chemmisol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.assertDoubleEquals;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateSystem;
+
+import org.junit.Test;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Unit test for ChemicalSystemPool.
+ */
+public class ChemicalSystemPoolTest 
+{
+	static {
+		ChemmisolSystemTest.loadChemmisolLibraries();
+	}
+
+	@Test
+	public void chemicalSystemPool() throws ChemmisolCoreException {
+		try (ChemicalSystem prototype = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			prototype.solve();
+			double H4PO3 = prototype.concentration("H4PO3");
+			try (ChemicalSystemPool pool = new ChemicalSystemPool(prototype, 2)) {
+				pool.prefill();
+				assertEquals(2, pool.getIdleCount());
+				assertEquals(2, pool.getCreatedCount());
+
+				ChemicalSystem first = pool.acquire();
+				ChemicalSystem second = pool.acquire();
+				ChemicalSystem third = pool.acquire();
+				assertEquals(3, pool.getLeasedCount());
+				assertEquals(3, pool.getCreatedCount());
+				assertEquals(2, pool.getReuseCount());
+
+				first.setTotalConcentration(first.component("PO4-3"), 0.5);
+				first.addSpecies(new ChemicalSpecies("H4PO3", Phase.AQUEOUS));
+				first.solve();
+				first.close();
+				// Closing a released system has no effect
+				first.close();
+				pool.release(second);
+				third.close();
+				assertEquals(0, pool.getLeasedCount());
+				assertEquals(2, pool.getIdleCount());
+				assertEquals(1, pool.getEvictedCount());
+
+				// Released systems are reused, in the state of the prototype
+				ChemicalSystem reused = pool.acquire();
+				assertTrue(reused == first || reused == second);
+				assertNull(reused.getTrackedSpecies("H4PO3"));
+				assertDoubleEquals(H4PO3, reused.concentration("H4PO3"));
+				reused.solve();
+				assertDoubleEquals(H4PO3, reused.concentration("H4PO3"));
+				reused.close();
+				assertEquals(4, pool.getAcquireCount());
+			}
+		}
+	}
+
+	@Test
+	public void chemicalSystemPoolLeak() throws ChemmisolCoreException {
+		try (ChemicalSystem prototype = phosphateSystem(EquilibriumEngine.NATIVE);
+				ChemicalSystemPool pool = new ChemicalSystemPool(prototype, 2)) {
+			pool.setLeakTracking(true);
+			ChemicalSystem leaked = pool.acquire();
+			assertEquals(1, pool.getLeasedCount());
+			// Reports the leak as the cleaner would once the system is
+			// unreachable, without depending on the garbage collector. The
+			// system is detached from the pool so that it is not reported
+			// again when it is actually collected.
+			leaked.setLeased(false, null);
+			pool.leaked(new Throwable("Acquisition of a leaked ChemicalSystem"));
+			assertEquals(1, pool.getLeakCount());
+			assertEquals(0, pool.getLeasedCount());
+			leaked.close();
+			assertEquals(0, pool.getLeasedCount());
+			assertEquals(0, pool.getIdleCount());
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package ummisco.gama.chemmisol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.assertDoubleEquals;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateComponents;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateReaction;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateSystem;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Unit test for ChemicalSystemScope.
+ */
+public class ChemicalSystemScopeTest 
+{
+	static {
+		ChemmisolSystemTest.loadChemmisolLibraries();
+	}
+
+	@Test
+	public void chemicalSystemScope() throws ChemmisolCoreException {
+		ChemmisolMetrics metrics = ChemmisolMetrics.getInstance();
+		ChemicalSystemScope scope = new ChemicalSystemScope();
+		try (ReactionNetwork network = new ReactionNetwork(
+					Arrays.asList(phosphateReaction()), phosphateComponents());
+				ChemicalSystem prototype = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			ComponentHandle PO4 = network.component("PO4-3");
+			ChemicalSystem[] systems = new ChemicalSystem[100];
+			for(int i = 0; i < systems.length; i++) {
+				systems[i] = scope.newSystem(network);
+				assertSame(network, systems[i].getNetwork());
+				systems[i].setTotalConcentration(PO4, 0.01 * (i + 1));
+				systems[i].fixPH(7.5);
+			}
+			assertNull(ChemicalSystem.solveAll(systems)[0]);
+			for(int i = 0; i < systems.length; i++)
+				assertDoubleEquals(
+						systems[i].concentration("PO4-3") + systems[i].concentration("H4PO3"),
+						0.01 * (i + 1));
+
+			ChemicalSystem copy = scope.copy(prototype);
+			copy.solve();
+			assertDoubleEquals(
+					copy.concentration("PO4-3") + copy.concentration("H4PO3"), 0.1);
+			// Closing a system of the scope has no effect
+			copy.close();
+			assertDoubleEquals(
+					copy.concentration("PO4-3") + copy.concentration("H4PO3"), 0.1);
+
+			ChemicalSystem mineral = scope.newSystem(
+					2.5, 24.2, 0.8 * 1e18 / 6.02214076e23);
+			assertDoubleEquals(
+					2.5 * 24.2 * 0.8 * 1e18 / 6.02214076e23, mineral.sitesQuantity());
+			scope.newSystem().fixPH(7);
+
+			assertEquals(103, scope.getSystemCount());
+			assertTrue(metrics.getLiveSystemCount() >= 103);
+		} finally {
+			scope.close();
+		}
+		assertTrue(scope.isClosed());
+		// Closing the scope again has no effect
+		scope.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedChemicalSystemScope() {
+		ChemicalSystemScope scope = new ChemicalSystemScope();
+		scope.close();
+		scope.newSystem();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedChemicalSystemScopeSystem() throws ChemmisolCoreException {
+		ChemicalSystemScope scope = new ChemicalSystemScope();
+		ChemicalSystem system = scope.newSystem();
+		system.addComponent(new ChemicalComponent("PO4-3", Phase.AQUEOUS, 0.1));
+		SpeciesHandle PO4 = system.species("PO4-3");
+		scope.close();
+		assertTrue(scope.isClosed());
+		// The native system is released with the scope
+		system.concentration(PO4);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void copyOfClosedChemicalSystemScopeSystem() throws ChemmisolCoreException {
+		ChemicalSystemScope scope = new ChemicalSystemScope();
+		ChemicalSystem system = scope.newSystem();
+		system.addComponent(new ChemicalComponent("PO4-3", Phase.AQUEOUS, 0.1));
+		scope.close();
+		try (ChemicalSystem copy = system.copy()) {
+			copy.solve();
+		}
+	}
+}
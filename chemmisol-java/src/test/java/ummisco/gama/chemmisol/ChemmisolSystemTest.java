@@ -1,12 +1,28 @@
 package ummisco.gama.chemmisol;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
 
@@ -15,7 +31,20 @@ import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
  */
 public class ChemmisolSystemTest 
 {
+	private static boolean libraries_loaded = false;
+
 	static {
+		loadChemmisolLibraries();
+	}
+
+	/**
+	 * Loads the native libraries built for the tests, only once for all the
+	 * test classes of the package.
+	 */
+	static synchronized void loadChemmisolLibraries() {
+		if(libraries_loaded)
+			return;
+		libraries_loaded = true;
 		try {
 			Chemmisol.loadChemmisolLibrariesFromProperties(
 					ChemmisolSystemTest.class,
@@ -295,5 +324,644 @@ public class ChemmisolSystemTest
 					);
 		}
 	}
-}
 
+	@Test
+	public void solveAll() throws ChemmisolCoreException {
+		double[] total_concentrations = {0.1, 0.2, 0.27};
+		ChemicalSystem[] systems = new ChemicalSystem[total_concentrations.length + 1];
+		ChemicalSpecies[] H4PO3 = new ChemicalSpecies[total_concentrations.length];
+		try {
+			for(int i = 0; i < total_concentrations.length; i++) {
+				systems[i] = phosphateSystem(EquilibriumEngine.NATIVE);
+				systems[i].setTotalConcentration(
+						systems[i].component("PO4-3"), total_concentrations[i]);
+				H4PO3[i] = new ChemicalSpecies("H4PO3", Phase.AQUEOUS);
+				systems[i].addSpecies(H4PO3[i]);
+			}
+			// Invalid system, with missing components
+			ChemicalSystem invalid_system = new ChemicalSystem();
+			systems[total_concentrations.length] = invalid_system;
+			invalid_system.addComponent(new Solvent("H2O"));
+			invalid_system.addReaction(new Reaction("O2", 13.12)
+				.addReagent("H2O", 2, Phase.AQUEOUS)
+				.addReagent("H2", -2, Phase.AQUEOUS)
+				.addReagent("O2", -1, Phase.AQUEOUS));
+
+			ChemmisolCoreException[] exceptions = ChemicalSystem.solveAll(systems, true);
+
+			for(int i = 0; i < total_concentrations.length; i++) {
+				assertNull(exceptions[i]);
+				// Tracked species are updated by the batch solve
+				assertDoubleEquals(
+						systems[i].getTrackedSpecies("PO4-3").getConcentration()
+						+ H4PO3[i].getConcentration(),
+						total_concentrations[i]
+						);
+			}
+			assertNotNull(exceptions[total_concentrations.length]);
+		} finally {
+			for(ChemicalSystem system : systems)
+				if(system != null)
+					system.close();
+		}
+	}
+
+	@Test
+	public void solveAllFailure() throws ChemmisolCoreException {
+		try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			SolveResult result = system.solve();
+			// Too many produced species
+			system.addComponent(new Solvent("H2O"));
+			system.addReaction(new Reaction("O2", 13.12)
+				.addReagent("H2O", 2, Phase.AQUEOUS)
+				.addReagent("H2", -2, Phase.AQUEOUS)
+				.addReagent("O2", -1, Phase.AQUEOUS));
+			assertTrue(system.isSetUpRequired());
+
+			ChemmisolCoreException[] exceptions
+				= ChemicalSystem.solveAll(new ChemicalSystem[] {system}, true);
+			assertNotNull(exceptions[0]);
+			// As with solve(), a failed batch solve does not change the last
+			// result nor the set up state of the system
+			assertSame(result, system.getLastSolveResult());
+			assertTrue(system.isSetUpRequired());
+		}
+	}
+
+	@Test
+	public void handles() throws ChemmisolCoreException {
+		try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			system.setUp();
+
+			SpeciesHandle H4PO3 = system.species("H4PO3");
+			SpeciesHandle PO4_species = system.species("PO4-3");
+			ComponentHandle PO4 = system.component("PO4-3");
+			ReactionHandle reaction = system.reaction("H4PO3");
+
+			system.setTotalConcentration(PO4, 0.27);
+			system.solve();
+
+			assertDoubleEquals(
+					system.concentration("H4PO3"),
+					system.concentration(H4PO3)
+					);
+			assertDoubleEquals(
+					system.concentration(PO4_species) + system.concentration(H4PO3),
+					0.27
+					);
+			assertDoubleEquals(
+					system.reactionQuotient("H4PO3"),
+					system.reactionQuotient(reaction)
+					);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownSpeciesHandle() {
+		try (ChemicalSystem system = new ChemicalSystem()) {
+			system.species("PO4-3");
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void speciesHandleFromAnotherSystem() throws ChemmisolCoreException {
+		try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE);
+				ChemicalSystem other = new ChemicalSystem()) {
+			system.setUp();
+			SpeciesHandle H4PO3 = system.species("H4PO3");
+			other.addComponent(new ChemicalComponent("PO4-3", Phase.AQUEOUS, 0.1));
+			other.concentration(H4PO3);
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void invalidComponentHandle() {
+		try (ChemicalSystem system = new ChemicalSystem()) {
+			system.setTotalConcentration(new ComponentHandle("PO4-3", 0), 0.1);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownSpeciesName() throws ChemmisolCoreException {
+		try (ChemicalSystem system = new ChemicalSystem()) {
+			system.addComponent(new ChemicalComponent("PO4-3", Phase.AQUEOUS, 0.1));
+			system.concentration("H4PO3");
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownReactionName() {
+		try (ChemicalSystem system = new ChemicalSystem()) {
+			system.reactionQuotient("H4PO3");
+		}
+	}
+
+	@Test
+	public void readConcentrations() throws ChemmisolCoreException {
+		try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			system.setUp();
+
+			double[] concentrations = new double[system.speciesCount()];
+			system.solve(concentrations);
+
+			DoubleBuffer buffer = ByteBuffer
+				.allocateDirect(Double.BYTES * (system.speciesCount() + 1))
+				.order(ByteOrder.nativeOrder())
+				.asDoubleBuffer();
+			buffer.position(1);
+			system.readConcentrations(buffer);
+
+			for(String name : new String[] {"H4PO3", "PO4-3", "H+"}) {
+				SpeciesHandle species = system.species(name);
+				assertDoubleEquals(
+						system.concentration(species),
+						concentrations[species.getIndex()]
+						);
+				assertDoubleEquals(
+						system.concentration(species),
+						buffer.get(1 + species.getIndex())
+						);
+			}
+		}
+	}
+
+
+	@Test
+	public void copy() throws ChemmisolCoreException {
+		try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			system.addSpecies(new ChemicalSpecies("H4PO3", Phase.AQUEOUS));
+			system.setUp();
+			ComponentHandle PO4 = system.component("PO4-3");
+
+			try (ChemicalSystem copy = system.copy()) {
+				copy.setTotalConcentration(PO4, 0.27);
+				copy.solve();
+				system.solve();
+
+				ChemicalSpecies H4PO3 = copy.getTrackedSpecies("H4PO3");
+				assertNotNull(H4PO3);
+				assertNotSame(system.getTrackedSpecies("H4PO3"), H4PO3);
+				assertDoubleEquals(
+						copy.getTrackedSpecies("PO4-3").getConcentration()
+						+ H4PO3.getConcentration(),
+						0.27
+						);
+				// The original system is not modified
+				assertDoubleEquals(
+						system.getTrackedSpecies("PO4-3").getConcentration()
+						+ system.getTrackedSpecies("H4PO3").getConcentration(),
+						0.1
+						);
+			}
+		}
+	}
+
+
+
+
+	@Test
+	public void warmStart() throws ChemmisolCoreException {
+		// The native engine does not report its count of iterations
+		try (ChemicalSystem system = phosphateSystem(new JavaEquilibriumEngine())) {
+			system.setUp();
+			ComponentHandle PO4 = system.component("PO4-3");
+			system.solve();
+
+			double[] equilibrium = new double[system.speciesCount()];
+			system.readConcentrations(equilibrium);
+
+			system.setWarmStart(false);
+			system.setTotalConcentration(PO4, 0.1 * (1 + 1e-6));
+			int cold_iterations = system.solve().getIterationCount();
+			assertEquals(cold_iterations, system.getIterationCount());
+
+			// The previous equilibrium is close to the new one, but does not
+			// satisfy its mass balance
+			system.setWarmStart(true);
+			int warm_iterations = system.solveFrom(equilibrium).getIterationCount();
+			assertTrue(warm_iterations > 0);
+			assertTrue(warm_iterations <= cold_iterations);
+			assertDoubleEquals(
+					system.concentration("PO4-3") + system.concentration("H4PO3"),
+					0.1 * (1 + 1e-6)
+					);
+		}
+	}
+
+	@Test
+	public void solverOptions() throws ChemmisolCoreException {
+		// The native engine does not report its count of iterations nor
+		// supports damping
+		try (ChemicalSystem system = phosphateSystem(new JavaEquilibriumEngine())) {
+			system.setUp();
+
+			system.setSolverOptions(SolverOptions.DEFAULT.withMaxIteration(1));
+			SolveResult result = system.solve();
+			assertEquals(1, result.getIterationCount());
+			assertSame(result, system.getLastSolveResult());
+
+			system.setSolverOptions(SolverOptions.DEFAULT.withDamping(0.5));
+			system.setWarmStart(false);
+			result = system.solve();
+			assertTrue(result.isConverged());
+			assertTrue(result.getResidual() <= 1e-10);
+			assertTrue(result.getWallTime() >= 0);
+			assertDoubleEquals(
+					system.concentration("PO4-3") + system.concentration("H4PO3"),
+					0.1
+					);
+
+			ChemicalSystem[] systems = {system};
+			ChemicalSystem.solveAll(
+					systems, true, SolverOptions.DEFAULT.withMaxIteration(1));
+			assertEquals(1, system.getIterationCount());
+		}
+	}
+
+	@Test
+	public void nativeSolverOptions() throws ChemmisolCoreException {
+		try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			system.setSolverOptions(SolverOptions.DEFAULT.withMaxIteration(1));
+			SolveResult result = system.solve();
+			assertEquals(SolveResult.UNKNOWN_ITERATION_COUNT, result.getIterationCount());
+			assertFalse(Double.isNaN(result.getResidual()));
+
+			system.setSolverOptions(SolverOptions.DEFAULT);
+			system.setWarmStart(false);
+			result = system.solve();
+			assertEquals(SolveResult.UNKNOWN_ITERATION_COUNT, result.getIterationCount());
+			assertTrue(result.isConverged());
+			assertTrue(result.getResidual() <= SolverOptions.DEFAULT.getTolerance());
+			assertDoubleEquals(
+					system.concentration("PO4-3") + system.concentration("H4PO3"),
+					0.1
+					);
+
+			ChemicalSystem.solveAll(new ChemicalSystem[] {system}, true);
+			assertEquals(SolveResult.UNKNOWN_ITERATION_COUNT, system.getIterationCount());
+			assertFalse(Double.isNaN(system.getLastSolveResult().getResidual()));
+		}
+	}
+
+	@Test
+	public void nativeSolveConverges() throws ChemmisolCoreException {
+		try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			SolveResult result = system.solve();
+			assertTrue(result.isConverged());
+			assertTrue(result.getResidual() <= SolverOptions.DEFAULT.getTolerance());
+		}
+	}
+
+	@Test
+	public void massBalanceResidual() throws ChemmisolCoreException {
+		try (ChemicalSystem system = phosphateSystem(new JavaEquilibriumEngine())) {
+			system.setSolverOptions(SolverOptions.DEFAULT.withMaxIteration(1));
+			SolveResult result = system.solve();
+			assertFalse(result.isConverged());
+			assertTrue(result.getResidual() > 1e-10);
+
+			system.setSolverOptions(SolverOptions.DEFAULT);
+			result = system.solve();
+			assertTrue(result.isConverged());
+			assertTrue(result.getResidual() <= 1e-10);
+			double total = system.concentration("PO4-3") + system.concentration("H4PO3");
+			assertEquals(result.getResidual(), Math.abs(total - 0.1) / 0.1, 1e-15);
+
+			// A solve that starts from the equilibrium does not iterate
+			double[] equilibrium = new double[system.speciesCount()];
+			system.readConcentrations(equilibrium);
+			assertEquals(0, system.solveFrom(equilibrium).getIterationCount());
+		}
+	}
+
+	@Test
+	public void logLevel() throws ChemmisolCoreException {
+		LogLevel initial_level = Chemmisol.getLogLevel();
+		try {
+			Chemmisol.setLogLevel(LogLevel.OFF);
+			assertEquals(LogLevel.OFF, Chemmisol.getLogLevel());
+			// Native logs are disabled, but the system is still solved
+			try (ChemicalSystem system = new ChemicalSystem()) {
+				ChemicalComponent PO4 = new ChemicalComponent("PO4-3", Phase.AQUEOUS, 0.1);
+				system.addComponent(PO4);
+				system.fixPH(7.5);
+				system.setUp();
+				system.solve();
+				assertDoubleEquals(system.concentration("PO4-3"), 0.1);
+			}
+		} finally {
+			Chemmisol.setLogLevel(initial_level);
+		}
+	}
+
+	@Test
+	public void metrics() throws ChemmisolCoreException {
+		ChemmisolMetrics metrics = ChemmisolMetrics.getInstance();
+		long live_systems = metrics.getLiveSystemCount();
+		long solves = metrics.getSolveCount();
+		long failures = metrics.getSolveFailureCount();
+		long iterations = metrics.getSolveIterations().getCount();
+		try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			// Other leaked systems might be concurrently cleaned
+			assertTrue(metrics.getLiveSystemCount() >= 1);
+			system.setUp();
+			system.solve();
+			assertEquals(solves + 1, metrics.getSolveCount());
+			// Native solves do not report their count of iterations
+			assertEquals(iterations, metrics.getSolveIterations().getCount());
+
+			system.setEquilibriumEngine(new JavaEquilibriumEngine());
+			system.solve();
+			assertEquals(solves + 2, metrics.getSolveCount());
+			assertEquals(iterations + 1, metrics.getSolveIterations().getCount());
+		}
+		assertTrue(metrics.getLiveSystemCount() <= live_systems);
+
+		try (ChemicalSystem system = new ChemicalSystem()) {
+			system.addComponent(new Solvent("H2O"));
+			system.addReaction(new Reaction("O2", 13.12)
+				.addReagent("H2O", 2, Phase.AQUEOUS)
+				.addReagent("H2", -2, Phase.AQUEOUS)
+				.addReagent("O2", -1, Phase.AQUEOUS));
+			ChemmisolCoreException[] exceptions
+				= ChemicalSystem.solveAll(new ChemicalSystem[] {system}, true);
+			assertEquals(
+					"chemmisol::InvalidSpeciesInReaction",
+					exceptions[0].getCoreExceptionName());
+			assertEquals(failures + 1, metrics.getSolveFailureCount());
+			assertTrue(metrics.getFailureCounts()
+					.get("chemmisol::InvalidSpeciesInReaction") > 0);
+		}
+	}
+
+	@Test
+	public void flightRecorderEvents() throws ChemmisolCoreException, IOException {
+		Path recording_file = Files.createTempFile("chemmisol", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("chemmisol.Solve");
+			recording.enable("chemmisol.SetUp");
+			recording.start();
+			try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE)) {
+				system.setUp();
+				system.solve();
+			}
+			recording.stop();
+			recording.dump(recording_file);
+
+			List<RecordedEvent> events = RecordingFile.readAllEvents(recording_file);
+			boolean solve_recorded = false;
+			boolean set_up_recorded = false;
+			for(RecordedEvent event : events) {
+				switch(event.getEventType().getName()) {
+					case "chemmisol.Solve":
+						solve_recorded = true;
+						// The native engine does not report its count of iterations
+						assertEquals(SolveResult.UNKNOWN_ITERATION_COUNT, event.getInt("iterations"));
+						assertTrue(event.getBoolean("converged"));
+						assertTrue(event.getInt("speciesCount") > 0);
+						break;
+					case "chemmisol.SetUp":
+						set_up_recorded = true;
+						break;
+				}
+			}
+			assertTrue(solve_recorded);
+			assertTrue(set_up_recorded);
+		} finally {
+			Files.delete(recording_file);
+		}
+	}
+
+
+
+
+	static ChemicalSystem mineralSystem(EquilibriumEngine engine)
+		throws ChemmisolCoreException {
+		ChemicalSystem system = new ChemicalSystem(
+				2.5, // g/l
+				24.2, // m2/g
+				0.8 * 1e18 / 6.02214076e23 // 0.8 entitities/nm2
+				);
+		system.setEquilibriumEngine(engine);
+		system.addComponent(new ChemicalComponent("=SOH", Phase.MINERAL, 1.0));
+		system.addComponent(new Solvent("H2O"));
+		system.addReaction(new Reaction("HO-", -14)
+				.addReagent("HO-", -1, Phase.AQUEOUS)
+				.addReagent("H", -1, Phase.AQUEOUS)
+				.addReagent("H2O", 1, Phase.AQUEOUS));
+		system.addReaction(new Reaction("=SOH2", 3.46)
+				.addReagent("=SOH2", -1, Phase.MINERAL)
+				.addReagent("=SOH", 1, Phase.AQUEOUS)
+				.addReagent("H", 1, Phase.AQUEOUS));
+		ChemicalComponent H = new ChemicalComponent("H", Phase.AQUEOUS, 0.0);
+		system.addComponent(H);
+		system.fixPH(7, H);
+		return system;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void solveFromBeforeSetUp() throws ChemmisolCoreException {
+		try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			// Sized before the set up defines the produced species
+			system.solveFrom(new double[system.speciesCount()]);
+		}
+	}
+
+	/**
+	 * Reaction of the phosphate system: PO4-3 + 4 H+ <-> H4PO3.
+	 */
+	static Reaction phosphateReaction() {
+		return new Reaction("H4PO3", 13.192)
+			.addReagent("H4PO3", -1, Phase.AQUEOUS)
+			.addReagent("H+", 4, Phase.AQUEOUS)
+			.addReagent("PO4-3", 1, Phase.AQUEOUS);
+	}
+
+	/**
+	 * Components of the phosphate network, with 0.1 mol/l of PO4-3.
+	 */
+	static List<ChemicalComponent> phosphateComponents() {
+		return Arrays.asList(
+				new ChemicalComponent("PO4-3", Phase.AQUEOUS, 0.1),
+				new ChemicalComponent("H+", Phase.AQUEOUS, 0.0));
+	}
+
+	/**
+	 * Builds a phosphate system with 0.1 mol/l of PO4-3 at pH 7.5, that is not
+	 * set up yet.
+	 */
+	static ChemicalSystem phosphateSystem(EquilibriumEngine engine)
+		throws ChemmisolCoreException {
+		ChemicalSystem system = new ChemicalSystem();
+		system.setEquilibriumEngine(engine);
+		system.addReaction(phosphateReaction());
+		system.addComponent(new ChemicalComponent("PO4-3", Phase.AQUEOUS, 0.1));
+		system.fixPH(7.5);
+		return system;
+	}
+
+	static void assertSameConcentrations(
+			ChemicalSystem expected, ChemicalSystem actual) {
+		assertEquals(expected.speciesCount(), actual.speciesCount());
+		double[] expected_concentrations = new double[expected.speciesCount()];
+		double[] actual_concentrations = new double[actual.speciesCount()];
+		expected.readConcentrations(expected_concentrations);
+		actual.readConcentrations(actual_concentrations);
+		for(int i = 0; i < expected_concentrations.length; i++)
+			assertEquals(
+					expected_concentrations[i], actual_concentrations[i],
+					1e-6 * Math.abs(expected_concentrations[i]));
+	}
+
+	@Test
+	public void javaEquilibriumEngine() throws ChemmisolCoreException {
+		JavaEquilibriumEngine java_engine = new JavaEquilibriumEngine();
+		assertEquals("java", java_engine.getName());
+		try (ChemicalSystem system = new ChemicalSystem()) {
+			assertSame(EquilibriumEngine.NATIVE, system.getEquilibriumEngine());
+		}
+
+		try (ChemicalSystem native_system = phosphateSystem(EquilibriumEngine.NATIVE);
+				ChemicalSystem java_system = phosphateSystem(java_engine)) {
+			assertSame(java_engine, java_system.getEquilibriumEngine());
+			native_system.solve();
+			java_system.solve();
+			assertSameConcentrations(native_system, java_system);
+			assertTrue(java_system.getIterationCount() > 0);
+
+			// Same as setTotalConcentration(), from the previous equilibrium
+			native_system.setTotalConcentration(native_system.component("PO4-3"), 0.27);
+			java_system.setTotalConcentration(java_system.component("PO4-3"), 0.27);
+			native_system.solve();
+			java_system.solve();
+			assertSameConcentrations(native_system, java_system);
+			assertDoubleEquals(
+					java_system.concentration("PO4-3") + java_system.concentration("H4PO3"),
+					0.27);
+
+			// Copies keep the engine of the copied system
+			try (ChemicalSystem copy = java_system.copy()) {
+				assertSame(java_engine, copy.getEquilibriumEngine());
+				copy.fixPH(6);
+				copy.solve();
+				native_system.fixPH(6);
+				native_system.solve();
+				assertSameConcentrations(native_system, copy);
+			}
+		}
+
+		try (ChemicalSystem native_system = mineralSystem(EquilibriumEngine.NATIVE);
+				ChemicalSystem java_system = mineralSystem(java_engine)) {
+			native_system.solve();
+			java_system.solve();
+			assertSameConcentrations(native_system, java_system);
+			assertDoubleEquals(
+					java_system.reactionQuotient("=SOH2"),
+					java_system.concentration("=SOH2") /
+					(java_system.concentration("=SOH") * java_system.concentration("H")));
+		}
+	}
+
+
+	@Test
+	public void incrementalSetUp() throws ChemmisolCoreException {
+		try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			assertTrue(system.isSetUpRequired());
+			// Set up by the first solve
+			system.solve();
+			assertFalse(system.isSetUpRequired());
+
+			// Inputs are updated incrementally
+			system.setTotalConcentration(system.component("PO4-3"), 0.27);
+			system.fixPH(6);
+			assertFalse(system.isSetUpRequired());
+			system.solve();
+			assertDoubleEquals(
+					system.concentration("PO4-3") + system.concentration("H4PO3"),
+					0.27);
+			assertDoubleEquals(system.concentration("H+"), Math.pow(10, -6));
+
+			try (ChemicalSystem expected = phosphateSystem(EquilibriumEngine.NATIVE)) {
+				expected.setTotalConcentration(expected.component("PO4-3"), 0.27);
+				expected.fixPH(6);
+				expected.setUp();
+				expected.solve();
+				assertSameConcentrations(expected, system);
+			}
+
+			// Copies do not need to be set up again
+			try (ChemicalSystem copy = system.copy()) {
+				assertFalse(copy.isSetUpRequired());
+			}
+
+			// Structural changes require a new set up, done by the next solve
+			system.addReaction(new Reaction("H3PO4", 21.7)
+				.addReagent("H3PO4", -1, Phase.AQUEOUS)
+				.addReagent("H+", 3, Phase.AQUEOUS)
+				.addReagent("PO4-3", 1, Phase.AQUEOUS));
+			assertTrue(system.isSetUpRequired());
+			ChemicalSystem[] systems = {system};
+			assertNull(ChemicalSystem.solveAll(systems)[0]);
+			assertFalse(system.isSetUpRequired());
+			assertTrue(system.speciesIndex("H3PO4") >= 0);
+		}
+	}
+
+	@Test
+	public void dirtyTracking() throws ChemmisolCoreException {
+		ChemmisolMetrics metrics = ChemmisolMetrics.getInstance();
+		try (ChemicalSystem first = phosphateSystem(EquilibriumEngine.NATIVE);
+				ChemicalSystem second = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			assertTrue(first.isDirty());
+			SolveResult result = first.solve();
+			assertFalse(first.isDirty());
+
+			// Nothing changed: the last result is returned without solving
+			long solves = metrics.getSolveCount();
+			long skipped = metrics.getSkippedSolveCount();
+			assertSame(result, first.solve());
+			assertEquals(solves, metrics.getSolveCount());
+			assertEquals(skipped + 1, metrics.getSkippedSolveCount());
+
+			first.setTotalConcentration(first.component("PO4-3"), 0.27);
+			assertTrue(first.isDirty());
+			ChemicalSystem[] systems = {first, second};
+			assertArrayEquals(systems, ChemicalSystem.dirtySystems(systems));
+			first.solve();
+			assertFalse(first.isDirty());
+			assertArrayEquals(
+					new ChemicalSystem[] {second}, ChemicalSystem.dirtySystems(systems));
+
+			// Batch solves skip clean systems
+			result = first.getLastSolveResult();
+			ChemmisolCoreException[] exceptions = ChemicalSystem.solveAll(systems);
+			assertNull(exceptions[0]);
+			assertNull(exceptions[1]);
+			assertSame(result, first.getLastSolveResult());
+			assertFalse(second.isDirty());
+			assertEquals(0, ChemicalSystem.dirtySystems(systems).length);
+
+			// Unless they are set up again
+			ChemicalSystem.solveAll(systems, true);
+			assertNotSame(result, first.getLastSolveResult());
+			assertDoubleEquals(
+					first.concentration("PO4-3") + first.concentration("H4PO3"),
+					0.27);
+
+			first.fixPH(6);
+			assertTrue(first.isDirty());
+			second.setSolverOptions(SolverOptions.DEFAULT.withMaxIteration(1));
+			assertTrue(second.isDirty());
+			second.solve();
+			// Not converged systems remain dirty
+			assertTrue(second.isDirty());
+		}
+	}
+
+
+
+
+
+
+
+}
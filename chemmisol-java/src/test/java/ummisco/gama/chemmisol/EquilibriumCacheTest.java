@@ -0,0 +1,70 @@
+package ummisco.gama.chemmisol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.assertDoubleEquals;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateSystem;
+
+import org.junit.Test;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Unit test for EquilibriumCache.
+ */
+public class EquilibriumCacheTest 
+{
+	static {
+		ChemmisolSystemTest.loadChemmisolLibraries();
+	}
+
+	@Test
+	public void equilibriumCache() throws ChemmisolCoreException {
+		try (ChemicalSystem system = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			system.setUp();
+			ComponentHandle PO4 = system.component("PO4-3");
+
+			EquilibriumCache cache = new EquilibriumCache(1);
+			try (ChemicalSystem copy = system.copy()) {
+				cache.solve(system);
+				assertEquals(0, cache.getHitCount());
+				assertEquals(1, cache.getMissCount());
+
+				// Same inputs, within the cache tolerance
+				copy.setTotalConcentration(PO4, 0.1 * (1 + 1e-12));
+				SolveResult result = cache.solve(copy);
+				assertEquals(1, cache.getHitCount());
+				assertEquals(0, result.getIterationCount());
+				assertTrue(result.isConverged());
+				assertDoubleEquals(
+						system.concentration("H4PO3"), copy.concentration("H4PO3"));
+				assertDoubleEquals(
+						system.getTrackedSpecies("PO4-3").getConcentration(),
+						copy.getTrackedSpecies("PO4-3").getConcentration());
+
+				// The cached equilibrium is not within a lower solver
+				// tolerance, so the system is solved again from it
+				copy.setSolverOptions(SolverOptions.DEFAULT.withTolerance(1e-14));
+				result = cache.solve(copy);
+				assertEquals(1, cache.getHitCount());
+				assertEquals(2, cache.getMissCount());
+				assertSame(result, copy.getLastSolveResult());
+				assertDoubleEquals(
+						copy.concentration("PO4-3") + copy.concentration("H4PO3"),
+						0.1 * (1 + 1e-12));
+				copy.setSolverOptions(SolverOptions.DEFAULT);
+
+				// New inputs evict the previous equilibrium
+				copy.setTotalConcentration(PO4, 0.2);
+				cache.solve(copy);
+				assertEquals(3, cache.getMissCount());
+				assertEquals(1, cache.getEvictionCount());
+				assertEquals(1, cache.size());
+				assertDoubleEquals(
+						copy.concentration("PO4-3") + copy.concentration("H4PO3"),
+						0.2);
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package ummisco.gama.chemmisol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.assertDoubleEquals;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateComponents;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateReaction;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Unit test for EquilibriumTable.
+ */
+public class EquilibriumTableTest 
+{
+	static {
+		ChemmisolSystemTest.loadChemmisolLibraries();
+	}
+
+	@Test
+	public void equilibriumTable() throws ChemmisolCoreException, IOException {
+		try (ReactionNetwork network = new ReactionNetwork(
+					Arrays.asList(phosphateReaction()), phosphateComponents())) {
+			EquilibriumTable table = new EquilibriumTable.Builder(network)
+				.ph(6, 8, 21)
+				.total("PO4-3", 1e-3, 1e-1, 21)
+				.build();
+			assertEquals(2, table.getAxisCount());
+			assertEquals("PO4-3", table.getAxisName(1));
+			assertEquals(network.speciesCount(), table.getSpeciesCount());
+
+			int H4PO3 = network.species("H4PO3").getIndex();
+			int PO4 = network.species("PO4-3").getIndex();
+			double[] interpolated = new double[table.getSpeciesCount()];
+			double[] solved = new double[table.getSpeciesCount()];
+			try (ChemicalSystem system = network.newSystem()) {
+				double[] inputs = {7.05, 0.02};
+				double error = table.interpolate(inputs, interpolated);
+				assertTrue(error < 1e-2);
+				assertTrue(table.evaluate(system, inputs, interpolated, 1e-2));
+
+				// Out of range queries fall back to a real solve
+				double[] outside = {9, 0.02};
+				assertEquals(
+						Double.POSITIVE_INFINITY, table.interpolate(outside, interpolated), 0);
+				assertTrue(!table.evaluate(system, outside, solved, 1e-2));
+				assertDoubleEquals(solved[PO4] + solved[H4PO3], 0.02);
+
+				system.fixPH(inputs[0]);
+				system.setTotalConcentration(network.component("PO4-3"), inputs[1]);
+				system.solve(solved);
+				assertEquals(solved[H4PO3], interpolated[H4PO3],
+						solved[H4PO3] * 2.5 * error + 1e-12);
+			}
+
+			Path table_file = Files.createTempFile("chemmisol", ".table");
+			try {
+				table.save(table_file);
+				EquilibriumTable loaded = EquilibriumTable.load(table_file);
+				assertEquals(table.getAxisCount(), loaded.getAxisCount());
+				assertEquals("H4PO3", loaded.getSpeciesName(H4PO3));
+				double[] loaded_interpolated = new double[loaded.getSpeciesCount()];
+				loaded.interpolate(new double[] {7.05, 0.02}, loaded_interpolated);
+				table.interpolate(new double[] {7.05, 0.02}, interpolated);
+				for(int i = 0; i < interpolated.length; i++)
+					assertEquals(interpolated[i], loaded_interpolated[i], 0);
+			} finally {
+				Files.delete(table_file);
+			}
+		}
+	}
+}
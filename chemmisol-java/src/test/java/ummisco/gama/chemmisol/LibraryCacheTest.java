@@ -0,0 +1,94 @@
+package ummisco.gama.chemmisol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.net.URL;
+
+/**
+ * Unit test for the cache of unpacked native libraries.
+ */
+public class LibraryCacheTest 
+{
+	static {
+		ChemmisolSystemTest.loadChemmisolLibraries();
+	}
+
+	@Test
+	public void libraryCache() throws IOException {
+		Path cache_directory = Files.createTempDirectory("chemmisol-cache");
+		Path jar = Files.createTempFile("chemmisol", ".jar");
+		String previous_cache = System.getProperty(Chemmisol.LIBRARY_CACHE_PROPERTY);
+		System.setProperty(Chemmisol.LIBRARY_CACHE_PROPERTY, cache_directory.toString());
+		try {
+			byte[] content = "not a real library".getBytes("UTF-8");
+			try (OutputStream output = Files.newOutputStream(jar);
+					JarOutputStream jar_output = new JarOutputStream(output)) {
+				jar_output.putNextEntry(new JarEntry("lib/libfake.so"));
+				jar_output.write(content);
+				jar_output.closeEntry();
+			}
+			URL url = new URL("jar:" + jar.toUri() + "!/lib/libfake.so");
+
+			ChemmisolEvents.LibraryLoad event = new ChemmisolEvents.LibraryLoad();
+			Path library = Chemmisol.unpackLibrary(url, event);
+			assertTrue(library.startsWith(cache_directory));
+			assertEquals("libfake.so", library.getFileName().toString());
+			assertTrue(!event.cacheHit);
+			assertEquals(content.length, event.unpackedSize);
+			assertTrue(Arrays.equals(content, Files.readAllBytes(library)));
+
+			// The second JVM start reuses the unpacked library
+			event = new ChemmisolEvents.LibraryLoad();
+			assertEquals(library, Chemmisol.unpackLibrary(url, event));
+			assertTrue(event.cacheHit);
+			assertEquals(0, event.unpackedSize);
+
+			// A corrupted library of the same size is unpacked again
+			byte[] corrupted = content.clone();
+			corrupted[0] ^= 1;
+			Files.write(library, corrupted);
+			event = new ChemmisolEvents.LibraryLoad();
+			assertEquals(library, Chemmisol.unpackLibrary(url, event));
+			assertTrue(!event.cacheHit);
+			assertTrue(Arrays.equals(content, Files.readAllBytes(library)));
+
+			// Other resources are identified by the digest of their content
+			Path file = Files.createTempFile("libfake", ".so");
+			try {
+				Files.write(file, content);
+				event = new ChemmisolEvents.LibraryLoad();
+				Path file_library = Chemmisol.unpackLibrary(file.toUri().toURL(), event);
+				assertTrue(file_library.getParent().getFileName().toString().startsWith("sha256-"));
+				assertTrue(!event.cacheHit);
+				assertTrue(Arrays.equals(content, Files.readAllBytes(file_library)));
+				event = new ChemmisolEvents.LibraryLoad();
+				assertEquals(file_library, Chemmisol.unpackLibrary(file.toUri().toURL(), event));
+				assertTrue(event.cacheHit);
+				Files.delete(file_library);
+				Files.delete(file_library.getParent());
+			} finally {
+				Files.delete(file);
+			}
+
+			Files.delete(library);
+			Files.delete(library.getParent());
+		} finally {
+			if(previous_cache == null)
+				System.clearProperty(Chemmisol.LIBRARY_CACHE_PROPERTY);
+			else
+				System.setProperty(Chemmisol.LIBRARY_CACHE_PROPERTY, previous_cache);
+			Files.delete(jar);
+			Files.delete(cache_directory);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package ummisco.gama.chemmisol;
+
+import static org.junit.Assert.assertNull;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.assertDoubleEquals;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateSystem;
+
+import org.junit.Test;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Unit test for ParallelEquilibriumSolver.
+ */
+public class ParallelEquilibriumSolverTest 
+{
+	static {
+		ChemmisolSystemTest.loadChemmisolLibraries();
+	}
+
+	@Test
+	public void parallelSolve() {
+		int n = 100;
+		ChemicalSystem[] systems = new ChemicalSystem[n];
+		ChemicalSpecies[] H4PO3 = new ChemicalSpecies[n];
+		try (ParallelEquilibriumSolver solver = new ParallelEquilibriumSolver(4, 8)) {
+			for(int i = 0; i < n; i++) {
+				systems[i] = phosphateSystem(EquilibriumEngine.NATIVE);
+				systems[i].setTotalConcentration(
+						systems[i].component("PO4-3"), 0.01 * (i+1));
+				H4PO3[i] = new ChemicalSpecies("H4PO3", Phase.AQUEOUS);
+				systems[i].addSpecies(H4PO3[i]);
+			}
+
+			ChemmisolCoreException[] exceptions = solver.solve(systems, true);
+
+			for(int i = 0; i < n; i++) {
+				assertNull(exceptions[i]);
+				assertDoubleEquals(
+						systems[i].getTrackedSpecies("PO4-3").getConcentration()
+						+ H4PO3[i].getConcentration(),
+						0.01 * (i+1)
+						);
+			}
+		} catch(ChemmisolCoreException e) {
+			throw new AssertionError(e);
+		} finally {
+			for(ChemicalSystem system : systems)
+				if(system != null)
+					system.close();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package ummisco.gama.chemmisol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.assertDoubleEquals;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateComponents;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateReaction;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Unit test for ReactionNetwork and ReactionNetworkSpec.
+ */
+public class ReactionNetworkTest 
+{
+	static {
+		ChemmisolSystemTest.loadChemmisolLibraries();
+	}
+
+	@Test
+	public void reactionNetwork() throws ChemmisolCoreException {
+		try (ReactionNetwork network = new ReactionNetwork(
+					Arrays.asList(phosphateReaction()), phosphateComponents())) {
+			ComponentHandle PO4 = network.component("PO4-3");
+			SpeciesHandle PO4_species = network.species("PO4-3");
+			SpeciesHandle H4PO3 = network.species("H4PO3");
+			assertSame(PO4, network.component("PO4-3"));
+
+			double[] total_concentrations = {0.1, 0.27};
+			for(double total_concentration : total_concentrations) {
+				try (ChemicalSystem system = network.newSystem()) {
+					assertSame(network, system.getNetwork());
+					assertSame(H4PO3, system.species("H4PO3"));
+					system.setTotalConcentration(PO4, total_concentration);
+					system.fixPH(7.5);
+					system.solve();
+
+					assertDoubleEquals(
+							system.concentration(PO4_species) + system.concentration(H4PO3),
+							total_concentration
+							);
+				}
+			}
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedReactionNetwork() throws ChemmisolCoreException {
+		ReactionNetwork network = new ReactionNetwork(
+					Arrays.asList(phosphateReaction()), phosphateComponents());
+		network.close();
+		assertTrue(network.isClosed());
+		network.newSystem();
+	}
+
+	@Test
+	public void reactionNetworkPH() throws ChemmisolCoreException {
+		try (ReactionNetwork network = new ReactionNetwork(
+					Arrays.asList(phosphateReaction()), phosphateComponents(), 7.5);
+				ChemicalSystemScope scope = new ChemicalSystemScope()) {
+			ChemicalSystem[] systems = {network.newSystem(), scope.newSystem(network)};
+			try {
+				for(ChemicalSystem system : systems) {
+					assertFalse(system.isSetUpRequired());
+					assertEquals(Math.pow(10, -7.5), system.concentration("H+"), 1e-15);
+					// Only the pH value of the native system is updated
+					system.fixPH(6.0);
+					assertFalse(system.isSetUpRequired());
+					system.solve();
+					assertEquals(Math.pow(10, -6.0), system.concentration("H+"), 1e-15);
+					assertDoubleEquals(
+							system.concentration("PO4-3") + system.concentration("H4PO3"),
+							0.1);
+				}
+			} finally {
+				systems[0].close();
+			}
+		}
+	}
+
+	@Test
+	public void reactionNetworkSpec() throws ChemmisolCoreException {
+		List<Reaction> reactions = Arrays.asList(
+				phosphateReaction(),
+				new Reaction("H3PO4", 21.7)
+					.addReagent("H3PO4", -1, Phase.AQUEOUS)
+					.addReagent("H+", 3, Phase.AQUEOUS)
+					.addReagent("PO4-3", 1, Phase.AQUEOUS));
+		ReactionNetworkSpec spec = ReactionNetworkSpec.of(reactions);
+		assertEquals(4, spec.getSpeciesCount());
+		assertEquals(2, spec.getReactionCount());
+		assertEquals("H4PO3", spec.getSpeciesName(0));
+		assertEquals(Phase.AQUEOUS, spec.getPhase(1));
+		assertEquals("H3PO4", spec.getReactionName(1));
+		assertDoubleEquals(21.7, spec.getLogK(1));
+		assertEquals(3, spec.getCoefficient(1, 1));
+		assertEquals(0, spec.getCoefficient(0, 3));
+
+		ReactionNetworkSpec primitive_spec = new ReactionNetworkSpec(
+				new String[] {"PO4-3", "H+", "H4PO3", "H3PO4"},
+				new byte[] {1, 1, 1, 1},
+				new String[] {"H4PO3", "H3PO4"},
+				new double[] {13.192, 21.7},
+				new int[] {
+					1, 4, -1, 0,
+					1, 3, 0, -1
+				});
+		List<Reaction> spec_reactions = primitive_spec.toReactions();
+		assertEquals(2, spec_reactions.size());
+		assertEquals(3, spec_reactions.get(0).getReagents().size());
+
+		try (ChemicalSystem expected = new ChemicalSystem();
+				ChemicalSystem system = new ChemicalSystem()) {
+			for(Reaction reaction : reactions)
+				expected.addReaction(reaction);
+			system.addReactions(primitive_spec);
+			assertTrue(system.isSetUpRequired());
+			for(ChemicalSystem s : new ChemicalSystem[] {expected, system}) {
+				s.addComponent(new ChemicalComponent("PO4-3", Phase.AQUEOUS, 0.1));
+				s.fixPH(5);
+				s.solve();
+			}
+			assertEquals(expected.speciesCount(), system.speciesCount());
+			for(String species : new String[] {"PO4-3", "H+", "H4PO3", "H3PO4"})
+				assertEquals(
+						expected.concentration(species), system.concentration(species),
+						1e-6 * expected.concentration(species));
+		}
+
+		try (ReactionNetwork network = new ReactionNetwork(
+					primitive_spec,
+					Arrays.asList(
+						new ChemicalComponent("PO4-3", Phase.AQUEOUS, 0.1),
+						new ChemicalComponent("H+", Phase.AQUEOUS, 0.0)));
+				ChemicalSystem system = network.newSystem()) {
+			assertSame(primitive_spec, network.getSpec());
+			assertEquals(2, network.getReactions().size());
+			system.fixPH(7.5);
+			system.solve();
+			assertEquals(
+					0.1,
+					system.concentration("PO4-3") + system.concentration("H4PO3")
+					+ system.concentration("H3PO4"),
+					1e-12);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidReactionNetworkSpec() {
+		new ReactionNetworkSpec(
+				new String[] {"PO4-3", "H+", "H4PO3"},
+				new byte[] {1, 1, 1},
+				new String[] {"H4PO3"},
+				new double[] {13.192},
+				new int[] {1, 4});
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void nullSpeciesNameReactionNetworkSpec() {
+		new ReactionNetworkSpec(
+				new String[] {"PO4-3", "H+", null},
+				new byte[] {1, 1, 1},
+				new String[] {"H4PO3"},
+				new double[] {13.192},
+				new int[] {1, 4, -1});
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void nullReactionNameReactionNetworkSpec() {
+		new ReactionNetworkSpec(
+				new String[] {"PO4-3", "H+", "H4PO3"},
+				new byte[] {1, 1, 1},
+				new String[] {null},
+				new double[] {13.192},
+				new int[] {1, 4, -1});
+	}
+}
@@ -0,0 +1,74 @@
+package ummisco.gama.chemmisol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.assertDoubleEquals;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.assertSameConcentrations;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.mineralSystem;
+import static ummisco.gama.chemmisol.ChemmisolSystemTest.phosphateSystem;
+
+import org.junit.Test;
+
+import ummisco.gama.chemmisol.ChemicalSystem.ChemmisolCoreException;
+
+/**
+ * Unit test for VectorizedEquilibriumSolver.
+ */
+public class VectorizedEquilibriumSolverTest 
+{
+	static {
+		ChemmisolSystemTest.loadChemmisolLibraries();
+	}
+
+	@Test
+	public void vectorizedEquilibriumSolver() throws ChemmisolCoreException {
+		double[] total_concentrations = {0.1, 0.2, 0.01, 0.27, 0.05};
+		double[] phs = {7.5, 6.0, 7.5, 8.0, 7.0};
+		ChemicalSystem[] systems = new ChemicalSystem[total_concentrations.length + 1];
+		ChemicalSystem[] expected = new ChemicalSystem[total_concentrations.length + 1];
+		try (ChemicalSystem prototype = phosphateSystem(EquilibriumEngine.NATIVE)) {
+			for(int i = 0; i < total_concentrations.length; i++) {
+				systems[i] = prototype.copy();
+				systems[i].setTotalConcentration(
+						systems[i].component("PO4-3"), total_concentrations[i]);
+				systems[i].fixPH(phs[i]);
+				expected[i] = systems[i].copy();
+			}
+			// A system with other definitions in the middle of the batch
+			systems[total_concentrations.length] = mineralSystem(EquilibriumEngine.NATIVE);
+			expected[total_concentrations.length] = mineralSystem(EquilibriumEngine.NATIVE);
+			ChemicalSpecies H4PO3 = new ChemicalSpecies("H4PO3", Phase.AQUEOUS);
+			systems[1].addSpecies(H4PO3);
+
+			VectorizedEquilibriumSolver solver = new VectorizedEquilibriumSolver(2);
+			assertEquals(2, solver.getLaneCount());
+			ChemmisolCoreException[] exceptions = solver.solve(systems, true);
+			for(int i = 0; i < systems.length; i++) {
+				assertNull(exceptions[i]);
+				expected[i].setUp();
+				expected[i].solve();
+				assertSameConcentrations(expected[i], systems[i]);
+				assertTrue(systems[i].getLastSolveResult().isConverged());
+			}
+			assertDoubleEquals(systems[1].concentration("H4PO3"), H4PO3.getConcentration());
+			assertDoubleEquals(
+					systems[3].concentration("PO4-3") + systems[3].concentration("H4PO3"),
+					0.27);
+
+			// Systems already at equilibrium are not solved again
+			exceptions = solver.solve(systems, false);
+			for(int i = 0; i < systems.length; i++) {
+				assertNull(exceptions[i]);
+				assertSameConcentrations(expected[i], systems[i]);
+			}
+		} finally {
+			for(int i = 0; i < systems.length; i++) {
+				if(systems[i] != null)
+					systems[i].close();
+				if(expected[i] != null)
+					expected[i].close();
+			}
+		}
+	}
+}